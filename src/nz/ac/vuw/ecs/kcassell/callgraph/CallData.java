@@ -32,7 +32,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.callgraph;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -43,11 +43,13 @@ import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseSearchUtils;
 import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+import nz.ac.vuw.ecs.kcassell.utils.TypeReferenceIndexer;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.IField;
 import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IMember;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IPackageFragment;
 import org.eclipse.jdt.core.IType;
@@ -143,65 +145,24 @@ public class CallData implements ParameterConstants {
 						.createJavaSearchScope(new IJavaElement[] { type });
 			}
 			
-			//TODO figure out where to store local vs. foreign
-//			List<IMember> allMembers = EclipseSearchUtils.getMembers(type, true);
-			
-			// methods
-			//Set<IMethod> calledMethods =
-				calculateCalledMethods(type, scope);
-//			Set<IMethod> allCalledMethods = EclipseSearchUtils.calculateCalledMethods(type);
-//			Set<IMethod> foreignCalledMethods = new HashSet<IMethod>(allCalledMethods);
-//			foreignCalledMethods.removeAll(locallyCalledMethods);
-			
-			// fields
-			collectFieldCallData(type, scope);
+			collectMethods(type);
+			collectFields(type);
+			collectReferenceData(type, scope);
 		} catch (CoreException e) {
-			logger.severe("CallData.calculateCalledMethods: " + e);
+			logger.severe("CallData.collectCallData: " + e);
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Calculates method calls internal to a class and stores them in
-	 * the methodsCalledMap (also the methodCalledByMap).
-	 * @param type the class of interest
-	 * @return all methods within this class that are called by methods
-	 *  within this class.
-	 * @throws CoreException 
-	 */
-	private Set<IMethod> calculateCalledMethods(IType type, IJavaSearchScope scope)
-			throws CoreException {
-		//TODO make consistent - this is now including inherited methods
-		// populates the calls and called-by maps
-		collectMethodCallData(type, scope);
-		
-		Collection<HashSet<IMethod>> values = methodsCalledMap.values();
-		HashSet<IMethod> calledMethods = new HashSet<IMethod>();
-		for (HashSet<IMethod> value : values) {
-			calledMethods.addAll(value);
-		}
-		return calledMethods;
-	}
-
-	/**
-	 * Gathers call information about methods calling methods within the given
-	 * class. This information is stored in the methodCalledByMap and
-	 * methodsCalledMap.
-	 * 
+	 * Collects the methods of the class (and optionally those of its
+	 * inner classes) into the methods set.
 	 * @param type the class to analyze
-	 * @param searchEngine
-	 * @param participants
-	 * @param scope the elements being examined, e.g. this class or this package
-	 * @param methodCollector gathers the search results
-	 * @return the collection of methods that access the indicated member
-	 * @throws CoreException 
+	 * @throws JavaModelException
 	 */
-	private void collectMethodCallData(IType type,
-			IJavaSearchScope scope)
-			throws CoreException {
+	private void collectMethods(IType type) throws JavaModelException {
 		List<IMethod> typeMethods =
 			EclipseSearchUtils.getMethods(type, includeInherited);
-		methods.addAll(typeMethods);
 
 		// Optionally include information about methods belonging to
 		// inner classes.  NOTE: this is not recursive currently.
@@ -218,42 +179,15 @@ public class CallData implements ParameterConstants {
 			}
 		}
 		methods.addAll(typeMethods);
-
-		// Update the stored information about the methods of the class
-		for (IMethod method : methods) {
-			// Update the methodCalledByMap for typeMethods[i]
-			try {
-				Set<IMethod> callers = EclipseSearchUtils.calculateCallingMethods(method, scope);
-				methodCalledByMap.put(method, new HashSet<IMethod>(callers));
-
-				// Update the methodsCalledMap for method
-				for (IMethod caller : callers) {
-					HashSet<IMethod> calleesL = methodsCalledMap.get(caller);
-					if (calleesL == null) {
-						calleesL = new HashSet<IMethod>();
-					}
-					calleesL.add(method);
-					methodsCalledMap.put(caller, calleesL);
-				}
-			} catch (CoreException e) {
-				logger.warning("CallData.collectMethodCallData: " + e);
-				e.printStackTrace();
-			}
-		}
 	}
 
 	/**
-	 * Gathers call information about methods accessing fields within the given
-	 * class. This information is stored in the attributeAccessedByMap and
-	 * attributesAccessedMap.
-	 * 
+	 * Collects the fields of the class (and optionally those of its
+	 * inner classes) into the attributes set.
 	 * @param type the class to analyze
-	 * @param scope the elements being examined, e.g. this class or this package
-	 * @param methodCollector gathers the search results
-	 * @throws CoreException 
+	 * @throws JavaModelException
 	 */
-	private void collectFieldCallData(IType type, IJavaSearchScope scope)
-	throws CoreException {
+	private void collectFields(IType type) throws JavaModelException {
 		List<IField> typeFields =
 			EclipseSearchUtils.getFields(type, includeInherited);
 		
@@ -272,29 +206,53 @@ public class CallData implements ParameterConstants {
 			}
 		}
 		attributes.addAll(typeFields);
+	}
+
+	/**
+	 * Gathers information about the methods calling methods and accessing
+	 * fields within the given class. This information is stored in the
+	 * methodCalledByMap, methodsCalledMap, attributeAccessedByMap and
+	 * attributesAccessedMap.  The class's source is walked once for all
+	 * members; a single search locates any other callers when the scope
+	 * extends beyond the class.
+	 * @param type the class to analyze
+	 * @param scope the elements being examined, e.g. this class or this package
+	 * @throws CoreException 
+	 */
+	private void collectReferenceData(IType type, IJavaSearchScope scope)
+	throws CoreException {
+		List<IMember> members = new ArrayList<IMember>(methods);
+		members.addAll(attributes);
+		TypeReferenceIndexer indexer = new TypeReferenceIndexer(members);
+		indexer.indexReferences(type, scope, includeInherited);
+
+		for (IMethod method : methods) {
+			Set<IMethod> callers = indexer.getCallingMethods(method);
+			methodCalledByMap.put(method, new HashSet<IMethod>(callers));
+
+			// Update the methodsCalledMap for method
+			for (IMethod caller : callers) {
+				HashSet<IMethod> calleesL = methodsCalledMap.get(caller);
+				if (calleesL == null) {
+					calleesL = new HashSet<IMethod>();
+					methodsCalledMap.put(caller, calleesL);
+				}
+				calleesL.add(method);
+			}
+		}
 
-		// Update the stored information about the fields of the class
 		for (IField attribute : attributes) {
-			// Update the fieldCalledByMap for attribute
-			try {
-				Set<IMethod> callers = EclipseSearchUtils.calculateCallingMethods(
-						attribute, scope);
-				attributeAccessedByMap.put(attribute, new HashSet<IMethod>(
-						callers));
-
-				// Update the fieldsCalledMap for attribute
-				for (IMethod caller : callers) {
-					HashSet<IField> calleesL = attributesAccessedMap
-							.get(caller);
-					if (calleesL == null) {
-						calleesL = new HashSet<IField>();
-					}
-					calleesL.add(attribute);
+			Set<IMethod> callers = indexer.getCallingMethods(attribute);
+			attributeAccessedByMap.put(attribute, new HashSet<IMethod>(callers));
+
+			// Update the attributesAccessedMap for attribute
+			for (IMethod caller : callers) {
+				HashSet<IField> calleesL = attributesAccessedMap.get(caller);
+				if (calleesL == null) {
+					calleesL = new HashSet<IField>();
 					attributesAccessedMap.put(caller, calleesL);
 				}
-			} catch (CoreException e) {
-				logger.warning("CallData.collectFieldCallData: " + e);
-				e.printStackTrace();
+				calleesL.add(attribute);
 			}
 		}
 	}
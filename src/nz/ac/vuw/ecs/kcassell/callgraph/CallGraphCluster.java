@@ -62,6 +62,13 @@ public class CallGraphCluster extends CallGraphNode
     
     /** The (recursive) count of all subnodes. */
     protected int nodeCount = 0;
+
+    /** The leaf nodes (including those in subclusters), computed when first
+     *  needed.  The subnodes never change, so neither does this. */
+    protected SortedSet<CallGraphNode> elements = null;
+
+    /** The comparator that ordered the elements. */
+    protected Comparator<CallGraphNode> elementsComparator = null;
     
     protected static CallGraphClusterComparator clusterComparator =
         new CallGraphClusterComparator();
@@ -121,22 +128,31 @@ public class CallGraphCluster extends CallGraphNode
         this.nodes.addAll(nodes);
     }
 
-    /* (non-Javadoc)
+    /**
+     * The leaf nodes are gathered once (from the subclusters' own sets) and
+     * then shared, so the set can not be modified.  It is only rebuilt if
+     * the comparator is changed.
+     * @return the leaf nodes (including those in subclusters)
 	 * @see nz.ac.vuw.ecs.kcassell.callgraph.ClusterIfc#getElements()
 	 */
-    public SortedSet<CallGraphNode> getElements()
+    public synchronized SortedSet<CallGraphNode> getElements()
     {
-    	SortedSet<CallGraphNode> elements =
-    		new TreeSet<CallGraphNode>(comparator);
-    	
-    	for (CallGraphNode node : nodes) {
-    		if (node instanceof CallGraphCluster) {
-    			CallGraphCluster cluster = (CallGraphCluster)node;
-    			SortedSet<CallGraphNode> subElements = cluster.getElements();
-    			elements.addAll(subElements);
-    		} else { // unclustered node
-    			elements.add(node);
+    	if (elements == null || elementsComparator != comparator) {
+    		Comparator<CallGraphNode> sortOrder = comparator;
+    		SortedSet<CallGraphNode> leaves =
+    			new TreeSet<CallGraphNode>(sortOrder);
+
+    		for (CallGraphNode node : nodes) {
+    			if (node instanceof CallGraphCluster) {
+    				CallGraphCluster cluster = (CallGraphCluster)node;
+    				SortedSet<CallGraphNode> subElements = cluster.getElements();
+    				leaves.addAll(subElements);
+    			} else { // unclustered node
+    				leaves.add(node);
+    			}
     		}
+    		elements = Collections.unmodifiableSortedSet(leaves);
+    		elementsComparator = sortOrder;
     	}
         return elements;
     }
@@ -33,7 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.callgraph;
 
 import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.SortedSet;
 
 
 /**
@@ -47,10 +47,8 @@ public class CallGraphClusterComparator implements Comparator<CallGraphCluster>
     public int compare(CallGraphCluster cluster1, CallGraphCluster cluster2)
     {
         int result = 0;
-        TreeSet<CallGraphNode> nodes1 =
-            (TreeSet<CallGraphNode>)cluster1.getElements();
-        TreeSet<CallGraphNode> nodes2 =
-            (TreeSet<CallGraphNode>)cluster2.getElements();
+        SortedSet<CallGraphNode> nodes1 = cluster1.getElements();
+        SortedSet<CallGraphNode> nodes2 = cluster2.getElements();
         
         if (nodes1 == null || nodes1.isEmpty())
         {
@@ -32,8 +32,8 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.callgraph;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.collections15.Factory;
 import org.apache.commons.collections15.Transformer;
@@ -47,7 +47,7 @@ public class CallGraphLink implements Comparable<CallGraphLink> {
 	private static final String GRAPHML_LABEL = "label";
 
 	/** A collection of various weights. */
-	protected HashMap<String, Number> weights = new HashMap<String, Number>();
+	protected ScoreSlots weights = new ScoreSlots();
 
 //	private double weight;
 	protected static int generatedId = 0;
@@ -78,7 +78,45 @@ public class CallGraphLink implements Comparable<CallGraphLink> {
 	}
 
 	public void setWeight(String String, Number weight) {
-		weights.put(String, weight);
+		weights.set(String, weight);
+	}
+
+	/**
+	 * @return the weight used for labels without boxing, or Double.NaN if
+	 * it has not been set
+	 */
+	public double getWeightValue() {
+		return weights.getValue(weightTypeForLabel);
+	}
+
+	public void setWeight(double weight) {
+		weights.setValue(weightTypeForLabel, weight);
+	}
+
+	/**
+	 * @return the indicated weight without boxing, or Double.NaN if it
+	 * has not been set
+	 */
+	public double getWeightValue(String weightType) {
+		return weights.getValue(weightType);
+	}
+
+	public void setWeight(String weightType, double weight) {
+		weights.setValue(weightType, weight);
+	}
+
+	/**
+	 * @return true if a weight of the indicated type has been set
+	 */
+	public boolean hasWeight(String weightType) {
+		return weights.contains(weightType);
+	}
+
+	/**
+	 * @return the types of the weights that have been set for this link
+	 */
+	public Set<String> getWeightTypes() {
+		return weights.getTypes();
 	}
 
 	public int getId() {
@@ -115,9 +153,8 @@ public class CallGraphLink implements Comparable<CallGraphLink> {
 		StringBuffer buf = new StringBuffer();
 
 		if (showToString) {
-			Number weightN = getWeight(weightTypeForLabel);
-			Double weight = (weightN == null) ? null : weightN.doubleValue();
-			if ((weight != null) && !Double.isNaN(weight)) {
+			double weight = getWeightValue(weightTypeForLabel);
+			if (!Double.isNaN(weight)) {
 				buf.append(String.format("%.1f", weight));
 			}
 		}
@@ -245,24 +282,20 @@ public class CallGraphLink implements Comparable<CallGraphLink> {
 			result = 1;
 		}
 		else {
-			Number weight = getWeight(weightTypeForLabel);
-			Number otherWeight = other.getWeight(weightTypeForLabel);
+			boolean hasWeight = weights.contains(weightTypeForLabel);
+			boolean otherHasWeight = other.hasWeight(weightTypeForLabel);
 			
-			if ((weight == null) && (otherWeight == null)) {
+			if (!hasWeight && !otherHasWeight) {
 				result = id - other.getId();
 			}
-			else if (weight == null) {
+			else if (!hasWeight) {
 				result = -1;
-			} else {
-				Double weightD = weight.doubleValue();
-				
-				if (otherWeight == null) {
-					result = 1;
-				}
-				else {
-					Double otherWeightD = otherWeight.doubleValue();
-					result = weightD.compareTo(otherWeightD);
-				}
+			} else if (!otherHasWeight) {
+				result = 1;
+			}
+			else {
+				result = Double.compare(weights.getValue(weightTypeForLabel),
+						other.getWeightValue(weightTypeForLabel));
 			}
 		}
 		return result;
@@ -35,8 +35,8 @@ package nz.ac.vuw.ecs.kcassell.callgraph;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.collections15.Factory;
 import org.apache.commons.collections15.Transformer;
@@ -87,7 +87,7 @@ public class CallGraphNode {
 	protected String simpleName;
 
 	/** A collection of various scores. */
-	protected HashMap<String, Number> scores = new HashMap<String, Number>();
+	protected ScoreSlots scores = new ScoreSlots();
 
 	/** Any data a program wants to associate with a node. */
 	protected Object userData = null;
@@ -173,7 +173,33 @@ public class CallGraphNode {
 	}
 
 	public void setScore(String String, Number score) {
-		scores.put(String, score);
+		scores.set(String, score);
+	}
+
+	/**
+	 * @return the indicated score without boxing, or Double.NaN if it
+	 * has not been set
+	 */
+	public double getScoreValue(String scoreType) {
+		return scores.getValue(scoreType);
+	}
+
+	public void setScore(String scoreType, double score) {
+		scores.setValue(scoreType, score);
+	}
+
+	/**
+	 * @return true if a score of the indicated type has been set
+	 */
+	public boolean hasScore(String scoreType) {
+		return scores.contains(scoreType);
+	}
+
+	/**
+	 * @return the types of the scores that have been set for this node
+	 */
+	public Set<String> getScoreTypes() {
+		return scores.getTypes();
 	}
 
 	public String getScoreTypeForLabel() {
@@ -249,9 +275,8 @@ public class CallGraphNode {
 				buf.append(label);
 			}
 
-			Number scoreN = getScore(scoreTypeForLabel);
-			Double score = (scoreN == null) ? null : scoreN.doubleValue();
-			if ((score != null) && !Double.isNaN(score)) {
+			double score = getScoreValue(scoreTypeForLabel);
+			if (!Double.isNaN(score)) {
 				buf.append("(").append(String.format("%.1f", score))
 						.append(")");
 			}
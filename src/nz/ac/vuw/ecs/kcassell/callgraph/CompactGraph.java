@@ -0,0 +1,285 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.callgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.UndirectedGraph;
+import edu.uci.ics.jung.graph.util.Pair;
+
+/**
+ * This is a read-only snapshot of a JUNG graph (e.g. the graph of a
+ * JavaCallGraph) in compressed sparse row form.  Vertices and edges are
+ * numbered from 0, and the arcs leaving vertex v are
+ * arcTargets[arcOffsets[v]] .. arcTargets[arcOffsets[v + 1] - 1], with
+ * arcEdges giving the edge each arc follows.  The arrays returned by the
+ * accessors are the snapshot's own and must not be modified.
+ * @author Keith
+ */
+public class CompactGraph<V, E> {
+
+	/** The vertices, in the order of their numbers. */
+	protected List<V> vertices = null;
+
+	/** The number of each vertex. */
+	protected HashMap<V, Integer> vertexIndex = new HashMap<V, Integer>();
+
+	/** The edges, in the order of their numbers. */
+	protected List<E> edges = null;
+
+	/** The number of each edge. */
+	protected HashMap<E, Integer> edgeIndex = new HashMap<E, Integer>();
+
+	/** The ends of each edge (by vertex number). */
+	protected int[] edgeEnd1 = null;
+	protected int[] edgeEnd2 = null;
+
+	/** Where each vertex's arcs start in arcTargets and arcEdges,
+	 * followed by the total number of arcs. */
+	protected int[] arcOffsets = null;
+
+	/** The vertex each arc leads to. */
+	protected int[] arcTargets = null;
+
+	/** The edge each arc follows. */
+	protected int[] arcEdges = null;
+
+	/** Where each vertex's edges start in incidentEdges,
+	 * followed by the length of incidentEdges. */
+	protected int[] incidentOffsets = null;
+
+	/** The edges touching each vertex, regardless of direction. */
+	protected int[] incidentEdges = null;
+
+	/** Whether the original graph was an UndirectedGraph. */
+	protected boolean undirected = false;
+
+	/**
+	 * Creates a snapshot with an arc for each out edge of each vertex.
+	 * @param graph the graph to copy
+	 */
+	public CompactGraph(Graph<V, E> graph) {
+		this(graph, false, Collections.<E>emptySet());
+	}
+
+	/**
+	 * Creates a snapshot of the graph without the excluded edges.
+	 * @param graph the graph to copy
+	 * @param successorArcs if true, there is one arc from a vertex to
+	 * each of its successors, following the first edge between them
+	 * (as graph.findEdge would find it) rather than one arc per out edge
+	 * @param excludedEdges edges to leave out of the snapshot
+	 */
+	public CompactGraph(Graph<V, E> graph, boolean successorArcs,
+			Collection<E> excludedEdges) {
+		Set<E> excluded = new HashSet<E>(excludedEdges);
+		undirected = graph instanceof UndirectedGraph<?, ?>;
+		vertices = new ArrayList<V>(graph.getVertices());
+		edges = new ArrayList<E>();
+		int numVertices = vertices.size();
+
+		for (int v = 0; v < numVertices; v++) {
+			vertexIndex.put(vertices.get(v), v);
+		}
+		for (E edge : graph.getEdges()) {
+			if (!excluded.contains(edge)) {
+				edgeIndex.put(edge, edges.size());
+				edges.add(edge);
+			}
+		}
+		int numEdges = edges.size();
+		edgeEnd1 = new int[numEdges];
+		edgeEnd2 = new int[numEdges];
+		for (int e = 0; e < numEdges; e++) {
+			Pair<V> ends = graph.getEndpoints(edges.get(e));
+			edgeEnd1[e] = vertexIndex.get(ends.getFirst());
+			edgeEnd2[e] = vertexIndex.get(ends.getSecond());
+		}
+		buildArcs(graph, successorArcs);
+		buildIncidentEdges();
+	}
+
+	/**
+	 * Creates the arcs from each vertex's out edges.
+	 */
+	protected void buildArcs(Graph<V, E> graph, boolean successorArcs) {
+		int numVertices = vertices.size();
+		arcOffsets = new int[numVertices + 1];
+		int[] targets = new int[16];
+		int[] arcEdgeNumbers = new int[16];
+		int numArcs = 0;
+		// the vertex whose arcs last led to each vertex
+		int[] lastSource = new int[numVertices];
+		Arrays.fill(lastSource, -1);
+
+		for (int v = 0; v < numVertices; v++) {
+			arcOffsets[v] = numArcs;
+			for (E edge : graph.getOutEdges(vertices.get(v))) {
+				Integer e = edgeIndex.get(edge);
+				if (e != null) {
+					int w = (edgeEnd1[e] == v) ? edgeEnd2[e] : edgeEnd1[e];
+					if (!successorArcs || lastSource[w] != v) {
+						lastSource[w] = v;
+						if (numArcs == targets.length) {
+							targets = grow(targets);
+							arcEdgeNumbers = grow(arcEdgeNumbers);
+						}
+						targets[numArcs] = w;
+						arcEdgeNumbers[numArcs] = e;
+						numArcs++;
+					}
+				}
+			}
+		}
+		arcOffsets[numVertices] = numArcs;
+		arcTargets = new int[numArcs];
+		arcEdges = new int[numArcs];
+		System.arraycopy(targets, 0, arcTargets, 0, numArcs);
+		System.arraycopy(arcEdgeNumbers, 0, arcEdges, 0, numArcs);
+	}
+
+	private static int[] grow(int[] array) {
+		int[] bigger = new int[array.length * 2];
+		System.arraycopy(array, 0, bigger, 0, array.length);
+		return bigger;
+	}
+
+	/**
+	 * Lists the edges touching each vertex (a self loop is listed once).
+	 */
+	protected void buildIncidentEdges() {
+		int numVertices = vertices.size();
+		int numEdges = edges.size();
+		incidentOffsets = new int[numVertices + 1];
+		for (int e = 0; e < numEdges; e++) {
+			incidentOffsets[edgeEnd1[e] + 1]++;
+			if (edgeEnd2[e] != edgeEnd1[e]) {
+				incidentOffsets[edgeEnd2[e] + 1]++;
+			}
+		}
+		for (int v = 0; v < numVertices; v++) {
+			incidentOffsets[v + 1] += incidentOffsets[v];
+		}
+		incidentEdges = new int[incidentOffsets[numVertices]];
+		int[] filled = new int[numVertices];
+		for (int e = 0; e < numEdges; e++) {
+			int v1 = edgeEnd1[e];
+			incidentEdges[incidentOffsets[v1] + filled[v1]++] = e;
+			int v2 = edgeEnd2[e];
+			if (v2 != v1) {
+				incidentEdges[incidentOffsets[v2] + filled[v2]++] = e;
+			}
+		}
+	}
+
+	public int getVertexCount() {
+		return vertices.size();
+	}
+
+	public int getEdgeCount() {
+		return edges.size();
+	}
+
+	public V getVertex(int v) {
+		return vertices.get(v);
+	}
+
+	public E getEdge(int e) {
+		return edges.get(e);
+	}
+
+	/**
+	 * @return the number of the vertex, or -1 if it is not in the snapshot
+	 */
+	public int getVertexIndex(V vertex) {
+		Integer index = vertexIndex.get(vertex);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * @return the number of the edge, or -1 if it is not in the snapshot
+	 */
+	public int getEdgeIndex(E edge) {
+		Integer index = edgeIndex.get(edge);
+		return (index == null) ? -1 : index;
+	}
+
+	public List<V> getVertices() {
+		return vertices;
+	}
+
+	public List<E> getEdges() {
+		return edges;
+	}
+
+	public int[] getEdgeEnd1() {
+		return edgeEnd1;
+	}
+
+	public int[] getEdgeEnd2() {
+		return edgeEnd2;
+	}
+
+	public int[] getArcOffsets() {
+		return arcOffsets;
+	}
+
+	public int[] getArcTargets() {
+		return arcTargets;
+	}
+
+	public int[] getArcEdges() {
+		return arcEdges;
+	}
+
+	public int[] getIncidentOffsets() {
+		return incidentOffsets;
+	}
+
+	public int[] getIncidentEdges() {
+		return incidentEdges;
+	}
+
+	public boolean isUndirected() {
+		return undirected;
+	}
+
+}
@@ -53,7 +53,7 @@ public class DegreeTransformer extends EdgeWeightTransformer {
 		Pair<CallGraphNode> endpoints = originalGraph.getEndpoints(link);
 		CallGraphNode node1 = endpoints.getFirst();
 		CallGraphNode node2 = endpoints.getSecond();
-		Double distance = 5.0;
+		double distance = 5.0;
 		if (node1.getNodeType() == NodeType.FIELD
 				|| node2.getNodeType() == NodeType.FIELD) {
 			distance = 1.0;
@@ -42,6 +42,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import nz.ac.vuw.ecs.kcassell.callgraph.io.CallGraphCache;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseSearchUtils;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
@@ -160,7 +161,9 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 	}
 	
 	/**
-	 * Builds a JavaCallGraph based on an Eclipse handle
+	 * Builds a JavaCallGraph based on an Eclipse handle.  The graph is
+	 * taken from the CallGraphCache when the class hasn't changed since
+	 * it was last built; otherwise it is built from Eclipse searches.
 	 * @param handle the Eclipse handle (uid)
 	 * @param edgeType directed/undirected
 	 * @throws JavaModelException
@@ -168,12 +171,18 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 	public JavaCallGraph(String handle, EdgeType edgeType)
 			throws JavaModelException {
 		getParameters();
-		CallData callData = EclipseUtils.createCallData(handle);
 		this.handle = handle;
 		IJavaElement element = JavaCore.create(handle);
 		setName(element.getElementName());
 		setDefaultEdgeType(edgeType);
-		processCallData(callData);
+		boolean useCache = CallGraphCache.isEnabled();
+		if (!useCache || !CallGraphCache.getSingleton().load(this)) {
+			CallData callData = EclipseUtils.createCallData(handle);
+			processCallData(callData);
+			if (useCache && callData != null) {
+				CallGraphCache.getSingleton().store(this);
+			}
+		}
 	}
 
 	private void getParameters() {
@@ -84,26 +84,20 @@ public class ScoreComparator implements Comparator<CallGraphNode> {
 		} else if (node2 == null) {
 			result = 1;
 		} else {
-			Number score1 = node1.getScore(scoreBeingCompared);
-			Number score2 = node2.getScore(scoreBeingCompared);
+			// Unset scores come back as NaN, the same as UNKNOWN_SCORE
+			double score1 = node1.getScoreValue(scoreBeingCompared);
+			double score2 = node2.getScoreValue(scoreBeingCompared);
 			int id1 = node1.getId();
 			int id2 = node2.getId();
 
-			if ((CallGraphNode.UNKNOWN_SCORE.equals(score1) && CallGraphNode.UNKNOWN_SCORE
-					.equals(score2))
-					|| ((score1 == null) && (score2 == null)))
-
-			{
+			if (Double.isNaN(score1) && Double.isNaN(score2)) {
 				result = id1 - id2;
-			} else if (CallGraphNode.UNKNOWN_SCORE.equals(score1)
-					|| (score1 == null)) {
+			} else if (Double.isNaN(score1)) {
 				result = -1;
-			} else if (CallGraphNode.UNKNOWN_SCORE.equals(score2)
-					|| (score2 == null)) {
+			} else if (Double.isNaN(score2)) {
 				result = 1;
 			} else {
-				result = (int) Math.signum(score1.doubleValue()
-						- score2.doubleValue());
+				result = (int) Math.signum(score1 - score2);
 
 				if (result == 0) {
 					result = id1 - id2;
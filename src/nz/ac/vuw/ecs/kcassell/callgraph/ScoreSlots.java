@@ -0,0 +1,203 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.callgraph;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Holds the named scores of a node or the named weights of a link.  The
+ * score types that the graph algorithms compute (see SLOT_TYPES) live in a
+ * primitive array, so betweenness, HITS, degree and layout code can read and
+ * write them without boxing.  Any other score type, e.g. a metric name from
+ * net.sourceforge.metrics.core.Constants, goes into an overflow map that is
+ * only created when first needed.
+ * @author kcassell
+ */
+public class ScoreSlots {
+
+	/**
+	 * The score types that have a primitive slot, in slot order.  ScoreType
+	 * is an interface of String constants rather than an enum, so this table
+	 * plays the role of its ordinals.
+	 */
+	protected static final String[] SLOT_TYPES = {
+		ScoreType.BASIC,
+		ScoreType.AUTHORITY,
+		ScoreType.CENTRALITY,
+		ScoreType.HUB,
+		ScoreType.INDEGREE,
+		ScoreType.OUTDEGREE
+	};
+
+	/** The values of the slotted score types, indexed by slot. */
+	protected final double[] values = new double[SLOT_TYPES.length];
+
+	/** Bit i is set when slot i holds a value. */
+	protected int present = 0;
+
+	/** Scores whose types have no slot; null until one is set. */
+	protected HashMap<String, Number> overflow = null;
+
+	/**
+	 * @param scoreType the name of a score type
+	 * @return the slot for the score type, or -1 if it has none
+	 */
+	public static int getSlot(String scoreType) {
+		// The constants are interned, so the identity test nearly always hits
+		for (int i = 0; i < SLOT_TYPES.length; i++) {
+			if (SLOT_TYPES[i] == scoreType) {
+				return i;
+			}
+		}
+		for (int i = 0; i < SLOT_TYPES.length; i++) {
+			if (SLOT_TYPES[i].equals(scoreType)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if a value of the indicated type has been set
+	 */
+	public boolean contains(String scoreType) {
+		boolean result = false;
+		int slot = getSlot(scoreType);
+
+		if (slot >= 0) {
+			result = (present & (1 << slot)) != 0;
+		} else if (overflow != null) {
+			result = overflow.containsKey(scoreType);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the value of the indicated type, or Double.NaN if there is
+	 * none.  Use contains to tell an unset value from a NaN one.
+	 */
+	public double getValue(String scoreType) {
+		double result = Double.NaN;
+		int slot = getSlot(scoreType);
+
+		if (slot >= 0) {
+			if ((present & (1 << slot)) != 0) {
+				result = values[slot];
+			}
+		} else if (overflow != null) {
+			Number number = overflow.get(scoreType);
+			if (number != null) {
+				result = number.doubleValue();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the value of the indicated type, or null if there is none.
+	 * Slotted values come back as Doubles.
+	 */
+	public Number get(String scoreType) {
+		Number result = null;
+		int slot = getSlot(scoreType);
+
+		if (slot >= 0) {
+			if ((present & (1 << slot)) != 0) {
+				result = values[slot];
+			}
+		} else if (overflow != null) {
+			result = overflow.get(scoreType);
+		}
+		return result;
+	}
+
+	public void setValue(String scoreType, double value) {
+		int slot = getSlot(scoreType);
+
+		if (slot >= 0) {
+			values[slot] = value;
+			present |= 1 << slot;
+		} else {
+			getOverflow().put(scoreType, value);
+		}
+	}
+
+	/**
+	 * Sets the value of the indicated type.  A null value removes it.
+	 */
+	public void set(String scoreType, Number value) {
+		int slot = getSlot(scoreType);
+
+		if (slot >= 0) {
+			if (value == null) {
+				present &= ~(1 << slot);
+			} else {
+				values[slot] = value.doubleValue();
+				present |= 1 << slot;
+			}
+		} else if (value != null) {
+			getOverflow().put(scoreType, value);
+		} else if (overflow != null) {
+			overflow.remove(scoreType);
+		}
+	}
+
+	/**
+	 * @return the types of the values that have been set, slotted types
+	 * first in slot order
+	 */
+	public Set<String> getTypes() {
+		Set<String> types = new LinkedHashSet<String>();
+
+		for (int i = 0; i < SLOT_TYPES.length; i++) {
+			if ((present & (1 << i)) != 0) {
+				types.add(SLOT_TYPES[i]);
+			}
+		}
+		if (overflow != null) {
+			types.addAll(overflow.keySet());
+		}
+		return Collections.unmodifiableSet(types);
+	}
+
+	protected HashMap<String, Number> getOverflow() {
+		if (overflow == null) {
+			overflow = new HashMap<String, Number>(4);
+		}
+		return overflow;
+	}
+
+}
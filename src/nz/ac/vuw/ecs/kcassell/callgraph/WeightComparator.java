@@ -76,22 +76,20 @@ public class WeightComparator implements Comparator<CallGraphLink> {
 	// @Override
 	public int compare(CallGraphLink link1, CallGraphLink link2) {
 		int result = 0;
-		Number weight1 = link1.getWeight(weightBeingCompared);
-		Number weight2 = link2.getWeight(weightBeingCompared);
+		boolean hasWeight1 = link1.hasWeight(weightBeingCompared);
+		boolean hasWeight2 = link2.hasWeight(weightBeingCompared);
 		int id1 = link1.getId();
 		int id2 = link2.getId();
 
-		if ((weight1 == null) && (weight2 == null))
-
-		{
+		if (!hasWeight1 && !hasWeight2) {
 			result = id1 - id2;
-		} else if (weight1 == null) {
+		} else if (!hasWeight1) {
 			result = -1;
-		} else if (weight2 == null) {
+		} else if (!hasWeight2) {
 			result = 1;
 		} else {
-			result = (int) Math.signum(weight1.doubleValue()
-					- weight2.doubleValue());
+			result = (int) Math.signum(link1.getWeightValue(weightBeingCompared)
+					- link2.getWeightValue(weightBeingCompared));
 
 			if (result == 0) {
 				result = id1 - id2;
@@ -0,0 +1,315 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.callgraph.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.CompactGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.ScoreType;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+
+/**
+ * This calculates the (unweighted) betweenness of the vertices and edges
+ * of a CompactGraph using Brandes' algorithm, following the graph's arcs.
+ * As with JUNG's betweenness calculations, the values are halved for
+ * undirected graphs.  The source vertices are split among several
+ * threads, each with its own accumulators, which are summed at the end.
+ * @see "A Faster Algorithm for Betweenness Centrality", Ulrik Brandes, 2001.
+ * @author Keith
+ */
+public class BrandesBetweenness {
+
+	/** The fewest source vertices worth giving a thread of their own. */
+	protected static final int MIN_SOURCES_PER_THREAD = 32;
+
+	/** The graph whose betweenness is calculated. */
+	protected CompactGraph<?, ?> graph = null;
+
+	/** Edges to treat as absent (may be null). */
+	protected boolean[] removedEdges = null;
+
+	/** The betweenness of each edge. */
+	protected double[] edgeScores = null;
+
+	/** The betweenness of each vertex. */
+	protected double[] vertexScores = null;
+
+	/** Accumulators kept for reuse by later calculations. */
+	protected List<Accumulator> accumulatorPool = new ArrayList<Accumulator>();
+
+	public BrandesBetweenness(CompactGraph<?, ?> graph) {
+		this.graph = graph;
+		edgeScores = new double[graph.getEdgeCount()];
+		vertexScores = new double[graph.getVertexCount()];
+	}
+
+	/**
+	 * @param removedEdges true for each edge to be treated as absent
+	 * (the array is used, not copied), or null if all edges are present
+	 */
+	public void setRemovedEdges(boolean[] removedEdges) {
+		this.removedEdges = removedEdges;
+	}
+
+	/**
+	 * Calculates betweenness over all source vertices, using the number
+	 * of threads determined by a user preference/parameter.
+	 */
+	public void calculate() {
+		ApplicationParameters params = ApplicationParameters.getSingleton();
+		int parallelism =
+			params.getIntParameter(ParameterConstants.PARALLELISM_KEY, 1);
+		calculate(parallelism);
+	}
+
+	/**
+	 * Calculates betweenness over all source vertices.
+	 * @param parallelism the maximum number of threads to use;
+	 * zero or less means one per available processor
+	 */
+	public void calculate(int parallelism) {
+		int numVertices = graph.getVertexCount();
+		int[] sources = new int[numVertices];
+		for (int v = 0; v < numVertices; v++) {
+			sources[v] = v;
+		}
+		calculate(sources, numVertices, parallelism);
+	}
+
+	/**
+	 * Calculates the contributions to betweenness of paths starting at the
+	 * specified sources.  When the sources make up one or more whole
+	 * connected components, these are the betweenness values of the
+	 * components' vertices and edges.  Scores for vertices and edges not
+	 * reachable from the sources are zero.
+	 * @param sources the source vertices
+	 * @param numSources the number of sources to use from the array
+	 * @param parallelism the maximum number of threads to use;
+	 * zero or less means one per available processor
+	 */
+	public void calculate(final int[] sources, int numSources,
+			int parallelism) {
+		int numThreads = (parallelism > 0)
+			? parallelism : Runtime.getRuntime().availableProcessors();
+		numThreads = Math.max(1,
+				Math.min(numThreads, numSources / MIN_SOURCES_PER_THREAD));
+		while (accumulatorPool.size() < numThreads) {
+			accumulatorPool.add(new Accumulator());
+		}
+		List<Accumulator> accumulators =
+			accumulatorPool.subList(0, numThreads);
+		for (Accumulator accumulator : accumulators) {
+			accumulator.clear();
+		}
+
+		if (numThreads == 1) {
+			accumulators.get(0).accumulate(sources, 0, numSources);
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+			try {
+				for (int t = 0; t < numThreads; t++) {
+					final Accumulator accumulator = accumulators.get(t);
+					final int start = (int)((long)numSources * t / numThreads);
+					final int end =
+						(int)((long)numSources * (t + 1) / numThreads);
+					futures.add(executor.submit(new Callable<Object>() {
+						public Object call() {
+							accumulator.accumulate(sources, start, end);
+							return null;
+						}
+					}));
+				}
+				for (Future<Object> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(
+						"Interrupted calculating betweenness", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		mergeAccumulators(accumulators);
+	}
+
+	/**
+	 * Sums the threads' accumulators into the scores, halving them for
+	 * undirected graphs.  They are summed in a fixed order so the
+	 * results don't vary from run to run.
+	 */
+	protected void mergeAccumulators(List<Accumulator> accumulators) {
+		double scale = graph.isUndirected() ? 0.5 : 1.0;
+		for (int e = 0; e < edgeScores.length; e++) {
+			double score = 0.0;
+			for (Accumulator accumulator : accumulators) {
+				score += accumulator.edgeSums[e];
+			}
+			edgeScores[e] = score * scale;
+		}
+		for (int v = 0; v < vertexScores.length; v++) {
+			double score = 0.0;
+			for (Accumulator accumulator : accumulators) {
+				score += accumulator.vertexSums[v];
+			}
+			vertexScores[v] = score * scale;
+		}
+	}
+
+	/**
+	 * The betweenness sums and work areas for one thread.
+	 */
+	protected class Accumulator {
+		protected double[] edgeSums = new double[graph.getEdgeCount()];
+		protected double[] vertexSums = new double[graph.getVertexCount()];
+		private int[] distance = new int[graph.getVertexCount()];
+		private double[] pathCounts = new double[graph.getVertexCount()];
+		private double[] dependency = new double[graph.getVertexCount()];
+		private int[] visitOrder = new int[graph.getVertexCount()];
+
+		protected void clear() {
+			Arrays.fill(edgeSums, 0.0);
+			Arrays.fill(vertexSums, 0.0);
+		}
+
+		/**
+		 * Adds the dependencies of sources[start] .. sources[end - 1].
+		 */
+		protected void accumulate(int[] sources, int start, int end) {
+			for (int i = start; i < end; i++) {
+				accumulateFromSource(sources[i]);
+			}
+		}
+
+		/**
+		 * Adds the dependencies of the source on each vertex and edge.
+		 * Dependencies are accumulated from the farthest vertices back
+		 * along the arcs of shortest paths, so no predecessor lists are
+		 * needed.
+		 */
+		protected void accumulateFromSource(int source) {
+			int[] offsets = graph.getArcOffsets();
+			int[] targets = graph.getArcTargets();
+			int[] arcEdges = graph.getArcEdges();
+			int head = 0;
+			int tail = 0;
+			visitOrder[tail++] = source;
+			distance[source] = 0;
+			pathCounts[source] = 1.0;
+			dependency[source] = 0.0;
+
+			// Breadth first search, counting shortest paths
+			while (head < tail) {
+				int v = visitOrder[head++];
+				for (int arc = offsets[v]; arc < offsets[v + 1]; arc++) {
+					if (removedEdges == null || !removedEdges[arcEdges[arc]]) {
+						int w = targets[arc];
+						if (pathCounts[w] == 0.0) {
+							distance[w] = distance[v] + 1;
+							dependency[w] = 0.0;
+							visitOrder[tail++] = w;
+						}
+						if (distance[w] == distance[v] + 1) {
+							pathCounts[w] += pathCounts[v];
+						}
+					}
+				}
+			}
+			// Accumulate dependencies farthest first
+			for (int i = tail - 1; i >= 0; i--) {
+				int v = visitOrder[i];
+				for (int arc = offsets[v]; arc < offsets[v + 1]; arc++) {
+					int e = arcEdges[arc];
+					int w = targets[arc];
+					if ((removedEdges == null || !removedEdges[e])
+							&& distance[w] == distance[v] + 1) {
+						double partial = pathCounts[v] / pathCounts[w]
+						                 * (1.0 + dependency[w]);
+						edgeSums[e] += partial;
+						dependency[v] += partial;
+					}
+				}
+				if (v != source) {
+					vertexSums[v] += dependency[v];
+				}
+			}
+			for (int i = 0; i < tail; i++) {
+				pathCounts[visitOrder[i]] = 0.0;
+			}
+		}
+	}
+
+	/**
+	 * @return the betweenness of each edge, indexed by edge number
+	 */
+	public double[] getEdgeScores() {
+		return edgeScores;
+	}
+
+	/**
+	 * @return the betweenness of each vertex, indexed by vertex number
+	 */
+	public double[] getVertexScores() {
+		return vertexScores;
+	}
+
+	/**
+	 * Stores the betweenness values as the weights of the links and the
+	 * centrality scores of the nodes.
+	 * @param callGraph the snapshot the betweenness was calculated for
+	 */
+	public void copyScoresTo(CompactGraph<CallGraphNode, CallGraphLink> callGraph) {
+		for (int e = 0; e < edgeScores.length; e++) {
+			callGraph.getEdge(e).setWeight(edgeScores[e]);
+		}
+		for (int v = 0; v < vertexScores.length; v++) {
+			callGraph.getVertex(v).setScore(ScoreType.CENTRALITY,
+					vertexScores[v]);
+		}
+	}
+
+}
@@ -136,15 +136,20 @@ public class ClassProposer
         int lastClusterCount = origClusterCount;
         printClusterSizes(clusters);
 
+        int lastClustered = numEdgesToRemove;
+
+        // The clusterer removes one edge at a time, so only form the
+        // clusters when the number of them changes
         while ((lastClusterCount < origClusterCount + numToCreate)
                 && (numEdgesToRemove < jungGraph.getEdgeCount()))
         {
             numEdgesToRemove++;
-            clusters = clusterer.cluster(numEdgesToRemove);
             
             // When a new cluster is produced, update the output
-            if (clusters.size() > lastClusterCount)
+            if (clusterer.getNumClusters(numEdgesToRemove) > lastClusterCount)
             {
+                clusters = clusterer.cluster(numEdgesToRemove);
+                lastClustered = numEdgesToRemove;
                 lastClusterCount = clusters.size();
                 output.print(FIELD_SEPARATOR);
                 output.print(numEdgesToRemove); // #edges removed
@@ -152,6 +157,10 @@ public class ClassProposer
                 printClusterSizes(clusters); // size of the clusters
             }
         }
+        if (lastClustered != numEdgesToRemove)
+        {
+            clusters = clusterer.cluster(numEdgesToRemove);
+        }
         logger.info("number of edges removed =\n" + numEdgesToRemove);
         List<CallGraphLink> edgesRemoved = clusterer.getEdgesRemoved();
         String edgesRemovedString =
@@ -36,16 +36,17 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.Stack;
 
 import net.sourceforge.metrics.core.sources.TypeMetrics;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.CompactGraph;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.persistence.MetricDatabaseLocator;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
@@ -55,23 +56,15 @@ import org.eclipse.jdt.core.IType;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.util.EdgeType;
 
+/**
+ * Finds the strongly connected components of a graph using Tarjan's
+ * algorithm.  The depth first search is iterative (so deep call chains
+ * can't overflow the stack) and runs over a CompactGraph snapshot with
+ * the search state in arrays, so it takes time linear in the size of
+ * the graph.  The nodes of the graph are not modified.
+ */
 public class CycleCalculator {
 
-	/** A key to keep track of the order in which this node has
-	 * been visited.	 */
-	public static final String TARJAN_INDEX = "TARJAN";
-	
-	/** A key to keep track of the earliest-visited node to which
-	 * this node has a return path.  */
-	public static final String TARJAN_LOW_LINK = "TARJAN_LOW";
-	
-	/** DFS node number counter */
-	protected int index = 0;
-	
-	/** The stack of nodes that have already been visited, but not yet
-	 * assigned to a group of strongly connected components (scc). 	 */
-	protected Stack<CallGraphNode> nodeStack = new Stack<CallGraphNode>();
-
 	/**
 	 * Gets the strongly connected components of a graph using Tarjan's
 	 * algorithm
@@ -81,21 +74,23 @@ public class CycleCalculator {
 	public Set<CallGraphCluster> getStronglyConnectedComponents(
 			Graph<CallGraphNode, CallGraphLink> jungGraph) {
 		Set<CallGraphCluster> clusters = new HashSet<CallGraphCluster>();
-		Collection<CallGraphNode> vertices = jungGraph.getVertices();
+		CompactGraph<CallGraphNode, CallGraphLink> compactGraph =
+			createCompactGraph(jungGraph);
+		int numNodes = compactGraph.getVertexCount();
+		int[] components = new int[numNodes];
+		int numComponents = findComponents(compactGraph.getArcOffsets(),
+				compactGraph.getArcTargets(), components);
 
-		// Reset whatever TARJAN scores may have existed previously
-		for (CallGraphNode v : vertices) {
-			v.setScore(TARJAN_INDEX, null);
+		List<List<CallGraphNode>> members =
+			new ArrayList<List<CallGraphNode>>(numComponents);
+		for (int c = 0; c < numComponents; c++) {
+			members.add(new ArrayList<CallGraphNode>());
 		}
-
-		// Start a depth-first search at each unvisited node
-		for (CallGraphNode v : vertices) {
-			Number vIndex = v.getScore(TARJAN_INDEX);
-			
-			// Examine the successors of the node if it hasn't been seen before
-			if (vIndex == null) {
-				getGroup(jungGraph, v, clusters);
-			}
+		for (int v = 0; v < numNodes; v++) {
+			members.get(components[v]).add(compactGraph.getVertex(v));
+		}
+		for (List<CallGraphNode> scc : members) {
+			clusters.add(new CallGraphCluster(scc));
 		}
 		return clusters;
 	}
@@ -108,146 +103,133 @@ public class CycleCalculator {
 	 */
 	public boolean containsCycles(
 			Graph<CallGraphNode, CallGraphLink> graph) {
+		CompactGraph<CallGraphNode, CallGraphLink> compactGraph =
+			createCompactGraph(graph);
+		int[] arcOffsets = compactGraph.getArcOffsets();
+		int[] arcTargets = compactGraph.getArcTargets();
 		boolean isCyclic = false;
-		Collection<CallGraphNode> vertices = graph.getVertices();
-		
-		// Start a depth-first search as each unvisited node
-		for (CallGraphNode v : vertices) {
-			Number vIndex = v.getScore(TARJAN_INDEX);
-			
-			// Test for one node cycle - edge to self
-			Collection<CallGraphNode> successors = graph.getSuccessors(v);
-			if (successors.contains(vIndex)) {
-				isCyclic = true;
-				break;
-			}
-			
-			// Examine the successors of the node if it hasn't been seen before
-			if (vIndex == null) {
-				int groupSize = getGroup(graph, v, new HashSet<CallGraphCluster>());
-				// Test for multi-node cycles
-				if (groupSize > 1) {
+
+		// Test for one node cycles - edges to self
+		for (int v = 0; v < compactGraph.getVertexCount() && !isCyclic; v++) {
+			for (int arc = arcOffsets[v]; arc < arcOffsets[v + 1]; arc++) {
+				if (arcTargets[arc] == v) {
 					isCyclic = true;
-					break;
 				}
 			}
 		}
+		if (!isCyclic) {
+			isCyclic = hasMultinodeComponent(compactGraph);
+		}
 		return isCyclic;
 	}
 	
 	/**
 	 * Returns true if the supplied graph contains cycles
+	 * involving more than one node
 	 * @param graph the graph being examined
-	 * @return the strongly connected components
+	 * @return true if the graph contains such cycles; false otherwise
 	 */
 	public boolean containsMultinodeCycles(
 			Graph<CallGraphNode, CallGraphLink> graph) {
-		boolean hasCycles = false;
-		Collection<CallGraphNode> vertices = graph.getVertices();
-		
-		// Start a depth-first search as each unvisited node
-		for (CallGraphNode v : vertices) {
-			Number vIndex = v.getScore(TARJAN_INDEX);
-			
-			// Examine the successors of the node if it hasn't been seen before
-			if (vIndex == null) {
-				int groupSize = getGroup(graph, v, new HashSet<CallGraphCluster>());
-				if (groupSize > 1) {
-					hasCycles = true;
-					break;
-				}
-			}
-		}
-		return hasCycles;
+		return hasMultinodeComponent(createCompactGraph(graph));
 	}
-	
+
 	/**
-	 * Gets the group of nodes that is mutually reachable from the specified one
-	 * @param graph the graph being examined
-	 * @param startNode the node whose mutually reachable nodes are desired
-	 * @param clusters an accumulator for the collections of mutually reachable nodes
-	 * @return the size of the newly added group of strongly
-	 *  connected components
+	 * @return a snapshot of the graph with one arc from each node to
+	 * each of its successors
 	 */
-	private int getGroup(Graph<CallGraphNode, CallGraphLink> graph,
-			CallGraphNode startNode,
-			Set<CallGraphCluster> clusters) {
-		startNode.setScore(TARJAN_INDEX, index); // Set the depth index
-		startNode.setScore(TARJAN_LOW_LINK, index);
-		index++;
-		nodeStack.push(startNode);
-		processSuccessors(graph, startNode, clusters);
-
-		int groupSize = 0;
-		Number vertexLowLink = startNode.getScore(TARJAN_LOW_LINK);
-		Number vertexIndex = startNode.getScore(TARJAN_INDEX);
-
-		// The vertex is the root of a new set of strongly connected components
-		if (vertexIndex.intValue() == vertexLowLink.intValue()) {
-			groupSize = addSCCToClusters(startNode, clusters);
-		}
-		return groupSize;
+	private static CompactGraph<CallGraphNode, CallGraphLink> createCompactGraph(
+			Graph<CallGraphNode, CallGraphLink> graph) {
+		return new CompactGraph<CallGraphNode, CallGraphLink>(graph, true,
+				Collections.<CallGraphLink>emptySet());
 	}
 
+	private static boolean hasMultinodeComponent(
+			CompactGraph<CallGraphNode, CallGraphLink> compactGraph) {
+		int numNodes = compactGraph.getVertexCount();
+		int[] components = new int[numNodes];
+		int numComponents = findComponents(compactGraph.getArcOffsets(),
+				compactGraph.getArcTargets(), components);
+		return numComponents < numNodes;
+	}
 
 	/**
-	 * This method creates a new cluster and adds it to the collection of clusters.
-	 * @param startNode
-	 * @param clusters
-	 * @return the size of the newly added group of strongly
-	 *  connected components
+	 * Finds the strongly connected components of a graph given as arrays
+	 * of arcs, as in a CompactGraph.  Components are numbered in the
+	 * order Tarjan's algorithm completes them, which is a reverse
+	 * topological order of the condensed graph.
+	 * @param arcOffsets where each vertex's arcs start in arcTargets,
+	 *  followed by the total number of arcs
+	 * @param arcTargets the vertex each arc leads to
+	 * @param components receives the component number of each vertex
+	 * @return the number of components
 	 */
-	private int addSCCToClusters(CallGraphNode startNode, Set<CallGraphCluster> clusters) {
-		Set<CallGraphNode> scc = new HashSet<CallGraphNode>();
-		CallGraphNode top = null;
-		int groupSize = 0;
-		
-		// Pop the stack of SCC elements until the start node is reached.
-		// Each popped element is added to the SCC.
-		do {
-			top = nodeStack.pop();
-			scc.add(top);
-			groupSize++;
-		} while (!startNode.equals(top));
-		CallGraphCluster cluster = new CallGraphCluster(scc);
-		clusters.add(cluster);
-		return groupSize;
-	}
+	public static int findComponents(int[] arcOffsets, int[] arcTargets,
+			int[] components) {
+		int numNodes = arcOffsets.length - 1;
+		// The order in which each node was visited, or -1
+		int[] index = new int[numNodes];
+		// The earliest visited node on the stack reachable from each node
+		int[] lowLink = new int[numNodes];
+		// The nodes visited but not yet assigned to a component
+		int[] nodeStack = new int[numNodes];
+		boolean[] onStack = new boolean[numNodes];
+		// The path of the depth first search, and the next arc
+		// to follow from each node on it
+		int[] path = new int[numNodes];
+		int[] nextArc = new int[numNodes];
+		int nodeStackSize = 0;
+		int numVisited = 0;
+		int numComponents = 0;
+		Arrays.fill(index, -1);
 
-	private void processSuccessors(Graph<CallGraphNode, CallGraphLink> graph,
-			CallGraphNode startNode, Set<CallGraphCluster> clusters) {
-		Collection<CallGraphNode> successors = graph.getSuccessors(startNode);
-		for (CallGraphNode successor : successors) {
-			Number successorIndex = successor.getScore(TARJAN_INDEX);
-
-			// If successor hasn't been visited, recurse
-			if (successorIndex == null) {
-				processNewSuccessor(graph, startNode, clusters, successor);
-			}
-			// The successor has already been seen
-			else if (nodeStack.contains(successor)) {
-				processSeenSuccessor(startNode, successorIndex);
+		for (int root = 0; root < numNodes; root++) {
+			if (index[root] >= 0) {
+				continue;
 			}
-		}
-	}
+			int pathLength = 0;
+			index[root] = lowLink[root] = numVisited++;
+			nodeStack[nodeStackSize++] = root;
+			onStack[root] = true;
+			nextArc[root] = arcOffsets[root];
+			path[pathLength++] = root;
 
-	private void processSeenSuccessor(CallGraphNode startNode,
-			Number successorIndex) {
-		Number lowLink = startNode.getScore(TARJAN_LOW_LINK);
-		if (successorIndex.intValue() < lowLink.intValue()) {
-			startNode.setScore(TARJAN_LOW_LINK, successorIndex);
-		}
-	}
-
-	private void processNewSuccessor(Graph<CallGraphNode, CallGraphLink> graph,
-			CallGraphNode startNode, Set<CallGraphCluster> clusters,
-			CallGraphNode successor) {
-		getGroup(graph, successor, clusters);
-		Number lowLink = startNode.getScore(TARJAN_LOW_LINK);
-		Number successorLowLink = successor.getScore(TARJAN_LOW_LINK);
-		if (successorLowLink.intValue() < lowLink.intValue()) {
-			startNode.setScore(TARJAN_LOW_LINK, successorLowLink);
+			while (pathLength > 0) {
+				int v = path[pathLength - 1];
+				if (nextArc[v] < arcOffsets[v + 1]) {
+					int w = arcTargets[nextArc[v]++];
+					// If the successor hasn't been visited, descend
+					if (index[w] < 0) {
+						index[w] = lowLink[w] = numVisited++;
+						nodeStack[nodeStackSize++] = w;
+						onStack[w] = true;
+						nextArc[w] = arcOffsets[w];
+						path[pathLength++] = w;
+					} else if (onStack[w] && index[w] < lowLink[v]) {
+						lowLink[v] = index[w];
+					}
+				} else {
+					pathLength--;
+					// v is the root of a strongly connected component
+					if (lowLink[v] == index[v]) {
+						int top;
+						do {
+							top = nodeStack[--nodeStackSize];
+							onStack[top] = false;
+							components[top] = numComponents;
+						} while (top != v);
+						numComponents++;
+					}
+					if (pathLength > 0) {
+						int parent = path[pathLength - 1];
+						if (lowLink[v] < lowLink[parent]) {
+							lowLink[parent] = lowLink[v];
+						}
+					}
+				}
+			}
 		}
+		return numComponents;
 	}
 	
     /**
@@ -55,12 +55,15 @@ import javax.swing.SwingUtilities;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.cluster.ClusterCombinationEnum;
+import nz.ac.vuw.ecs.kcassell.cluster.LanceWilliamsClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.MatrixBasedAgglomerativeClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.MemberCluster;
 import nz.ac.vuw.ecs.kcassell.cluster.MixedModeClusterer;
+import nz.ac.vuw.ecs.kcassell.cluster.NearestNeighborChainClusterer;
 import nz.ac.vuw.ecs.kcassell.similarity.ClustererEnum;
 import nz.ac.vuw.ecs.kcassell.similarity.CzibulaDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
 import nz.ac.vuw.ecs.kcassell.similarity.IdentifierDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.IdentifierGoogleDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.JDeodorantDistanceCalculator;
@@ -75,6 +78,7 @@ import nz.ac.vuw.ecs.kcassell.utils.FileUtils;
 import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
 
+import org.eclipse.jdt.core.JavaModelException;
 import org.forester.archaeopteryx.ArchaeopteryxE;
 
 public class AgglomerationView
@@ -369,6 +373,10 @@ implements ClusterUIConstants, ParameterConstants, ActionListener {
 					ClustererEnum.AGGLOMERATIVE.toString());
 		
 		if (ClustererEnum.AGGLOMERATIVE.toString()
+				.equalsIgnoreCase(sClusterer)
+				|| ClustererEnum.LANCE_WILLIAMS.toString()
+				.equalsIgnoreCase(sClusterer)
+				|| ClustererEnum.NEAREST_NEIGHBOR_CHAIN.toString()
 				.equalsIgnoreCase(sClusterer)) {
 			performAgglomerativeClustering(callGraph);
 		} else if (ClustererEnum.MIXED_MODE.toString()
@@ -430,68 +438,50 @@ implements ClusterUIConstants, ParameterConstants, ActionListener {
 			if (DistanceCalculatorEnum.GoogleDistance.equals(calcType)) {
 				IdentifierGoogleDistanceCalculator calc =
 					new IdentifierGoogleDistanceCalculator();
-				MemberCluster cluster =
-					MatrixBasedAgglomerativeClusterer
-					.clusterUsingCalculator(classHandle, calc);
+				MemberCluster cluster = agglomerate(classHandle, calc);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.Czibula.equals(calcType)) {
 				CzibulaDistanceCalculator calc =
 					new CzibulaDistanceCalculator(callGraph);
-				MemberCluster cluster =
-					MatrixBasedAgglomerativeClusterer
-					.clusterUsingCalculator(classHandle, calc);
+				MemberCluster cluster = agglomerate(classHandle, calc);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.Identifier.equals(calcType)) {
 				IdentifierDistanceCalculator calc =
 					new IdentifierDistanceCalculator();
-				MemberCluster cluster =
-					MatrixBasedAgglomerativeClusterer
-					.clusterUsingCalculator(classHandle, calc);
+				MemberCluster cluster = agglomerate(classHandle, calc);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.JDeodorant.equals(calcType)) {
 				JDeodorantDistanceCalculator calc =
 					new JDeodorantDistanceCalculator(callGraph);
-				MemberCluster cluster =
-					MatrixBasedAgglomerativeClusterer
-					.clusterUsingCalculator(classHandle, calc);
+				MemberCluster cluster = agglomerate(classHandle, calc);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.Levenshtein.equals(calcType)) {
 				LevenshteinDistanceCalculator calc = new LevenshteinDistanceCalculator();
-				MemberCluster cluster =
-					MatrixBasedAgglomerativeClusterer
-					.clusterUsingCalculator(classHandle, calc);
+				MemberCluster cluster = agglomerate(classHandle, calc);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.LocalNeighborhood.equals(calcType)) {
 				LocalNeighborhoodDistanceCalculator calc =
 					new LocalNeighborhoodDistanceCalculator(callGraph);
-				MemberCluster cluster =
-					MatrixBasedAgglomerativeClusterer
-					.clusterUsingCalculator(classHandle, calc);
+				MemberCluster cluster = agglomerate(classHandle, calc);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.LSA.equals(calcType)) {
 				LSACalculator calc =
 			    	LSACalculator.getCalculator(classHandle);
 				List<String> names =
 					EclipseUtils.getFilteredMemberHandles(classHandle);
-				MatrixBasedAgglomerativeClusterer clusterer =
-					new MatrixBasedAgglomerativeClusterer(names, calc);
-				MemberCluster cluster = clusterer.getSingleCluster();
+				MemberCluster cluster = agglomerate(names, calc);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.Simon.equals(calcType)) {
 				SimonDistanceCalculator calc =
 					new SimonDistanceCalculator(callGraph);
-				MemberCluster cluster =
-					MatrixBasedAgglomerativeClusterer
-					.clusterUsingCalculator(classHandle, calc);
+				MemberCluster cluster = agglomerate(classHandle, calc);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.VectorSpaceModel.equals(calcType)) {
 				VectorSpaceModelCalculator calc =
 			    	VectorSpaceModelCalculator.getCalculator(classHandle);
 				List<String> names =
 					EclipseUtils.getFilteredMemberHandles(classHandle);
-				MatrixBasedAgglomerativeClusterer clusterer =
-					new MatrixBasedAgglomerativeClusterer(names, calc);
-				MemberCluster cluster = clusterer.getSingleCluster();
+				MemberCluster cluster = agglomerate(names, calc);
 				displayCluster(classHandle, cluster);
 			} else {
 				String msg = "Unable to set up agglomerative clustering using " + sCalc;
@@ -506,6 +496,58 @@ implements ClusterUIConstants, ParameterConstants, ActionListener {
 		}
 	}
 
+	/**
+	 * Agglomerates the members of a class using the agglomerative clusterer
+	 * specified in the user preferences/parameters.
+	 * @param classHandle the handle of the class whose members are clustered
+	 * @param calc the distance calculator to use
+	 * @return the cluster of everything
+	 * @throws JavaModelException
+	 */
+	protected MemberCluster agglomerate(String classHandle,
+			DistanceCalculatorIfc<String> calc) throws JavaModelException {
+		MemberCluster cluster = null;
+		if (isClustererSelected(ClustererEnum.NEAREST_NEIGHBOR_CHAIN)) {
+			cluster = NearestNeighborChainClusterer
+				.clusterUsingCalculator(classHandle, calc);
+		} else if (isClustererSelected(ClustererEnum.LANCE_WILLIAMS)) {
+			cluster = LanceWilliamsClusterer
+				.clusterUsingCalculator(classHandle, calc);
+		} else {
+			cluster = MatrixBasedAgglomerativeClusterer
+				.clusterUsingCalculator(classHandle, calc);
+		}
+		return cluster;
+	}
+
+	/**
+	 * Agglomerates the elements using the agglomerative clusterer
+	 * specified in the user preferences/parameters.
+	 * @param names the elements to cluster
+	 * @param calc the distance calculator to use
+	 * @return the cluster of everything
+	 */
+	protected MemberCluster agglomerate(List<String> names,
+			DistanceCalculatorIfc<String> calc) {
+		MatrixBasedAgglomerativeClusterer clusterer = null;
+		if (isClustererSelected(ClustererEnum.NEAREST_NEIGHBOR_CHAIN)) {
+			clusterer = new NearestNeighborChainClusterer(names, calc);
+		} else if (isClustererSelected(ClustererEnum.LANCE_WILLIAMS)) {
+			clusterer = new LanceWilliamsClusterer(names, calc);
+		} else {
+			clusterer = new MatrixBasedAgglomerativeClusterer(names, calc);
+		}
+		return clusterer.getSingleCluster();
+	}
+
+	private boolean isClustererSelected(ClustererEnum clusterer) {
+		ApplicationParameters parameters = ApplicationParameters.getSingleton();
+		String sClusterer =
+			parameters.getParameter(ParameterConstants.CLUSTERER_KEY,
+					ClustererEnum.AGGLOMERATIVE.toString());
+		return clusterer.toString().equalsIgnoreCase(sClusterer);
+	}
+
 	protected void displayCluster(String classHandle, MemberCluster cluster) {
 //		displayClusterString(cluster);
 		String file;
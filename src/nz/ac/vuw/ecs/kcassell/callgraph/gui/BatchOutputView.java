@@ -37,10 +37,9 @@ import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -58,11 +57,13 @@ import javax.swing.SwingUtilities;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.cluster.BatchClusteringEngine;
+import nz.ac.vuw.ecs.kcassell.cluster.BatchClusteringEngine.BatchClusteringListener;
+import nz.ac.vuw.ecs.kcassell.cluster.BatchClusteringEngine.Configuration;
 import nz.ac.vuw.ecs.kcassell.cluster.BetweennessClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.ClusterCombinationEnum;
 import nz.ac.vuw.ecs.kcassell.cluster.MatrixBasedAgglomerativeClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.MemberCluster;
-import nz.ac.vuw.ecs.kcassell.cluster.MixedModeClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.ItemSupportList;
 import nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.fpgrowth.FrequentMethodsMiner;
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
@@ -75,12 +76,8 @@ import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceCollector;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
-import nz.ac.vuw.ecs.kcassell.similarity.IdentifierDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.IdentifierGoogleDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.IntraClassDistanceCalculator;
-import nz.ac.vuw.ecs.kcassell.similarity.JDeodorantDistanceCalculator;
-import nz.ac.vuw.ecs.kcassell.similarity.LevenshteinDistanceCalculator;
-import nz.ac.vuw.ecs.kcassell.similarity.LocalNeighborhoodDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.SimonDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.VectorSpaceModelCalculator;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
@@ -125,9 +122,6 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 	private static final String  RUN_SEPARATOR =
 		"======================================\n";
 
-	/** The field separator for the CSV file. */
-	static final String  CSV_SEP = "|";
-	
 	/** The main panel for this view. */
     private JSplitPane mainPanel = null;
     
@@ -145,12 +139,6 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
     
     /** Accumulates the clustering results. */
 	private StringBuffer buf = new StringBuffer(RUN_SEPARATOR);
-	
-	/** A writer for the cluster size data. */
-	private BufferedWriter clusterCountWriter = null;
-
-	/** A writer for the cluster size data. */
-	private BufferedWriter clusterSizesWriter = null;
 
 
     protected static final UtilLogger logger =
@@ -427,6 +415,7 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 	 *  6 different combinations of distance function and group linkage.
 	 */
 	protected StringBuffer cluster6x30() {
+		String[] clusterers = { ClustererEnum.AGGLOMERATIVE.toString() };
 		String[] calculators = { DistanceCalculatorEnum.LocalNeighborhood.toString(),
 				DistanceCalculatorEnum.Simon.toString()
 		};
@@ -434,15 +423,12 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 				ClusterCombinationEnum.AVERAGE_LINK.toString(),
 				ClusterCombinationEnum.COMPLETE_LINK.toString()
 		};
-		
-		for (int i = 0; i < calculators.length; i++) {
-			for (int j = 0; j < linkages.length; j++) {
-				textArea.append("Agglomerating with: " + calculators[i] +
-						" (" + linkages[j] + ")\n");
-				cluster30(ClustererEnum.AGGLOMERATIVE.toString(),
-						calculators[i], linkages[j]);
-			}
-		}
+		List<Configuration> configurations =
+			BatchClusteringEngine.createConfigurations(clusterers,
+					calculators, linkages);
+		textArea.append("Agglomerating with: " + configurations + "\n");
+		GodClassesMM30 mm30 = new GodClassesMM30();
+		clusterBatch(mm30.getAllClasses(), configurations);
 		return buf;
 	}
 
@@ -455,52 +441,9 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 		GodClassesMM30 mm30 = new GodClassesMM30();
 		List<String> classHandles = mm30.getAllClasses();
 		// "=Weka/<weka.classifiers.meta{MultiClassClassifier.java[MultiClassClassifier";
-
-		String clusterCountsFile = RefactoringConstants.DATA_DIR +
-			sClusterer + sCalc + sLinkage + "Counts.csv";
-		String clusterSizesFile = RefactoringConstants.DATA_DIR +
-		sClusterer + sCalc + sLinkage + "Sizes.csv";
-
-		try {
-			clusterCountWriter = new BufferedWriter(new FileWriter(clusterCountsFile));
-			clusterSizesWriter = new BufferedWriter(new FileWriter(clusterSizesFile));
-			String csvHeader = "Class" + CSV_SEP + 0.999 + CSV_SEP
-				+ 0.9 + CSV_SEP + 0.75 + CSV_SEP + 0.5 + "\n";
-			clusterCountWriter.write(csvHeader);
-			clusterSizesWriter.write(csvHeader);
-			buf.append(csvHeader);
-
-			int iterations = classHandles.size();
-			activateProgressBar(iterations);
-			for (int i = 0; i < iterations; i++) {
-				progressBar.setValue(i);
-				String handle = classHandles.get(i);
-				clusterOne(sClusterer, sCalc, sLinkage, handle);
-			}
-		} catch (Exception ioe) {
-			ioe.printStackTrace();
-		} finally {
-			closeClusterFiles();
-			inactivateProgressBar();
-		}
-	}
-
-
-	private void closeClusterFiles() {
-		if (clusterCountWriter != null) {
-			try {
-				clusterCountWriter.close();
-			} catch (Exception e1) {
-				// just ignore it
-			}
-		}
-		if (clusterSizesWriter != null) {
-			try {
-				clusterSizesWriter.close();
-			} catch (Exception e1) {
-				// just ignore it
-			}
-		}
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		configurations.add(new Configuration(sClusterer, sCalc, sLinkage));
+		clusterBatch(classHandles, configurations);
 	}
 
 
@@ -522,250 +465,59 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 		MetricsView metricsView = app.getMetricsView();
 		String[] classHandles = metricsView.getClassHandles();
 		// "=Weka/<weka.classifiers.meta{MultiClassClassifier.java[MultiClassClassifier";
-
-		int iterations = classHandles.length; // Math.min(20, classHandles.length);
-		activateProgressBar(iterations);
-		for (int i = 0;  i < iterations; i++) {
-			progressBar.setValue(i);
-			String handle = classHandles[i];
-			clusterOne(sClusterer, sCalc, linkage, handle);
-		}
-		inactivateProgressBar();
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		configurations.add(new Configuration(sClusterer, sCalc, linkage));
+		clusterBatch(Arrays.asList(classHandles), configurations);
 		return buf;
 	}
 
 
-	protected void clusterOne(String sClusterer, String sCalc, String linkage,
-			String handle) {
-//		buf = new StringBuffer(RUN_SEPARATOR);
-//		buf.append(handle).append("\n");
-//		long start = System.currentTimeMillis();
+	/**
+	 * Clusters the members of the classes using each of the
+	 * configurations, showing the results in the text area as
+	 * they are written.
+	 * @param classHandles the handles of the classes to cluster
+	 * @param configurations the clusterer/calculator/linkage combinations
+	 */
+	protected void clusterBatch(List<String> classHandles,
+			List<Configuration> configurations) {
+		BatchClusteringEngine engine = new BatchClusteringEngine(configurations);
+		buf.append(BatchClusteringEngine.getCsvHeader());
+		activateProgressBar(classHandles.size());
+
 		try {
-			JavaCallGraph callGraph = getGraphFromHandle(handle);
-			// TODO other calculators for all clusterers
-			DistanceCalculatorEnum calcEnum = DistanceCalculatorEnum.valueOf(sCalc);
-			if (ClustererEnum.AGGLOMERATIVE.toString().equalsIgnoreCase(
-					sClusterer)) {
-				try {
-					if (DistanceCalculatorEnum.IntraClass.equals(calcEnum)) {
-						DistanceCalculatorIfc<String> calc = new IntraClassDistanceCalculator(
-								callGraph);
-						agglomerateUsingCalculator(handle, calc, linkage);
-					} else if (DistanceCalculatorEnum.Czibula.equals(calcEnum)) {
-						DistanceCalculatorIfc<String> calc = new CzibulaDistanceCalculator(
-								callGraph);
-						agglomerateUsingCalculator(handle, calc, linkage);
-					} else if (DistanceCalculatorEnum.Identifier.equals(calcEnum)) {
-						DistanceCalculatorIfc<String> calc = new IdentifierDistanceCalculator();
-						agglomerateUsingCalculator(handle, calc, linkage);
-					} else if (DistanceCalculatorEnum.JDeodorant.equals(calcEnum)) {
-						DistanceCalculatorIfc<String> calc = new JDeodorantDistanceCalculator(
-								callGraph);
-						agglomerateUsingCalculator(handle, calc, linkage);
-					} else if (DistanceCalculatorEnum.Levenshtein.equals(calcEnum)) {
-						DistanceCalculatorIfc<String> calc = new LevenshteinDistanceCalculator();
-						agglomerateUsingCalculator(handle, calc, linkage);
-					} else if (DistanceCalculatorEnum.LocalNeighborhood.equals(calcEnum)) {
-						DistanceCalculatorIfc<String> calc = new LocalNeighborhoodDistanceCalculator(
-								callGraph);
-						agglomerateUsingCalculator(handle, calc, linkage);
-					} else if (DistanceCalculatorEnum.Simon.equals(calcEnum)) {
-						DistanceCalculatorIfc<String> calc = new SimonDistanceCalculator(
-								callGraph);
-						agglomerateUsingCalculator(handle, calc, linkage);
-					} else if (DistanceCalculatorEnum.VectorSpaceModel.equals(calcEnum)) {
-						DistanceCalculatorIfc<String> calc = VectorSpaceModelCalculator
-								.getCalculator(handle);
-						agglomerateUsingCalculator(handle, calc, linkage);
-					} else if (DistanceCalculatorEnum.GoogleDistance.equals(calcEnum)) {
-						try {
-							DistanceCalculatorIfc<String> calc = new IdentifierGoogleDistanceCalculator();
-							agglomerateUsingCalculator(handle, calc, linkage);
-						} catch (Exception e) {
-							String msg = "Unable to calculate distances.  (No web access?)";
-							JOptionPane.showMessageDialog(mainPanel, msg,
-									"Error Clustering",
-									JOptionPane.WARNING_MESSAGE);
-						}
-					}
-				} catch (Exception e) {
-					showAgglomerationError(sCalc, e);
+			engine.run(classHandles, new BatchClusteringListener() {
+				public void classClustered(int classIndex, String handle,
+						String report) {
+					progressBar.setValue(classIndex + 1);
+					buf.append(report);
+					textArea.append(report);
 				}
-			} else if (ClustererEnum.BETWEENNESS.toString().equalsIgnoreCase(
-					sClusterer)) {
-				Collection<CallGraphNode> clusters = clusterUsingBetweenness(callGraph);
-				buf.append("Final clusters for " + callGraph.getName());
-				appendClusterSizes(clusters);
-				String sClusters = toOutputString(clusters);
-				buf.append(":\n" + sClusters);
-			} else if (ClustererEnum.MIXED_MODE.toString().equalsIgnoreCase(
-					sClusterer)) {
-				Collection<CallGraphNode> clusters = clusterUsingMixedMode(callGraph);
-				buf.append("Final clusters for " + callGraph.getName());
-				appendClusterSizes(clusters);
-				String sClusters = toOutputString(clusters);
-				buf.append(":\n" + sClusters);
-			}
-			textArea.append(buf.toString());
-		} catch (JavaModelException e) {
+
+				public void clusteringFailed(String handle,
+						Configuration configuration, Exception e) {
+					showAgglomerationError(configuration.getCalculator(), e);
+				}
+			});
+		} catch (IOException e) {
 			buf.append(e.toString());
 			e.printStackTrace();
+		} finally {
+			inactivateProgressBar();
 		}
-//		long end = System.currentTimeMillis();
-//		buf.append("Clustering above took " + (end - start) + " millis");
-//		buf.append(CLASS_SEPARATOR);
 	}
 
 	protected void showAgglomerationError(String sCalc, Exception e) {
-		String msg = "Problem agglomerating with the " + sCalc + "calculator: " + e;
+		String msg = null;
+		if (DistanceCalculatorEnum.GoogleDistance.toString().equals(sCalc)) {
+			msg = "Unable to calculate distances.  (No web access?)";
+		} else {
+			msg = "Problem agglomerating with the " + sCalc + "calculator: " + e;
+		}
 		JOptionPane.showMessageDialog(mainPanel, msg,
 			"Error Clustering", JOptionPane.WARNING_MESSAGE);
 	}
 
-
-	/**
-	 * Use agglomerative clustering with the indicated distance
-	 * calculator to form clusters.
-	 * @param sCalc the name of the calculator
-	 * @param handle the handle of the class whose members are to be clustered
-	 * @param calc the distance calculator
-	 * @throws JavaModelException
-	 */
-	protected MemberCluster agglomerateUsingCalculator(String handle,
-			DistanceCalculatorIfc<String> calc,
-			String linkage) throws Exception {
-		MemberCluster cluster =
-			MatrixBasedAgglomerativeClusterer
-			.clusterUsingCalculator(handle, calc, linkage);
-		String className = EclipseUtils.getNameFromHandle(handle);
-		MemberCluster.saveResultsToFile(className, cluster,
-				ClustererEnum.AGGLOMERATIVE.toString(),
-				calc.getType().toString(), linkage);
-		// TODO move this elsewhere
-		ArrayList<Object> clusters999 = cluster.getClustersAtDistance(0.999);
-		ArrayList<Object> clusters9 = cluster.getClustersAtDistance(0.9);
-		ArrayList<Object> clusters75 = cluster.getClustersAtDistance(0.75);
-		ArrayList<Object> clusters5 = cluster.getClustersAtDistance(0.5);
-		String countRow = writeClusterCounts(className, clusters999, clusters9,
-				clusters75, clusters5);
-		writeClusterSizes(className, clusters999, clusters9,
-				clusters75, clusters5);
-		buf.append(countRow);
-
-		return cluster;
-	}
-
-
-	private String writeClusterCounts(String className, ArrayList<Object> clusters999,
-			ArrayList<Object> clusters9, ArrayList<Object> clusters75, ArrayList<Object> clusters5)
-			throws IOException {
-		int count999 = clusters999.size();
-		int count9 = clusters9.size();
-		int count75 = clusters75.size();
-		int count5 = clusters5.size();
-		String row = className + CSV_SEP + count999 + CSV_SEP
-		+ count9 + CSV_SEP + count75 + CSV_SEP + count5 + "\n";
-		clusterCountWriter.write(row);
-		clusterCountWriter.flush();
-		return row;
-	}
-
-	private String writeClusterSizes(String className, ArrayList<Object> clusters999,
-			ArrayList<Object> clusters9, ArrayList<Object> clusters75, ArrayList<Object> clusters5)
-			throws IOException {
-		String sizes999 = MemberCluster.clusterSizesToString(clusters999);
-		String sizes9 = MemberCluster.clusterSizesToString(clusters9);
-		String sizes75 = MemberCluster.clusterSizesToString(clusters75);
-		String sizes5 = MemberCluster.clusterSizesToString(clusters5);
-		String row = className + CSV_SEP + sizes999 + CSV_SEP
-		+ sizes9 + CSV_SEP + sizes75 + CSV_SEP + sizes5 + "\n";
-		clusterSizesWriter.write(row);
-		clusterSizesWriter.flush();
-		return row;
-	}
-
-
-	/**
-	 * Append the sizes of the clusters to the output buffer.
-	 * @param clusters
-	 */
-	private void appendClusterSizes(Collection<CallGraphNode> clusters) {
-		buf.append(" (");
-		for (CallGraphNode node : clusters) {
-			if (node instanceof CallGraphCluster) {
-				CallGraphCluster cluster = (CallGraphCluster)node;
-				buf.append(cluster.getElementCount());
-			} else {
-				buf.append("1");
-			}
-			buf.append(", ");
-		}
-		buf.delete(buf.length()-2, buf.length()); // omit last ", "
-		buf.append(")");
-	}
-
-	/**
-	 * Cluster using the BetweennessClusterer.
-	 * @param callGraph
-	 * @throws JavaModelException
-	 */
-	public static Collection<CallGraphNode> clusterUsingBetweenness(JavaCallGraph callGraph)
-	throws JavaModelException {
-		JavaCallGraph undirectedGraph =
-			JavaCallGraph.toUndirectedGraph(callGraph);
-		BetweennessClusterer clusterer = new BetweennessClusterer(undirectedGraph);
-
-		// Get intial group sizes, without clustering
-		Collection<CallGraphNode> clusters = clusterer.cluster(0);
-		List<Integer> sizes =
-			CallGraphCluster.getClusterSizes(clusters);
-		Collections.sort(sizes);
-		int clusterCount = sizes.size();
-		
-		// If there are disconnected groups before clustering, check their
-		// sizes
-		if (clusterCount > 1) {
-			Integer largest2 = sizes.get(clusterCount - 2);
-			
-			// If the second largest cluster is above the threshold for new
-			// class size, do no more.  
-			if (largest2 < 7) { 
-				clusters = clusterer.cluster();
-			}
-		} else { // Break up the single group
-			clusters = clusterer.cluster();
-		}
-		ArrayList<CallGraphNode> nodeClusters =
-			new ArrayList<CallGraphNode>(clusters);
-		Collections.sort(nodeClusters, BetweennessClusterer.getSizeComparator());
-		return nodeClusters;
-	}
-
-	/**
-	 * Cluster using the MixedModeClusterer.
-	 * @param callGraph
-	 * @throws JavaModelException
-	 */
-	public static Collection<CallGraphNode> clusterUsingMixedMode(JavaCallGraph callGraph)
-	throws JavaModelException {
-		JavaCallGraph undirectedGraph =
-			JavaCallGraph.toUndirectedGraph(callGraph);
-		MixedModeClusterer clusterer = new MixedModeClusterer(undirectedGraph);
-		Collection<CallGraphNode> clusters = clusterer.cluster();
-		return clusters;
-	}
-
-
-	private static String toOutputString(Collection<CallGraphNode> clusters) {
-		StringBuffer buf = new StringBuffer();
-		for (CallGraphNode node: clusters) {
-			buf.append(node.toNestedString());
-			buf.append("\n");
-		}
-		String clusterString = buf.toString();
-		return clusterString;
-	}
-
 	protected void activateProgressBar(int limit) {
 		if (progressBar != null) {
 			leftPanel.remove(progressBar);
@@ -82,15 +82,15 @@ public class CallGraphNodeShapeTransformer extends
 					pixels = computeHITSSize(node, scoreToScaleOn);
 				}
 				else if (ScoreType.MCCABE.equals(scoreToScaleOn)) {
-					Number score = node.getScore(ScoreType.MCCABE);
-					if (score != null) {
-						pixels = (int) (10 * Math.log1p(score.doubleValue() + 1.0));
+					double score = node.getScoreValue(ScoreType.MCCABE);
+					if (!Double.isNaN(score)) {
+						pixels = (int) (10 * Math.log1p(score + 1.0));
 					}
 				}
 				else if (ScoreType.NESTEDBLOCKDEPTH.equals(scoreToScaleOn)) {
-					Number score = node.getScore(ScoreType.MCCABE);
-					if (score != null) {
-						pixels = 10 * score.intValue();
+					double score = node.getScoreValue(ScoreType.MCCABE);
+					if (!Double.isNaN(score)) {
+						pixels = 10 * (int) score;
 					}
 				}
 				else if (ScoreType.INDEGREE.equals(scoreToScaleOn)) {
@@ -118,9 +118,9 @@ public class CallGraphNodeShapeTransformer extends
 
 		private int computeHITSSize(CallGraphNode node, String scoreType) {
 			int pixels = MIN_DIAMETER;
-			Number score = node.getScore(scoreType);
-			if (score != null) {
-				pixels = (int) (MIN_DIAMETER * Math.sqrt(score.doubleValue()/aveHITSScore));
+			double score = node.getScoreValue(scoreType);
+			if (!Double.isNaN(score)) {
+				pixels = (int) (MIN_DIAMETER * Math.sqrt(score/aveHITSScore));
 			}
 			return pixels;
 		}
@@ -0,0 +1,660 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.callgraph.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.NodeType;
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IType;
+
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+
+/**
+ * An on-disk cache of the call graphs built from Eclipse searches.
+ * A graph is filed under its type handle, its edge type and the
+ * parameters that affect what the graph contains.  With each graph are
+ * kept the workspace paths of the resources it was built from (the
+ * type's compilation unit and, when inherited members are included,
+ * its package and its supertypes' compilation units) together with a
+ * hash of each; a graph is only used if those hashes still match.<p>
+ * While running in a workspace the cache listens for resource changes.
+ * Graphs that have been checked once are then kept in memory (in their
+ * encoded form, so each caller gets its own copy) until a change to a
+ * resource they depend on invalidates them, so a warm lookup involves
+ * neither hashing nor searching.<p>
+ * Graphs are stored in a compact binary form: the nodes (label, simple
+ * name, node type, flags, scores) followed by the edges as pairs of node
+ * indices with their weights.  Unsaved editor changes are not seen, as
+ * only the saved resources are hashed.
+ * @author Keith
+ */
+public class CallGraphCache implements ParameterConstants {
+
+	/** Identifies a call graph cache file. */
+	protected static final int MAGIC = 0x45584347;
+
+	/** The version of the encoding; files of other versions are ignored. */
+	protected static final int VERSION = 1;
+
+	/** The suffix of the cache files. */
+	protected static final String FILE_SUFFIX = ".graph";
+
+	/** The pseudo-dependency used for a folder is a hash of its Java
+	 * file names, so that adding or removing a file invalidates. */
+	protected static final String JAVA_EXTENSION = "java";
+
+	protected static UtilLogger logger = new UtilLogger("CallGraphCache");
+
+	/** The cache used by JavaCallGraph. */
+	private static CallGraphCache singleton = null;
+
+	/** The directory where the cache files are kept. */
+	protected String cacheDir;
+
+	/** Encoded graphs that are known to be current, keyed by cache key.
+	 * Only used while resource changes are being tracked. */
+	protected Map<String, byte[]> currentGraphs =
+		new ConcurrentHashMap<String, byte[]>();
+
+	/** The workspace paths each known graph depends on, keyed by cache key. */
+	protected Map<String, Collection<String>> dependencies =
+		new ConcurrentHashMap<String, Collection<String>>();
+
+	/** Invalidates graphs when the resources they depend on change. */
+	protected IResourceChangeListener changeListener = null;
+
+	/**
+	 * @param cacheDir the directory where the cache files are kept
+	 */
+	public CallGraphCache(String cacheDir) {
+		this.cacheDir = cacheDir.endsWith(File.separator) ? cacheDir
+				: cacheDir + File.separator;
+	}
+
+	/**
+	 * @return the cache used by JavaCallGraph, which tracks changes to the
+	 * workspace if there is one
+	 */
+	public static synchronized CallGraphCache getSingleton() {
+		if (singleton == null) {
+			singleton = new CallGraphCache(
+					RefactoringConstants.DATA_DIR + "CallGraphCache");
+			singleton.startTrackingChanges();
+		}
+		return singleton;
+	}
+
+	/**
+	 * @return true if the user has not turned the cache off
+	 */
+	public static boolean isEnabled() {
+		return ApplicationParameters.getSingleton().getBooleanParameter(
+				CALL_GRAPH_CACHE_KEY, true);
+	}
+
+	/**
+	 * Registers for resource changes, so that graphs checked once can be
+	 * kept in memory.  Without a workspace, every lookup checks the hashes.
+	 */
+	public void startTrackingChanges() {
+		try {
+			changeListener = new IResourceChangeListener() {
+				public void resourceChanged(IResourceChangeEvent event) {
+					handleResourceChange(event.getDelta());
+				}
+			};
+			ResourcesPlugin.getWorkspace().addResourceChangeListener(
+					changeListener, IResourceChangeEvent.POST_CHANGE);
+		} catch (Throwable e) {
+			// No workspace, e.g. running headless
+			changeListener = null;
+			logger.fine("Not tracking resource changes: " + e);
+		}
+	}
+
+	public void stopTrackingChanges() {
+		if (changeListener != null) {
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(
+					changeListener);
+			changeListener = null;
+		}
+		currentGraphs.clear();
+	}
+
+	/**
+	 * @return true if graphs are kept in memory between lookups
+	 */
+	protected boolean isTrackingChanges() {
+		return changeListener != null;
+	}
+
+	/**
+	 * Invalidates the graphs depending on the Java files whose contents
+	 * changed in the delta.  Other changes (e.g. to markers, as happens
+	 * on every build) are ignored.  Adding or removing a file also
+	 * invalidates graphs depending on its folder.
+	 */
+	protected void handleResourceChange(IResourceDelta delta) {
+		if (delta != null) {
+			try {
+				delta.accept(new IResourceDeltaVisitor() {
+					public boolean visit(IResourceDelta child) {
+						IResource resource = child.getResource();
+						if (resource.getType() == IResource.FILE
+								&& JAVA_EXTENSION.equals(
+										resource.getFileExtension())) {
+							int kind = child.getKind();
+							if (kind == IResourceDelta.ADDED
+									|| kind == IResourceDelta.REMOVED) {
+								invalidate(resource.getFullPath().toString());
+								invalidate(resource.getParent()
+										.getFullPath().toString());
+							} else if ((child.getFlags()
+									& IResourceDelta.CONTENT) != 0) {
+								invalidate(resource.getFullPath().toString());
+							}
+						}
+						return true;
+					}
+				});
+			} catch (CoreException e) {
+				logger.warning("Clearing call graph cache: " + e);
+				clear();
+			}
+		}
+	}
+
+	/**
+	 * Discards the graphs in memory that depend on the resource.  Their
+	 * files are kept: the next lookup checks the hashes again, and uses
+	 * the file if the change made no difference (e.g. it was undone).
+	 * @param path the workspace path of the resource
+	 */
+	public void invalidate(String path) {
+		for (Map.Entry<String, Collection<String>> entry :
+				dependencies.entrySet()) {
+			if (entry.getValue().contains(path)) {
+				String key = entry.getKey();
+				dependencies.remove(key);
+				currentGraphs.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Discards all the cached graphs.
+	 */
+	public void clear() {
+		currentGraphs.clear();
+		dependencies.clear();
+		File[] files = new File(cacheDir).listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(FILE_SUFFIX)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills in the graph from the cache, if a current copy is there.
+	 * @param graph a graph whose handle and edge type have been set, but
+	 * which has no nodes
+	 * @return true if the graph was found
+	 */
+	public boolean load(JavaCallGraph graph) {
+		boolean found = false;
+		String key = getKey(graph.getHandle(), graph.getDefaultEdgeType());
+		try {
+			byte[] encoded = currentGraphs.get(key);
+			if (encoded == null) {
+				encoded = readFile(key);
+			}
+			if (encoded != null) {
+				decode(new DataInputStream(
+						new ByteArrayInputStream(encoded)), graph);
+				found = true;
+			}
+		} catch (IOException e) {
+			logger.warning("Unable to read cached graph for "
+					+ graph.getHandle() + ": " + e);
+		}
+		return found;
+	}
+
+	/**
+	 * Saves the graph, which was just built from the resources, in the cache.
+	 * @param graph the graph to save
+	 */
+	public void store(JavaCallGraph graph) {
+		String handle = graph.getHandle();
+		String key = getKey(handle, graph.getDefaultEdgeType());
+		try {
+			List<String> paths = getDependencies(graph);
+			if (paths != null) {
+				Map<String, byte[]> hashes = new LinkedHashMap<String, byte[]>();
+				for (String path : paths) {
+					hashes.put(path, hashResource(path));
+				}
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				encode(graph, out);
+				out.flush();
+				byte[] encoded = bytes.toByteArray();
+				writeFile(key, hashes, encoded);
+				dependencies.put(key, paths);
+				if (isTrackingChanges()) {
+					currentGraphs.put(key, encoded);
+				}
+			}
+		} catch (Exception e) {
+			logger.warning("Unable to cache graph for " + handle + ": " + e);
+		}
+	}
+
+	/**
+	 * Reads the encoded graph from the cache file, if the file exists and
+	 * the resources it depends on haven't changed.
+	 * @return the encoded graph, or null
+	 */
+	protected byte[] readFile(String key) throws IOException {
+		byte[] encoded = null;
+		File file = new File(getFileName(key));
+
+		if (file.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() == MAGIC && in.readInt() == VERSION
+						&& key.equals(in.readUTF())) {
+					int dependencyCount = in.readInt();
+					List<String> paths = new ArrayList<String>(dependencyCount);
+					boolean current = true;
+					for (int i = 0; i < dependencyCount; i++) {
+						String path = in.readUTF();
+						byte[] hash = new byte[in.readInt()];
+						in.readFully(hash);
+						paths.add(path);
+						current = current
+							&& Arrays.equals(hash, hashResource(path));
+					}
+					if (current) {
+						encoded = new byte[in.readInt()];
+						in.readFully(encoded);
+						dependencies.put(key, paths);
+						if (isTrackingChanges()) {
+							currentGraphs.put(key, encoded);
+						}
+					}
+				}
+			} finally {
+				in.close();
+			}
+			if (encoded == null) {
+				file.delete();
+			}
+		}
+		return encoded;
+	}
+
+	/**
+	 * Writes the cache file, via a temporary file so that concurrent
+	 * readers never see a partial file.
+	 */
+	protected void writeFile(String key, Map<String, byte[]> hashes,
+			byte[] encoded) throws IOException {
+		File dir = new File(cacheDir);
+		dir.mkdirs();
+		File file = new File(getFileName(key));
+		File tempFile = File.createTempFile("extc", ".tmp", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			out.writeInt(hashes.size());
+			for (Map.Entry<String, byte[]> entry : hashes.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().length);
+				out.write(entry.getValue());
+			}
+			out.writeInt(encoded.length);
+			out.write(encoded);
+		} finally {
+			out.close();
+		}
+		file.delete();
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("Unable to rename " + tempFile + " to " + file);
+		}
+	}
+
+	/**
+	 * The key identifies the graph and the parameters affecting its contents.
+	 */
+	protected String getKey(String handle, EdgeType edgeType) {
+		ApplicationParameters params = ApplicationParameters.getSingleton();
+		StringBuffer buf = new StringBuffer(handle);
+		buf.append('|').append(edgeType);
+		String[] keys = { INCLUDE_CONSTRUCTORS_KEY, INCLUDE_INHERITED_KEY,
+				INCLUDE_INNERS_KEY, INCLUDE_LOGGERS_KEY,
+				INCLUDE_OBJECT_METHODS_KEY, INCLUDE_STATICS_KEY };
+		for (String key : keys) {
+			buf.append('|').append(key).append('=')
+				.append(params.getParameter(key, ""));
+		}
+		return buf.toString();
+	}
+
+	protected String getFileName(String key) {
+		return cacheDir + toHex(digest(toBytes(key))) + FILE_SUFFIX;
+	}
+
+	/**
+	 * Determines the workspace paths of the resources that the graph
+	 * was built from.
+	 * @return the paths, or null if the graph should not be cached, e.g.
+	 * because its type has no source
+	 */
+	protected List<String> getDependencies(JavaCallGraph graph)
+	throws CoreException {
+		List<String> paths = null;
+		IType type = EclipseUtils.getTypeFromHandle(graph.getHandle());
+		IResource resource = (type == null) ? null : type.getResource();
+
+		if (resource != null) {
+			paths = new ArrayList<String>();
+			paths.add(resource.getFullPath().toString());
+			boolean includeInherited = ApplicationParameters.getSingleton()
+				.getBooleanParameter(INCLUDE_INHERITED_KEY, false);
+			if (includeInherited) {
+				// CallData searches the package, and the inherited members
+				// come from the supertypes
+				IPackageFragment fragment = type.getPackageFragment();
+				IResource folder = fragment.getResource();
+				if (folder instanceof IContainer) {
+					paths.add(folder.getFullPath().toString());
+					for (IResource member : ((IContainer) folder).members()) {
+						addJavaFile(member, paths);
+					}
+				}
+				for (IType supertype : graph.getSupertypes()) {
+					addJavaFile(supertype.getResource(), paths);
+				}
+			}
+		}
+		return paths;
+	}
+
+	private void addJavaFile(IResource resource, List<String> paths) {
+		if (resource != null && resource.getType() == IResource.FILE
+				&& JAVA_EXTENSION.equals(resource.getFileExtension())) {
+			String path = resource.getFullPath().toString();
+			if (!paths.contains(path)) {
+				paths.add(path);
+			}
+		}
+	}
+
+	/**
+	 * Hashes the current contents of a file, or the names of the Java
+	 * files in a folder.  A missing resource has an empty hash.
+	 * @param path the workspace path of the resource
+	 * @return the hash
+	 */
+	protected byte[] hashResource(String path) throws IOException {
+		byte[] hash = new byte[0];
+		try {
+			IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+			IResource resource = root.findMember(new Path(path));
+			if (resource instanceof IFile) {
+				InputStream in = ((IFile) resource).getContents(true);
+				try {
+					hash = digest(in);
+				} finally {
+					in.close();
+				}
+			} else if (resource instanceof IContainer) {
+				Set<String> names = new TreeSet<String>();
+				for (IResource member : ((IContainer) resource).members()) {
+					if (JAVA_EXTENSION.equals(member.getFileExtension())) {
+						names.add(member.getName());
+					}
+				}
+				hash = digest(toBytes(names.toString()));
+			}
+		} catch (CoreException e) {
+			// treat as missing
+		}
+		return hash;
+	}
+
+	/**
+	 * Writes the nodes and edges of the graph in binary form.
+	 */
+	public static void encode(JavaCallGraph graph, DataOutputStream out)
+	throws IOException {
+		List<CallGraphNode> nodes = graph.getNodes();
+		HashMap<CallGraphNode, Integer> indices =
+			new HashMap<CallGraphNode, Integer>();
+		out.writeInt(nodes.size());
+		for (CallGraphNode node : nodes) {
+			indices.put(node, indices.size());
+			out.writeUTF(node.getLabel());
+			String simpleName = node.getSimpleName();
+			out.writeBoolean(simpleName != null);
+			if (simpleName != null) {
+				out.writeUTF(simpleName);
+			}
+			out.writeByte(node.getNodeType().ordinal());
+			out.writeBoolean(node.isInherited());
+			out.writeBoolean(node.isInner());
+			out.writeInt(node.getMemberFlags());
+			Set<String> scoreTypes = node.getScoreTypes();
+			out.writeInt(scoreTypes.size());
+			for (String scoreType : scoreTypes) {
+				out.writeUTF(scoreType);
+				writeNumber(node.getScore(scoreType), out);
+			}
+		}
+		Graph<CallGraphNode, CallGraphLink> jungGraph = graph.getJungGraph();
+		Collection<CallGraphLink> links = graph.getEdges();
+		out.writeInt(links.size());
+		for (CallGraphLink link : links) {
+			Pair<CallGraphNode> endpoints = graph.getEndpoints(link);
+			out.writeInt(indices.get(endpoints.getFirst()));
+			out.writeInt(indices.get(endpoints.getSecond()));
+			out.writeBoolean(
+					EdgeType.DIRECTED.equals(jungGraph.getEdgeType(link)));
+			Set<String> weightTypes = link.getWeightTypes();
+			out.writeInt(weightTypes.size());
+			for (String weightType : weightTypes) {
+				out.writeUTF(weightType);
+				writeNumber(link.getWeight(weightType), out);
+			}
+		}
+	}
+
+	/**
+	 * Adds the nodes and edges written by encode to the graph.
+	 */
+	public static void decode(DataInputStream in, JavaCallGraph graph)
+	throws IOException {
+		NodeType[] nodeTypes = NodeType.values();
+		int nodeCount = in.readInt();
+		CallGraphNode[] nodes = new CallGraphNode[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			CallGraphNode node = graph.createNode(in.readUTF());
+			if (in.readBoolean()) {
+				node.setSimpleName(in.readUTF());
+			}
+			node.setNodeType(nodeTypes[in.readByte()]);
+			node.setInherited(in.readBoolean());
+			node.setInner(in.readBoolean());
+			node.setMemberFlags(in.readInt());
+			int scoreCount = in.readInt();
+			for (int j = 0; j < scoreCount; j++) {
+				String scoreType = in.readUTF();
+				node.setScore(scoreType, readNumber(in));
+			}
+			nodes[i] = node;
+		}
+		int linkCount = in.readInt();
+		for (int i = 0; i < linkCount; i++) {
+			CallGraphNode node1 = nodes[in.readInt()];
+			CallGraphNode node2 = nodes[in.readInt()];
+			EdgeType edgeType =
+				in.readBoolean() ? EdgeType.DIRECTED : EdgeType.UNDIRECTED;
+			CallGraphLink link = graph.createLink(node1, node2, edgeType);
+			int weightCount = in.readInt();
+			for (int j = 0; j < weightCount; j++) {
+				String weightType = in.readUTF();
+				link.setWeight(weightType, readNumber(in));
+			}
+		}
+	}
+
+	/** Scores are Integers or Doubles; a null score is kept as null. */
+	private static void writeNumber(Number number, DataOutputStream out)
+	throws IOException {
+		if (number == null) {
+			out.writeByte(0);
+		} else if (number instanceof Integer) {
+			out.writeByte(1);
+			out.writeInt(number.intValue());
+		} else {
+			out.writeByte(2);
+			out.writeDouble(number.doubleValue());
+		}
+	}
+
+	private static Number readNumber(DataInputStream in) throws IOException {
+		Number number = null;
+		byte kind = in.readByte();
+		if (kind == 1) {
+			number = in.readInt();
+		} else if (kind == 2) {
+			number = in.readDouble();
+		}
+		return number;
+	}
+
+	protected static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform provides SHA-1
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	protected static byte[] digest(byte[] bytes) {
+		return newDigest().digest(bytes);
+	}
+
+	protected static byte[] digest(InputStream in) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[8192];
+		int count = in.read(buffer);
+		while (count >= 0) {
+			digest.update(buffer, 0, count);
+			count = in.read(buffer);
+		}
+		return digest.digest();
+	}
+
+	protected static byte[] toBytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (IOException e) {
+			return s.getBytes();
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuffer buf = new StringBuffer();
+		for (byte b : bytes) {
+			buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+			buf.append(Character.forDigit(b & 0xF, 16));
+		}
+		return buf.toString();
+	}
+}
@@ -0,0 +1,718 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.similarity.ClustererEnum;
+import nz.ac.vuw.ecs.kcassell.similarity.CzibulaDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
+import nz.ac.vuw.ecs.kcassell.similarity.IdentifierDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.IdentifierGoogleDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.IntraClassDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.JDeodorantDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.LevenshteinDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.LocalNeighborhoodDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.SimonDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.VectorSpaceModelCalculator;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+/**
+ * Clusters the members of a batch of classes using every one of a list of
+ * clusterer/calculator/linkage configurations, without any user interface.
+ * <ul>
+ * <li>Each class is clustered by its own task on a pool of worker
+ * threads.  A task builds the class's call graph at most once, and the
+ * distance matrix for each calculator once, giving each linkage a copy
+ * of it.</li>
+ * <li>The calling thread writes the results in the order of the classes:
+ * one row per class to the Counts and Sizes files of each agglomerative
+ * configuration, plus a Newick (.tree) file per class and configuration.
+ * A listener is told about each class as its results are written.</li>
+ * </ul>
+ * Only a bounded number of classes are in progress at once, so memory use
+ * does not grow with the number of classes.
+ * @author Keith
+ */
+public class BatchClusteringEngine {
+
+	/** The field separator for the CSV files. */
+	public static final String CSV_SEP = "|";
+
+	/** The distances at which the dendrograms are cut to count clusters. */
+	protected static final double[] CUT_DISTANCES = { 0.999, 0.9, 0.75, 0.5 };
+
+	/** A clusterer, together with the distance calculator and linkage
+	 * it uses, if it is an agglomerative one. */
+	public static class Configuration {
+		protected String clusterer;
+		protected String calculator;
+		protected String linkage;
+
+		/**
+		 * @param clusterer the name of a ClustererEnum value
+		 * @param calculator the name of a DistanceCalculatorEnum value
+		 * @param linkage the name of a ClusterCombinationEnum value
+		 */
+		public Configuration(String clusterer, String calculator,
+				String linkage) {
+			this.clusterer = clusterer;
+			this.calculator = calculator;
+			this.linkage = linkage;
+		}
+
+		public String getClusterer() {
+			return clusterer;
+		}
+
+		public String getCalculator() {
+			return calculator;
+		}
+
+		public String getLinkage() {
+			return linkage;
+		}
+
+		/**
+		 * @return whether the clusterer builds a dendrogram from
+		 * a distance matrix
+		 */
+		public boolean isAgglomerative() {
+			return ClustererEnum.AGGLOMERATIVE.toString()
+				.equalsIgnoreCase(clusterer)
+				|| ClustererEnum.LANCE_WILLIAMS.toString()
+				.equalsIgnoreCase(clusterer)
+				|| ClustererEnum.NEAREST_NEIGHBOR_CHAIN.toString()
+				.equalsIgnoreCase(clusterer);
+		}
+
+		/**
+		 * @return the name used as the basis of the output file names
+		 */
+		public String getName() {
+			return clusterer + calculator + linkage;
+		}
+
+		public String toString() {
+			return clusterer + " with " + calculator + " (" + linkage + ")";
+		}
+	}
+
+	/** Receives the results, in the order of the classes, on the
+	 * calling thread. */
+	public interface BatchClusteringListener {
+		/**
+		 * Called after the results for a class have been written.
+		 * @param classIndex the position of the class in the batch
+		 * @param handle the handle of the class
+		 * @param report a description of the results
+		 */
+		void classClustered(int classIndex, String handle, String report);
+
+		/**
+		 * Called when a class could not be clustered using a configuration.
+		 * @param handle the handle of the class
+		 * @param configuration the configuration that failed
+		 * @param e the reason for the failure
+		 */
+		void clusteringFailed(String handle, Configuration configuration,
+				Exception e);
+	}
+
+	/** The outcome of clustering one class using one configuration. */
+	protected static class ConfigurationResult {
+		protected Configuration configuration = null;
+
+		/** The dendrogram built by an agglomerative clusterer. */
+		protected MemberCluster cluster = null;
+
+		/** The clusters found by a graph-based clusterer. */
+		protected Collection<CallGraphNode> graphClusters = null;
+
+		/** Why the class could not be clustered, if it couldn't. */
+		protected Exception error = null;
+
+		protected ConfigurationResult(Configuration configuration) {
+			this.configuration = configuration;
+		}
+	}
+
+	/** The configurations to use on every class. */
+	protected List<Configuration> configurations;
+
+	/** The directory to which the results are written. */
+	protected String outputDir = RefactoringConstants.DATA_DIR;
+
+	/** The maximum number of worker threads; zero or less means
+	 * one per available processor. */
+	protected int parallelism = 1;
+
+	/** A writer for the cluster count data of each agglomerative
+	 * configuration; only used by the calling thread. */
+	protected Map<Configuration, BufferedWriter> countWriters =
+		new HashMap<Configuration, BufferedWriter>();
+
+	/** A writer for the cluster size data of each agglomerative
+	 * configuration; only used by the calling thread. */
+	protected Map<Configuration, BufferedWriter> sizeWriters =
+		new HashMap<Configuration, BufferedWriter>();
+
+    protected static final UtilLogger logger =
+    	new UtilLogger("BatchClusteringEngine");
+
+	/**
+	 * Uses as many threads as the user preference/parameter allows,
+	 * and writes to the data directory.
+	 * @param configurations the configurations to use on every class
+	 */
+	public BatchClusteringEngine(List<Configuration> configurations) {
+		this(configurations, RefactoringConstants.DATA_DIR,
+				ApplicationParameters.getSingleton().getIntParameter(
+						ParameterConstants.PARALLELISM_KEY, 1));
+	}
+
+	/**
+	 * @param configurations the configurations to use on every class
+	 * @param outputDir the directory to which the results are written
+	 * @param parallelism the maximum number of worker threads; zero or
+	 *  less means one per available processor
+	 */
+	public BatchClusteringEngine(List<Configuration> configurations,
+			String outputDir, int parallelism) {
+		this.configurations = configurations;
+		this.outputDir = outputDir;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Builds every combination of the clusterers, calculators and
+	 * linkages provided.
+	 * @return the configurations, with the linkages varying fastest
+	 */
+	public static List<Configuration> createConfigurations(
+			String[] clusterers, String[] calculators, String[] linkages) {
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		for (String clusterer : clusterers) {
+			for (String calculator : calculators) {
+				for (String linkage : linkages) {
+					configurations.add(
+							new Configuration(clusterer, calculator, linkage));
+				}
+			}
+		}
+		return configurations;
+	}
+
+	/**
+	 * @return the header row of the Counts and Sizes files
+	 */
+	public static String getCsvHeader() {
+		StringBuffer header = new StringBuffer("Class");
+		for (double distance : CUT_DISTANCES) {
+			header.append(CSV_SEP).append(distance);
+		}
+		return header.append("\n").toString();
+	}
+
+	/**
+	 * Clusters the members of each class using each configuration,
+	 * writing the results as they become available.
+	 * @param classHandles the handles of the classes to cluster
+	 * @param listener told about each class once its results are written
+	 * @throws IOException if the results can't be written
+	 */
+	public void run(List<String> classHandles,
+			BatchClusteringListener listener)
+	throws IOException {
+		int numClasses = classHandles.size();
+		int available = (parallelism > 0)
+			? parallelism : Runtime.getRuntime().availableProcessors();
+		int numThreads = Math.max(1, Math.min(available, numClasses));
+		// Threads not needed for the classes can help fill the matrices
+		int matrixParallelism = Math.max(1, available / numThreads);
+
+		try {
+			openWriters();
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			LinkedList<Future<List<ConfigurationResult>>> inProgress =
+				new LinkedList<Future<List<ConfigurationResult>>>();
+			try {
+				int written = 0;
+				for (String handle : classHandles) {
+					inProgress.add(executor.submit(
+							new ClassClusteringTask(handle, matrixParallelism)));
+					if (inProgress.size() >= 2 * numThreads) {
+						writeResults(written, classHandles.get(written),
+								inProgress.removeFirst().get(), listener);
+						written++;
+					}
+				}
+				while (!inProgress.isEmpty()) {
+					writeResults(written, classHandles.get(written),
+							inProgress.removeFirst().get(), listener);
+					written++;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while clustering");
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		} finally {
+			closeWriters();
+		}
+	}
+
+	/**
+	 * Clusters the members of one class using each configuration.
+	 * Exceptions are recorded in the results, so that one failure does
+	 * not prevent the other configurations being tried.
+	 */
+	protected class ClassClusteringTask
+	implements Callable<List<ConfigurationResult>> {
+
+		/** The handle of the class to cluster. */
+		protected String handle;
+
+		/** The number of threads to use when filling a matrix. */
+		protected int matrixParallelism;
+
+		/** The call graph of the class, built on demand. */
+		protected JavaCallGraph callGraph = null;
+
+		/** The calculators created so far, keyed by calculator name. */
+		protected Map<String, DistanceCalculatorIfc<String>> calculators =
+			new HashMap<String, DistanceCalculatorIfc<String>>();
+
+		/** The distance matrices built so far, keyed by calculator name
+		 * and the distance used for unknown distances. */
+		protected Map<String, DistanceMatrix<String>> baseMatrices =
+			new HashMap<String, DistanceMatrix<String>>();
+
+		protected ClassClusteringTask(String handle, int matrixParallelism) {
+			this.handle = handle;
+			this.matrixParallelism = matrixParallelism;
+		}
+
+		public List<ConfigurationResult> call() {
+			List<ConfigurationResult> results =
+				new ArrayList<ConfigurationResult>();
+			for (Configuration configuration : configurations) {
+				ConfigurationResult result =
+					new ConfigurationResult(configuration);
+				try {
+					if (configuration.isAgglomerative()) {
+						result.cluster = agglomerate(configuration);
+					} else {
+						result.graphClusters =
+							clusterGraph(configuration.getClusterer());
+					}
+				} catch (Exception e) {
+					result.error = e;
+				}
+				results.add(result);
+			}
+			return results;
+		}
+
+		/**
+		 * @return the call graph of the class, building it if need be
+		 */
+		protected JavaCallGraph getCallGraph() throws Exception {
+			if (callGraph == null) {
+				callGraph = buildCallGraph(handle);
+			}
+			return callGraph;
+		}
+
+		/**
+		 * Builds the dendrogram for the configuration, reusing any
+		 * distance matrix already built that it can.
+		 * @return the cluster of everything
+		 */
+		protected MemberCluster agglomerate(Configuration configuration)
+		throws Exception {
+			String sCalc = configuration.getCalculator();
+			DistanceCalculatorIfc<String> calc = calculators.get(sCalc);
+			if (calc == null) {
+				DistanceCalculatorEnum calcEnum =
+					DistanceCalculatorEnum.valueOf(sCalc);
+				JavaCallGraph graph = usesCallGraph(calcEnum)
+					? getCallGraph() : null;
+				calc = createCalculator(calcEnum, handle, graph);
+				calculators.put(sCalc, calc);
+			}
+			String linkage = configuration.getLinkage();
+			double unknown = MatrixBasedAgglomerativeClusterer
+				.getUnknownDistance(ClusterCombinationEnum.valueOf(linkage));
+			String matrixKey = sCalc + CSV_SEP + unknown;
+			DistanceMatrix<String> baseMatrix = baseMatrices.get(matrixKey);
+			if (baseMatrix == null) {
+				List<String> members = getMemberIdentifiers(handle, calc);
+				baseMatrix = MatrixBasedAgglomerativeClusterer.buildBaseMatrix(
+						members, calc, linkage, matrixParallelism);
+				baseMatrices.put(matrixKey, baseMatrix);
+			}
+			MatrixBasedAgglomerativeClusterer clusterer = null;
+			if (ClustererEnum.NEAREST_NEIGHBOR_CHAIN.toString()
+					.equalsIgnoreCase(configuration.getClusterer())) {
+				clusterer = new NearestNeighborChainClusterer(baseMatrix,
+						calc, linkage);
+			} else if (ClustererEnum.LANCE_WILLIAMS.toString()
+					.equalsIgnoreCase(configuration.getClusterer())) {
+				clusterer = new LanceWilliamsClusterer(baseMatrix,
+						calc, linkage);
+			} else {
+				clusterer = new MatrixBasedAgglomerativeClusterer(baseMatrix,
+						calc, linkage);
+			}
+			return clusterer.getSingleCluster();
+		}
+
+		/**
+		 * Clusters the call graph using a graph-based clusterer.
+		 * @param sClusterer the name of the clusterer
+		 * @return the clusters
+		 */
+		protected Collection<CallGraphNode> clusterGraph(String sClusterer)
+		throws Exception {
+			Collection<CallGraphNode> clusters = null;
+			if (ClustererEnum.BETWEENNESS.toString().equalsIgnoreCase(
+					sClusterer)) {
+				clusters = clusterUsingBetweenness(getCallGraph());
+			} else if (ClustererEnum.MIXED_MODE.toString().equalsIgnoreCase(
+					sClusterer)) {
+				clusters = clusterUsingMixedMode(getCallGraph());
+			} else {
+				throw new IllegalArgumentException(
+						"Unsupported clusterer: " + sClusterer);
+			}
+			return clusters;
+		}
+	}
+
+	/**
+	 * @return whether the calculator is built from a call graph
+	 */
+	protected static boolean usesCallGraph(DistanceCalculatorEnum calcEnum) {
+		return DistanceCalculatorEnum.IntraClass.equals(calcEnum)
+			|| DistanceCalculatorEnum.Czibula.equals(calcEnum)
+			|| DistanceCalculatorEnum.JDeodorant.equals(calcEnum)
+			|| DistanceCalculatorEnum.LocalNeighborhood.equals(calcEnum)
+			|| DistanceCalculatorEnum.Simon.equals(calcEnum);
+	}
+
+	/**
+	 * Get the call graph corresponding to the handle, as determined by
+	 * the user preferences/parameters.
+	 * @param classHandle the handle indicating the class
+	 * @return a java call graph
+	 * @throws Exception
+	 */
+	protected JavaCallGraph buildCallGraph(String classHandle)
+	throws Exception {
+		// A temporary graph to use for calling getAltGraphUsingParams
+		JavaCallGraph callGraph = new JavaCallGraph();
+		callGraph.setHandle(classHandle);
+		callGraph.setDefaultEdgeType(EdgeType.DIRECTED);
+		callGraph = callGraph.getAltGraphUsingParams();
+		return callGraph;
+	}
+
+	/**
+	 * Creates a calculator for the members of a class.
+	 * @param calcEnum the kind of calculator
+	 * @param handle the handle of the class
+	 * @param callGraph the call graph of the class, for the calculators
+	 *  that need one (otherwise null)
+	 * @return the calculator
+	 * @throws Exception
+	 */
+	protected DistanceCalculatorIfc<String> createCalculator(
+			DistanceCalculatorEnum calcEnum, String handle,
+			JavaCallGraph callGraph) throws Exception {
+		DistanceCalculatorIfc<String> calc = null;
+		if (DistanceCalculatorEnum.IntraClass.equals(calcEnum)) {
+			calc = new IntraClassDistanceCalculator(callGraph, 1);
+		} else if (DistanceCalculatorEnum.Czibula.equals(calcEnum)) {
+			calc = new CzibulaDistanceCalculator(callGraph);
+		} else if (DistanceCalculatorEnum.Identifier.equals(calcEnum)) {
+			calc = new IdentifierDistanceCalculator();
+		} else if (DistanceCalculatorEnum.JDeodorant.equals(calcEnum)) {
+			calc = new JDeodorantDistanceCalculator(callGraph);
+		} else if (DistanceCalculatorEnum.Levenshtein.equals(calcEnum)) {
+			calc = new LevenshteinDistanceCalculator();
+		} else if (DistanceCalculatorEnum.LocalNeighborhood.equals(calcEnum)) {
+			calc = new LocalNeighborhoodDistanceCalculator(callGraph);
+		} else if (DistanceCalculatorEnum.Simon.equals(calcEnum)) {
+			calc = new SimonDistanceCalculator(callGraph);
+		} else if (DistanceCalculatorEnum.VectorSpaceModel.equals(calcEnum)) {
+			// Only one task should build a project's model
+			synchronized (VectorSpaceModelCalculator.class) {
+				calc = VectorSpaceModelCalculator.getCalculator(handle);
+			}
+		} else if (DistanceCalculatorEnum.GoogleDistance.equals(calcEnum)) {
+			calc = new IdentifierGoogleDistanceCalculator();
+		} else {
+			throw new IllegalArgumentException(
+					"Unsupported calculator: " + calcEnum);
+		}
+		return calc;
+	}
+
+	/**
+	 * @return the identifiers of the members of the class that the
+	 * calculator expects
+	 * @throws Exception
+	 */
+	protected List<String> getMemberIdentifiers(String handle,
+			DistanceCalculatorIfc<String> calc) throws Exception {
+		return MatrixBasedAgglomerativeClusterer.getMemberIdentifiers(
+				handle, calc);
+	}
+
+	/**
+	 * @return the name of the class used in the output
+	 */
+	protected String getClassName(String handle) {
+		return EclipseUtils.getNameFromHandle(handle);
+	}
+
+	/**
+	 * Cluster using the BetweennessClusterer.  If the graph is already
+	 * split into groups and the second largest is big enough to be a new
+	 * class, no further clustering is done.
+	 * @param callGraph the graph to cluster
+	 * @return the clusters, in order of size
+	 */
+	public static Collection<CallGraphNode> clusterUsingBetweenness(
+			JavaCallGraph callGraph) {
+		JavaCallGraph undirectedGraph =
+			JavaCallGraph.toUndirectedGraph(callGraph);
+		BetweennessClusterer clusterer = new BetweennessClusterer(undirectedGraph);
+
+		// Get intial group sizes, without clustering
+		Collection<CallGraphNode> clusters = clusterer.cluster(0);
+		List<Integer> sizes =
+			CallGraphCluster.getClusterSizes(clusters);
+		Collections.sort(sizes);
+		int clusterCount = sizes.size();
+		
+		// If there are disconnected groups before clustering, check their
+		// sizes
+		if (clusterCount > 1) {
+			Integer largest2 = sizes.get(clusterCount - 2);
+			
+			// If the second largest cluster is above the threshold for new
+			// class size, do no more.  
+			if (largest2 < 7) { 
+				clusters = clusterer.cluster();
+			}
+		} else { // Break up the single group
+			clusters = clusterer.cluster();
+		}
+		ArrayList<CallGraphNode> nodeClusters =
+			new ArrayList<CallGraphNode>(clusters);
+		Collections.sort(nodeClusters, BetweennessClusterer.getSizeComparator());
+		return nodeClusters;
+	}
+
+	/**
+	 * Cluster using the MixedModeClusterer.
+	 * @param callGraph the graph to cluster
+	 * @return the clusters
+	 */
+	public static Collection<CallGraphNode> clusterUsingMixedMode(
+			JavaCallGraph callGraph) {
+		JavaCallGraph undirectedGraph =
+			JavaCallGraph.toUndirectedGraph(callGraph);
+		MixedModeClusterer clusterer = new MixedModeClusterer(undirectedGraph);
+		Collection<CallGraphNode> clusters = clusterer.cluster();
+		return clusters;
+	}
+
+	/**
+	 * Creates the Counts and Sizes files for the agglomerative
+	 * configurations, and the directory for the dendrograms.
+	 */
+	protected void openWriters() throws IOException {
+		new File(outputDir + "Dendrograms/").mkdirs();
+		String header = getCsvHeader();
+		for (Configuration configuration : configurations) {
+			if (configuration.isAgglomerative()
+					&& !countWriters.containsKey(configuration)) {
+				String name = outputDir + configuration.getName();
+				BufferedWriter countWriter =
+					new BufferedWriter(new FileWriter(name + "Counts.csv"));
+				countWriters.put(configuration, countWriter);
+				countWriter.write(header);
+				BufferedWriter sizeWriter =
+					new BufferedWriter(new FileWriter(name + "Sizes.csv"));
+				sizeWriters.put(configuration, sizeWriter);
+				sizeWriter.write(header);
+			}
+		}
+	}
+
+	protected void closeWriters() {
+		List<BufferedWriter> writers =
+			new ArrayList<BufferedWriter>(countWriters.values());
+		writers.addAll(sizeWriters.values());
+		for (BufferedWriter writer : writers) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				logger.warning("Unable to close results file: " + e);
+			}
+		}
+		countWriters.clear();
+		sizeWriters.clear();
+	}
+
+	/**
+	 * Writes the results for one class, then tells the listener.
+	 * @param classIndex the position of the class in the batch
+	 * @param handle the handle of the class
+	 * @param results the results of each configuration
+	 * @param listener told about the results
+	 */
+	protected void writeResults(int classIndex, String handle,
+			List<ConfigurationResult> results,
+			BatchClusteringListener listener) throws IOException {
+		String className = getClassName(handle);
+		StringBuffer report = new StringBuffer();
+
+		for (ConfigurationResult result : results) {
+			Configuration configuration = result.configuration;
+			if (result.error != null) {
+				if (listener != null) {
+					listener.clusteringFailed(handle, configuration,
+							result.error);
+				}
+			} else if (result.cluster != null) {
+				String newickFile = outputDir + "Dendrograms/" + className
+					+ configuration.getName() + ".tree";
+				result.cluster.writeNewickToFile(newickFile);
+				report.append(writeClusterRows(className, configuration,
+						result.cluster));
+			} else if (result.graphClusters != null) {
+				report.append("Final clusters for " + className);
+				appendClusterSizes(report, result.graphClusters);
+				report.append(":\n");
+				for (CallGraphNode node : result.graphClusters) {
+					report.append(node.toNestedString()).append("\n");
+				}
+			}
+		}
+		if (listener != null) {
+			listener.classClustered(classIndex, handle, report.toString());
+		}
+	}
+
+	/**
+	 * Writes the number of clusters, and their sizes, when the dendrogram
+	 * is cut at each of the CUT_DISTANCES.
+	 * @return the row written to the Counts file
+	 */
+	protected String writeClusterRows(String className,
+			Configuration configuration, MemberCluster cluster)
+	throws IOException {
+		StringBuffer countRow = new StringBuffer(className);
+		StringBuffer sizeRow = new StringBuffer(className);
+		for (double distance : CUT_DISTANCES) {
+			ArrayList<Object> clusters = cluster.getClustersAtDistance(distance);
+			countRow.append(CSV_SEP).append(clusters.size());
+			sizeRow.append(CSV_SEP).append(
+					MemberCluster.clusterSizesToString(clusters));
+		}
+		countRow.append("\n");
+		sizeRow.append("\n");
+		BufferedWriter countWriter = countWriters.get(configuration);
+		countWriter.write(countRow.toString());
+		countWriter.flush();
+		BufferedWriter sizeWriter = sizeWriters.get(configuration);
+		sizeWriter.write(sizeRow.toString());
+		sizeWriter.flush();
+		return countRow.toString();
+	}
+
+	/**
+	 * Append the sizes of the clusters to the report.
+	 */
+	private static void appendClusterSizes(StringBuffer report,
+			Collection<CallGraphNode> clusters) {
+		report.append(" (");
+		for (CallGraphNode node : clusters) {
+			if (node instanceof CallGraphCluster) {
+				CallGraphCluster cluster = (CallGraphCluster)node;
+				report.append(cluster.getElementCount());
+			} else {
+				report.append("1");
+			}
+			report.append(", ");
+		}
+		if (!clusters.isEmpty()) {
+			report.delete(report.length() - 2, report.length()); // omit last ", "
+		}
+		report.append(")");
+	}
+
+}
@@ -33,9 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.cluster;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -43,14 +41,14 @@ import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.ClusterSizeComparator;
+import nz.ac.vuw.ecs.kcassell.callgraph.CompactGraph;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.callgraph.ScoreComparator;
 import nz.ac.vuw.ecs.kcassell.callgraph.ScoreType;
+import nz.ac.vuw.ecs.kcassell.callgraph.algorithm.BrandesBetweenness;
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
 import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
-import edu.uci.ics.jung.algorithms.cluster.EdgeBetweennessClusterer;
-import edu.uci.ics.jung.algorithms.importance.BetweennessCentrality;
 import edu.uci.ics.jung.algorithms.scoring.ClosenessCentrality;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.util.Pair;
@@ -68,6 +66,10 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 	/** The edges removed (in order) thus far. */
 	private List<CallGraphLink> edgesRemoved = null;
 
+	/** Removes edges one at a time, remembering the order of removal. */
+	private GirvanNewmanClusterer<CallGraphNode, CallGraphLink> girvanNewman =
+		null;
+
 	/** A comparator for sorting clusters by size. */
 	private static ClusterSizeComparator sizeComparator =
 		new ClusterSizeComparator();
@@ -121,26 +123,66 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 		int numToCreate = parameters.getIntParameter(
 				ParameterConstants.NEW_BETWEENNESS_CLUSTERS_KEY, 1);
 
+        int lastClustered = numEdgesToRemove;
+
         while ((lastClusterCount < origClusterCount + numToCreate)
                 && (numEdgesToRemove < jungGraph.getEdgeCount()))
         {
             numEdgesToRemove++;
-            clusters = cluster(numEdgesToRemove);
             
             // When a new cluster is produced, update the output
-            if (clusters.size() > lastClusterCount)
+            if (getNumClusters(numEdgesToRemove) > lastClusterCount)
             {
+                clusters = cluster(numEdgesToRemove);
+                lastClustered = numEdgesToRemove;
                 lastClusterCount = clusters.size();
 //            	List<Integer> sizes = CallGraphCluster.getClusterSizes(clusters);
 //            	Collections.sort(sizes);
             }
         }
+        if (lastClustered != numEdgesToRemove) {
+        	clusters = cluster(numEdgesToRemove);
+        }
 //        List<CallGraphLink> edgesRemoved = clusterer.getEdgesRemoved();
 //        String edgesRemovedString =
 //            clusterer.edgesRemovedToString(jungGraph, edgesRemoved);
 		return clusters;
 	}
 
+	/**
+	 * Determines the number of clusters there will be after removing the
+	 * specified number of edges, without forming the clusters.
+	 * @param numEdgesToRemove
+	 * @return the number of clusters (disconnected parts of the graph)
+	 */
+	public int getNumClusters(int numEdgesToRemove) {
+		GirvanNewmanClusterer<CallGraphNode, CallGraphLink> clusterer =
+			getGirvanNewmanClusterer();
+		clusterer.removeEdges(numEdgesToRemove);
+		return clusterer.getNumClusters(numEdgesToRemove);
+	}
+
+	/**
+	 * @return the Girvan-Newman clusterer for the current graph.  The
+	 * edges it has removed so far are kept from call to call, so
+	 * clustering after removing more edges continues from where the
+	 * last call stopped.
+	 */
+	protected GirvanNewmanClusterer<CallGraphNode, CallGraphLink>
+	getGirvanNewmanClusterer() {
+		Graph<CallGraphNode, CallGraphLink> jungGraph = callGraph.getJungGraph();
+		if (girvanNewman == null || girvanNewman.getGraph() != jungGraph) {
+			ApplicationParameters parameters =
+				ApplicationParameters.getSingleton();
+			int parallelism = parameters.getIntParameter(
+					ParameterConstants.PARALLELISM_KEY, 1);
+			girvanNewman =
+				new GirvanNewmanClusterer<CallGraphNode, CallGraphLink>(
+						jungGraph, parallelism);
+		}
+		return girvanNewman;
+	}
+
 	/**
 	 * Form clusters after removing the specified number of edges
 	 * @param graph
@@ -149,14 +191,15 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 	 */
 	public Collection<CallGraphNode> cluster(int numEdgesToRemove) {
 		Graph<CallGraphNode, CallGraphLink> jungGraph = callGraph.getJungGraph();
-		EdgeBetweennessClusterer<CallGraphNode, CallGraphLink> clusterer =
-			new EdgeBetweennessClusterer<CallGraphNode, CallGraphLink>(
-				numEdgesToRemove);
+		GirvanNewmanClusterer<CallGraphNode, CallGraphLink> clusterer =
+			getGirvanNewmanClusterer();
+		clusterer.removeEdges(numEdgesToRemove);
 
-		Set<Set<CallGraphNode>> nodeGroupSet = clusterer.transform(jungGraph);
+		Set<Set<CallGraphNode>> nodeGroupSet =
+			clusterer.getClusters(numEdgesToRemove);
 		clusters = CallGraphCluster.toCallGraphClusters(nodeGroupSet);
 		utilLogger.fine("clusters = " + clusters);
-		edgesRemoved = clusterer.getEdgesRemoved();
+		edgesRemoved = clusterer.getEdgesRemoved(numEdgesToRemove);
 		utilLogger.fine("edgesRemoved = " + edgesRemoved);
 		int iCount = clusters.size();
 
@@ -170,16 +213,31 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 			utilLogger.info("Edges removed:\n" + edgesRemovedString);
 		}
 
-		/*
-		 * clusterer.transform is misleading. The edges removed are actually
-		 * added back in again, so the graph is restored to its original state.
-		 * That is why we re-remove the edges.
-		 */
-		// TODO make this less kludgy
-		recalculateBetweenness(jungGraph, edgesRemoved);
+		// The clusterer already knows the betweenness values after its
+		// latest removal; otherwise recalculate them for this many removals
+		if (clusterer.getNumEdgesRemoved() == numEdgesToRemove) {
+			copyBetweenness(clusterer);
+		} else {
+			recalculateBetweenness(jungGraph, edgesRemoved);
+		}
 		return clusters;
 	}
 
+	/**
+	 * Copies the betweenness values of the clusterer's remaining edges
+	 * and of the nodes to the edge weights and node centrality scores.
+	 */
+	protected void copyBetweenness(
+			GirvanNewmanClusterer<CallGraphNode, CallGraphLink> clusterer) {
+		for (CallGraphLink edge : clusterer.getRemainingEdges()) {
+			edge.setWeight(clusterer.getEdgeScore(edge));
+		}
+		for (CallGraphNode node : clusterer.getVertices()) {
+			node.setScore(ScoreType.CENTRALITY,
+					clusterer.getVertexScore(node));
+		}
+	}
+
 	public String edgesRemovedToString(
 			Graph<CallGraphNode, CallGraphLink> graph,
 			List<CallGraphLink> edgesRemoved) {
@@ -190,7 +248,7 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 			String edgeString = String.format(
 					"  %d) %s <--> %s, strength %.1f,\n", whenRemoved++,
 					endpoints.getFirst().getLabel(), endpoints.getSecond()
-							.getLabel(), link.getWeight());
+							.getLabel(), link.getWeightValue());
 			buf.append(edgeString);
 		}
 		return buf.toString();
@@ -198,7 +256,9 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 
 	/**
 	 * Given edges removed from the graph, calculates the new betweenness values
-	 * for the nodes and edges.
+	 * for the nodes and edges.  The graph itself is not modified; the
+	 * betweenness is calculated on a compact snapshot of the graph without
+	 * the removed edges.
 	 * 
 	 * @param graph
 	 *            the graph
@@ -207,44 +267,14 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 	 */
 	void recalculateBetweenness(Graph<CallGraphNode, CallGraphLink> graph,
 			List<CallGraphLink> removedEdgesList) {
-		Map<CallGraphLink, Pair<CallGraphNode>> removedEdgesMap = removeEdges(
-				graph, removedEdgesList);
-		BetweennessCentrality<CallGraphNode, CallGraphLink> ranker = new BetweennessCentrality<CallGraphNode, CallGraphLink>(
-				graph, true, true);
-		ranker.setRemoveRankScoresOnFinalize(false);
-		ranker.evaluate();
-		Collection<CallGraphLink> edges = graph.getEdges();
-		for (CallGraphLink edge : edges) {
-			edge.setWeight(ranker.getEdgeRankScore(edge));
-		}
-		Collection<CallGraphNode> nodes = graph.getVertices();
-		for (CallGraphNode node : nodes) {
-			node
-					.setScore(ScoreType.CENTRALITY, ranker
-							.getVertexRankScore(node));
-		}
-		addEdges(graph, removedEdgesList, removedEdgesMap);
-	}
-
-	private void addEdges(Graph<CallGraphNode, CallGraphLink> graph,
-			List<CallGraphLink> edgesRemoved,
-			Map<CallGraphLink, Pair<CallGraphNode>> removedEdgesMap) {
-		for (CallGraphLink edge : edgesRemoved) {
-			Pair<CallGraphNode> endpoints = removedEdgesMap.get(edge);
-			graph.addEdge(edge, endpoints.getFirst(), endpoints.getSecond());
-		}
-	}
-
-	private Map<CallGraphLink, Pair<CallGraphNode>> removeEdges(
-			Graph<CallGraphNode, CallGraphLink> graph,
-			List<CallGraphLink> edgesRemoved) {
-		Map<CallGraphLink, Pair<CallGraphNode>> removedEdges = new HashMap<CallGraphLink, Pair<CallGraphNode>>();
-		for (CallGraphLink edge : edgesRemoved) {
-			Pair<CallGraphNode> removedEdgeEndpoints = graph.getEndpoints(edge);
-			removedEdges.put(edge, removedEdgeEndpoints);
-			graph.removeEdge(edge);
-		}
-		return removedEdges;
+		// One arc per out edge, as in the clusterer's own snapshot, so that
+		// parallel edges get the same values as copyBetweenness gives them
+		CompactGraph<CallGraphNode, CallGraphLink> snapshot =
+			new CompactGraph<CallGraphNode, CallGraphLink>(
+					graph, false, removedEdgesList);
+		BrandesBetweenness ranker = new BrandesBetweenness(snapshot);
+		ranker.calculate();
+		ranker.copyScoresTo(snapshot);
 	}
 
 	public TreeSet<CallGraphNode> calculateHubScores(
@@ -258,7 +288,7 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 
 		utilLogger.info("Barycentric scores:");
 		for (CallGraphNode node : vertices) {
-			Double score = jungGraph.getIncidentEdges(node).size() * 1.0;
+			double score = jungGraph.getIncidentEdges(node).size() * 1.0;
 			utilLogger.info("\t" + node.toString() + ":" + score);
 			node.setScore(ScoreType.CENTRALITY, score);
 			orderedNodes.add(node);
@@ -0,0 +1,380 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CompactGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.algorithm.BrandesBetweenness;
+import edu.uci.ics.jung.graph.Graph;
+
+/**
+ * This performs Girvan-Newman clustering:  the edge with the highest
+ * betweenness is removed, the betweenness values are recalculated, and so
+ * on.  Unlike JUNG's EdgeBetweennessClusterer, which starts from scratch
+ * for each number of edges to remove, this removes one edge at a time from
+ * a single compact copy of the graph, recalculating betweenness only within
+ * the connected component that contained the removed edge (betweenness
+ * elsewhere cannot change).  The order of removal is recorded, so the
+ * clusters after any number of removals can be produced from the history.
+ * The graph itself is not modified.
+ * Betweenness is calculated as JUNG's BetweennessCentrality calculates it
+ * (unweighted, following out edges, halved for undirected graphs).
+ * @author Keith
+ */
+public class GirvanNewmanClusterer<V, E> {
+
+	/** The graph being clustered. */
+	protected Graph<V, E> graph = null;
+
+	/** The compact copy of the graph. */
+	protected CompactGraph<V, E> compactGraph = null;
+
+	/** Calculates betweenness on the compact graph. */
+	protected BrandesBetweenness betweenness = null;
+
+	/** The maximum number of threads to use calculating betweenness. */
+	protected int parallelism = 1;
+
+	/** Whether each edge has been removed. */
+	protected boolean[] removed = null;
+
+	/** When each edge was removed (0 for the first), or -1. */
+	protected int[] removalRank = null;
+
+	/** The current betweenness of each edge;  for a removed edge,
+	 * the betweenness it had when it was removed. */
+	protected double[] edgeScores = null;
+
+	/** The current betweenness of each vertex. */
+	protected double[] vertexScores = null;
+
+	/** The connected component containing each vertex. */
+	protected int[] component = null;
+
+	/** The number of connected components so far. */
+	protected int numComponents = 0;
+
+	/** The edges removed, in order. */
+	protected List<E> edgesRemoved = new ArrayList<E>();
+
+	/** The number of connected components after each number of
+	 * edges removed, starting with none. */
+	protected List<Integer> componentCounts = new ArrayList<Integer>();
+
+	// Work areas
+	private int[] queue = null;
+	private int[] sources = null;
+
+	/**
+	 * @param graph the graph to cluster
+	 */
+	public GirvanNewmanClusterer(Graph<V, E> graph) {
+		this(graph, 1);
+	}
+
+	/**
+	 * @param graph the graph to cluster
+	 * @param parallelism the maximum number of threads to use calculating
+	 * betweenness; zero or less means one per available processor
+	 */
+	public GirvanNewmanClusterer(Graph<V, E> graph, int parallelism) {
+		this.graph = graph;
+		this.parallelism = parallelism;
+		compactGraph = new CompactGraph<V, E>(graph);
+		int numVertices = compactGraph.getVertexCount();
+		int numEdges = compactGraph.getEdgeCount();
+		removed = new boolean[numEdges];
+		removalRank = new int[numEdges];
+		Arrays.fill(removalRank, -1);
+		component = new int[numVertices];
+		queue = new int[numVertices];
+		sources = new int[numVertices];
+		betweenness = new BrandesBetweenness(compactGraph);
+		betweenness.setRemovedEdges(removed);
+		betweenness.calculate(parallelism);
+		edgeScores = betweenness.getEdgeScores().clone();
+		vertexScores = betweenness.getVertexScores().clone();
+		labelComponents();
+		componentCounts.add(numComponents);
+	}
+
+	/**
+	 * Assigns each vertex to a connected component (ignoring direction).
+	 */
+	protected void labelComponents() {
+		Arrays.fill(component, -1);
+		numComponents = 0;
+		for (int v = 0; v < component.length; v++) {
+			if (component[v] < 0) {
+				labelComponent(v, numComponents++);
+			}
+		}
+	}
+
+	/**
+	 * Assigns the label to all the vertices reachable (ignoring direction
+	 * and removed edges) from the start vertex.
+	 * @return the number of vertices labeled
+	 */
+	protected int labelComponent(int start, int label) {
+		int[] offsets = compactGraph.getIncidentOffsets();
+		int[] incident = compactGraph.getIncidentEdges();
+		int[] ends1 = compactGraph.getEdgeEnd1();
+		int[] ends2 = compactGraph.getEdgeEnd2();
+		int head = 0;
+		int tail = 0;
+		component[start] = label;
+		queue[tail++] = start;
+
+		while (head < tail) {
+			int v = queue[head++];
+			for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+				int e = incident[i];
+				if (!removed[e]) {
+					int w = (ends1[e] == v) ? ends2[e] : ends1[e];
+					if (component[w] != label) {
+						component[w] = label;
+						queue[tail++] = w;
+					}
+				}
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * Recalculates the betweenness of the vertices and remaining edges
+	 * of one or two connected components.
+	 * @param label1 a component
+	 * @param label2 another component, or -1
+	 */
+	protected void recalculateBetweenness(int label1, int label2) {
+		int numSources = 0;
+		for (int v = 0; v < component.length; v++) {
+			if (component[v] == label1 || component[v] == label2) {
+				sources[numSources++] = v;
+			}
+		}
+		betweenness.calculate(sources, numSources, parallelism);
+		double[] newEdgeScores = betweenness.getEdgeScores();
+		double[] newVertexScores = betweenness.getVertexScores();
+		int[] offsets = compactGraph.getIncidentOffsets();
+		int[] incident = compactGraph.getIncidentEdges();
+
+		for (int i = 0; i < numSources; i++) {
+			int v = sources[i];
+			vertexScores[v] = newVertexScores[v];
+			for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+				int e = incident[j];
+				if (!removed[e]) {
+					edgeScores[e] = newEdgeScores[e];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the remaining edge with the highest betweenness (the first
+	 * such edge, if there are ties) and updates the betweenness values
+	 * of its component.
+	 * @return the edge removed, or null if there were no edges left
+	 */
+	public E removeNextEdge() {
+		int best = -1;
+		for (int e = 0; e < edgeScores.length; e++) {
+			if (!removed[e]
+					&& (best < 0 || edgeScores[e] > edgeScores[best])) {
+				best = e;
+			}
+		}
+		E removedEdge = null;
+
+		if (best >= 0) {
+			removedEdge = compactGraph.getEdge(best);
+			removed[best] = true;
+			removalRank[best] = edgesRemoved.size();
+			edgesRemoved.add(removedEdge);
+			int end1 = compactGraph.getEdgeEnd1()[best];
+			int end2 = compactGraph.getEdgeEnd2()[best];
+			int label = component[end1];
+
+			// See whether the component has split in two
+			labelComponent(end1, numComponents);
+			if (component[end2] != numComponents) {
+				int newLabel = numComponents++;
+				recalculateBetweenness(label, newLabel);
+			} else {
+				labelComponent(end1, label);
+				recalculateBetweenness(label, -1);
+			}
+			componentCounts.add(numComponents);
+		}
+		return removedEdge;
+	}
+
+	/**
+	 * Removes edges until the specified number have been removed.
+	 * @param numEdgesToRemove the number of edges that should be removed
+	 * @throws IllegalArgumentException if the graph does not have that
+	 * many edges
+	 */
+	public void removeEdges(int numEdgesToRemove) {
+		if (numEdgesToRemove < 0
+				|| numEdgesToRemove > compactGraph.getEdgeCount()) {
+			throw new IllegalArgumentException(
+					"Invalid number of edges passed in.");
+		}
+		while (edgesRemoved.size() < numEdgesToRemove) {
+			removeNextEdge();
+		}
+	}
+
+	/**
+	 * @param numEdgesRemoved the number of edges removed (which must not
+	 * exceed getNumEdgesRemoved())
+	 * @return the connected components after that number of edges were
+	 * removed
+	 */
+	public Set<Set<V>> getClusters(int numEdgesRemoved) {
+		int numVertices = compactGraph.getVertexCount();
+		int[] ends1 = compactGraph.getEdgeEnd1();
+		int[] ends2 = compactGraph.getEdgeEnd2();
+		int[] parents = new int[numVertices];
+		for (int v = 0; v < numVertices; v++) {
+			parents[v] = v;
+		}
+		for (int e = 0; e < ends1.length; e++) {
+			if (removalRank[e] < 0 || removalRank[e] >= numEdgesRemoved) {
+				int root1 = findRoot(parents, ends1[e]);
+				int root2 = findRoot(parents, ends2[e]);
+				if (root1 != root2) {
+					parents[root1] = root2;
+				}
+			}
+		}
+		HashMap<Integer, Set<V>> clusterMap = new HashMap<Integer, Set<V>>();
+		for (int v = 0; v < numVertices; v++) {
+			int root = findRoot(parents, v);
+			Set<V> cluster = clusterMap.get(root);
+			if (cluster == null) {
+				cluster = new HashSet<V>();
+				clusterMap.put(root, cluster);
+			}
+			cluster.add(compactGraph.getVertex(v));
+		}
+		return new HashSet<Set<V>>(clusterMap.values());
+	}
+
+	private static int findRoot(int[] parents, int v) {
+		while (parents[v] != v) {
+			parents[v] = parents[parents[v]];
+			v = parents[v];
+		}
+		return v;
+	}
+
+	/**
+	 * @param numEdgesRemoved the number of edges removed (which must not
+	 * exceed getNumEdgesRemoved())
+	 * @return the number of connected components after that number of
+	 * edges were removed
+	 */
+	public int getNumClusters(int numEdgesRemoved) {
+		return componentCounts.get(numEdgesRemoved);
+	}
+
+	/**
+	 * @return the number of edges removed so far
+	 */
+	public int getNumEdgesRemoved() {
+		return edgesRemoved.size();
+	}
+
+	/**
+	 * @param numEdgesRemoved the number of edges removed (which must not
+	 * exceed getNumEdgesRemoved())
+	 * @return the first edges removed, in order
+	 */
+	public List<E> getEdgesRemoved(int numEdgesRemoved) {
+		return new ArrayList<E>(edgesRemoved.subList(0, numEdgesRemoved));
+	}
+
+	/**
+	 * @return the current betweenness of the edge if it has not been
+	 * removed, otherwise its betweenness when it was removed
+	 */
+	public double getEdgeScore(E edge) {
+		return edgeScores[compactGraph.getEdgeIndex(edge)];
+	}
+
+	/**
+	 * @return the current betweenness of the vertex
+	 */
+	public double getVertexScore(V vertex) {
+		return vertexScores[compactGraph.getVertexIndex(vertex)];
+	}
+
+	/**
+	 * @return the graph being clustered
+	 */
+	public Graph<V, E> getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return the edges of the graph that have not been removed
+	 */
+	public List<E> getRemainingEdges() {
+		List<E> remaining = new ArrayList<E>();
+		for (int e = 0; e < removed.length; e++) {
+			if (!removed[e]) {
+				remaining.add(compactGraph.getEdge(e));
+			}
+		}
+		return remaining;
+	}
+
+	/**
+	 * @return the vertices of the graph
+	 */
+	public List<V> getVertices() {
+		return compactGraph.getVertices();
+	}
+
+}
@@ -0,0 +1,357 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * An agglomerative clusterer that produces the same dendrogram as
+ * MatrixBasedAgglomerativeClusterer, but rather than building a new
+ * DistanceMatrix after every merge, it updates a single packed triangular
+ * array in place using the Lance-Williams recurrences for single, complete,
+ * and average linkage.  The row of one of the merged clusters is reused
+ * for the new cluster; the other row is marked dead.
+ * 
+ * The inherited distanceMatrix continues to hold the distances between
+ * the original individuals.
+ * @author kcassell
+ */
+public class LanceWilliamsClusterer extends MatrixBasedAgglomerativeClusterer {
+
+	/** The distances between the current clusters, stored as a packed
+	 * lower triangle (without the diagonal) indexed by slot.
+	 * @see #triangleIndex(int, int) */
+	protected double[] distances = null;
+
+	/** The number of individuals in the cluster occupying each slot.
+	 * Dead slots have a size of 0. */
+	protected int[] sizes = null;
+
+	/** The name of the cluster (or individual) occupying each slot. */
+	protected String[] slotNames = null;
+
+	/** The live slots, kept in the same order that MatrixBasedAgglomerativeClusterer
+	 * keeps its headers, so that ties are broken identically. */
+	protected int[] order = null;
+
+	/** The number of live slots at the front of order. */
+	protected int activeCount = 0;
+
+	/** Maps the name of a live cluster (or individual) to its slot. */
+	protected HashMap<String, Integer> slotIndex =
+		new HashMap<String, Integer>();
+
+    /**
+     * Given a list of (nonclustered) objects and a calculator to calculate
+     * the distances between them, initialize the clusterer by building
+     * the distance matrix.
+     * @param elements a collection of things to be clustered
+     * @param calc calculates the distances between objects
+     */
+	public LanceWilliamsClusterer(List<String> elements,
+			DistanceCalculatorIfc<String> calc) {
+		super(elements, calc);
+		initializeSlots();
+	}
+
+    /**
+     * Given a list of (nonclustered) objects and a calculator to calculate
+     * the distances between them, initialize the clusterer by building
+     * the distance matrix.
+     * @param elements a collection of things to be clustered
+     * @param calc calculates the distances between objects
+     * @param linkage e.g. single link
+     */
+	public LanceWilliamsClusterer(List<String> elements,
+			DistanceCalculatorIfc<String> calc,
+			String linkage) {
+		super(elements, calc, linkage);
+		initializeSlots();
+	}
+
+    /**
+     * Initialize the clusterer with a copy of a distance matrix between
+     * the (nonclustered) objects that was built earlier, e.g. by
+     * buildBaseMatrix.
+     * @param baseMatrix the distances between the objects to be clustered
+     * @param calc calculates the distances between objects
+     * @param linkage e.g. single link
+     */
+	public LanceWilliamsClusterer(DistanceMatrix<String> baseMatrix,
+			DistanceCalculatorIfc<String> calc,
+			String linkage) {
+		super(baseMatrix, calc, linkage);
+		initializeSlots();
+	}
+
+	/**
+	 * Copies the distances between the original individuals into
+	 * the packed triangular array.
+	 */
+	protected void initializeSlots() {
+		List<String> headers = distanceMatrix.getHeaders();
+		int size = headers.size();
+		distances = new double[size * (size - 1) / 2];
+		sizes = new int[size];
+		slotNames = new String[size];
+		order = new int[size];
+		activeCount = size;
+
+		for (int row = 0; row < size; row++) {
+			String obj1 = headers.get(row);
+			slotNames[row] = obj1;
+			sizes[row] = 1;
+			order[row] = row;
+			slotIndex.put(obj1, row);
+			for (int col = 0; col < row; col++) {
+				distances[triangleIndex(row, col)] =
+					distanceMatrix.getDistance(row, col);
+			}
+		}
+	}
+
+	/**
+	 * @return the position in the packed lower triangle of the distance
+	 * between the two (distinct) slots
+	 */
+	protected static int triangleIndex(int slot1, int slot2) {
+		int index = (slot1 > slot2)
+			? (slot1 * (slot1 - 1)) / 2 + slot2
+			: (slot2 * (slot2 - 1)) / 2 + slot1;
+		return index;
+	}
+
+	/**
+	 * @return the identifiers of the clusters
+	 */
+	public Collection<String> getClusters() {
+		List<String> clusters = new ArrayList<String>(activeCount);
+		for (int position = 0; position < activeCount; position++) {
+			clusters.add(slotNames[order[position]]);
+		}
+		return clusters;
+	}
+
+	/**
+	 * Builds a DistanceMatrix holding the distances between the
+	 * current clusters.  This is not used during clustering.
+	 * @return a snapshot of the current distances
+	 */
+	public DistanceMatrix<String> getDistanceMatrix() {
+		List<String> headers = new ArrayList<String>(getClusters());
+		DistanceMatrix<String> snapshot = new DistanceMatrix<String>(headers);
+
+		for (int row = 0; row < activeCount; row++) {
+			int slot1 = order[row];
+			for (int col = 0; col < row; col++) {
+				int slot2 = order[col];
+				snapshot.setDistance(slotNames[slot1], slotNames[slot2],
+						distances[triangleIndex(slot1, slot2)]);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Add a new level of clustering
+	 */
+	protected MemberCluster clusterOnce() {
+		Distance<String> nearest = findNearest();
+		MemberCluster cluster = createCluster(nearest);
+		updateDistances(cluster);
+		return cluster;
+	}
+
+	/**
+	 * Scans the live slots in header order, so that ties are broken
+	 * the same way as DistanceMatrix.findNearest.
+	 * @return the two clusters that are closest together.
+	 */
+	protected Distance<String> findNearest() {
+		Distance<String> nearest = null;
+
+		if (activeCount > 1) {
+			int nearestRow = 1;
+			int nearestCol = 0;
+			double unknown = RefactoringConstants.UNKNOWN_DISTANCE.doubleValue();
+			double smallestYet = distances[triangleIndex(order[1], order[0])];
+
+			for (int row = 1; row < activeCount; row++) {
+				int slot1 = order[row];
+				int rowStart = (slot1 * (slot1 - 1)) / 2;
+				for (int col = 0; col < row; col++) {
+					int slot2 = order[col];
+					double distance = (slot1 > slot2)
+						? distances[rowStart + slot2]
+						: distances[triangleIndex(slot1, slot2)];
+					if (distance != unknown && distance < smallestYet) {
+						smallestYet = distance;
+						nearestRow = row;
+						nearestCol = col;
+					}
+				}
+			}
+			String first = slotNames[order[nearestRow]];
+			String second = slotNames[order[nearestCol]];
+			// DistanceMatrix reports its initial guess in header order
+			if (nearestRow == 1 && nearestCol == 0) {
+				first = slotNames[order[0]];
+				second = slotNames[order[1]];
+			}
+			nearest = new Distance<String>(first, second, smallestYet);
+		}
+		return nearest;
+	}
+
+	/**
+	 * Revises the distances after a clustering step.  The new cluster
+	 * takes over the slot of one of its children, whose distances to every
+	 * other live cluster are updated using the Lance-Williams recurrence
+	 * for the current linkage.  The other child's slot is marked dead.
+	 * @param cluster the most recently created cluster
+	 */
+	protected void updateDistances(MemberCluster cluster) {
+		Set<?> children = cluster.getChildren();
+		int[] childSlots = new int[2];
+		int numChildren = 0;
+
+		for (Object child : children) {
+			String childName = (child instanceof MemberCluster)
+				? ((MemberCluster)child).getClusterName() : (String)child;
+			childSlots[numChildren++] = slotIndex.remove(childName);
+		}
+		int keptSlot = Math.min(childSlots[0], childSlots[1]);
+		int deadSlot = Math.max(childSlots[0], childSlots[1]);
+		int keptSize = sizes[keptSlot];
+		int deadSize = sizes[deadSlot];
+
+		for (int position = 0; position < activeCount; position++) {
+			int other = order[position];
+			if (other != keptSlot && other != deadSlot) {
+				int keptIndex = triangleIndex(other, keptSlot);
+				double keptDistance = distances[keptIndex];
+				double deadDistance = distances[triangleIndex(other, deadSlot)];
+				distances[keptIndex] = combineDistances(whichLink,
+						keptDistance, keptSize, deadDistance, deadSize);
+			}
+		}
+		sizes[keptSlot] = keptSize + deadSize;
+		sizes[deadSlot] = 0;
+		String clusterName = cluster.getClusterName();
+		slotNames[keptSlot] = clusterName;
+		slotNames[deadSlot] = null;
+		slotIndex.put(clusterName, keptSlot);
+
+		// Like getNewHeaders, drop both children and append the new cluster
+		int newCount = 0;
+		for (int position = 0; position < activeCount; position++) {
+			int slot = order[position];
+			if (slot != keptSlot && slot != deadSlot) {
+				order[newCount++] = slot;
+			}
+		}
+		order[newCount++] = keptSlot;
+		activeCount = newCount;
+	}
+
+	/**
+	 * The Lance-Williams recurrence for the distance from some cluster k
+	 * to the union of clusters i and j.  The bounds match those applied by
+	 * MatrixBasedAgglomerativeClusterer.getDistanceToGroup.
+	 * @param linkage single, complete, or average link
+	 * @param distanceI the distance from k to i
+	 * @param sizeI the number of individuals in i
+	 * @param distanceJ the distance from k to j
+	 * @param sizeJ the number of individuals in j
+	 * @return the distance from k to the union of i and j
+	 */
+	protected static double combineDistances(ClusterCombinationEnum linkage,
+			double distanceI, int sizeI, double distanceJ, int sizeJ) {
+		double result = 0.0;
+		if (linkage == ClusterCombinationEnum.SINGLE_LINK) {
+			result = Math.min(1.0, Math.min(distanceI, distanceJ));
+		} else if (linkage == ClusterCombinationEnum.COMPLETE_LINK) {
+			result = Math.max(0.0, Math.max(distanceI, distanceJ));
+		} else if (linkage == ClusterCombinationEnum.AVERAGE_LINK) {
+			result = (sizeI * distanceI + sizeJ * distanceJ) / (sizeI + sizeJ);
+		}
+		return result;
+	}
+
+	protected boolean continueClustering() {
+		return activeCount > 1;
+	}
+
+	/**
+	 * Cluster the members of a class using Lance-Williams updates.
+	 * @param handle the handle of the class whose members are to be clustered
+	 * @param calc the distance calculator to use
+	 * @throws JavaModelException
+	 */
+	public static MemberCluster clusterUsingCalculator(String handle,
+			DistanceCalculatorIfc<String> calc)
+	throws JavaModelException {
+		List<String> names = getMemberIdentifiers(handle, calc);
+		LanceWilliamsClusterer clusterer =
+			new LanceWilliamsClusterer(names, calc);
+		return clusterer.getSingleCluster();
+	}
+
+	/**
+	 * Cluster the members of a class using Lance-Williams updates.
+	 * @param handle the handle of the class whose members are to be clustered
+	 * @param calc the distance calculator to use
+	 * @param linkage e.g. single link
+	 * @throws JavaModelException
+	 */
+	public static MemberCluster clusterUsingCalculator(String handle,
+			DistanceCalculatorIfc<String> calc,
+			String linkage)
+	throws JavaModelException {
+		List<String> names = getMemberIdentifiers(handle, calc);
+		LanceWilliamsClusterer clusterer =
+			new LanceWilliamsClusterer(names, calc, linkage);
+		return clusterer.getSingleCluster();
+	}
+
+}
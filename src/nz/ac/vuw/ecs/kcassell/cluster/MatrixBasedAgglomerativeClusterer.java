@@ -41,6 +41,7 @@ import java.util.Set;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.similarity.BatchDistanceCalculatorIfc;
 import nz.ac.vuw.ecs.kcassell.similarity.ClusterDistanceUtils;
 import nz.ac.vuw.ecs.kcassell.similarity.CzibulaDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
@@ -51,6 +52,7 @@ import nz.ac.vuw.ecs.kcassell.similarity.IntraClassDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.JDeodorantDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.LevenshteinDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.LocalNeighborhoodDistanceCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.PrefetchingDistanceCalculatorIfc;
 import nz.ac.vuw.ecs.kcassell.similarity.SimonDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.VectorSpaceModelCalculator;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
@@ -150,26 +152,204 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 		logger.info(distanceMatrix.toString());
 	}
 
+    /**
+     * Initialize the clusterer with a copy of a distance matrix between
+     * the (nonclustered) objects that was built earlier, e.g. by
+     * buildBaseMatrix.  This lets clusterers with different linkages
+     * share the work of calculating the distances.
+     * @param baseMatrix the distances between the objects to be clustered
+     * @param calc calculates the distances between objects
+     * @param linkage e.g. single link
+     */
+	public MatrixBasedAgglomerativeClusterer(DistanceMatrix<String> baseMatrix,
+			DistanceCalculatorIfc<String> calc,
+			String linkage) {
+		distanceCalculator = calc;
+		whichLink = ClusterCombinationEnum.valueOf(linkage);
+		for (String element : baseMatrix.getHeaders()) {
+			clusterHistory.put(element, null);
+		}
+		distanceMatrix = new DistanceMatrix<String>(baseMatrix);
+		originalMatrix = distanceMatrix;
+	}
+
 	/**
 	 * Use the distance calculator to fill in the distance matrix
 	 * for the elements provided.
 	 * @param elements usually the handles for the class members
 	 */
 	protected void buildDistanceMatrix(List<String> elements) {
-		distanceMatrix = new DistanceMatrix<String>(elements);
-		for (int row = 0; row < elements.size(); row++) {
-			String obj1 = elements.get(row);
-//			clusterHistory.put(obj1, null);	// "Cluster" of one element
-			for (int col = 0; col <= row; col++) {
-				String obj2 = elements.get(col);
-				Number distance = calculateDistance(obj1, obj2);
-				if (distance.equals(RefactoringConstants.UNKNOWN_DISTANCE)) {
-					distance = 1.0;
-				} else {
-					distance = Math.max(0.0, distance.doubleValue());
+		distanceMatrix = new DistanceMatrix<String>(elements, true);
+		distanceMatrix.fillMatrix(new BoundedDistanceCalculator(distanceCalculator));
+	}
+
+	/**
+	 * Use the distance calculator to fill in the distance matrix
+	 * for the elements provided, using the number of threads given.
+	 * @param elements usually the handles for the class members
+	 * @param parallelism the number of threads to use
+	 */
+	protected void buildDistanceMatrix(List<String> elements, int parallelism) {
+		distanceMatrix = new DistanceMatrix<String>(elements, true);
+		distanceMatrix.fillMatrix(
+				new BoundedDistanceCalculator(distanceCalculator), parallelism);
+	}
+
+	/**
+	 * Builds the distance matrix that the constructors would build.
+	 * The only way the linkage affects it is through the value used
+	 * for unknown distances (see getUnknownDistance), so the matrix can
+	 * be shared by clusterers whose linkages use the same value.
+	 * @param elements usually the handles for the class members
+	 * @param calc calculates the distances between objects
+	 * @param linkage e.g. single link
+	 * @param parallelism the number of threads to use
+	 * @return the distances between the elements
+	 */
+	public static DistanceMatrix<String> buildBaseMatrix(List<String> elements,
+			DistanceCalculatorIfc<String> calc, String linkage,
+			int parallelism) {
+		MatrixBasedAgglomerativeClusterer builder =
+			new MatrixBasedAgglomerativeClusterer();
+		builder.distanceCalculator = calc;
+		builder.whichLink = ClusterCombinationEnum.valueOf(linkage);
+		builder.buildDistanceMatrix(elements, parallelism);
+		return builder.distanceMatrix;
+	}
+
+	/**
+	 * @param linkage e.g. single link
+	 * @return the distance used when the distance between two
+	 * individuals cannot be calculated
+	 */
+	public static double getUnknownDistance(ClusterCombinationEnum linkage) {
+		return (linkage == ClusterCombinationEnum.SINGLE_LINK) ? 1.0 : 0.0;
+	}
+
+	/**
+	 * Calculates the distances used to build the initial distance matrix,
+	 * i.e. the distances from calculateDistance, with unknown distances
+	 * treated as 1.0 and negative distances as 0.0.  This is thread safe
+	 * to the extent that the underlying calculator is.
+	 */
+	protected class BoundedDistanceCalculator
+	implements BatchDistanceCalculatorIfc<String>,
+	PrefetchingDistanceCalculatorIfc<String> {
+
+		/** Calculates the distances between individuals. */
+		protected DistanceCalculatorIfc<String> calc = null;
+
+		protected BoundedDistanceCalculator(DistanceCalculatorIfc<String> calc) {
+			this.calc = calc;
+		}
+
+		public Number calculateDistance(String obj1, String obj2) {
+			Number distance =
+				MatrixBasedAgglomerativeClusterer.this.calculateDistance(
+						obj1, obj2, calc);
+			return bound(distance.doubleValue());
+		}
+
+		/**
+		 * When every identifier names an individual rather than a
+		 * cluster (e.g. before any merges), the row can be passed to the
+		 * underlying calculator (possibly as a batch) after converting
+		 * the identifiers the way calculateDistance does.
+		 */
+		public void calculateRow(String obj1, List<String> others,
+				double[] distances) {
+			if (!isIndividual(obj1) || !areIndividuals(others)) {
+				DistanceMatrix.calculateRowPairwise(this, obj1, others,
+						distances);
+			} else {
+				String name1 = obj1;
+				List<String> names = others;
+				if (!DistanceCalculatorEnum.usesHandles(calc.getType())) {
+					name1 = EclipseUtils.getNameFromHandle(obj1);
+					names = new ArrayList<String>(others.size());
+					for (String other : others) {
+						names.add(EclipseUtils.getNameFromHandle(other));
+					}
 				}
-				distanceMatrix.setDistance(obj1, obj2, distance);
+				DistanceMatrix.calculateRow(calc, name1, names, distances);
+				double unknown = getUnknownDistance(whichLink);
+				int numOthers = others.size();
+
+				for (int i = 0; i < numOthers; i++) {
+					double distance = distances[i];
+					if (Double.isNaN(distance)) {
+						distance = unknown;
+					}
+					distances[i] = bound(distance);
+				}
+			}
+		}
+
+		/**
+		 * @return true if the identifier is not null and does not name
+		 * a cluster formed by merging
+		 */
+		protected boolean isIndividual(String id) {
+			return (id != null) && (clusterHistory.get(id) == null);
+		}
+
+		protected boolean areIndividuals(List<String> ids) {
+			boolean result = true;
+			for (int i = 0; result && i < ids.size(); i++) {
+				result = isIndividual(ids.get(i));
+			}
+			return result;
+		}
+
+		/**
+		 * Passes the identifiers (converted the way calculateDistance
+		 * does) on to the underlying calculator, if it prefetches.
+		 */
+		@SuppressWarnings("unchecked")
+		public void prefetch(Collection<String> objects) {
+			if (calc instanceof PrefetchingDistanceCalculatorIfc<?>) {
+				Collection<String> names = objects;
+				if (!DistanceCalculatorEnum.usesHandles(calc.getType())) {
+					names = new ArrayList<String>(objects.size());
+					for (String object : objects) {
+						names.add(EclipseUtils.getNameFromHandle(object));
+					}
+				}
+				((PrefetchingDistanceCalculatorIfc<String>)calc).prefetch(names);
+			}
+		}
+
+		/**
+		 * @return 1.0 for the unknown distance, otherwise the distance
+		 * if it is not negative and 0.0 if it is
+		 */
+		protected double bound(double distance) {
+			double bounded = 0.0;
+			if (distance == RefactoringConstants.UNKNOWN_DISTANCE.doubleValue()) {
+				bounded = 1.0;
+			} else {
+				bounded = Math.max(0.0, distance);
+			}
+			return bounded;
+		}
+
+		public DistanceCalculatorEnum getType() {
+			return calc.getType();
+		}
+
+		public boolean isThreadSafe() {
+			return calc.isThreadSafe();
+		}
+
+		public DistanceCalculatorIfc<String> copyForThread() {
+			DistanceCalculatorIfc<String> copy = null;
+			DistanceCalculatorIfc<String> calcCopy = calc.copyForThread();
+			if (calcCopy == calc) {
+				copy = this;
+			} else if (calcCopy != null) {
+				copy = new BoundedDistanceCalculator(calcCopy);
 			}
+			return copy;
 		}
 	}
 
@@ -188,7 +368,7 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	 * @return the clusters
 	 */
 	public Collection<MemberCluster> getMemberClusters() {
-		List<String> headers = distanceMatrix.getHeaders();
+		Collection<String> headers = getClusters();
 		ArrayList<MemberCluster> memberClusters = new ArrayList<MemberCluster>();
 		
 		for (String header : headers) {
@@ -354,7 +534,8 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	protected DistanceMatrix<String> modifyMatrix(MemberCluster cluster) {
 		String clusterName = cluster.getClusterName();
 		List<String> headers = getNewHeaders(cluster);
-		DistanceMatrix<String> newMatrix = new DistanceMatrix<String>(headers);
+		DistanceMatrix<String> newMatrix =
+			new DistanceMatrix<String>(headers, true);
 		
 		// Copy over old matrix values, except for last row, which is new.
 		int numElements = headers.size();
@@ -441,12 +622,23 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	 * @return between 0 (identical) and 1 (completely different)
 	 */
 	protected Number calculateDistance(String s1, String s2) {
-		Double result =(whichLink == ClusterCombinationEnum.SINGLE_LINK)
-		    ? 1.0 : 0.0;
+		return calculateDistance(s1, s2, distanceCalculator);
+	}
+
+	/**
+	 * Calculates the distance between the objects corresponding
+	 * to the identifiers, as calculateDistance(String, String) does,
+	 * but using the calculator provided.
+	 * @param calc calculates the distances between individuals
+	 * @return between 0 (identical) and 1 (completely different)
+	 */
+	protected Number calculateDistance(String s1, String s2,
+			DistanceCalculatorIfc<String> calc) {
+		Double result = getUnknownDistance(whichLink);
 
 		if (s1 != null && s2 != null) {
 			// VectorSpaceModelCalculator uses handles, not "simple names"
-			DistanceCalculatorEnum calcType = distanceCalculator.getType();
+			DistanceCalculatorEnum calcType = calc.getType();
 			if (!DistanceCalculatorEnum.usesHandles(calcType)) {
 				s1 = EclipseUtils.getNameFromHandle(s1);
 				s2 = EclipseUtils.getNameFromHandle(s2);
@@ -459,20 +651,21 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 			if (cluster1 == null) {
 				// Cluster1 and cluster2 are single elements (handles)
 				if (cluster2 == null) {
-					result = calculateDistanceBetweenIndividuals(s1, s2, result);
+					result = calculateDistanceBetweenIndividuals(s1, s2,
+							result, calc);
 				} else { // cluster2 is a true cluster
-					result = getDistanceToGroup(s1, cluster2, result);
+					result = getDistanceToGroup(s1, cluster2, result, calc);
 				}
 			}	// if (cluster1 == null)
 			// Cluster1 is a true cluster
 			else { // cluster2 is a single element
 				if (cluster2 == null) {
-					result = getDistanceToGroup(s2, cluster1, result);
+					result = getDistanceToGroup(s2, cluster1, result, calc);
 				} else { // Both s1 and s2 are clusters
-					Set<String> ids1 = cluster1.getElements();
+					String[] ids1 = cluster1.getElementArray();
 					for (String id1 : ids1) {
 						Double distance =
-							getDistanceToGroup(id1, cluster2, result);
+							getDistanceToGroup(id1, cluster2, result, calc);
 						if ((whichLink == ClusterCombinationEnum.SINGLE_LINK)
 								&& distance.compareTo(result) < 0) {
 							result = distance;
@@ -484,7 +677,7 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 						}
 					}	// for
 					if ((whichLink == ClusterCombinationEnum.AVERAGE_LINK)) {
-						result /= ids1.size();
+						result /= ids1.length;
 					}
 				}	// Both s1 and s2 are clusters
 			}	// cluster2 is a single element
@@ -493,8 +686,8 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	}
 
 	private Double calculateDistanceBetweenIndividuals(String s1, String s2,
-			Double result) {
-		Number nDistance = distanceCalculator.calculateDistance(s1, s2);
+			Double result, DistanceCalculatorIfc<String> calc) {
+		Number nDistance = calc.calculateDistance(s1, s2);
 		if (nDistance != null) {
 			result = nDistance.doubleValue();
 		} else {
@@ -513,18 +706,33 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	 */
 	protected Double getDistanceToGroup(String s1,
 			MemberCluster cluster, Double oldResult) {
+		return getDistanceToGroup(s1, cluster, oldResult, distanceCalculator);
+	}
+
+	/**
+	 * Get the distance from the element specified
+	 * to any member of the group.
+	 * @param s1 the single element
+	 * @param ids the group
+	 * @param result the distance so far
+	 * @param calc calculates the distances between individuals
+	 * @return the distance
+	 */
+	protected Double getDistanceToGroup(String s1,
+			MemberCluster cluster, Double oldResult,
+			DistanceCalculatorIfc<String> calc) {
 		Double newResult = null;
 		if (whichLink == ClusterCombinationEnum.SINGLE_LINK) {
+			// The distance so far bounds the distances still to calculate
 			newResult = ClusterDistanceUtils.singleLinkDistance(
-					s1, cluster, originalMatrix, distanceCalculator);
-			newResult = Math.min(newResult, oldResult);
+					s1, cluster, originalMatrix, calc, oldResult);
 		} else if (whichLink == ClusterCombinationEnum.COMPLETE_LINK) {
 			newResult = ClusterDistanceUtils.completeLinkDistance(
-					s1, cluster, originalMatrix, distanceCalculator);
+					s1, cluster, originalMatrix, calc);
 			newResult = Math.max(newResult, oldResult);
 		} else if ((whichLink == ClusterCombinationEnum.AVERAGE_LINK)) {
 			newResult = ClusterDistanceUtils.averageLinkDistance(
-					s1, cluster, originalMatrix, distanceCalculator);
+					s1, cluster, originalMatrix, calc);
 		}
 		return newResult;
 	}
@@ -684,14 +892,14 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 			String member1 = headers.get(i);
 			for (int j = 0; j < i; j++) {
 				String member2 = headers.get(j);
-				Number distance = distanceMatrix.getDistance(member1, member2);
+				double distance = distanceMatrix.getDistance(i, j);
 				
-				if (!RefactoringConstants.UNKNOWN_DISTANCE.equals(distance)
-						&& !distance.equals(1.0)) {
+				if (distance != RefactoringConstants.UNKNOWN_DISTANCE.doubleValue()
+						&& distance != 1.0) {
 					//TODO parameterize - here, assuming 1.0 is the max distance
 					// (as for Jaccard distance)
 					CallGraphLink link = linkFactory.create();
-					edgeWeights.put(link, distance.doubleValue());
+					edgeWeights.put(link, distance);
 					link.setWeight(distance);
 					graph.addEdge(link, member1, member2);
 				}
@@ -717,13 +925,7 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	public static MemberCluster clusterUsingCalculator(String handle,
 			DistanceCalculatorIfc<String> calc)
 	throws JavaModelException {
-		List<String> names = null;
-		DistanceCalculatorEnum calcType = calc.getType();
-		if (DistanceCalculatorEnum.usesHandles(calcType)) {
-			names = EclipseUtils.getFilteredMemberHandles(handle);
-		} else {
-			names = EclipseUtils.getFilteredMemberNames(handle);
-		}
+		List<String> names = getMemberIdentifiers(handle, calc);
 		MatrixBasedAgglomerativeClusterer clusterer =
 			new MatrixBasedAgglomerativeClusterer(names, calc);
 		MemberCluster cluster = clusterer.getSingleCluster();
@@ -739,6 +941,23 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	public static MemberCluster clusterUsingCalculator(String handle,
 			DistanceCalculatorIfc<String> calc,
 			String linkage)
+	throws JavaModelException {
+		List<String> names = getMemberIdentifiers(handle, calc);
+		MatrixBasedAgglomerativeClusterer clusterer =
+			new MatrixBasedAgglomerativeClusterer(names, calc, linkage);
+		MemberCluster cluster = clusterer.getSingleCluster();
+		return cluster;
+	}
+
+	/**
+	 * @param handle the handle of the class whose members are to be clustered
+	 * @param calc the distance calculator to use
+	 * @return the member handles if the calculator needs them,
+	 * otherwise the member names
+	 * @throws JavaModelException
+	 */
+	public static List<String> getMemberIdentifiers(String handle,
+			DistanceCalculatorIfc<String> calc)
 	throws JavaModelException {
 		List<String> names = null;
 		DistanceCalculatorEnum calcType = calc.getType();
@@ -747,10 +966,7 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 		} else {
 			names = EclipseUtils.getFilteredMemberNames(handle);
 		}
-		MatrixBasedAgglomerativeClusterer clusterer =
-			new MatrixBasedAgglomerativeClusterer(names, calc, linkage);
-		MemberCluster cluster = clusterer.getSingleCluster();
-		return cluster;
+		return names;
 	}
 
 }
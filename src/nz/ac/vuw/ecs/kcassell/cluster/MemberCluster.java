@@ -37,12 +37,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
 
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
 import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
@@ -80,6 +82,22 @@ public class MemberCluster implements ClusterIfc<String> {
 	/** The distance between the subclusters. */
 	protected Double distance = Double.MIN_VALUE;
 
+	/**
+	 * The elements (including those in subclusters) in dendrogram order.
+	 * This is computed when first needed, from the subclusters' arrays,
+	 * and recomputed only if the cluster is changed.
+	 */
+	protected String[] elementArray = null;
+
+	/** An unmodifiable set of the elements, computed when first needed. */
+	protected Set<String> elementSet = null;
+
+	/** The matrix whose indices are held in elementIndices. */
+	protected DistanceMatrix<String> indexedMatrix = null;
+
+	/** The index of each member of elementArray in indexedMatrix. */
+	protected int[] elementIndices = null;
+
 	/**
 	 * @return the clusterName
 	 */
@@ -107,18 +125,33 @@ public class MemberCluster implements ClusterIfc<String> {
 	public void addElement(String element) {
 		children.add(element);
 		elementCount++;
+		membershipChanged();
 	}
 
 	@SuppressWarnings("unchecked")
 	public void addElements(Collection<String> elements) {
 		children.addAll(elements);
 		elementCount += elements.size();
+		membershipChanged();
 	}
 
 	@SuppressWarnings("unchecked")
 	public void addCluster(MemberCluster cluster) {
 		children.add(cluster);
 		elementCount += cluster.getElementCount();
+		membershipChanged();
+	}
+
+	/**
+	 * Discards the memoized membership.  Clusters are not expected to change
+	 * once they have become part of another cluster, as the parent's
+	 * membership would not be recomputed.
+	 */
+	protected synchronized void membershipChanged() {
+		elementArray = null;
+		elementSet = null;
+		indexedMatrix = null;
+		elementIndices = null;
 	}
 
 	/**
@@ -129,20 +162,71 @@ public class MemberCluster implements ClusterIfc<String> {
 		return elementCount;
 	}
 
-	/** @return the elements in the cluster (including those in subclusters. */
-	public Set<String> getElements() {
-		Set<String> elements = new HashSet<String>();
+	/**
+	 * @return an unmodifiable set of the elements in the cluster (including
+	 * those in subclusters).
+	 */
+	public synchronized Set<String> getElements() {
+		if (elementSet == null) {
+			String[] elements = getElementArray();
+			elementSet = Collections.unmodifiableSet(
+					new HashSet<String>(Arrays.asList(elements)));
+		}
+		return elementSet;
+	}
+
+	/**
+	 * The array is shared with the cluster (and its callers), so it
+	 * must not be modified.
+	 * @return the elements in the cluster (including those in subclusters),
+	 * in dendrogram order
+	 */
+	public synchronized String[] getElementArray() {
+		if (elementArray == null) {
+			int size = 0;
+			for (Object obj : children) {
+				if (obj instanceof MemberCluster) {
+					size += ((MemberCluster) obj).getElementArray().length;
+				} else if (obj instanceof String) {
+					size++;
+				}
+			}
+			String[] elements = new String[size];
+			int next = 0;
+			for (Object obj : children) {
+				if (obj instanceof MemberCluster) {
+					String[] subElements = ((MemberCluster) obj).getElementArray();
+					System.arraycopy(subElements, 0, elements, next,
+							subElements.length);
+					next += subElements.length;
+				} else if (obj instanceof String) {
+					elements[next++] = (String) obj;
+				}
+			}
+			elementArray = elements;
+		}
+		return elementArray;
+	}
 
-		for (Object obj : children) {
-			if (obj instanceof String) {
-				elements.add((String) obj);
-			} else if (obj instanceof MemberCluster) {
-				MemberCluster cluster = (MemberCluster) obj;
-				Set<String> elements2 = cluster.getElements();
-				elements.addAll(elements2);
+	/**
+	 * Looks up the matrix indices of the elements, remembering them for
+	 * the most recently used matrix.  Like getElementArray, the array is
+	 * shared and must not be modified.
+	 * @param matrix contains the distances between elements (may be null)
+	 * @return the index of each element of getElementArray(), or -1 if the
+	 * matrix lacks it
+	 */
+	public synchronized int[] getElementIndices(DistanceMatrix<String> matrix) {
+		if (elementIndices == null || indexedMatrix != matrix) {
+			String[] elements = getElementArray();
+			int[] indices = new int[elements.length];
+			for (int i = 0; i < elements.length; i++) {
+				indices[i] = (matrix == null) ? -1 : matrix.getIndex(elements[i]);
 			}
+			elementIndices = indices;
+			indexedMatrix = matrix;
 		}
-		return elements;
+		return elementIndices;
 	}
 
 	/**
@@ -0,0 +1,356 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
+
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * An agglomerative clusterer that builds the whole dendrogram using the
+ * nearest-neighbor chain algorithm.  Starting from any cluster, the chain
+ * is extended by following nearest neighbors until two clusters are each
+ * other's nearest neighbor, at which point they are merged.  For the
+ * reducible linkages (single, complete, and average link), merging a pair
+ * of reciprocal nearest neighbors never invalidates the rest of the chain,
+ * so the full dendrogram takes O(n^2) time.  Distances are updated in
+ * place with the same Lance-Williams recurrences used by
+ * LanceWilliamsClusterer, so beyond the packed distance array only O(n)
+ * memory is needed.
+ * 
+ * Merges are not discovered in order of increasing distance, so the
+ * clusters are named after their rank in that order; the resulting names
+ * and tree match those of MatrixBasedAgglomerativeClusterer (up to ties).
+ * The whole dendrogram is built by the constructor; cluster(int) then
+ * just reports the clusters that exist after the requested number of
+ * merges.  The inherited distanceMatrix holds the distances between the
+ * original individuals.
+ * @author kcassell
+ */
+public class NearestNeighborChainClusterer
+extends MatrixBasedAgglomerativeClusterer {
+
+	/** The clusters created, indexed by the order in which a greedy
+	 * agglomerative clusterer would have created them. */
+	protected MemberCluster[] merges = null;
+
+	/** The cluster containing all of the individuals. */
+	protected MemberCluster root = null;
+
+    /**
+     * Given a list of (nonclustered) objects and a calculator to calculate
+     * the distances between them, build the distance matrix and the
+     * dendrogram.
+     * @param elements a collection of things to be clustered
+     * @param calc calculates the distances between objects
+     */
+	public NearestNeighborChainClusterer(List<String> elements,
+			DistanceCalculatorIfc<String> calc) {
+		super(elements, calc);
+		buildDendrogram();
+	}
+
+    /**
+     * Given a list of (nonclustered) objects and a calculator to calculate
+     * the distances between them, build the distance matrix and the
+     * dendrogram.
+     * @param elements a collection of things to be clustered
+     * @param calc calculates the distances between objects
+     * @param linkage e.g. single link
+     */
+	public NearestNeighborChainClusterer(List<String> elements,
+			DistanceCalculatorIfc<String> calc,
+			String linkage) {
+		super(elements, calc, linkage);
+		buildDendrogram();
+	}
+
+    /**
+     * Build the dendrogram from a copy of a distance matrix between the
+     * (nonclustered) objects that was built earlier, e.g. by
+     * buildBaseMatrix.
+     * @param baseMatrix the distances between the objects to be clustered
+     * @param calc calculates the distances between objects
+     * @param linkage e.g. single link
+     */
+	public NearestNeighborChainClusterer(DistanceMatrix<String> baseMatrix,
+			DistanceCalculatorIfc<String> calc,
+			String linkage) {
+		super(baseMatrix, calc, linkage);
+		buildDendrogram();
+	}
+
+	/**
+	 * Runs the nearest-neighbor chain algorithm over a packed copy of
+	 * the distance matrix, then creates the MemberClusters.
+	 */
+	protected void buildDendrogram() {
+		List<String> headers = distanceMatrix.getHeaders();
+		int size = headers.size();
+		int numMerges = Math.max(0, size - 1);
+		int[] mergeSlots1 = new int[numMerges];
+		int[] mergeSlots2 = new int[numMerges];
+		final double[] mergeDistances = new double[numMerges];
+
+		if (size > 1) {
+			double[] distances = new double[size * (size - 1) / 2];
+			int[] sizes = new int[size];
+			for (int row = 0; row < size; row++) {
+				sizes[row] = 1;
+				for (int col = 0; col < row; col++) {
+					distances[LanceWilliamsClusterer.triangleIndex(row, col)] =
+						distanceMatrix.getDistance(row, col);
+				}
+			}
+			int[] chain = new int[size];
+			int chainLength = 0;
+			int firstLive = 0;
+
+			for (int merge = 0; merge < numMerges;) {
+				if (chainLength == 0) {
+					while (sizes[firstLive] == 0) {
+						firstLive++;
+					}
+					chain[chainLength++] = firstLive;
+				}
+				int current = chain[chainLength - 1];
+				// Prefer the previous link on ties, or the chain may cycle
+				int previous = (chainLength > 1) ? chain[chainLength - 2] : -1;
+				int nearest = previous;
+				double nearestDistance = (previous >= 0)
+					? distances[LanceWilliamsClusterer.triangleIndex(current, previous)]
+					: Double.POSITIVE_INFINITY;
+
+				for (int slot = 0; slot < size; slot++) {
+					if (slot != current && sizes[slot] > 0) {
+						double distance =
+							distances[LanceWilliamsClusterer.triangleIndex(current, slot)];
+						if (distance < nearestDistance) {
+							nearestDistance = distance;
+							nearest = slot;
+						}
+					}
+				}
+				if (previous >= 0 && nearest == previous) {
+					chainLength -= 2;
+					mergeSlots1[merge] = current;
+					mergeSlots2[merge] = previous;
+					mergeDistances[merge] = nearestDistance;
+					mergeSlots(distances, sizes, current, previous);
+					merge++;
+				} else {
+					chain[chainLength++] = nearest;
+				}
+			}
+		}
+		createClusters(headers, mergeSlots1, mergeSlots2, mergeDistances);
+	}
+
+	/**
+	 * Merges the clusters in two slots.  The lower slot takes the new
+	 * cluster, and its distances to every other live cluster are updated
+	 * using the Lance-Williams recurrence for the current linkage.  The
+	 * higher slot is marked dead.
+	 */
+	protected void mergeSlots(double[] distances, int[] sizes,
+			int slot1, int slot2) {
+		int keptSlot = Math.min(slot1, slot2);
+		int deadSlot = Math.max(slot1, slot2);
+		int keptSize = sizes[keptSlot];
+		int deadSize = sizes[deadSlot];
+
+		for (int other = 0; other < sizes.length; other++) {
+			if (sizes[other] > 0 && other != keptSlot && other != deadSlot) {
+				int keptIndex = LanceWilliamsClusterer.triangleIndex(other, keptSlot);
+				double deadDistance =
+					distances[LanceWilliamsClusterer.triangleIndex(other, deadSlot)];
+				distances[keptIndex] =
+					LanceWilliamsClusterer.combineDistances(whichLink,
+							distances[keptIndex], keptSize, deadDistance, deadSize);
+			}
+		}
+		sizes[keptSlot] = keptSize + deadSize;
+		sizes[deadSlot] = 0;
+	}
+
+	/**
+	 * Creates the MemberClusters for the merges, in the order in which
+	 * they were found.  A slot always holds the cluster containing the
+	 * individual that started in it, so a union-find over the original
+	 * slots identifies the clusters being merged.
+	 * @param headers the original individuals
+	 * @param mergeSlots1 one slot of each merge
+	 * @param mergeSlots2 the other slot of each merge
+	 * @param mergeDistances the distance at which each merge happened
+	 */
+	protected void createClusters(List<String> headers,
+			int[] mergeSlots1, int[] mergeSlots2,
+			final double[] mergeDistances) {
+		int numMerges = mergeDistances.length;
+		Integer[] byDistance = new Integer[numMerges];
+		for (int merge = 0; merge < numMerges; merge++) {
+			byDistance[merge] = merge;
+		}
+		// Stable, so equal distances stay in the order they were found
+		Arrays.sort(byDistance, new Comparator<Integer>() {
+			public int compare(Integer merge1, Integer merge2) {
+				return Double.compare(mergeDistances[merge1],
+						mergeDistances[merge2]);
+			}
+		});
+		int[] ranks = new int[numMerges];
+		for (int rank = 0; rank < numMerges; rank++) {
+			ranks[byDistance[rank]] = rank;
+		}
+
+		int size = headers.size();
+		int[] parents = new int[size];
+		String[] names = new String[size];
+		for (int slot = 0; slot < size; slot++) {
+			parents[slot] = slot;
+			names[slot] = headers.get(slot);
+		}
+		merges = new MemberCluster[numMerges];
+
+		for (int merge = 0; merge < numMerges; merge++) {
+			int root1 = findRoot(parents, mergeSlots1[merge]);
+			int root2 = findRoot(parents, mergeSlots2[merge]);
+			previousIteration = ranks[merge];
+			Distance<String> neighbors = new Distance<String>(names[root1],
+					names[root2], mergeDistances[merge]);
+			MemberCluster cluster = createCluster(neighbors);
+			parents[root2] = root1;
+			names[root1] = cluster.getClusterName();
+			merges[ranks[merge]] = cluster;
+			root = cluster;
+		}
+		previousIteration = 0;
+	}
+
+	/**
+	 * @return the representative of the set containing the slot
+	 */
+	private static int findRoot(int[] parents, int slot) {
+		int root = slot;
+		while (parents[root] != root) {
+			root = parents[root];
+		}
+		while (parents[slot] != root) {
+			int next = parents[slot];
+			parents[slot] = root;
+			slot = next;
+		}
+		return root;
+	}
+
+	/**
+	 * @return the identifiers of the clusters that exist after the
+	 * merges performed so far
+	 */
+	public Collection<String> getClusters() {
+		Set<String> clusters =
+			new LinkedHashSet<String>(distanceMatrix.getHeaders());
+		for (int rank = 0; rank < previousIteration; rank++) {
+			MemberCluster cluster = merges[rank];
+			for (Object child : cluster.getChildren()) {
+				String childName = (child instanceof MemberCluster)
+					? ((MemberCluster)child).getClusterName() : (String)child;
+				clusters.remove(childName);
+			}
+			clusters.add(cluster.getClusterName());
+		}
+		return new ArrayList<String>(clusters);
+	}
+
+	/**
+     * @return the cluster of everything.
+     */
+	public MemberCluster getSingleCluster() {
+		previousIteration = merges.length;
+		return root;
+	}
+
+	/**
+	 * @return the next cluster in order of increasing distance; the
+	 * caller is responsible for advancing previousIteration
+	 */
+	protected MemberCluster clusterOnce() {
+		return merges[previousIteration];
+	}
+
+	protected boolean continueClustering() {
+		return previousIteration < merges.length;
+	}
+
+	/**
+	 * Cluster the members of a class using the nearest-neighbor chain.
+	 * @param handle the handle of the class whose members are to be clustered
+	 * @param calc the distance calculator to use
+	 * @throws JavaModelException
+	 */
+	public static MemberCluster clusterUsingCalculator(String handle,
+			DistanceCalculatorIfc<String> calc)
+	throws JavaModelException {
+		List<String> names = getMemberIdentifiers(handle, calc);
+		NearestNeighborChainClusterer clusterer =
+			new NearestNeighborChainClusterer(names, calc);
+		return clusterer.getSingleCluster();
+	}
+
+	/**
+	 * Cluster the members of a class using the nearest-neighbor chain.
+	 * @param handle the handle of the class whose members are to be clustered
+	 * @param calc the distance calculator to use
+	 * @param linkage e.g. single link
+	 * @throws JavaModelException
+	 */
+	public static MemberCluster clusterUsingCalculator(String handle,
+			DistanceCalculatorIfc<String> calc,
+			String linkage)
+	throws JavaModelException {
+		List<String> names = getMemberIdentifiers(handle, calc);
+		NearestNeighborChainClusterer clusterer =
+			new NearestNeighborChainClusterer(names, calc, linkage);
+		return clusterer.getSingleCluster();
+	}
+
+}
@@ -0,0 +1,364 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.fpgrowth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.ItemSupportList;
+import nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.ValueComparator;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+
+/**
+ * Mines frequent item sets with the FP-growth algorithm, working on int
+ * item ids and CompactFPTrees rather than on item names and FPTreeNodes.
+ * The conditional trees of the items in the top-level header table are
+ * independent of one another, so they are mined on several threads.
+ * The results are ItemSupportLists, as produced by FPGrowthMiner.
+ * @author kcassell
+ */
+public class CompactFPGrowthMiner {
+
+	/** The fewest header items worth giving a thread of their own. */
+	protected static final int MIN_ITEMS_PER_THREAD = 4;
+
+	private static final int[] NO_ITEMS = new int[0];
+
+	/** The frequent items, indexed by id (decreasing support). */
+	protected String[] itemNames = null;
+
+	/** A comparator that orders items by decreasing support. */
+	protected ValueComparator comparator = null;
+
+	/**
+	 * Mines the frequent patterns, using the number of threads determined
+	 * by a user preference/parameter.
+	 * @param transactions the collection of all "transactions", where each
+	 *            transaction contains items
+	 * @param minSupport the minimum number of transactions a pattern must
+	 *            occur in to be included in the result
+	 * @return the frequent patterns (item sets).  All the items of a
+	 *         pattern have the pattern's support.
+	 */
+	public Collection<ItemSupportList> mine(
+			Collection<ItemSupportList> transactions, int minSupport) {
+		ApplicationParameters params = ApplicationParameters.getSingleton();
+		int parallelism =
+			params.getIntParameter(ParameterConstants.PARALLELISM_KEY, 1);
+		return mine(transactions, minSupport, parallelism);
+	}
+
+	/**
+	 * Mines the frequent patterns.
+	 * @param transactions the collection of all "transactions", where each
+	 *            transaction contains items
+	 * @param minSupport the minimum number of transactions a pattern must
+	 *            occur in to be included in the result
+	 * @param parallelism the maximum number of threads to use;
+	 *            zero or less means one per available processor
+	 * @return the frequent patterns (item sets).  All the items of a
+	 *         pattern have the pattern's support.
+	 */
+	public Collection<ItemSupportList> mine(
+			Collection<ItemSupportList> transactions, int minSupport,
+			int parallelism) {
+		minSupport = Math.max(1, minSupport);
+		Map<String, Integer> itemIds = rankItems(transactions, minSupport);
+		CompactFPTree tree = buildFPTree(transactions, itemIds);
+		List<List<int[]>> patternsByItem = mineTree(tree, minSupport,
+				parallelism);
+		return toItemSupportLists(patternsByItem);
+	}
+
+	/**
+	 * Counts the transactions containing each item, and assigns ids to the
+	 * items with enough support, in decreasing order of support (ties are
+	 * broken by name, as ValueComparator does).
+	 * @return the ids of the frequent items
+	 */
+	protected Map<String, Integer> rankItems(
+			Collection<ItemSupportList> transactions, int minSupport) {
+		HashMap<String, int[]> counts = new HashMap<String, int[]>();
+
+		for (ItemSupportList transaction : transactions) {
+			// The support map's keys are the items; getItems would sort them
+			for (String itemName : transaction.getSupportMap().keySet()) {
+				int[] itemCount = counts.get(itemName);
+				if (itemCount == null) {
+					itemCount = new int[1];
+					counts.put(itemName, itemCount);
+				}
+				itemCount[0]++;
+			}
+		}
+		HashMap<String, Double> supportMap = new HashMap<String, Double>();
+		for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+			int itemCount = entry.getValue()[0];
+			if (itemCount >= minSupport) {
+				supportMap.put(entry.getKey(), itemCount * 1.0);
+			}
+		}
+		comparator = new ValueComparator(supportMap);
+		itemNames = supportMap.keySet().toArray(new String[supportMap.size()]);
+		Arrays.sort(itemNames, comparator);
+		HashMap<String, Integer> itemIds =
+			new HashMap<String, Integer>(2 * itemNames.length);
+		for (int id = 0; id < itemNames.length; id++) {
+			itemIds.put(itemNames[id], id);
+		}
+		return itemIds;
+	}
+
+	/**
+	 * Builds the FP tree from the frequent items of each transaction.
+	 */
+	protected CompactFPTree buildFPTree(
+			Collection<ItemSupportList> transactions,
+			Map<String, Integer> itemIds) {
+		int numItems = itemNames.length;
+		CompactFPTree tree = new CompactFPTree(numItems, 1024);
+		int[] ids = new int[numItems];
+
+		for (ItemSupportList transaction : transactions) {
+			int length = 0;
+			for (String itemName : transaction.getSupportMap().keySet()) {
+				Integer id = itemIds.get(itemName);
+				if (id != null) {
+					ids[length++] = id;
+				}
+			}
+			if (length > 0) {
+				Arrays.sort(ids, 0, length);
+				tree.insert(ids, length, 1);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Mines the conditional trees of the tree's items, sharing the items
+	 * out among the threads.  The least frequent items, whose prefix paths
+	 * are longest, are handed out first.
+	 * @return the patterns found for each item, indexed by item id.
+	 * Each pattern is an array of item ids followed by the support.
+	 */
+	protected List<List<int[]>> mineTree(final CompactFPTree tree,
+			final int minSupport, int parallelism) {
+		final int numItems = tree.getNumItems();
+		final List<List<int[]>> patternsByItem =
+			new ArrayList<List<int[]>>(Collections.nCopies(
+					Math.max(1, numItems), (List<int[]>) null));
+		int numThreads = (parallelism > 0)
+			? parallelism : Runtime.getRuntime().availableProcessors();
+		numThreads = Math.max(1,
+				Math.min(numThreads, numItems / MIN_ITEMS_PER_THREAD));
+
+		if (numThreads == 1 || tree.hasOneBranch()) {
+			List<int[]> patterns = new ArrayList<int[]>();
+			mine(tree, NO_ITEMS, minSupport, patterns);
+			patternsByItem.set(0, patterns);
+		} else {
+			final AtomicInteger nextItem = new AtomicInteger(numItems - 1);
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+			try {
+				for (int t = 0; t < numThreads; t++) {
+					futures.add(executor.submit(new Callable<Object>() {
+						public Object call() {
+							int[] pathBuffer = new int[numItems];
+							int itemId;
+							while ((itemId = nextItem.getAndDecrement()) >= 0) {
+								List<int[]> patterns = new ArrayList<int[]>();
+								mineItem(tree, itemId, NO_ITEMS, minSupport,
+										pathBuffer, patterns);
+								patternsByItem.set(itemId, patterns);
+							}
+							return null;
+						}
+					}));
+				}
+				// Future.get makes the threads' results visible here
+				for (Future<Object> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(
+						"Interrupted mining frequent patterns", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return patternsByItem;
+	}
+
+	/**
+	 * Recursively extracts the frequent patterns from the tree.
+	 * @param tree an FP tree, possibly a conditional one
+	 * @param suffix the items the tree is conditional on
+	 * @param minSupport the minimum support of a pattern
+	 * @param patterns an accumulator for the patterns
+	 */
+	protected void mine(CompactFPTree tree, int[] suffix, int minSupport,
+			List<int[]> patterns) {
+		if (tree.hasOneBranch()) {
+			generateBranchPatterns(tree, suffix, patterns);
+		} else {
+			int[] pathBuffer = new int[tree.getNumItems()];
+			for (int itemId = tree.getNumItems() - 1; itemId >= 0; itemId--) {
+				mineItem(tree, itemId, suffix, minSupport, pathBuffer,
+						patterns);
+			}
+		}
+	}
+
+	/**
+	 * Adds the item to the suffix to form a pattern, then mines the item's
+	 * conditional tree for longer patterns ending with that pattern.
+	 */
+	protected void mineItem(CompactFPTree tree, int itemId, int[] suffix,
+			int minSupport, int[] pathBuffer, List<int[]> patterns) {
+		int support = tree.getItemSupport(itemId);
+
+		if (support >= minSupport) {
+			int[] patternB = new int[suffix.length + 1];
+			patternB[0] = itemId;
+			System.arraycopy(suffix, 0, patternB, 1, suffix.length);
+			patterns.add(toPattern(patternB, patternB.length, NO_ITEMS,
+					support));
+			CompactFPTree conditionalTree =
+				tree.buildConditionalTree(itemId, minSupport, pathBuffer);
+			if (conditionalTree.hasFrequentItems()) {
+				mine(conditionalTree, patternB, minSupport, patterns);
+			}
+		}
+	}
+
+	/**
+	 * Given a single branch, generates a pattern for each combination of
+	 * the items on the branch joined with the suffix.  The support of a
+	 * combination is the count of its node nearest the leaf.
+	 */
+	protected void generateBranchPatterns(CompactFPTree tree, int[] suffix,
+			List<int[]> patterns) {
+		int branchLength = tree.size() - 1;
+		int[] branch = new int[branchLength];
+		int node = tree.getFirstChild(CompactFPTree.ROOT);
+
+		for (int i = 0; node != CompactFPTree.NONE; i++) {
+			branch[i] = node;
+			node = tree.getFirstChild(node);
+		}
+		int[] combo = new int[branchLength];
+		generateBranchCombinations(tree, branch, 0, combo, 0, suffix,
+				patterns);
+	}
+
+	/**
+	 * Extends the combination in turn with each node from start on, emits
+	 * it, and recurses with the nodes that follow.
+	 */
+	private void generateBranchCombinations(CompactFPTree tree,
+			int[] branch, int start, int[] combo, int comboLength,
+			int[] suffix, List<int[]> patterns) {
+		for (int i = start; i < branch.length; i++) {
+			combo[comboLength] = tree.getItem(branch[i]);
+			patterns.add(toPattern(combo, comboLength + 1, suffix,
+					tree.getCount(branch[i])));
+			generateBranchCombinations(tree, branch, i + 1, combo,
+					comboLength + 1, suffix, patterns);
+		}
+	}
+
+	/**
+	 * @return an array holding the first length items, then the suffix,
+	 * then the support
+	 */
+	private int[] toPattern(int[] items, int length, int[] suffix,
+			int support) {
+		int[] pattern = new int[length + suffix.length + 1];
+		System.arraycopy(items, 0, pattern, 0, length);
+		System.arraycopy(suffix, 0, pattern, length, suffix.length);
+		pattern[pattern.length - 1] = support;
+		return pattern;
+	}
+
+	/**
+	 * Converts the patterns to ItemSupportLists whose items are ordered
+	 * by decreasing overall support.
+	 */
+	protected Collection<ItemSupportList> toItemSupportLists(
+			List<List<int[]>> patternsByItem) {
+		List<ItemSupportList> frequentPatterns =
+			new ArrayList<ItemSupportList>();
+		int n = 0;
+
+		for (List<int[]> patterns : patternsByItem) {
+			if (patterns != null) {
+				for (int[] pattern : patterns) {
+					int length = pattern.length - 1;
+					List<String> items = new ArrayList<String>(length);
+					for (int i = 0; i < length; i++) {
+						items.add(itemNames[pattern[i]]);
+					}
+					Double support = pattern[length] * 1.0;
+					frequentPatterns.add(new ItemSupportList("pattern" + n++,
+							items, support, comparator));
+				}
+			}
+		}
+		return frequentPatterns;
+	}
+
+	/** @return the frequent items, in decreasing order of support */
+	public List<String> getFrequentItems() {
+		return (itemNames == null) ? Collections.<String>emptyList()
+				: Collections.unmodifiableList(Arrays.asList(itemNames));
+	}
+
+}
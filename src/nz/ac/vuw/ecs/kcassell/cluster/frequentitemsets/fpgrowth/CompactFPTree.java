@@ -0,0 +1,278 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.fpgrowth;
+
+import java.util.Arrays;
+
+/**
+ * A frequent pattern tree whose nodes are held in parallel int arrays
+ * rather than as FPTreeNode objects.  Items are int ids assigned in
+ * decreasing order of support (id 0 is the most frequent item), so a
+ * transaction whose ids are in increasing order runs from the root
+ * towards the leaves.  Node 0 is the root.
+ * Once built, a tree is only read, so several threads may derive
+ * conditional trees from it at the same time.
+ * @author kcassell
+ */
+public class CompactFPTree {
+
+	/** The index of the root node. */
+	public static final int ROOT = 0;
+
+	/** The item of the root node and the end of a node-link chain. */
+	public static final int NONE = -1;
+
+	/** The item id of each node. */
+	protected int[] item;
+
+	/** The support (count) of each node. */
+	protected int[] count;
+
+	/** The parent of each node (NONE for the root). */
+	protected int[] parent;
+
+	/** The next node having the same item (NONE at the end of the chain). */
+	protected int[] nextLink;
+
+	/** The first child of each node (NONE for a leaf). */
+	protected int[] firstChild;
+
+	/** The next child of the same parent (NONE for the last child). */
+	protected int[] nextSibling;
+
+	/** The number of nodes, including the root. */
+	protected int size = 0;
+
+	/** The first node of each item's node-link chain, indexed by item id. */
+	protected int[] headerTable;
+
+	/** The total support of each item in this tree, indexed by item id. */
+	protected int[] itemSupport;
+
+	/** True when the tree is just a single straight branch. */
+	protected boolean hasOneBranch = true;
+
+	/**
+	 * @param numItems the number of distinct item ids
+	 * @param capacity the number of nodes to allow for initially
+	 */
+	public CompactFPTree(int numItems, int capacity) {
+		capacity = Math.max(2, capacity);
+		item = new int[capacity];
+		count = new int[capacity];
+		parent = new int[capacity];
+		nextLink = new int[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		headerTable = new int[numItems];
+		Arrays.fill(headerTable, NONE);
+		itemSupport = new int[numItems];
+		addNode(NONE, NONE, 0);
+	}
+
+	public int getNumItems() {
+		return headerTable.length;
+	}
+
+	/** @return the number of nodes, including the root */
+	public int size() {
+		return size;
+	}
+
+	public boolean hasOneBranch() {
+		return hasOneBranch;
+	}
+
+	/**
+	 * @return true when the tree has something in it besides the root
+	 */
+	public boolean hasFrequentItems() {
+		return size > 1;
+	}
+
+	/** @return the total support of the item in this tree */
+	public int getItemSupport(int itemId) {
+		return itemSupport[itemId];
+	}
+
+	/** @return the first node holding the item, or NONE */
+	public int getFirstNode(int itemId) {
+		return headerTable[itemId];
+	}
+
+	public int getNextLink(int node) {
+		return nextLink[node];
+	}
+
+	public int getItem(int node) {
+		return item[node];
+	}
+
+	public int getCount(int node) {
+		return count[node];
+	}
+
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	/**
+	 * @return the first child of the node, or NONE.  Along a single
+	 * branch, this is the only child.
+	 */
+	public int getFirstChild(int node) {
+		return firstChild[node];
+	}
+
+	/**
+	 * Adds a (pseudo-)transaction to the tree.
+	 * @param items item ids in increasing order
+	 * @param length the number of ids to use from the array
+	 * @param support the support of the transaction
+	 */
+	public void insert(int[] items, int length, int support) {
+		int node = ROOT;
+
+		for (int i = 0; i < length; i++) {
+			int itemId = items[i];
+			int child = firstChild[node];
+
+			while (child != NONE && item[child] != itemId) {
+				child = nextSibling[child];
+			}
+			if (child == NONE) {
+				hasOneBranch = hasOneBranch && (firstChild[node] == NONE);
+				child = addNode(itemId, node, support);
+			} else {
+				count[child] += support;
+			}
+			itemSupport[itemId] += support;
+			node = child;
+		}
+	}
+
+	protected int addNode(int itemId, int parentNode, int support) {
+		if (size == item.length) {
+			grow();
+		}
+		int node = size++;
+		item[node] = itemId;
+		count[node] = support;
+		parent[node] = parentNode;
+		firstChild[node] = NONE;
+		nextLink[node] = NONE;
+		nextSibling[node] = NONE;
+
+		if (parentNode != NONE) {
+			nextSibling[node] = firstChild[parentNode];
+			firstChild[parentNode] = node;
+			nextLink[node] = headerTable[itemId];
+			headerTable[itemId] = node;
+		}
+		return node;
+	}
+
+	protected void grow() {
+		int capacity = 2 * item.length;
+		item = copy(item, capacity);
+		count = copy(count, capacity);
+		parent = copy(parent, capacity);
+		nextLink = copy(nextLink, capacity);
+		firstChild = copy(firstChild, capacity);
+		nextSibling = copy(nextSibling, capacity);
+	}
+
+	private int[] copy(int[] array, int capacity) {
+		int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * Builds the conditional FP tree for an item from its conditional
+	 * pattern base, i.e. the prefix paths of the nodes holding the item,
+	 * each counted with the support of the node it leads to.
+	 * @param itemId the item whose prefix paths are used
+	 * @param minSupport the support an item needs to stay in the tree
+	 * @param pathBuffer scratch space with room for getNumItems() ids
+	 * @return the conditional tree, which may be empty
+	 */
+	public CompactFPTree buildConditionalTree(int itemId, int minSupport,
+			int[] pathBuffer) {
+		int numItems = headerTable.length;
+		int[] support = new int[numItems];
+		int numPathNodes = 0;
+
+		// First pass - the support of each item within the prefix paths
+		for (int node = headerTable[itemId]; node != NONE;
+				node = nextLink[node]) {
+			int nodeCount = count[node];
+			for (int p = parent[node]; p != ROOT; p = parent[p]) {
+				support[item[p]] += nodeCount;
+				numPathNodes++;
+			}
+		}
+		CompactFPTree tree =
+			new CompactFPTree(numItems, Math.min(numPathNodes + 1, 1024));
+
+		// Second pass - insert the frequent part of each path.  Walking
+		// up the tree yields decreasing ids, so the path fills the buffer
+		// from the end.
+		for (int node = headerTable[itemId]; node != NONE;
+				node = nextLink[node]) {
+			int start = numItems;
+			for (int p = parent[node]; p != ROOT; p = parent[p]) {
+				int pathItem = item[p];
+				if (support[pathItem] >= minSupport) {
+					pathBuffer[--start] = pathItem;
+				}
+			}
+			int length = numItems - start;
+			if (length > 0) {
+				if (start > 0) {
+					System.arraycopy(pathBuffer, start, pathBuffer, 0, length);
+				}
+				tree.insert(pathBuffer, length, count[node]);
+			}
+		}
+		return tree;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactFPTree [nodes = " + size + ", items = "
+				+ headerTable.length + ", hasOneBranch = " + hasOneBranch
+				+ "]";
+	}
+
+}
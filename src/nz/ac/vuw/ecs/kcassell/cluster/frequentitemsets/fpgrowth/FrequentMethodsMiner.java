@@ -40,8 +40,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.ItemSupportList;
-import nz.ac.vuw.ecs.kcassell.utils.EclipseSearchUtils;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
+import nz.ac.vuw.ecs.kcassell.utils.TypeReferenceIndexer;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jdt.core.Flags;
@@ -70,23 +70,30 @@ public class FrequentMethodsMiner {
 			new HashMap<String, Set<String>>();
 		
 		IMethod[] serverMethods = server.getMethods();
+		ArrayList<IMethod> publicMethods = new ArrayList<IMethod>();
 		for (IMethod serverMethod : serverMethods) {
 			int flags = serverMethod.getFlags();
 			if (Flags.isPublic(flags) && !serverMethod.isConstructor()
 					&& !EclipseUtils.isRedefinedObjectMethod(serverMethod.getHandleIdentifier())) {
-				Set<IMethod> callingMethods = EclipseSearchUtils
-						.calculateCallingMethods(serverMethod, scope);
-				associateServerMethodsWithClient(serverMethod,
-						callingMethods, clientCallers);
+				publicMethods.add(serverMethod);
 			}
 		}
+		// One pass over the sources finds the callers of all the methods
+		TypeReferenceIndexer indexer = new TypeReferenceIndexer(publicMethods);
+		indexer.indexReferences(server, scope, true);
+		for (IMethod serverMethod : publicMethods) {
+			Set<IMethod> callingMethods =
+				indexer.getCallingMethods(serverMethod);
+			associateServerMethodsWithClient(serverMethod,
+					callingMethods, clientCallers);
+		}
 		
 		// a collection of item support lists for each client class
 		// where the items in the support lists are the calling methods from
 		// the class
 		ArrayList<ItemSupportList> itemSupportLists =
 			createItemSupportLists(clientCallers);
-		FPGrowthMiner fpMiner = new FPGrowthMiner();
+		CompactFPGrowthMiner fpMiner = new CompactFPGrowthMiner();
 		Collection<ItemSupportList> frequentMethods =
 			fpMiner.mine(itemSupportLists, 4);
 		
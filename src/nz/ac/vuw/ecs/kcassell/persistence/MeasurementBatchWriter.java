@@ -0,0 +1,343 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.metrics.persistence.IDatabaseConstants;
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+
+/**
+ * Saves measurements to the metric values table, replacing any earlier
+ * value for the same element, metric and preferences.
+ * <ul>
+ * <li>Where the database supports it (e.g. Derby 10.11 and later), each
+ * measurement is saved by a single MERGE statement.  Otherwise an old
+ * value is removed by a DELETE before the new one is INSERTed.</li>
+ * <li>The statements are sent with addBatch/executeBatch, batchSize
+ * measurements at a time.</li>
+ * <li>The work is committed every commitInterval measurements, so a
+ * failure only loses the current chunk, which is rolled back.</li>
+ * </ul>
+ * Failures are thrown rather than swallowed.  The throughput of the
+ * last write is logged and kept, to help choose the batch size.
+ * @author Keith
+ */
+public class MeasurementBatchWriter implements IDatabaseConstants {
+
+	/** The default number of measurements sent in one batch. */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	/** The default number of measurements saved between commits. */
+	public static final int DEFAULT_COMMIT_INTERVAL = 5000;
+
+	/** The connection to the metrics database. */
+	protected Connection connection = null;
+
+	/** The number of measurements sent in one batch. */
+	protected int batchSize = DEFAULT_BATCH_SIZE;
+
+	/** The number of measurements saved between commits; rounded up
+	 * to a whole number of batches. */
+	protected int commitInterval = DEFAULT_COMMIT_INTERVAL;
+
+	/** Whether to try a MERGE before falling back to DELETE and INSERT. */
+	protected boolean mergeAllowed = true;
+
+	/** Whether the last write used MERGE statements. */
+	protected boolean usedMerge = false;
+
+	/** The number of measurements saved by the last write. */
+	protected int rowsWritten = 0;
+
+	/** The time taken by the last write, in nanoseconds. */
+	protected long elapsedNanos = 0;
+
+	private static UtilLogger utilLogger =
+		new UtilLogger("MeasurementBatchWriter");
+
+	/**
+	 * @param connection the connection to the metrics database
+	 */
+	public MeasurementBatchWriter(Connection connection) {
+		this(connection, DEFAULT_BATCH_SIZE, DEFAULT_COMMIT_INTERVAL);
+	}
+
+	/**
+	 * @param connection the connection to the metrics database
+	 * @param batchSize the number of measurements sent in one batch
+	 * @param commitInterval the number of measurements saved between
+	 *  commits, which is rounded up to a whole number of batches
+	 */
+	public MeasurementBatchWriter(Connection connection, int batchSize,
+			int commitInterval) {
+		this.connection = connection;
+		this.batchSize = Math.max(1, batchSize);
+		int batches = (Math.max(1, commitInterval) + this.batchSize - 1)
+			/ this.batchSize;
+		this.commitInterval = batches * this.batchSize;
+	}
+
+	/**
+	 * @param mergeAllowed whether to use MERGE statements where the
+	 * database supports them
+	 */
+	public void setMergeAllowed(boolean mergeAllowed) {
+		this.mergeAllowed = mergeAllowed;
+	}
+
+	/**
+	 * @return whether the last write used MERGE statements
+	 */
+	public boolean usedMerge() {
+		return usedMerge;
+	}
+
+	/**
+	 * @return the number of measurements saved by the last write
+	 */
+	public int getRowsWritten() {
+		return rowsWritten;
+	}
+
+	/**
+	 * @return the number of measurements saved per second by the last
+	 * write, or 0 if nothing was written
+	 */
+	public double getRowsPerSecond() {
+		double rate = 0.0;
+		if (rowsWritten > 0) {
+			rate = rowsWritten * 1e9 / Math.max(1, elapsedNanos);
+		}
+		return rate;
+	}
+
+	/**
+	 * Saves the measurements, committing as it goes.  If the same
+	 * element, metric and preferences are measured more than once,
+	 * the last measurement is the one kept.
+	 * @param measurements the measurements to save
+	 * @return the number of measurements saved
+	 * @throws SQLException if a chunk could not be saved; the chunks
+	 *  before it stay committed
+	 */
+	public int write(Collection<SoftwareMeasurement> measurements)
+	throws SQLException {
+		long start = System.nanoTime();
+		List<SoftwareMeasurement> latest = removeDuplicates(measurements);
+		rowsWritten = 0;
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		List<PreparedStatement> statements = new ArrayList<PreparedStatement>();
+
+		try {
+			PreparedStatement mergeStatement = null;
+			PreparedStatement deleteStatement = null;
+			PreparedStatement insertStatement = null;
+			if (mergeAllowed) {
+				mergeStatement = prepareMergeStatement();
+			}
+			usedMerge = (mergeStatement != null);
+			if (usedMerge) {
+				statements.add(mergeStatement);
+			} else {
+				deleteStatement = connection.prepareStatement(getDeleteSql());
+				statements.add(deleteStatement);
+				insertStatement = connection.prepareStatement(getInsertSql());
+				statements.add(insertStatement);
+			}
+			int size = latest.size();
+
+			for (int first = 0; first < size; first += batchSize) {
+				int end = Math.min(size, first + batchSize);
+				List<SoftwareMeasurement> batch = latest.subList(first, end);
+				try {
+					if (usedMerge) {
+						addMerges(mergeStatement, batch);
+						mergeStatement.executeBatch();
+					} else {
+						addDeletes(deleteStatement, batch);
+						deleteStatement.executeBatch();
+						addInserts(insertStatement, batch);
+						insertStatement.executeBatch();
+					}
+				} catch (SQLException e) {
+					rollback();
+					throw e;
+				}
+				if (end % commitInterval == 0 || end == size) {
+					connection.commit();
+					rowsWritten = end;
+				}
+			}
+		} finally {
+			for (PreparedStatement statement : statements) {
+				try {
+					statement.close();
+				} catch (SQLException e) {
+					utilLogger.warning("Unable to close statement: " + e);
+				}
+			}
+			connection.setAutoCommit(autoCommit);
+			elapsedNanos = System.nanoTime() - start;
+		}
+		utilLogger.info("Saved " + rowsWritten + " measurements in "
+				+ (elapsedNanos / 1000000) + " ms ("
+				+ Math.round(getRowsPerSecond()) + " rows/sec, batches of "
+				+ batchSize + (usedMerge ? ", MERGE" : ", DELETE/INSERT")
+				+ ")");
+		return rowsWritten;
+	}
+
+	/**
+	 * @return the measurements, keeping only the last of any that share
+	 * an element, metric and preferences, in order of first appearance
+	 */
+	protected static List<SoftwareMeasurement> removeDuplicates(
+			Collection<SoftwareMeasurement> measurements) {
+		Map<String, SoftwareMeasurement> latest =
+			new LinkedHashMap<String, SoftwareMeasurement>();
+		for (SoftwareMeasurement measurement : measurements) {
+			String key = measurement.getHandle() + "\n"
+				+ measurement.getMetricId() + "\n" + measurement.getPrefKey();
+			latest.put(key, measurement);
+		}
+		return new ArrayList<SoftwareMeasurement>(latest.values());
+	}
+
+	/**
+	 * @return the prepared MERGE statement, or null if the database
+	 * does not accept it
+	 */
+	protected PreparedStatement prepareMergeStatement() {
+		PreparedStatement statement = null;
+		try {
+			statement = connection.prepareStatement(getMergeSql());
+		} catch (SQLException e) {
+			utilLogger.info("MERGE not supported, using DELETE/INSERT: " + e);
+		}
+		return statement;
+	}
+
+	private void rollback() {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			utilLogger.warning("Unable to roll back: " + e);
+		}
+	}
+
+	protected static String getMergeSql() {
+		String table = METRIC_VALUES_TABLE.trim();
+		return "MERGE INTO " + table + " USING SYSIBM.SYSDUMMY1 ON "
+			+ table + "." + HANDLE_FIELD.trim() + " = ? AND "
+			+ table + "." + ACRONYM_FIELD.trim() + " = ? AND "
+			+ table + "." + USER_PREFERENCES_FOREIGN_KEY.trim() + " = ?"
+			+ " WHEN MATCHED THEN UPDATE SET " + VALUE_FIELD.trim() + " = ?"
+			+ " WHEN NOT MATCHED THEN INSERT " + getColumnList()
+			+ " VALUES (?, ?, ?, ?)";
+	}
+
+	protected static String getDeleteSql() {
+		return "DELETE FROM " + METRIC_VALUES_TABLE.trim()
+			+ " WHERE " + HANDLE_FIELD.trim() + " = ? AND "
+			+ ACRONYM_FIELD.trim() + " = ? AND "
+			+ USER_PREFERENCES_FOREIGN_KEY.trim() + " = ?";
+	}
+
+	protected static String getInsertSql() {
+		return "INSERT INTO " + METRIC_VALUES_TABLE.trim() + " "
+			+ getColumnList() + " VALUES (?, ?, ?, ?)";
+	}
+
+	/**
+	 * @return the columns set by an insert: handle, metric, value,
+	 * preferences key
+	 */
+	protected static String getColumnList() {
+		return "(" + HANDLE_FIELD.trim() + ", " + ACRONYM_FIELD.trim() + ", "
+			+ VALUE_FIELD.trim() + ", "
+			+ USER_PREFERENCES_FOREIGN_KEY.trim() + ")";
+	}
+
+	private static void addMerges(PreparedStatement statement,
+			List<SoftwareMeasurement> batch) throws SQLException {
+		for (SoftwareMeasurement measurement : batch) {
+			setKey(statement, 1, measurement);
+			statement.setDouble(4, measurement.getMeasurement());
+			setRow(statement, 5, measurement);
+			statement.addBatch();
+		}
+	}
+
+	private static void addDeletes(PreparedStatement statement,
+			List<SoftwareMeasurement> batch) throws SQLException {
+		for (SoftwareMeasurement measurement : batch) {
+			setKey(statement, 1, measurement);
+			statement.addBatch();
+		}
+	}
+
+	private static void addInserts(PreparedStatement statement,
+			List<SoftwareMeasurement> batch) throws SQLException {
+		for (SoftwareMeasurement measurement : batch) {
+			setRow(statement, 1, measurement);
+			statement.addBatch();
+		}
+	}
+
+	/** Sets the handle, metric and preferences key parameters. */
+	private static void setKey(PreparedStatement statement, int first,
+			SoftwareMeasurement measurement) throws SQLException {
+		statement.setString(first, measurement.getHandle());
+		statement.setString(first + 1, measurement.getMetricId());
+		statement.setInt(first + 2, measurement.getPrefKey());
+	}
+
+	/** Sets the parameters in the order of getColumnList. */
+	private static void setRow(PreparedStatement statement, int first,
+			SoftwareMeasurement measurement) throws SQLException {
+		statement.setString(first, measurement.getHandle());
+		statement.setString(first + 1, measurement.getMetricId());
+		statement.setDouble(first + 2, measurement.getMeasurement());
+		statement.setInt(first + 3, measurement.getPrefKey());
+	}
+
+}
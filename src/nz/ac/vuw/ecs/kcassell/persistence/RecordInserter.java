@@ -34,27 +34,29 @@ package nz.ac.vuw.ecs.kcassell.persistence;
 
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import net.sourceforge.metrics.persistence.Database;
 import net.sourceforge.metrics.persistence.IDatabaseConstants;
 import nz.ac.vuw.ecs.kcassell.callgraph.gui.ClusterUIConstants;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 
 public class RecordInserter
-implements ClusterUIConstants, IDatabaseConstants  {
+implements ClusterUIConstants, IDatabaseConstants, ParameterConstants  {
 
 	/**
 	 * Save metric values for the indicated Java element and all of its
-	 * subelements to a database.
-	 * @param element
-	 *            the highest level element to be saved, e.g. a project
+	 * subelements to a database.  The values are saved in batches (see
+	 * MeasurementBatchWriter), whose size and commit interval are
+	 * determined by user preferences/parameters.
+	 * @param measurements the values to save
 	 * @throws InvocationTargetException
 	 * @throws SQLException 
 	 */
@@ -64,38 +66,13 @@ implements ClusterUIConstants, IDatabaseConstants  {
 		Database db = new Database();
 		db.loadDriver();
 		Connection connection = null;
-		/* Store the Statement and Prepared statement object references
-		 * in a list for convenience. */
-		List<Statement> statements = new ArrayList<Statement>();
-		Statement statement = null;
-		ResultSet resultSet = null;
 		
-		/* Statements, PreparedStatements, Connections and ResultSets
-		 * are resources that should be released explicitly after use, hence the
-		 * try-catch-finally pattern used below. */
+		/* Connections are resources that should be released explicitly
+		 * after use, hence the try-catch-finally pattern used below.
+		 * The statements are closed by the MeasurementBatchWriter. */
 		try {
 			connection = db.prepareConnection();
-
-			/* Creating a statement object that we can use for running various
-			 * SQL statements commands against the database. */
-			statement = connection.createStatement();
-			statements.add(statement);
-			PreparedStatement deleteStatement =
-				addDeleteMetricValuesPreparedStatement(connection, statements);
-			PreparedStatement insertStatement =
-				addInsertMetricValuesPreparedStatement(connection, statements);
-			
-			for (SoftwareMeasurement measurement : measurements) {
-				String handle = measurement.getHandle();
-				Double value = measurement.getMeasurement();
-				String metricId = measurement.getMetricId();
-				Integer prefKey = measurement.getPrefKey();
-				saveMetricValue(deleteStatement, insertStatement, metricId, value,
-						handle, prefKey);
-			}
-
-			statement.close();
-			connection.commit();
+			saveMeasurements(connection, measurements);
 			System.out.println("Committed the transaction");
 
 			// In embedded mode, an application should shut down the database.
@@ -104,67 +81,32 @@ implements ClusterUIConstants, IDatabaseConstants  {
 			Database.printSQLException(sqle);
 			throw sqle;
 		} finally {
-			// release all open resources to avoid unnecessary memory usage
-			db.releaseResources(connection, statements, resultSet);
+			// release the connection to avoid unnecessary memory usage
+			db.releaseResources(connection,
+					Collections.<Statement>emptyList(), null);
 		}
 	}
 
-	private PreparedStatement addDeleteMetricValuesPreparedStatement(
-			Connection connection, List<Statement> statements)
-			throws SQLException {
-		String sqlString = DELETE + METRIC_VALUES_TABLE +
-		WHERE + HANDLE_FIELD + " = ? " + AND  + ACRONYM_FIELD + " = ? " +
-		AND + USER_PREFERENCES_FOREIGN_KEY + " = ?";
-		PreparedStatement statement =
-			connection.prepareStatement(sqlString);
-		statements.add(statement);
-		return statement;
-	}
-
-	private PreparedStatement addInsertMetricValuesPreparedStatement(
-			Connection connection, List<Statement> statements)
-			throws SQLException {
-		// Values: handle, metricId, value, preferenceKey
-		String sqlString =
-			INSERT + METRIC_VALUES_TABLE + VALUES + "(?, ?, ?, ?)";
-		PreparedStatement statement = connection.prepareStatement(sqlString);
-		statements.add(statement);
-		return statement;
-	}
-
-	private void saveMetricValue(PreparedStatement deleteStatement,
-			PreparedStatement insertStatement, String metricId, double value,
-			String handle, int prefKey) {
-		deleteOldMetricValue(deleteStatement, metricId, handle, prefKey);
-		insertNewMetricValue(insertStatement, metricId, value, handle, prefKey);
-	}
-
-	private void deleteOldMetricValue(PreparedStatement deleteStatement,
-			String metricId, String handle, int prefKey) {
-		// Delete old metric values from prior runs
-		try {
-			deleteStatement.setString(1, handle);
-			deleteStatement.setString(2, metricId);
-			deleteStatement.setInt(3, prefKey);
-			deleteStatement.executeUpdate();
-		} catch (SQLException e) {
-			// quietly swallow the exception. In many cases, there will be
-			// nothing in the database to delete
-		}
-	}
-	
-	private void insertNewMetricValue(PreparedStatement insertStatement,
-			String metricId, double value, String handle, int prefKey) {
-		// Insert the new values
-		try {
-			insertStatement.setString(1, handle);
-			insertStatement.setString(2, metricId);
-			insertStatement.setDouble(3, value);
-			insertStatement.setInt(4, prefKey);
-			insertStatement.executeUpdate();
-		} catch (SQLException e) {
-			Database.printSQLException(e);
-		}
+	/**
+	 * Save metric values using an existing connection, in batches whose
+	 * size and commit interval are determined by user
+	 * preferences/parameters.
+	 * @param connection the connection to the metrics database
+	 * @param measurements the values to save
+	 * @return the number of values saved
+	 * @throws SQLException
+	 */
+	public static int saveMeasurements(Connection connection,
+			Collection<SoftwareMeasurement> measurements)
+	throws SQLException {
+		ApplicationParameters params = ApplicationParameters.getSingleton();
+		int batchSize = params.getIntParameter(DB_BATCH_SIZE_KEY,
+				MeasurementBatchWriter.DEFAULT_BATCH_SIZE);
+		int commitInterval = params.getIntParameter(DB_COMMIT_INTERVAL_KEY,
+				MeasurementBatchWriter.DEFAULT_COMMIT_INTERVAL);
+		MeasurementBatchWriter writer =
+			new MeasurementBatchWriter(connection, batchSize, commitInterval);
+		return writer.write(measurements);
 	}
 
 	/**
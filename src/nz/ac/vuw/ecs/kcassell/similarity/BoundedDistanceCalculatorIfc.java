@@ -0,0 +1,64 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.List;
+
+/**
+ * A distance calculator that can stop calculating a distance as soon as
+ * it is certain to be greater than a bound supplied by the caller, e.g.
+ * the smallest distance found so far in a nearest neighbor search.
+ * @author Keith
+ */
+public interface BoundedDistanceCalculatorIfc<V>
+extends BatchDistanceCalculatorIfc<V>
+{
+    /**
+     * Calculates the distance between the objects, unless it is greater
+     * than the bound.
+     * @param bound the largest distance of interest
+     * @return the distance if it is no greater than the bound;
+     * otherwise some distance greater than the bound
+     */
+    public Number calculateDistance(V obj1, V obj2, double bound);
+
+    /**
+     * Calculates the distances from obj1 to each of the others, as
+     * calculateRow(obj1, others, distances) does, except that distances
+     * greater than the bound need not be calculated exactly.
+     * @param bound the largest distance of interest
+     * @see BatchDistanceCalculatorIfc#calculateRow(Object, List, double[])
+     */
+    public void calculateRow(V obj1, List<V> others, double[] distances,
+            double bound);
+}
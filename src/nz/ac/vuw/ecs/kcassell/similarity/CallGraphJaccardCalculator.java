@@ -0,0 +1,177 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+
+/**
+ * This is the common basis for the calculators that compute the Jaccard
+ * distance between the property sets of members of a call graph.
+ * Subclasses define the property set of a node; this class remembers
+ * each node's property set, as a bit set, once it has been computed, so
+ * filling a distance matrix derives each set once rather than once per
+ * pair, and compares sets by counting bits rather than hashing labels.
+ * The call graph is assumed not to change while the calculator is in use.
+ * @author Keith
+ */
+public abstract class CallGraphJaccardCalculator
+extends JaccardCalculator
+implements BatchDistanceCalculatorIfc<String>
+{
+	/** The graph showing the static interrelationships of methods and
+	 * attributes.  */
+	protected JavaCallGraph javaCallGraph = null;
+
+	/** Assigns bit positions to properties, starting with the node labels. */
+	protected FeatureDictionary dictionary = null;
+
+	/** The property sets computed so far as bit sets, keyed by node. */
+	protected ConcurrentHashMap<CallGraphNode, long[]> propertyCache =
+		new ConcurrentHashMap<CallGraphNode, long[]>();
+
+	/**
+	 * @param javaCallGraph
+	 */
+	public CallGraphJaccardCalculator(JavaCallGraph javaCallGraph)
+	{
+		super();
+		this.javaCallGraph = javaCallGraph;
+		dictionary = new FeatureDictionary(javaCallGraph);
+	}
+
+	/**
+	 * Computes the property set for a method or attribute.
+	 * @param node the node representing a method or attribute
+	 * @return the property set of the node
+	 */
+	protected abstract Set<String> computeProperties(CallGraphNode node);
+
+	/**
+	 * @param node the node representing a method or attribute
+	 * @return the (possibly previously computed) property set of the node
+	 * as a bit set
+	 */
+	protected long[] getCachedProperties(CallGraphNode node) {
+		long[] properties = propertyCache.get(node);
+		if (properties == null) {
+			properties = dictionary.toBitSet(computeProperties(node));
+			propertyCache.putIfAbsent(node, properties);
+		}
+		return properties;
+	}
+
+	/**
+	 * @param id the name of a node in the call graph
+	 * @return the property set of the node as a bit set, or null if
+	 * there is no such node
+	 */
+	protected long[] getCachedProperties(String id) {
+		long[] properties = null;
+		CallGraphNode node = javaCallGraph.getNode(id);
+
+		if (node == null) {
+			System.err.println(getClass().getSimpleName()
+					+ ".calculateDistance: node " + id + " not found.");
+		} else {
+			properties = getCachedProperties(node);
+		}
+		return properties;
+	}
+
+	/* (non-Javadoc)
+	 * @see nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc#calculateDistance(java.lang.String, java.lang.String)
+	 */
+	public Double calculateDistance(String id1, String id2)
+	{
+		Double distance = null;
+		long[] properties1 = getCachedProperties(id1);
+
+		if (properties1 != null) {
+			long[] properties2 = getCachedProperties(id2);
+			if (properties2 != null) {
+				distance = calculateDistance(properties1, properties2);
+			}
+		}
+		return distance;
+	}
+
+	public Double calculateDistance(
+			CallGraphNode node1,
+			CallGraphNode node2)
+	{
+		long[] properties1 = getCachedProperties(node1);
+		long[] properties2 = getCachedProperties(node2);
+		return calculateDistance(properties1, properties2);
+	}
+
+	/**
+	 * Looks up the property set of id1 once for the whole row.
+	 * @see nz.ac.vuw.ecs.kcassell.similarity.BatchDistanceCalculatorIfc#calculateRow(java.lang.Object, java.util.List, double[])
+	 */
+	public void calculateRow(String id1, List<String> others,
+			double[] distances) {
+		long[] properties1 = getCachedProperties(id1);
+		int numOthers = others.size();
+
+		for (int i = 0; i < numOthers; i++) {
+			long[] properties2 = null;
+			if (properties1 != null) {
+				properties2 = getCachedProperties(others.get(i));
+			}
+			if (properties2 == null) {
+				distances[i] = Double.NaN;
+			} else {
+				distances[i] = calculateDistance(properties1, properties2);
+			}
+		}
+	}
+
+	/**
+	 * The call graph is only read, never modified, by this calculator,
+	 * the property cache is a concurrent map, and the dictionary is
+	 * synchronized.
+	 */
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public DistanceCalculatorIfc<String> copyForThread() {
+		return this;
+	}
+
+}
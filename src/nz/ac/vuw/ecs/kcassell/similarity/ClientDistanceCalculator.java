@@ -44,6 +44,7 @@ import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseSearchUtils;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+import nz.ac.vuw.ecs.kcassell.utils.TypeReferenceIndexer;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jdt.core.Flags;
@@ -83,21 +84,43 @@ extends VectorSpaceModelCalculator {
 		String documents = "";
 		StringBuffer buf = new StringBuffer();
 		List<CallGraphNode> nodes = callGraph.getNodes();
+		List<IMethod> members = new ArrayList<IMethod>();
+		List<String> handles = new ArrayList<String>();
 		for (CallGraphNode node : nodes) {
 			String memberHandle = node.getLabel();
 			try {
 				IJavaElement member = JavaCore.create(memberHandle);
 				// TODO - node is not a member, e.g. a cluster
-				
-				// Create a line with the member handle followed by the client classes
 				if (passesFilter(member)) {
-					makeLine(buf, memberHandle, member);
-					memberHandles.add(memberHandle);
+					members.add((IMethod) member);
+					handles.add(memberHandle);
 				}
 			} catch (Exception e) {
 				System.err.println(e.toString());
 			}
 		}
+		// One pass over the sources finds the clients of all the members
+		TypeReferenceIndexer indexer = new TypeReferenceIndexer(members);
+		if (!members.isEmpty()) {
+			IMethod first = members.get(0);
+			try {
+				IJavaSearchScope scope =
+					EclipseSearchUtils.createProjectSearchScope(first);
+				indexer.indexReferences(first.getDeclaringType(), scope, true);
+			} catch (CoreException e) {
+				System.err.println(e.toString());
+			}
+		}
+		for (int i = 0; i < members.size(); i++) {
+			String memberHandle = handles.get(i);
+			try {
+				// Create a line with the member handle followed by the client classes
+				makeLine(buf, memberHandle, indexer.getCallingClasses(members.get(i)));
+				memberHandles.add(memberHandle);
+			} catch (Exception e) {
+				System.err.println(e.toString());
+			}
+		}
 		try {
 			BufferedWriter writer
 			   = new BufferedWriter(new FileWriter(fileName));
@@ -116,17 +139,11 @@ extends VectorSpaceModelCalculator {
 	 * Create a line with the member handle followed by the client classes
 	 * @param buf
 	 * @param memberHandle
-	 * @param member
-	 * @throws JavaModelException
-	 * @throws CoreException
+	 * @param callers the handles of the client classes
 	 */
 	private static void makeLine(StringBuffer buf, String memberHandle,
-			IJavaElement member) throws JavaModelException, CoreException {
+			Set<String> callers) {
 		buf.append(memberHandle).append(' ');
-		IJavaSearchScope scope =
-			EclipseSearchUtils.createProjectSearchScope(member);
-		Set<String> callers =
-			EclipseSearchUtils.calculateCallingClasses(member, scope);
 		for (String caller : callers) {
 			buf.append(caller).append(' ');
 		}
@@ -1,6 +1,7 @@
 package nz.ac.vuw.ecs.kcassell.similarity;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 import nz.ac.vuw.ecs.kcassell.cluster.MemberCluster;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
@@ -28,8 +29,8 @@ public class ClusterDistanceUtils {
 			MemberCluster cluster2,
 			DistanceCalculatorIfc<String> calc) {
 		double min = MAX_CLUSTER_DISTANCE;
-		Set<String> elements1 = cluster1.getElements();
-		Set<String> elements2 = cluster2.getElements();
+		String[] elements1 = cluster1.getElementArray();
+		String[] elements2 = cluster2.getElementArray();
 		
 		for (String element1 : elements1) {
 			for (String element2 : elements2) {
@@ -55,20 +56,11 @@ public class ClusterDistanceUtils {
 			DistanceMatrix<String> matrix,
 			DistanceCalculatorIfc<String> calc) {
 		double min = 1.0;
-		Set<String> elements1 = cluster1.getElements();
-		Set<String> elements2 = cluster2.getElements();
+		String[] elements1 = cluster1.getElementArray();
 		
-		for (String element1 : elements1) {
-			for (String element2 : elements2) {
-				Number distance = RefactoringConstants.UNKNOWN_DISTANCE;
-				if (matrix != null) {
-					distance = matrix.getDistance(element1, element2);
-				}
-				if (RefactoringConstants.UNKNOWN_DISTANCE.equals(distance)) {
-					distance = calc.calculateDistance(element1, element2);
-				}
-				min = Math.min(min, distance.doubleValue());
-			}
+		// The smallest distance so far bounds the rest
+		for (int i = 0; i < elements1.length; i++) {
+			min = singleLinkDistance(elements1[i], cluster2, matrix, calc, min);
 		}
 		return min;
 	}
@@ -83,18 +75,53 @@ public class ClusterDistanceUtils {
 	public static double singleLinkDistance(String element1,
 			MemberCluster cluster, DistanceMatrix<String> matrix,
 			DistanceCalculatorIfc<String> calc) {
-		double min = 1.0;
-		Set<String> clusterElements = cluster.getElements();
+		return singleLinkDistance(element1, cluster, matrix, calc, 1.0);
+	}
+
+	/**
+	 * Returns the smallest distance between element1 and any element in
+	 * cluster2, if it is smaller than the bound.  The distances not in
+	 * the matrix are calculated after those that are, so that a
+	 * BoundedDistanceCalculatorIfc can stop early on the distances that
+	 * are too large to matter.
+	 * @param element1
+	 * @param cluster a collection of elements
+	 * @param matrix contains the distances between elements
+	 * @param bound the smallest distance already known, e.g. to another
+	 * element of the cluster that element1 belongs to
+	 * @return the smaller of the bound and the smallest distance
+	 */
+	public static double singleLinkDistance(String element1,
+			MemberCluster cluster, DistanceMatrix<String> matrix,
+			DistanceCalculatorIfc<String> calc, double bound) {
+		double min = bound;
+		int index1 = (matrix == null) ? -1 : matrix.getIndex(element1);
+		String[] elements2 = cluster.getElementArray();
+		int[] indices2 = cluster.getElementIndices(matrix);
+		List<String> uncalculated = new ArrayList<String>();
 
-		for (String element2 : clusterElements) {
-			Number distance = RefactoringConstants.UNKNOWN_DISTANCE;
-			if (matrix != null) {
-				distance = matrix.getDistance(element1, element2);
+		for (int j = 0; j < elements2.length; j++) {
+			double distance = getStoredDistance(index1, indices2[j], matrix);
+			if (distance == RefactoringConstants.UNKNOWN_DISTANCE.doubleValue()) {
+				uncalculated.add(elements2[j]);
+			} else {
+				min = Math.min(min, distance);
+			}
+		}
+		if (uncalculated.size() > 0
+				&& calc instanceof BoundedDistanceCalculatorIfc<?>) {
+			double[] distances = new double[uncalculated.size()];
+			((BoundedDistanceCalculatorIfc<String>)calc).calculateRow(
+					element1, uncalculated, distances, min);
+			for (double distance : distances) {
+				min = Math.min(min, distance);
 			}
-			if (RefactoringConstants.UNKNOWN_DISTANCE.equals(distance)) {
-				distance = calc.calculateDistance(element1, element2);
+		} else {
+			for (String element2 : uncalculated) {
+				double distance =
+					calc.calculateDistance(element1, element2).doubleValue();
+				min = Math.min(min, distance);
 			}
-			min = Math.min(min, distance.doubleValue());
 		}
 		return min;
 	}
@@ -111,8 +138,8 @@ public class ClusterDistanceUtils {
 			MemberCluster cluster2,
 			DistanceCalculatorIfc<String> calc) {
 		double max = 0.0;
-		Set<String> elements1 = cluster1.getElements();
-		Set<String> elements2 = cluster2.getElements();
+		String[] elements1 = cluster1.getElementArray();
+		String[] elements2 = cluster2.getElementArray();
 		
 		for (String element1 : elements1) {
 			for (String element2 : elements2) {
@@ -138,19 +165,16 @@ public class ClusterDistanceUtils {
 			DistanceMatrix<String> matrix,
 			DistanceCalculatorIfc<String> calc) {
 		double max = 0.0;
-		Set<String> elements1 = cluster1.getElements();
-		Set<String> elements2 = cluster2.getElements();
+		String[] elements1 = cluster1.getElementArray();
+		String[] elements2 = cluster2.getElementArray();
+		int[] indices1 = cluster1.getElementIndices(matrix);
+		int[] indices2 = cluster2.getElementIndices(matrix);
 		
-		for (String element1 : elements1) {
-			for (String element2 : elements2) {
-				Number distance = RefactoringConstants.UNKNOWN_DISTANCE;
-				if (matrix != null) {
-					distance = matrix.getDistance(element1, element2);
-				}
-				if (RefactoringConstants.UNKNOWN_DISTANCE.equals(distance)) {
-					distance = calc.calculateDistance(element1, element2);
-				}
-				max = Math.max(max, distance.doubleValue());
+		for (int i = 0; i < elements1.length; i++) {
+			for (int j = 0; j < elements2.length; j++) {
+				double distance = getDistance(elements1[i], indices1[i],
+						elements2[j], indices2[j], matrix, calc);
+				max = Math.max(max, distance);
 			}
 		}
 		return max;
@@ -167,17 +191,14 @@ public class ClusterDistanceUtils {
 			MemberCluster cluster, DistanceMatrix<String> matrix,
 			DistanceCalculatorIfc<String> calc) {
 		double max = 0.0;
-		Set<String> clusterElements = cluster.getElements();
+		int index1 = (matrix == null) ? -1 : matrix.getIndex(element1);
+		String[] elements2 = cluster.getElementArray();
+		int[] indices2 = cluster.getElementIndices(matrix);
 
-		for (String element2 : clusterElements) {
-			Number distance = RefactoringConstants.UNKNOWN_DISTANCE;
-			if (matrix != null) {
-				distance = matrix.getDistance(element1, element2);
-			}
-			if (RefactoringConstants.UNKNOWN_DISTANCE.equals(distance)) {
-				distance = calc.calculateDistance(element1, element2);
-			}
-			max = Math.max(max, distance.doubleValue());
+		for (int j = 0; j < elements2.length; j++) {
+			double distance = getDistance(element1, index1,
+					elements2[j], indices2[j], matrix, calc);
+			max = Math.max(max, distance);
 		}
 		return max;
 	}
@@ -195,8 +216,8 @@ public class ClusterDistanceUtils {
 			DistanceCalculatorIfc<String> calc) {
 		double sum = 0.0;
 		int i = 0;
-		Set<String> elements1 = cluster1.getElements();
-		Set<String> elements2 = cluster2.getElements();
+		String[] elements1 = cluster1.getElementArray();
+		String[] elements2 = cluster2.getElementArray();
 		
 		for (String element1 : elements1) {
 			for (String element2 : elements2) {
@@ -224,24 +245,18 @@ public class ClusterDistanceUtils {
 			DistanceMatrix<String> matrix,
 			DistanceCalculatorIfc<String> calc) {
 		double sum = 0.0;
-		int i = 0;
-		Set<String> elements1 = cluster1.getElements();
-		Set<String> elements2 = cluster2.getElements();
+		String[] elements1 = cluster1.getElementArray();
+		String[] elements2 = cluster2.getElementArray();
+		int[] indices1 = cluster1.getElementIndices(matrix);
+		int[] indices2 = cluster2.getElementIndices(matrix);
 		
-		for (String element1 : elements1) {
-			for (String element2 : elements2) {
-				Number distance = RefactoringConstants.UNKNOWN_DISTANCE;
-				if (matrix != null) {
-					distance = matrix.getDistance(element1, element2);
-				}
-				if (RefactoringConstants.UNKNOWN_DISTANCE.equals(distance)) {
-					distance = calc.calculateDistance(element1, element2);
-				}
-				sum += distance.doubleValue();
-				i++;
+		for (int i = 0; i < elements1.length; i++) {
+			for (int j = 0; j < elements2.length; j++) {
+				sum += getDistance(elements1[i], indices1[i],
+						elements2[j], indices2[j], matrix, calc);
 			}
 		}
-		double average = sum/i;
+		double average = sum / (elements1.length * elements2.length);
 		return average;
 	}
 
@@ -257,21 +272,43 @@ public class ClusterDistanceUtils {
 			MemberCluster cluster, DistanceMatrix<String> matrix,
 			DistanceCalculatorIfc<String> calc) {
 		double sum = 0.0;
-		int i = 0;
-		Set<String> elements2 = cluster.getElements();
+		int index1 = (matrix == null) ? -1 : matrix.getIndex(element1);
+		String[] elements2 = cluster.getElementArray();
+		int[] indices2 = cluster.getElementIndices(matrix);
 
-		for (String element2 : elements2) {
-			Number distance = RefactoringConstants.UNKNOWN_DISTANCE;
-			if (matrix != null) {
-				distance = matrix.getDistance(element1, element2);
-			}
-			if (RefactoringConstants.UNKNOWN_DISTANCE.equals(distance)) {
-				distance = calc.calculateDistance(element1, element2);
-			}
-			sum += distance.doubleValue();
-			i++;
+		for (int j = 0; j < elements2.length; j++) {
+			sum += getDistance(element1, index1,
+					elements2[j], indices2[j], matrix, calc);
 		}
-		double average = sum / i;
+		double average = sum / elements2.length;
 		return average;
 	}
+
+	/**
+	 * @return the distance stored in the matrix if it is known,
+	 * otherwise the distance calculated by calc
+	 */
+	private static double getDistance(String element1, int index1,
+			String element2, int index2,
+			DistanceMatrix<String> matrix,
+			DistanceCalculatorIfc<String> calc) {
+		double distance = getStoredDistance(index1, index2, matrix);
+		if (distance == RefactoringConstants.UNKNOWN_DISTANCE.doubleValue()) {
+			distance = calc.calculateDistance(element1, element2).doubleValue();
+		}
+		return distance;
+	}
+
+	/**
+	 * @return the distance stored in the matrix, or UNKNOWN_DISTANCE
+	 * if there is none
+	 */
+	private static double getStoredDistance(int index1, int index2,
+			DistanceMatrix<String> matrix) {
+		double distance = RefactoringConstants.UNKNOWN_DISTANCE.doubleValue();
+		if (index1 >= 0 && index2 >= 0) {
+			distance = matrix.getDistance(index1, index2);
+		}
+		return distance;
+	}
 }
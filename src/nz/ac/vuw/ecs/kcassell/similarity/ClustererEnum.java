@@ -41,5 +41,7 @@ package nz.ac.vuw.ecs.kcassell.similarity;
 public enum ClustererEnum {
 	AGGLOMERATIVE,
 	BETWEENNESS,
-	MIXED_MODE
+	LANCE_WILLIAMS,
+	MIXED_MODE,
+	NEAREST_NEIGHBOR_CHAIN
 }
@@ -0,0 +1,625 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import edu.ucla.sspace.common.KACSemanticSpace;
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseVector;
+
+/**
+ * A read-only, memory-mapped form of a semantic space's document vectors.
+ * Opening a model only maps the file and reads its header, so the time to
+ * load a project's model does not depend on the size of the project.
+ * Document vectors are read from the mapping as they are needed.
+ * <p>
+ * The file consists of (all numbers big-endian):
+ * <ul>
+ * <li>a header - magic number, version, number of documents, number of
+ * terms, size of the handle hash table, number of vector entries, the
+ * byte lengths of the handle and term string areas, and a hash of the
+ * member documents file the model was built from</li>
+ * <li>an open-addressing hash table mapping member handles to document
+ * numbers (each slot holds a document number + 1; 0 means empty)</li>
+ * <li>the document-offset index - numDocs + 1 ints giving the offset of
+ * each document's handle in the handle string area, followed by
+ * numDocs + 1 ints giving the position of each document's first entry in
+ * the vector area</li>
+ * <li>the magnitude of each document vector</li>
+ * <li>the term dictionary - numTerms + 1 offsets into the term string
+ * area, with the term of each vector dimension in dimension order,
+ * followed by numTerms ints giving the dimensions in sorted term order</li>
+ * <li>the handle and term string areas (UTF-8)</li>
+ * <li>the sparse document vectors - the indices of all entries, sorted
+ * within each document, followed by the corresponding values</li>
+ * </ul>
+ * The dictionary is empty when the dimensions are not terms, as for LSA.
+ * A model may be shared between threads.
+ * @author Keith
+ */
+public class CompactSemanticModel {
+
+	/** "EXTM" - identifies a compact semantic model file. */
+	public static final int MAGIC = 0x4558544D;
+
+	public static final int VERSION = 1;
+
+	protected static final int HEADER_BYTES = 8 * 4 + 8;
+
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The mapped file.  Only absolute reads are used, so the buffer's
+	 * position is never changed. */
+	protected MappedByteBuffer buffer = null;
+
+	protected int numDocs = 0;
+	protected int numTerms = 0;
+	protected int tableSize = 0;
+	protected int numEntries = 0;
+
+	/** The hash of the member documents file the model was built from. */
+	protected long sourceHash = 0L;
+
+	/** The byte offsets of the sections of the file. */
+	protected int tableOffset = 0;
+	protected int handleOffsetsOffset = 0;
+	protected int entryOffsetsOffset = 0;
+	protected int magnitudesOffset = 0;
+	protected int termOffsetsOffset = 0;
+	protected int sortedTermsOffset = 0;
+	protected int handleStringsOffset = 0;
+	protected int termStringsOffset = 0;
+	protected int indicesOffset = 0;
+	protected int valuesOffset = 0;
+
+	protected CompactSemanticModel(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_BYTES
+				|| buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a compact semantic model");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported model version " + version);
+		}
+		numDocs = buffer.getInt(8);
+		numTerms = buffer.getInt(12);
+		tableSize = buffer.getInt(16);
+		numEntries = buffer.getInt(20);
+		int handleBytes = buffer.getInt(24);
+		int termBytes = buffer.getInt(28);
+		sourceHash = buffer.getLong(32);
+
+		tableOffset = HEADER_BYTES;
+		handleOffsetsOffset = tableOffset + 4 * tableSize;
+		entryOffsetsOffset = handleOffsetsOffset + 4 * (numDocs + 1);
+		magnitudesOffset = entryOffsetsOffset + 4 * (numDocs + 1);
+		termOffsetsOffset = magnitudesOffset + 8 * numDocs;
+		sortedTermsOffset = termOffsetsOffset + 4 * (numTerms + 1);
+		handleStringsOffset = sortedTermsOffset + 4 * numTerms;
+		termStringsOffset = handleStringsOffset + handleBytes;
+		indicesOffset = termStringsOffset + termBytes;
+		valuesOffset = indicesOffset + 4 * numEntries;
+		if (valuesOffset + 8 * numEntries != buffer.capacity()) {
+			throw new IOException("Truncated compact semantic model");
+		}
+	}
+
+	/**
+	 * Maps a model file into memory.
+	 * @param fileName the name of a file written by
+	 *  {@link #write(String, KACSemanticSpace, Map)}
+	 * @return the model
+	 * @throws IOException if the file can't be read or is not a model
+	 */
+	public static CompactSemanticModel open(String fileName)
+	throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer mapped =
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new CompactSemanticModel(mapped);
+		} finally {
+			// The mapping remains valid after the file is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes the document vectors of a semantic space to a model file.
+	 * @param fileName the name of the file to write
+	 * @param space a semantic space whose space has been processed
+	 * @param handleToDocument maps member handles to the space's
+	 *  document numbers
+	 * @param terms the term of each dimension of the document vectors,
+	 *  or null if the dimensions are not terms
+	 * @param sourceHash the hash of the member documents file
+	 *  (see {@link #hashFile(String)})
+	 * @throws IOException
+	 */
+	public static void write(String fileName, KACSemanticSpace space,
+			Map<String, Integer> handleToDocument, String[] terms,
+			long sourceHash) throws IOException {
+		List<String> handles =
+			new ArrayList<String>(handleToDocument.keySet());
+		int docCount = handles.size();
+		int[][] docIndices = new int[docCount][];
+		double[][] docValues = new double[docCount][];
+		double[] magnitudes = new double[docCount];
+
+		for (int doc = 0; doc < docCount; doc++) {
+			int spaceDoc = handleToDocument.get(handles.get(doc));
+			DoubleVector vector = space.getDocumentVector(spaceDoc);
+			extractEntries(vector, doc, docIndices, docValues);
+			magnitudes[doc] = vector.magnitude();
+		}
+		write(fileName, handles, docIndices, docValues, magnitudes, terms,
+				sourceHash);
+	}
+
+	/**
+	 * Writes document vectors to a model file.
+	 * @param fileName the name of the file to write
+	 * @param handles the member handle of each document
+	 * @param docIndices for each document, the ascending indices of the
+	 *  non-zero entries of its vector
+	 * @param docValues for each document, the values of those entries
+	 * @param magnitudes the magnitude of each document vector
+	 * @param terms the term of each dimension of the document vectors,
+	 *  or null if the dimensions are not terms
+	 * @param sourceHash the hash of the member documents file
+	 * @throws IOException
+	 */
+	public static void write(String fileName, List<String> handles,
+			int[][] docIndices, double[][] docValues, double[] magnitudes,
+			String[] terms, long sourceHash) throws IOException {
+		int docCount = handles.size();
+		int entryCount = 0;
+		for (int[] indices : docIndices) {
+			entryCount += indices.length;
+		}
+		if (terms == null) {
+			terms = new String[0];
+		}
+		int[] sortedTerms = sortTerms(terms);
+
+		byte[][] handleBytes = encode(handles.toArray(new String[docCount]));
+		byte[][] termBytes = encode(terms);
+		int tableLength = 2;
+		while (tableLength < 2 * docCount) {
+			tableLength *= 2;
+		}
+		int[] table = new int[tableLength];
+		for (int doc = 0; doc < docCount; doc++) {
+			int slot = slotFor(handles.get(doc).hashCode(), tableLength);
+			while (table[slot] != 0) {
+				slot = (slot + 1) & (tableLength - 1);
+			}
+			table[slot] = doc + 1;
+		}
+
+		// Write to a separate file, so that a model that is currently
+		// mapped is not truncated underneath its readers
+		File tempFile = new File(fileName + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(docCount);
+			out.writeInt(terms.length);
+			out.writeInt(tableLength);
+			out.writeInt(entryCount);
+			out.writeInt(totalLength(handleBytes));
+			out.writeInt(totalLength(termBytes));
+			out.writeLong(sourceHash);
+			for (int slot : table) {
+				out.writeInt(slot);
+			}
+			writeOffsets(out, handleBytes);
+			int entry = 0;
+			for (int doc = 0; doc < docCount; doc++) {
+				out.writeInt(entry);
+				entry += docIndices[doc].length;
+			}
+			out.writeInt(entry);
+			for (double magnitude : magnitudes) {
+				out.writeDouble(magnitude);
+			}
+			writeOffsets(out, termBytes);
+			for (int dimension : sortedTerms) {
+				out.writeInt(dimension);
+			}
+			for (byte[] bytes : handleBytes) {
+				out.write(bytes);
+			}
+			for (byte[] bytes : termBytes) {
+				out.write(bytes);
+			}
+			for (int[] indices : docIndices) {
+				for (int index : indices) {
+					out.writeInt(index);
+				}
+			}
+			for (double[] values : docValues) {
+				for (double value : values) {
+					out.writeDouble(value);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		File file = new File(fileName);
+		if (!tempFile.renameTo(file)) {
+			file.delete();
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Unable to rename " + tempFile
+						+ " to " + fileName);
+			}
+		}
+	}
+
+	/**
+	 * Collects the non-zero entries of a document vector, sorted by index.
+	 */
+	private static void extractEntries(DoubleVector vector, int doc,
+			int[][] docIndices, double[][] docValues) {
+		int[] indices = null;
+		if (vector instanceof SparseVector<?>) {
+			indices = ((SparseVector<?>)vector).getNonZeroIndices().clone();
+			Arrays.sort(indices);
+		} else {
+			int length = vector.length();
+			int[] candidates = new int[length];
+			int count = 0;
+			for (int i = 0; i < length; i++) {
+				if (vector.get(i) != 0.0) {
+					candidates[count++] = i;
+				}
+			}
+			indices = new int[count];
+			System.arraycopy(candidates, 0, indices, 0, count);
+		}
+		double[] values = new double[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			values[i] = vector.get(indices[i]);
+		}
+		docIndices[doc] = indices;
+		docValues[doc] = values;
+	}
+
+	/**
+	 * @return the dimensions, ordered by their terms
+	 */
+	private static int[] sortTerms(final String[] terms) {
+		Integer[] dimensions = new Integer[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			dimensions[i] = i;
+		}
+		Arrays.sort(dimensions, new Comparator<Integer>() {
+			public int compare(Integer dimension1, Integer dimension2) {
+				return terms[dimension1].compareTo(terms[dimension2]);
+			}
+		});
+		int[] sorted = new int[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			sorted[i] = dimensions[i];
+		}
+		return sorted;
+	}
+
+	/**
+	 * Hashes the contents of a member documents file, so that a model
+	 * can be checked against the file it was built from.
+	 * @param fileName the name of the file
+	 * @return a 64 bit hash (the start of the MD5 digest) of the file
+	 * @throws IOException if the file can't be read
+	 */
+	public static long hashFile(String fileName) throws IOException {
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.toString());
+		}
+		InputStream in = new FileInputStream(fileName);
+		try {
+			byte[] bytes = new byte[8192];
+			int length = 0;
+			while ((length = in.read(bytes)) > 0) {
+				digest.update(bytes, 0, length);
+			}
+		} finally {
+			in.close();
+		}
+		byte[] hashBytes = digest.digest();
+		long hash = 0L;
+		for (int i = 0; i < 8; i++) {
+			hash = (hash << 8) | (hashBytes[i] & 0xFF);
+		}
+		return hash;
+	}
+
+	/**
+	 * @param sourceHash the hash of the file something was built from
+	 * @param documentsFile a member documents file
+	 * @return whether the hash is that of the file as it is now.  If the
+	 * file is missing, there is nothing to rebuild from, so the hash is
+	 * taken to match.
+	 * @throws IOException if the file can't be read
+	 */
+	public static boolean matchesFile(long sourceHash, String documentsFile)
+	throws IOException {
+		return !new File(documentsFile).exists()
+			|| hashFile(documentsFile) == sourceHash;
+	}
+
+	private static byte[][] encode(String[] strings) {
+		byte[][] encoded = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++) {
+			ByteBuffer bytes = UTF8.encode(strings[i]);
+			encoded[i] = new byte[bytes.remaining()];
+			bytes.get(encoded[i]);
+		}
+		return encoded;
+	}
+
+	private static int totalLength(byte[][] strings) {
+		int length = 0;
+		for (byte[] bytes : strings) {
+			length += bytes.length;
+		}
+		return length;
+	}
+
+	private static void writeOffsets(DataOutputStream out, byte[][] strings)
+	throws IOException {
+		int offset = 0;
+		for (byte[] bytes : strings) {
+			out.writeInt(offset);
+			offset += bytes.length;
+		}
+		out.writeInt(offset);
+	}
+
+	/**
+	 * @return the first hash table slot to probe for a string with the
+	 * given hash code.  (String.hashCode is fixed by its specification, so
+	 * it can be used in a persistent table.)
+	 */
+	private static int slotFor(int hashCode, int tableLength) {
+		int hash = hashCode ^ (hashCode >>> 16);
+		return hash & (tableLength - 1);
+	}
+
+	/**
+	 * @param handle the handle of a class member
+	 * @return the number of the member's document, or -1 if the
+	 * member is not in the model
+	 */
+	public int getDocumentNumber(String handle) {
+		int documentNumber = -1;
+		if (handle != null && tableSize > 0) {
+			ByteBuffer key = UTF8.encode(handle);
+			int slot = slotFor(handle.hashCode(), tableSize);
+			int entry = buffer.getInt(tableOffset + 4 * slot);
+			while (entry != 0 && documentNumber < 0) {
+				if (handleMatches(entry - 1, key)) {
+					documentNumber = entry - 1;
+				} else {
+					slot = (slot + 1) & (tableSize - 1);
+					entry = buffer.getInt(tableOffset + 4 * slot);
+				}
+			}
+		}
+		return documentNumber;
+	}
+
+	private boolean handleMatches(int doc, ByteBuffer key) {
+		int start = buffer.getInt(handleOffsetsOffset + 4 * doc);
+		int end = buffer.getInt(handleOffsetsOffset + 4 * (doc + 1));
+		boolean matches = (end - start == key.remaining());
+		int base = handleStringsOffset + start;
+		for (int i = 0; matches && i < end - start; i++) {
+			matches = buffer.get(base + i) == key.get(key.position() + i);
+		}
+		return matches;
+	}
+
+	/**
+	 * @param doc a document number
+	 * @return the handle of the member whose document it is
+	 */
+	public String getHandle(int doc) {
+		int start = buffer.getInt(handleOffsetsOffset + 4 * doc);
+		int end = buffer.getInt(handleOffsetsOffset + 4 * (doc + 1));
+		return decode(handleStringsOffset + start, handleStringsOffset + end);
+	}
+
+	/**
+	 * @param index a dimension of the document vectors
+	 * @return the term for that dimension
+	 */
+	public String getTerm(int index) {
+		int start = buffer.getInt(termOffsetsOffset + 4 * index);
+		int end = buffer.getInt(termOffsetsOffset + 4 * (index + 1));
+		return decode(termStringsOffset + start, termStringsOffset + end);
+	}
+
+	/**
+	 * @param term a term
+	 * @return the dimension of the document vectors for the term, or -1
+	 * if the term is not in the dictionary
+	 */
+	public int getTermIndex(String term) {
+		int low = 0;
+		int high = numTerms - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int dimension = buffer.getInt(sortedTermsOffset + 4 * middle);
+			int comparison = getTerm(dimension).compareTo(term);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return dimension;
+			}
+		}
+		return -1;
+	}
+
+	private String decode(int start, int end) {
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(end);
+		bytes.position(start);
+		return UTF8.decode(bytes).toString();
+	}
+
+	/**
+	 * @param doc a document number
+	 * @return the indices of the non-zero entries of the document vector,
+	 * in ascending order
+	 */
+	public int[] getDocumentIndices(int doc) {
+		int first = buffer.getInt(entryOffsetsOffset + 4 * doc);
+		int last = buffer.getInt(entryOffsetsOffset + 4 * (doc + 1));
+		int[] indices = new int[last - first];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = buffer.getInt(indicesOffset + 4 * (first + i));
+		}
+		return indices;
+	}
+
+	/**
+	 * @param doc a document number
+	 * @return the values of the non-zero entries of the document vector,
+	 * in the order of {@link #getDocumentIndices(int)}
+	 */
+	public double[] getDocumentValues(int doc) {
+		int first = buffer.getInt(entryOffsetsOffset + 4 * doc);
+		int last = buffer.getInt(entryOffsetsOffset + 4 * (doc + 1));
+		double[] values = new double[last - first];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = buffer.getDouble(valuesOffset + 8 * (first + i));
+		}
+		return values;
+	}
+
+	/**
+	 * Calculates the cosine similarity of two document vectors directly
+	 * from the mapped file.  As with the S-Space calculation, the
+	 * similarity is 0 when either vector has no magnitude.
+	 * @param doc1 a document number
+	 * @param doc2 a document number
+	 * @return the cosine of the angle between the documents' vectors
+	 */
+	public double cosineSimilarity(int doc1, int doc2) {
+		double magnitude1 = buffer.getDouble(magnitudesOffset + 8 * doc1);
+		double magnitude2 = buffer.getDouble(magnitudesOffset + 8 * doc2);
+		double similarity = 0.0;
+		if (magnitude1 != 0.0 && magnitude2 != 0.0) {
+			int i = buffer.getInt(entryOffsetsOffset + 4 * doc1);
+			int end1 = buffer.getInt(entryOffsetsOffset + 4 * (doc1 + 1));
+			int j = buffer.getInt(entryOffsetsOffset + 4 * doc2);
+			int end2 = buffer.getInt(entryOffsetsOffset + 4 * (doc2 + 1));
+			double dotProduct = 0.0;
+			while (i < end1 && j < end2) {
+				int index1 = buffer.getInt(indicesOffset + 4 * i);
+				int index2 = buffer.getInt(indicesOffset + 4 * j);
+				if (index1 < index2) {
+					i++;
+				} else if (index1 > index2) {
+					j++;
+				} else {
+					dotProduct += buffer.getDouble(valuesOffset + 8 * i)
+						* buffer.getDouble(valuesOffset + 8 * j);
+					i++;
+					j++;
+				}
+			}
+			similarity = dotProduct / (magnitude1 * magnitude2);
+		}
+		return similarity;
+	}
+
+	public int getDocumentCount() {
+		return numDocs;
+	}
+
+	/**
+	 * @return the number of terms in the dictionary, which is zero when
+	 * the dimensions are not terms
+	 */
+	public int getTermCount() {
+		return numTerms;
+	}
+
+	/**
+	 * @return the hash of the member documents file the model was
+	 * built from
+	 */
+	public long getSourceHash() {
+		return sourceHash;
+	}
+
+	/**
+	 * @param documentsFile a member documents file
+	 * @return whether the model was built from the file as it is now
+	 * @throws IOException if the file can't be read
+	 */
+	public boolean isBuiltFrom(String documentsFile) throws IOException {
+		return matchesFile(sourceHash, documentsFile);
+	}
+
+}
@@ -52,4 +52,18 @@ public interface DistanceCalculatorIfc<V>
      * @return the type of the calculator
      */
     public DistanceCalculatorEnum getType();
+
+    /**
+     * @return true if calculateDistance may be called on this calculator
+     * from several threads at once
+     */
+    public boolean isThreadSafe();
+
+    /**
+     * @return a calculator giving the same distances as this one that
+     * can be used on another thread while this one is in use:  this
+     * calculator itself if it is thread safe, otherwise a copy, or null
+     * if no such copy can be made
+     */
+    public DistanceCalculatorIfc<V> copyForThread();
 }
@@ -33,10 +33,20 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nz.ac.vuw.ecs.kcassell.cluster.Distance;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
@@ -45,20 +55,44 @@ import cern.colt.matrix.impl.DenseDoubleMatrix2D;
  * The DistanceMatrix stores distances between different objects.  By default,
  * This class assumes that distances are symmetrical, e.g. the distance
  * from A to B is the same as the distance from B to A; however,
- * the client class may change that by modifying the isSymmetric member.
+ * the client class may ask for an asymmetric matrix when constructing it.
+ * Because the storage depends on it, this cannot be changed later.
  * When the matrix is symmetric, values are stored in the "lower left", i.e.
  * valid values are at matrix[row][column] where row >= column.
+ * A symmetric matrix only stores that lower triangle, packed row by row
+ * into a primitive array (of floats, if requested, to halve the memory
+ * again); an asymmetric matrix is backed by a dense Colt matrix.
+ * 
+ * In indexed mode, the matrix also remembers the nearest neighbor of each
+ * row (among the columns that hold valid values), so findNearest only has
+ * to look at one value per row.  The index is kept current by setDistance.
  * @author Keith
  * @param <V> the type of the objects for which the distances are being stored
  */
 public class DistanceMatrix<V> implements RefactoringConstants {
 	
+	/** Matrices with fewer rows per thread than this are filled serially. */
+	protected static final int MIN_ROWS_PER_THREAD = 16;
+
+	/** Filling is split into this many blocks per thread, so that
+	 * threads that finish early can help with the rest. */
+	protected static final int BLOCKS_PER_THREAD = 4;
+
 	/** Indicates whether dist(a, b) == dist(b, a) */
-	protected boolean isSymmetric = true;
+	protected final boolean isSymmetric;
 
-	/** The raw data. For now at least, a square matrix. */
+	/** The raw data for an asymmetric matrix.  Only allocated if the
+	 * matrix is asymmetric. */
 	protected DoubleMatrix2D matrix = null;
 
+	/** The lower triangle (including the diagonal) of a symmetric matrix,
+	 * packed row by row.  Null when single precision was requested.
+	 * @see #packedIndex(int, int) */
+	protected double[] packedDistances = null;
+
+	/** The single precision alternative to packedDistances. */
+	protected float[] packedFloatDistances = null;
+
 	/** The members used for row and column headers. */
 	protected List<V> headers;
 
@@ -66,13 +100,60 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 	protected HashMap<V, Integer> memberIndex =
 		new HashMap<V, Integer>();
 
+	/** Indicates whether the nearest neighbor of each row is being tracked. */
+	protected boolean isIndexed = false;
+
+	/** For each row, the column holding the smallest known distance
+	 * (the first such column if there are ties), or -1 if none is known.
+	 * Only used in indexed mode. */
+	protected int[] nearestColumns = null;
+
+	/** For each row, the smallest known distance.  Only used in indexed mode. */
+	protected double[] nearestDistances = null;
+
 	/**
 	 * Builds a distance matrix using the headers provided.
 	 * @param callGraph the graph of nodes whose distances will be stored
 	 * @param distanceCalculator calculates the distances between nodes
 	 */
 	public DistanceMatrix(List<V> headers) {
+		this(headers, false, false);
+	}
+
+	/**
+	 * Builds a distance matrix using the headers provided.
+	 * @param headers the objects whose distances will be stored
+	 * @param indexed whether to track the nearest neighbor of each row
+	 */
+	public DistanceMatrix(List<V> headers, boolean indexed) {
+		this(headers, indexed, false);
+	}
+
+	/**
+	 * Builds a distance matrix using the headers provided.
+	 * @param headers the objects whose distances will be stored
+	 * @param indexed whether to track the nearest neighbor of each row
+	 * @param singlePrecision whether to store the distances as floats.
+	 * MAX_DISTANCE is stored as infinity, and read back as MAX_DISTANCE.
+	 */
+	public DistanceMatrix(List<V> headers, boolean indexed,
+			boolean singlePrecision) {
+		this(headers, indexed, singlePrecision, true);
+	}
+
+	/**
+	 * Builds a distance matrix using the headers provided.
+	 * @param headers the objects whose distances will be stored
+	 * @param indexed whether to track the nearest neighbor of each row
+	 * @param singlePrecision whether to store the distances as floats
+	 * (symmetric matrices only).
+	 * MAX_DISTANCE is stored as infinity, and read back as MAX_DISTANCE.
+	 * @param symmetric whether dist(a, b) == dist(b, a)
+	 */
+	public DistanceMatrix(List<V> headers, boolean indexed,
+			boolean singlePrecision, boolean symmetric) {
 		this.headers = headers;
+		isSymmetric = symmetric;
 		int index = 0;
 
 		// Keep track of which index in the array corresponds to each member
@@ -81,27 +162,352 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 		}
 
 		int size = headers.size();
-		matrix = new DenseDoubleMatrix2D(size, size);
-		matrix.assign(UNKNOWN_DISTANCE.doubleValue());
+		if (!symmetric) {
+			matrix = new DenseDoubleMatrix2D(size, size);
+			matrix.assign(UNKNOWN_DISTANCE.doubleValue());
+		} else if (singlePrecision) {
+			packedFloatDistances = new float[size * (size + 1) / 2];
+			Arrays.fill(packedFloatDistances,
+					UNKNOWN_DISTANCE.floatValue());
+		} else {
+			packedDistances = new double[size * (size + 1) / 2];
+			Arrays.fill(packedDistances, UNKNOWN_DISTANCE.doubleValue());
+		}
+		if (indexed) {
+			// Nothing is known yet, so there is no need to scan the rows
+			isIndexed = true;
+			nearestColumns = new int[size];
+			Arrays.fill(nearestColumns, -1);
+			nearestDistances = new double[size];
+			Arrays.fill(nearestDistances, UNKNOWN_DISTANCE.doubleValue());
+		}
+	}
+
+	/**
+	 * Builds a copy of another matrix, including its nearest neighbor
+	 * index.  The headers are shared, but the distances are not.
+	 * @param other the matrix to copy
+	 */
+	public DistanceMatrix(DistanceMatrix<V> other) {
+		headers = other.headers;
+		memberIndex = new HashMap<V, Integer>(other.memberIndex);
+		isSymmetric = other.isSymmetric;
+		if (other.matrix != null) {
+			matrix = other.matrix.copy();
+		}
+		if (other.packedDistances != null) {
+			packedDistances = other.packedDistances.clone();
+		}
+		if (other.packedFloatDistances != null) {
+			packedFloatDistances = other.packedFloatDistances.clone();
+		}
+		isIndexed = other.isIndexed;
+		if (isIndexed) {
+			nearestColumns = other.nearestColumns.clone();
+			nearestDistances = other.nearestDistances.clone();
+		}
+	}
+
+	/**
+	 * @return the position of matrix[row][column] in the packed
+	 * lower triangle, where row >= column
+	 */
+	protected static int packedIndex(int row, int column) {
+		return (row * (row + 1)) / 2 + column;
+	}
+
+	/**
+	 * @return the value stored at matrix[row][column].  For a symmetric
+	 * matrix, row >= column.
+	 */
+	protected double getQuick(int row, int column) {
+		double distance;
+		if (!isSymmetric) {
+			distance = matrix.getQuick(row, column);
+		} else if (packedDistances != null) {
+			distance = packedDistances[packedIndex(row, column)];
+		} else {
+			float floatDistance =
+				packedFloatDistances[packedIndex(row, column)];
+			distance = (floatDistance == Float.POSITIVE_INFINITY)
+				? MAX_DISTANCE.doubleValue() : floatDistance;
+		}
+		return distance;
+	}
+
+	/**
+	 * Stores a value at matrix[row][column].  For a symmetric
+	 * matrix, row >= column.
+	 */
+	protected void setQuick(int row, int column, double distance) {
+		if (!isSymmetric) {
+			matrix.setQuick(row, column, distance);
+		} else if (packedDistances != null) {
+			packedDistances[packedIndex(row, column)] = distance;
+		} else {
+			packedFloatDistances[packedIndex(row, column)] = (float)distance;
+		}
+	}
+
+	/**
+	 * @return whether the nearest neighbor of each row is being tracked
+	 */
+	public boolean isIndexed() {
+		return isIndexed;
+	}
+
+	/**
+	 * Turns the nearest neighbor index on or off.  Turning it on
+	 * takes one pass over the matrix.
+	 * @param indexed whether to track the nearest neighbor of each row
+	 */
+	public void setIndexed(boolean indexed) {
+		isIndexed = indexed;
+		if (indexed) {
+			int size = headers.size();
+			nearestColumns = new int[size];
+			nearestDistances = new double[size];
+			for (int row = 0; row < size; row++) {
+				indexRow(row);
+			}
+		} else {
+			nearestColumns = null;
+			nearestDistances = null;
+		}
+	}
+
+	/**
+	 * Finds the nearest neighbor of a row from scratch.
+	 * @param row the row to index
+	 */
+	protected void indexRow(int row) {
+		double unknown = UNKNOWN_DISTANCE.doubleValue();
+		int nearestColumn = -1;
+		double nearestDistance = unknown;
+		int numColumns = isSymmetric ? row : headers.size();
+
+		for (int col = 0; col < numColumns; col++) {
+			double distance = getQuick(row, col);
+			if (col != row && distance != unknown
+					&& (nearestColumn < 0 || distance < nearestDistance)) {
+				nearestColumn = col;
+				nearestDistance = distance;
+			}
+		}
+		nearestColumns[row] = nearestColumn;
+		nearestDistances[row] = nearestDistance;
+	}
+
+	/**
+	 * Revises the index of a row after one of its values has changed.
+	 * The row only needs to be rescanned when its nearest neighbor
+	 * moved farther away.
+	 * @param row the row of the changed value
+	 * @param col the column of the changed value
+	 * @param distance the new value
+	 */
+	protected void updateIndex(int row, int col, double distance) {
+		if (row != col) {
+			boolean isKnown = distance != UNKNOWN_DISTANCE.doubleValue();
+			int nearestColumn = nearestColumns[row];
+
+			if (col == nearestColumn) {
+				if (isKnown && distance <= nearestDistances[row]) {
+					nearestDistances[row] = distance;
+				} else {
+					indexRow(row);
+				}
+			} else if (isKnown && (nearestColumn < 0
+					|| distance < nearestDistances[row]
+					|| (distance == nearestDistances[row]
+					    && col < nearestColumn))) {
+				nearestColumns[row] = col;
+				nearestDistances[row] = distance;
+			}
+		}
 	}
 	
 	
 	/**
 	 * Use the distance calculator to fill in the distance matrix.
+	 * The number of threads used is determined by a user
+	 * preference/parameter.
 	 * @param calc the distance calculator
 	 */
 	public void fillMatrix(DistanceCalculatorIfc<V> calc) {
-		for (int row = 0; row < headers.size(); row++) {
+		ApplicationParameters params = ApplicationParameters.getSingleton();
+		int parallelism =
+			params.getIntParameter(ParameterConstants.PARALLELISM_KEY, 1);
+		fillMatrix(calc, parallelism);
+	}
+
+	/**
+	 * Use the distance calculator to fill in the distance matrix.
+	 * The lower triangle is split into blocks of rows holding roughly
+	 * equal numbers of values, and the blocks are shared out among the
+	 * threads.  Each thread writes only to the rows of its own blocks.
+	 * Each row is calculated with a single calculateRow call, so
+	 * a BatchDistanceCalculatorIfc can derive per-object features once
+	 * per row rather than once per pair.
+	 * If the calculator is neither thread safe nor able to copy itself,
+	 * or the matrix is small, the matrix is filled on this thread.
+	 * A PrefetchingDistanceCalculatorIfc is first asked to retrieve
+	 * the data for all of the headers.
+	 * @param calc the distance calculator
+	 * @param parallelism the maximum number of threads to use;
+	 * zero or less means one per available processor
+	 */
+	@SuppressWarnings("unchecked")
+	public void fillMatrix(DistanceCalculatorIfc<V> calc, int parallelism) {
+		int size = headers.size();
+		if (calc instanceof PrefetchingDistanceCalculatorIfc<?>) {
+			((PrefetchingDistanceCalculatorIfc<V>)calc).prefetch(headers);
+		}
+		int numThreads = (parallelism > 0)
+			? parallelism : Runtime.getRuntime().availableProcessors();
+		numThreads = Math.min(numThreads, size / MIN_ROWS_PER_THREAD);
+		List<DistanceCalculatorIfc<V>> calculators =
+			getThreadCalculators(calc, numThreads);
+
+		if (numThreads <= 1 || calculators == null) {
+			fillRows(calc, 0, size);
+		} else {
+			final int[] blockStarts =
+				partitionRows(size, numThreads * BLOCKS_PER_THREAD);
+			final AtomicInteger nextBlock = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+			try {
+				for (final DistanceCalculatorIfc<V> threadCalc : calculators) {
+					futures.add(executor.submit(new Callable<Object>() {
+						public Object call() {
+							int block = nextBlock.getAndIncrement();
+							while (block < blockStarts.length - 1) {
+								fillRows(threadCalc, blockStarts[block],
+										blockStarts[block + 1]);
+								block = nextBlock.getAndIncrement();
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Object> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted filling the matrix", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * @return one calculator per thread, or null if the calculator can't
+	 * be used from several threads
+	 */
+	protected static <V> List<DistanceCalculatorIfc<V>> getThreadCalculators(
+			DistanceCalculatorIfc<V> calc, int numThreads) {
+		List<DistanceCalculatorIfc<V>> calculators =
+			new ArrayList<DistanceCalculatorIfc<V>>();
+		calculators.add(calc);
+		for (int i = 1; i < numThreads && calculators != null; i++) {
+			DistanceCalculatorIfc<V> threadCalc = calc.copyForThread();
+			if (threadCalc == null) {
+				calculators = null;
+			} else {
+				calculators.add(threadCalc);
+			}
+		}
+		return calculators;
+	}
+
+	/**
+	 * Splits the rows of the lower triangle into blocks containing
+	 * roughly the same number of values.
+	 * @param size the number of rows
+	 * @param numBlocks the desired number of blocks
+	 * @return the first row of each block, followed by size
+	 */
+	protected static int[] partitionRows(int size, int numBlocks) {
+		numBlocks = Math.max(1, Math.min(numBlocks, size));
+		int[] blockStarts = new int[numBlocks + 1];
+		long totalValues = ((long)size * (size + 1)) / 2;
+		long valuesSoFar = 0;
+		int block = 1;
+
+		for (int row = 0; row < size && block < numBlocks; row++) {
+			valuesSoFar += row + 1;
+			if (valuesSoFar * numBlocks >= totalValues * block) {
+				blockStarts[block++] = row + 1;
+			}
+		}
+		while (block <= numBlocks) {
+			blockStarts[block++] = size;
+		}
+		return blockStarts;
+	}
+
+	/**
+	 * Fills in the lower triangle (including the diagonal) of some rows.
+	 * @param calc the distance calculator
+	 * @param startRow the first row to fill
+	 * @param endRow one past the last row to fill
+	 */
+	protected void fillRows(DistanceCalculatorIfc<V> calc,
+			int startRow, int endRow) {
+		double[] distances = new double[endRow];
+		for (int row = startRow; row < endRow; row++) {
 			V obj1 = headers.get(row);
+			calculateRow(calc, obj1, headers.subList(0, row + 1), distances);
 			for (int col = 0; col <= row; col++) {
-				V obj2 = headers.get(col);
-				Number distance = calc.calculateDistance(obj1, obj2);
-				setDistance(obj1, obj2, distance);
+				double distance = distances[col];
+				if (!Double.isNaN(distance)) {
+					setDistance(row, col, distance);
+				}
 			}
 		}
 	}
 
+	/**
+	 * Calculates the distances from obj1 to each of the others, using the
+	 * calculator's batch interface when it has one and calculating the
+	 * distances a pair at a time otherwise.
+	 * @param calc the distance calculator
+	 * @param obj1 the object the distances are measured from
+	 * @param others the objects the distances are measured to
+	 * @param distances receives the distances (NaN where unknown)
+	 * @see BatchDistanceCalculatorIfc#calculateRow(Object, List, double[])
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> void calculateRow(DistanceCalculatorIfc<V> calc,
+			V obj1, List<V> others, double[] distances) {
+		if (calc instanceof BatchDistanceCalculatorIfc<?>) {
+			((BatchDistanceCalculatorIfc<V>)calc).calculateRow(
+					obj1, others, distances);
+		} else {
+			calculateRowPairwise(calc, obj1, others, distances);
+		}
+	}
 
+	/**
+	 * Calculates the distances from obj1 to each of the others a
+	 * pair at a time.
+	 * @see #calculateRow(DistanceCalculatorIfc, Object, List, double[])
+	 */
+	public static <V> void calculateRowPairwise(DistanceCalculatorIfc<V> calc,
+			V obj1, List<V> others, double[] distances) {
+		int numOthers = others.size();
+		for (int i = 0; i < numOthers; i++) {
+			Number distance = calc.calculateDistance(obj1, others.get(i));
+			distances[i] =
+				(distance == null) ? Double.NaN : distance.doubleValue();
+		}
+	}
 
 	/**
 	 * Gets the index corresponding to the supplied member.
@@ -110,7 +516,7 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 	 *            the member whose index value is being searched for
 	 * @return the nonnegative index if the index exists; negative otherwise
 	 */
-	protected int getIndex(V member) {
+	public int getIndex(V member) {
 		int index = -1;
 
 		Integer indexInteger = memberIndex.get(member);
@@ -129,11 +535,23 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 		Integer index1 = memberIndex.get(node1);
 		Integer index2 = memberIndex.get(node2);
 		if (index1 != null && index2 != null) {
-			if (isSymmetric && index2 > index1) {
-				distance = matrix.get(index2, index1);
-			} else {
-				distance = matrix.get(index1, index2);
-			}
+			distance = getDistance(index1.intValue(), index2.intValue());
+		}
+		return distance;
+	}
+
+	/**
+	 * @param index1 the index of one member
+	 * @param index2 the index of the other member
+	 * @return the distance between the members at those indices
+	 * @see #getIndex(Object)
+	 */
+	public double getDistance(int index1, int index2) {
+		double distance;
+		if (isSymmetric && index2 > index1) {
+			distance = getQuick(index2, index1);
+		} else {
+			distance = getQuick(index1, index2);
 		}
 		return distance;
 	}
@@ -143,43 +561,77 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 			Integer index1 = memberIndex.get(node1);
 			Integer index2 = memberIndex.get(node2);
 			if (index1 != null && index2 != null) {
-				if (isSymmetric && index2 > index1) {
-					matrix.set(index2, index1, distance.doubleValue());
-				} else {
-					matrix.set(index1, index2, distance.doubleValue());
-				}
+				setDistance(index1.intValue(), index2.intValue(),
+						distance.doubleValue());
 			}
 		}
 	}
 
+	/**
+	 * Stores the distance between the members at the given indices.
+	 * @param index1 the index of one member
+	 * @param index2 the index of the other member
+	 * @param distance the distance between them
+	 * @see #getIndex(Object)
+	 */
+	public void setDistance(int index1, int index2, double distance) {
+		int row = index1;
+		int col = index2;
+		if (isSymmetric && index2 > index1) {
+			row = index2;
+			col = index1;
+		}
+		setQuick(row, col, distance);
+		if (isIndexed) {
+			// Index what was stored, which may have been rounded to a float
+			updateIndex(row, col, getQuick(row, col));
+		}
+	}
+
 	/**
 	 * @return the two elements that are closest together.
-	 * Ties are broken arbitrarily.
+	 * Ties are broken in favor of the first row, then the first column.
 	 */
 	public Distance<V> findNearest() {
 		Distance<V> nearest = null;
-		double smallestYet = MAX_DISTANCE.doubleValue();
-		
-		if (headers.size() > 1) {
-			smallestYet = matrix.get(1, 0);
-			nearest = new Distance<V>(headers.get(0), headers.get(1), smallestYet);
-		}
-		int row = 0;
-		for (V element1: headers) {
-			int col = 0;
-			for (V element2: headers) {
-				double distance = matrix.get(row, col);
-				
-				if ( // (distance != 0) 
-						(row != col)
-						&& (distance != UNKNOWN_DISTANCE.doubleValue()) 
-						&& (distance < smallestYet)) {
-					nearest = new Distance<V>(element1, element2, distance);
-					smallestYet = distance;
+		int size = headers.size();
+
+		if (size > 1) {
+			double unknown = UNKNOWN_DISTANCE.doubleValue();
+			double smallestYet = getQuick(1, 0);
+			int nearestRow = -1;
+			int nearestCol = -1;
+
+			for (int row = 0; row < size; row++) {
+				if (isIndexed) {
+					int col = nearestColumns[row];
+					if (col >= 0 && nearestDistances[row] < smallestYet) {
+						smallestYet = nearestDistances[row];
+						nearestRow = row;
+						nearestCol = col;
+					}
+				} else {
+					// When symmetric, only the lower left holds values
+					int numColumns = isSymmetric ? row : size;
+					for (int col = 0; col < numColumns; col++) {
+						double distance = getQuick(row, col);
+						if ((row != col)
+								&& (distance != unknown)
+								&& (distance < smallestYet)) {
+							smallestYet = distance;
+							nearestRow = row;
+							nearestCol = col;
+						}
+					}
 				}
-				col++;
 			}
-			row++;
+			if (nearestRow < 0) {
+				nearest = new Distance<V>(headers.get(0), headers.get(1),
+						smallestYet);
+			} else {
+				nearest = new Distance<V>(headers.get(nearestRow),
+						headers.get(nearestCol), smallestYet);
+			}
 		}
 		return nearest;
 	}
@@ -219,7 +671,7 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 			member = String.format("%-10.10s", member);
 			buf.append(member);
 			for (int j = 0; j < size; j++) {
-				double distance = matrix.get(i, j);
+				double distance = getQuick(i, j);
 				if (distance == UNKNOWN_DISTANCE.doubleValue()) {
 					buf.append("\t-");
 				} else {
@@ -239,7 +691,7 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 			String member10 = String.format("%-10.10s", member);
 			buf.append(member10); // the shortened member name begins the row
 			for (int j = 0; j < i; j++) {
-				double distance = matrix.get(i, j);
+				double distance = getQuick(i, j);
 				if (distance == UNKNOWN_DISTANCE.doubleValue()) {
 					buf.append("\t-");
 				} else {
@@ -0,0 +1,110 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+
+/**
+ * This assigns a dense integer id to each property (feature) name, so that
+ * a property set can be represented as a bit set - an array of longs where
+ * bit (id % 64) of word (id / 64) is set when the property is present.
+ * The Jaccard similarity of two such sets is then a matter of counting bits.
+ * The dictionary grows as new features are seen, so bit sets created
+ * earlier may be shorter than ones created later.  It may be shared
+ * between threads.
+ * @author Keith
+ * @see JaccardCalculator#calculateSimilarity(long[], long[])
+ */
+public class FeatureDictionary {
+
+	/** Maps each feature name to its id. */
+	protected HashMap<String, Integer> featureIds =
+		new HashMap<String, Integer>();
+
+	public FeatureDictionary() {
+	}
+
+	/**
+	 * Creates a dictionary whose first ids are the labels of the
+	 * nodes of the graph.
+	 * @param graph the call graph whose members will be the features
+	 */
+	public FeatureDictionary(JavaCallGraph graph) {
+		if (graph != null) {
+			for (CallGraphNode node : graph.getNodes()) {
+				getId(node.getLabel());
+			}
+		}
+	}
+
+	/**
+	 * @param feature the name of a feature
+	 * @return the id of the feature, which is assigned if necessary
+	 */
+	public synchronized int getId(String feature) {
+		Integer id = featureIds.get(feature);
+		if (id == null) {
+			id = featureIds.size();
+			featureIds.put(feature, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the number of features with ids
+	 */
+	public synchronized int size() {
+		return featureIds.size();
+	}
+
+	/**
+	 * @param features the names of features
+	 * @return the bit set with a bit set for each of the features
+	 */
+	public synchronized long[] toBitSet(Collection<String> features) {
+		for (String feature : features) {
+			getId(feature);
+		}
+		long[] bits = new long[(featureIds.size() + 63) >>> 6];
+		for (String feature : features) {
+			int id = featureIds.get(feature);
+			bits[id >>> 6] |= 1L << id;
+		}
+		return bits;
+	}
+
+}
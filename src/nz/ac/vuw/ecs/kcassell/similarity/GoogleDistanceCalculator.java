@@ -1,27 +1,15 @@
 package nz.ac.vuw.ecs.kcassell.similarity;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.net.URLEncoder;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
-import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
 /**
  * This implements the Normalized Google Distance (NGD) as described in
  * R.L. Cilibrasi and P.M.B. Vitanyi, "The Google Similarity Distance",
@@ -29,23 +17,16 @@ import org.json.JSONTokener;
  */
 
 public class GoogleDistanceCalculator
-implements DistanceCalculatorIfc<String> {
-	
-	/** A Google URL that will return the number of matches, among other things. */
-	private static final String GOOGLE_SEARCH_SITE_PREFIX =
-		"http://ajax.googleapis.com/ajax/services/search/web?v=1.0&";
+implements PrefetchingDistanceCalculatorIfc<String> {
 
-	/** A Yahoo URL that will return the number of matches, among other things. */
-	private static final String YAHOO_SEARCH_SITE_PREFIX =
-		"http://boss.yahooapis.com/ysearch/web/v1/";
-	// + theQueryTerm?appid=YOUR_API_KEY&format=json"
-	// see http://developer.yahoo.com/search/boss/
-	
 	/** The file in the eclipse install directory containing a textual rep.
-	 * of the cache.	 */
+	 * of the cache written by earlier versions.  It is imported into
+	 * the hit count file if that doesn't exist yet.	 */
 	protected static final String CACHE_FILE_NAME = "google.cache";
 
-	static int counter = 0;
+	/** The file in the eclipse install directory holding the hit counts.
+	 * @see HitCountStore */
+	protected static final String HIT_COUNT_FILE_NAME = "google.hits";
 
 	/** The logarithm of a number that is (hopefully) greater than or equal
 	 *  to the (unpublished) indexed number of Google documents.
@@ -53,197 +34,88 @@ implements DistanceCalculatorIfc<String> {
 	 *  puts this at a trillion or more.  */
 	protected final static double logN = Math.log(1.0e12);
 
-    protected static final UtilLogger logger =
-    	new UtilLogger("GoogleDistanceCalculator");
-
-	Map<String, Double> cache = new HashMap<String, Double>();
-	
-	/** Holds the new terms we entered (these are also in the cache) */
-	Map<String, Double> newCache = new HashMap<String, Double>();
+	/** The hit counts are shared by all of the calculators that use
+	 * the default provider. */
+	private static WebHitCountProvider defaultProvider = null;
 
-	/** The key to use for querying Yahoo.   This is read in via the system
-	 * property "yahooApiKey".  */
-	private static String yahooApiKey = System.getProperty("yahooApiKey");
+	/** Provides the number of hits for search terms. */
+	protected HitCountProviderIfc hitCounts;
 
 	public GoogleDistanceCalculator() throws NumberFormatException, IOException {
-		cache = setupCache(CACHE_FILE_NAME);
-	}
-
-	public void clearCache() {
-		cache = new HashMap<String, Double>();
-		newCache = new HashMap<String, Double>();
-		File cacheFile = new File(CACHE_FILE_NAME);
-		cacheFile.delete();
-	}
-	
-	protected Map<String, Double> setupCache(String filename)
-			throws NumberFormatException, IOException {
-
-		File cacheFile = new File(filename);
-
-		if (cacheFile.canRead()) {
-			BufferedReader reader = new BufferedReader(new FileReader(filename));
-
-			Map<String, Double> cache = new HashMap<String, Double>();
-			String line;
-
-			while ((line = reader.readLine()) != null) {
-				int lastSpaceIndex = line.lastIndexOf(' ');
-				String token = line.substring(0, lastSpaceIndex);
-				double count = Double
-						.parseDouble(line.substring(lastSpaceIndex + 1));
-				cache.put(token, count);
-			}
-
-			reader.close();
-		}
-		return cache;
+		this(getDefaultProvider());
 	}
 
 	/**
-	 * Adds the contents of newCache to the specified file
-	 * @param filename
+	 * @param hitCounts provides the number of hits for search terms
 	 */
-	protected void updateCache(String filename) {
-
-		if (counter++ >= 20) {
-			BufferedWriter writer = null;
-			try {
-				writer = new BufferedWriter(new FileWriter(filename, true));
-
-				for (Map.Entry<String, Double> entry : newCache.entrySet()) {
-					writer.append(entry.getKey() + " " + entry.getValue() + "\n");
-				}
-				newCache = new HashMap<String, Double>();
-				counter = 0;
-			} catch (IOException e) {
-				// Things will just take longer
-			} finally {
-				if (writer != null) {
-					try {
-						writer.close();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}
-			}
-		}
+	public GoogleDistanceCalculator(HitCountProviderIfc hitCounts) {
+		this.hitCounts = hitCounts;
 	}
 
-	protected double numResultsFromWeb(String term)
-	throws JSONException, IOException {
-		double result = 0;
-		
-		if (cache.containsKey(term)) {
-			result = cache.get(term);
-		} else {
-			URL url = null;
-			InputStream stream = null;
-			try {
-				url = makeQueryURL(term);
-				URLConnection connection = url.openConnection();
-//				connection.setConnectTimeout(2000);
-				stream = connection.getInputStream();
-				InputStreamReader inputReader = new InputStreamReader(stream);
-				BufferedReader bufferedReader = new BufferedReader(inputReader);
-				double count = getCountFromQuery(bufferedReader);
-//				System.out.println(term + ":\t" + count + " hits");
-				cache.put(term, count);
-				newCache.put(term, count);
-				updateCache(CACHE_FILE_NAME);
-				result = count;
-			}
-			finally {
-				if (stream != null) {
-					try {
-						stream.close();
-					} catch (IOException e) {
-						logger.warning(e.toString());
-					}
-				}
+	/**
+	 * @return a provider that queries the web, keeping the counts in
+	 * HIT_COUNT_FILE_NAME
+	 */
+	protected static synchronized WebHitCountProvider getDefaultProvider()
+	throws IOException {
+		if (defaultProvider == null) {
+			boolean isNew = !new File(HIT_COUNT_FILE_NAME).exists();
+			HitCountStore store = new HitCountStore(HIT_COUNT_FILE_NAME);
+			if (isNew && new File(CACHE_FILE_NAME).canRead()) {
+				store.importText(CACHE_FILE_NAME);
 			}
+			int maxConnections = ApplicationParameters.getSingleton()
+				.getIntParameter(ParameterConstants.WEB_CONNECTIONS_KEY,
+						WebHitCountProvider.DEFAULT_MAX_CONNECTIONS);
+			defaultProvider = new WebHitCountProvider(store, maxConnections);
 		}
-		return result;
-	}
-
-	private double getCountFromQuery(BufferedReader reader)
-			throws JSONException, IOException {
-		double count = getCountFromYahooQuery(reader);
-//		double count = getCountFromGoogleQuery(bufferedReader);
-		return count;
+		return defaultProvider;
 	}
 
-	private double getCountFromYahooQuery(BufferedReader reader)
-			throws IOException, JSONException {
-//		String line;
-//		StringBuilder builder = new StringBuilder();
-//
-//		while ((line = reader.readLine()) != null) {
-//			builder.append(line);
-//		}
-//		String response = builder.toString();
-//		JSONObject json = new JSONObject(response);
-		JSONObject json = new JSONObject(new JSONTokener(reader));
-		JSONObject searchResponse = json.getJSONObject("ysearchresponse");
-		double count = searchResponse.getDouble("totalhits");
-		return count;
-	}
-
-	@SuppressWarnings("unused")
-	private double getCountFromGoogleQuery(BufferedReader bufferedReader) throws JSONException {
-		JSONObject json = new JSONObject(new JSONTokener(bufferedReader));
-		JSONObject responseData = json.getJSONObject("responseData");
-		JSONObject cursor = responseData.getJSONObject("cursor");
-		double count = 0;
-		
+	public void clearCache() {
 		try {
-			count = cursor.getDouble("estimatedResultCount");
-		} catch (JSONException e) {
-			// exception will be thrown when no matches are found
-			count = 0;
+			hitCounts.clearCache();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		return count;
+		File cacheFile = new File(CACHE_FILE_NAME);
+		cacheFile.delete();
 	}
 
-	protected URL makeQueryURL(String term) throws MalformedURLException, IOException {
-		//String searchTerm = term.replaceAll(" ", "+");
-		String searchTerm = URLEncoder.encode(term, "UTF-8");
-		URL url;
-		String urlString = makeYahooQueryString(searchTerm);
-//		String urlString = makeGoogleQueryString(searchTerm);
-		url = new URL(urlString);
-		return url;
+	protected double numResultsFromWeb(String term) throws IOException {
+		return hitCounts.getHitCount(term);
 	}
 
 	/**
-	 * Builds a query string suitable for Google
-	 * @param searchTerm
-	 * @return
+	 * @return the search term for pages containing both terms.  The terms
+	 * are put in a canonical order so that the distance is symmetric
+	 * and the combined count is fetched only once per pair.
 	 */
-	@SuppressWarnings("unused")
-	private String makeGoogleQueryString(String searchTerm) {
-		String urlString = GOOGLE_SEARCH_SITE_PREFIX + "q=" + searchTerm + " ";
-		/*
-		 * Example queries:
-			cassell: q=cassell
-			keith cassell: q=keith+cassell
-			"keith cassell": q=%22keith+cassell%22
-			"keith cassell" betweenness: q=%22keith+cassell%22+betweenness
-		 */
-		return urlString;
+	protected static String combineTerms(String term1, String term2) {
+		String combined = null;
+		if (term1.compareTo(term2) <= 0) {
+			combined = term1 + " " + term2;
+		} else {
+			combined = term2 + " " + term1;
+		}
+		return combined;
 	}
 
 	/**
-	 * Builds a query string suitable for Yahoo
-	 * @param searchTerm
-	 * @return
+	 * Retrieves the hit counts needed to calculate the distances between
+	 * all of the terms (including each term and itself), so that
+	 * the requests can be made concurrently.
+	 * @param terms the search terms
 	 */
-	private String makeYahooQueryString(String searchTerm) {
-		String urlString = YAHOO_SEARCH_SITE_PREFIX + searchTerm +
-			     "?appid=" + yahooApiKey + "&count=0&format=json";
-//		System.out.println(urlString);
-		return urlString;
+	public void prefetch(Collection<String> terms) {
+		List<String> termList = new ArrayList<String>(terms);
+		List<String> allTerms = new ArrayList<String>(termList);
+		for (int i = 0; i < termList.size(); i++) {
+			for (int j = 0; j <= i; j++) {
+				allTerms.add(combineTerms(termList.get(i), termList.get(j)));
+			}
+		}
+		hitCounts.prefetch(allTerms);
 	}
 
 	/**
@@ -260,7 +132,7 @@ implements DistanceCalculatorIfc<String> {
 		try {
 			double min = numResultsFromWeb(term1);
 			double max = numResultsFromWeb(term2);
-			double both = numResultsFromWeb(term1 + " " + term2);
+			double both = numResultsFromWeb(combineTerms(term1, term2));
 
 			// if necessary, swap the min and max
 			if (max < min) {
@@ -292,4 +164,12 @@ implements DistanceCalculatorIfc<String> {
 		return DistanceCalculatorEnum.GoogleDistance;
 	}
 
+	public boolean isThreadSafe() {
+		return hitCounts.isThreadSafe();
+	}
+
+	public DistanceCalculatorIfc<String> copyForThread() {
+		return isThreadSafe() ? this : null;
+	}
+
 }
@@ -0,0 +1,284 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent map from search terms to hit counts.  The counts are kept
+ * in memory and appended to a binary log file as they are added, so a
+ * count is never fetched from the web twice.  The log consists of a magic
+ * number followed by (term, count) records written with writeUTF and
+ * writeDouble; a later record for a term replaces an earlier one.
+ * When the log holds many more records than there are terms (or ends
+ * with a partial record, e.g. after a crash), it is compacted by
+ * rewriting the current counts to a new file.
+ * The store may be shared between threads.
+ * @author Keith
+ */
+public class HitCountStore {
+
+	/** Identifies a hit count file. */
+	protected static final int MAGIC = 0x45584843;
+
+	/** The log isn't compacted until it has at least this many records. */
+	protected static final int MIN_RECORDS_TO_COMPACT = 1000;
+
+	/** The name of the log file. */
+	protected String fileName;
+
+	/** The counts, keyed by term. */
+	protected ConcurrentHashMap<String, Double> counts =
+		new ConcurrentHashMap<String, Double>();
+
+	/** The number of records in the log. */
+	protected int recordCount = 0;
+
+	/** Appends to the log; opened when the first count is added. */
+	protected DataOutputStream log = null;
+
+	/**
+	 * Reads the counts from the file, if it exists, compacting it
+	 * if necessary.
+	 * @param fileName the name of the log file
+	 */
+	public HitCountStore(String fileName) throws IOException {
+		this.fileName = fileName;
+		boolean damaged = load();
+		if (damaged || needsCompaction()) {
+			compact();
+		}
+	}
+
+	/**
+	 * @return true if the file ended with a partial record
+	 */
+	protected boolean load() throws IOException {
+		File file = new File(fileName);
+		// The length of the complete records read so far
+		long validLength = 0;
+
+		if (file.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC) {
+					throw new IOException(fileName
+							+ " is not a hit count file");
+				}
+				validLength = 4;
+				while (true) {
+					String term = in.readUTF();
+					double count = in.readDouble();
+					counts.put(term, count);
+					recordCount++;
+					validLength += 2 + utfLength(term) + 8;
+				}
+			} catch (EOFException e) {
+				// the end of the log (which may be a partial record)
+			} finally {
+				in.close();
+			}
+		}
+		return validLength < file.length();
+	}
+
+	private static int utfLength(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length++;
+			} else if (c > 0x07FF) {
+				length += 3;
+			} else {
+				length += 2;
+			}
+		}
+		return length;
+	}
+
+	protected boolean needsCompaction() {
+		return recordCount >= MIN_RECORDS_TO_COMPACT
+			&& recordCount > 2 * counts.size();
+	}
+
+	/**
+	 * @param term a search term
+	 * @return the hit count of the term, or null if it isn't known
+	 */
+	public Double get(String term) {
+		return counts.get(term);
+	}
+
+	/**
+	 * Records the hit count of a term, appending it to the log.
+	 * @param term a search term
+	 * @param count the number of hits for the term
+	 */
+	public synchronized void put(String term, double count)
+	throws IOException {
+		Double previous = counts.put(term, count);
+		if (previous == null || previous.doubleValue() != count) {
+			if (log == null) {
+				log = openLog();
+			}
+			log.writeUTF(term);
+			log.writeDouble(count);
+			log.flush();
+			recordCount++;
+			if (needsCompaction()) {
+				compact();
+			}
+		}
+	}
+
+	private DataOutputStream openLog() throws IOException {
+		File file = new File(fileName);
+		boolean isNew = !file.exists() || file.length() == 0;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, true)));
+		if (isNew) {
+			out.writeInt(MAGIC);
+		}
+		return out;
+	}
+
+	/**
+	 * Rewrites the log so that it holds one record per term.
+	 */
+	public synchronized void compact() throws IOException {
+		closeLog();
+		File tempFile = new File(fileName + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile)));
+		int numRecords = 0;
+		try {
+			out.writeInt(MAGIC);
+			for (Map.Entry<String, Double> entry : counts.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeDouble(entry.getValue());
+				numRecords++;
+			}
+		} finally {
+			out.close();
+		}
+		File file = new File(fileName);
+		if (!tempFile.renameTo(file)) {
+			file.delete();
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Unable to rename " + tempFile
+						+ " to " + fileName);
+			}
+		}
+		recordCount = numRecords;
+	}
+
+	/**
+	 * Adds the counts from a text file with lines of the form
+	 * "term count", as written by earlier versions of
+	 * GoogleDistanceCalculator.  Terms already in the store are kept.
+	 * @param textFileName the name of the text file
+	 */
+	public void importText(String textFileName) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(textFileName));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int lastSpaceIndex = line.lastIndexOf(' ');
+				if (lastSpaceIndex > 0) {
+					String term = line.substring(0, lastSpaceIndex);
+					try {
+						double count = Double.parseDouble(
+								line.substring(lastSpaceIndex + 1));
+						if (get(term) == null) {
+							put(term, count);
+						}
+					} catch (NumberFormatException e) {
+						// skip the malformed line
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return the number of terms with counts
+	 */
+	public int size() {
+		return counts.size();
+	}
+
+	/**
+	 * Removes all counts, deleting the file.
+	 */
+	public synchronized void clear() throws IOException {
+		closeLog();
+		counts.clear();
+		recordCount = 0;
+		File file = new File(fileName);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Unable to delete " + fileName);
+		}
+	}
+
+	/**
+	 * Closes the log file.  The store may still be used; the file is
+	 * reopened when another count is added.
+	 */
+	public synchronized void close() throws IOException {
+		closeLog();
+	}
+
+	private void closeLog() throws IOException {
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+	}
+
+}
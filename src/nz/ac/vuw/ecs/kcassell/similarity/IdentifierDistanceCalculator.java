@@ -34,13 +34,13 @@ package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
-import nz.ac.vuw.ecs.kcassell.utils.IdentifierParser;
 import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
-import nz.ac.vuw.ecs.kcassell.utils.Stemmer;
 
 /**
  * This is a Jaccard calculator where the property set of a class
@@ -52,13 +52,20 @@ import nz.ac.vuw.ecs.kcassell.utils.Stemmer;
  */
 public class IdentifierDistanceCalculator
 extends JaccardCalculator
-implements DistanceCalculatorIfc<String>
+implements BatchDistanceCalculatorIfc<String>
 {
 	/** A list of tokens that shouldn't be considered in the properties. */
 	protected ArrayList<String> toIgnore = new ArrayList<String>();
 	
-	/** A "stemmer" that removes common suffixes from words. */
-	protected Stemmer stemmer = new Stemmer();
+	/** Parses and stems identifiers, assigning ids to the stems.
+	 * The stem ids are the bit positions in the property bit sets. */
+	protected IdentifierTokenDictionary dictionary =
+		IdentifierTokenDictionary.getSingleton();
+
+	/** The property sets (minus the ignored tokens) computed so far
+	 * as bit sets, keyed by identifier. */
+	protected ConcurrentHashMap<String, long[]> propertyCache =
+		new ConcurrentHashMap<String, long[]>();
 
 	public IdentifierDistanceCalculator() {
 		createToIgnoreList();
@@ -75,17 +82,10 @@ implements DistanceCalculatorIfc<String>
 	 * @return The property set
 	 */
 	public Set<String> getProperties(String member) {
-		ArrayList<String> parts =
-			IdentifierParser.parseCamelCaseIdentifier(member);
-		
-		// eliminate case differences
+		int[] stemIds = dictionary.getStemIds(member);
 		HashSet<String> properties = new HashSet<String>();
-		for (String part : parts) {
-			String lowerCase = part.toLowerCase();
-			stemmer.add(lowerCase.toCharArray(), lowerCase.length());
-			stemmer.stem();
-			String partStem = stemmer.toString();
-			properties.add(partStem);
+		for (int id : stemIds) {
+			properties.add(dictionary.getStem(id));
 		}
 		return properties;
 	}    
@@ -95,14 +95,48 @@ implements DistanceCalculatorIfc<String>
      * @param id1 the second identifier */
 	public Double calculateDistance(String id1, String id2) {
 		Double distance = null;
-		Set<String> properties1 = getProperties(id1);
-		properties1.removeAll(toIgnore);
-		Set<String> properties2 = getProperties(id2);
-		properties2.removeAll(toIgnore);
+		long[] properties1 = getCachedProperties(id1);
+		long[] properties2 = getCachedProperties(id2);
 		distance = calculateDistance(properties1, properties2);
 		return distance;
 	}
 
+	/**
+	 * Looks up the property set of id1 once for the whole row.
+	 * @see nz.ac.vuw.ecs.kcassell.similarity.BatchDistanceCalculatorIfc#calculateRow(java.lang.Object, java.util.List, double[])
+	 */
+	public void calculateRow(String id1, List<String> others,
+			double[] distances) {
+		long[] properties1 = getCachedProperties(id1);
+		int numOthers = others.size();
+
+		for (int i = 0; i < numOthers; i++) {
+			long[] properties2 = getCachedProperties(others.get(i));
+			distances[i] = calculateDistance(properties1, properties2);
+		}
+	}
+
+	/**
+	 * @param member the member identifier
+	 * @return the property set of the identifier, less the tokens to
+	 * be ignored, as a bit set
+	 */
+	protected long[] getCachedProperties(String member) {
+		long[] properties = propertyCache.get(member);
+		if (properties == null) {
+			int[] stemIds = dictionary.getStemIds(member);
+			int maxId = (stemIds.length == 0) ? -1 : stemIds[stemIds.length - 1];
+			properties = new long[(maxId + 64) >>> 6];
+			for (int id : stemIds) {
+				if (!toIgnore.contains(dictionary.getStem(id))) {
+					properties[id >>> 6] |= 1L << id;
+				}
+			}
+			propertyCache.putIfAbsent(member, properties);
+		}
+		return properties;
+	}
+
 	/**
 	 * Creates a list of tokens that shouldn't be considered when comparing
 	 * the closeness of two identifiers.  The created list is based on
@@ -126,4 +160,15 @@ implements DistanceCalculatorIfc<String>
 		return DistanceCalculatorEnum.Identifier;
 	}
 
+	/**
+	 * The dictionary and property cache may be shared between threads.
+	 */
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public DistanceCalculatorIfc<String> copyForThread() {
+		return this;
+	}
+
 }
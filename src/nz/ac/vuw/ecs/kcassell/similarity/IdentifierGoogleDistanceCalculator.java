@@ -2,8 +2,9 @@ package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
-import nz.ac.vuw.ecs.kcassell.utils.IdentifierParser;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
 
 /**
@@ -12,7 +13,7 @@ import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
  */
 
 public class IdentifierGoogleDistanceCalculator
-implements DistanceCalculatorIfc<String> {
+implements PrefetchingDistanceCalculatorIfc<String> {
 	
 	GoogleDistanceCalculator googleCalculator = null;
 
@@ -21,6 +22,15 @@ implements DistanceCalculatorIfc<String> {
 		googleCalculator =
 			new GoogleDistanceCalculator();
 	}
+
+	/**
+	 * @param googleCalculator calculates the distances between the
+	 * search terms built from the identifiers
+	 */
+	public IdentifierGoogleDistanceCalculator(
+			GoogleDistanceCalculator googleCalculator) {
+		this.googleCalculator = googleCalculator;
+	}
 	
 	
 	/**
@@ -48,13 +58,14 @@ implements DistanceCalculatorIfc<String> {
 	 * @return
 	 */
 	private String buildSearchTerm(String id) {
-		ArrayList<String> parts =
-			IdentifierParser.parseCamelCaseIdentifier(id);
+		String[] parts = IdentifierTokenDictionary.getSingleton().getTokens(id);
 		StringBuffer buf = new StringBuffer();
-		for (String part : parts) {
-			buf.append(part).append(" ");
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				buf.append(" ");
+			}
+			buf.append(parts[i]);
 		}
-		buf.delete(buf.length() - 1, buf.length());
 		String searchTerm = buf.toString();
 		return searchTerm;
 	}
@@ -63,6 +74,26 @@ implements DistanceCalculatorIfc<String> {
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.GoogleDistance;
 	}
+
+	public boolean isThreadSafe() {
+		return googleCalculator.isThreadSafe();
+	}
+
+	public DistanceCalculatorIfc<String> copyForThread() {
+		return isThreadSafe() ? this : null;
+	}
+
+	/**
+	 * Retrieves the hit counts needed to calculate the distances between
+	 * all of the identifiers.
+	 */
+	public void prefetch(Collection<String> ids) {
+		List<String> searchTerms = new ArrayList<String>(ids.size());
+		for (String id : ids) {
+			searchTerms.add(buildSearchTerm(id));
+		}
+		googleCalculator.prefetch(searchTerms);
+	}
 	
 	public void clearCache() {
 		googleCalculator.clearCache();
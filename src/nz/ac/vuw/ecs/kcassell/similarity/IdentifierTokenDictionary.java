@@ -0,0 +1,241 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nz.ac.vuw.ecs.kcassell.utils.IdentifierParser;
+import nz.ac.vuw.ecs.kcassell.utils.Stemmer;
+
+/**
+ * This breaks identifiers into their camel case components and
+ * stems them, remembering the results so that each identifier is
+ * parsed and stemmed only once no matter how many calculators ask.
+ * Each distinct stem is given a small integer id, so an identifier
+ * can be represented by the sorted ids of its stems.  The cache of
+ * parsed identifiers is bounded (least recently used identifiers
+ * are dropped); the stem ids are permanent.  The dictionary may be
+ * shared between threads.
+ * @author Keith
+ */
+public class IdentifierTokenDictionary {
+
+	/** The default number of parsed identifiers to remember. */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private static final int[] NO_IDS = new int[0];
+
+	/** The dictionary shared by the calculators. */
+	private static IdentifierTokenDictionary singleton = null;
+
+	/** The results of parsing and stemming one identifier. */
+	protected static class ParsedIdentifier {
+		/** The camel case components of the identifier. */
+		protected final String[] tokens;
+
+		/** The sorted ids of the distinct stems of the tokens. */
+		protected final int[] stemIds;
+
+		protected ParsedIdentifier(String[] tokens, int[] stemIds) {
+			this.tokens = tokens;
+			this.stemIds = stemIds;
+		}
+	}
+
+	/** Maps each stem to its id. */
+	protected ConcurrentHashMap<String, Integer> stemIds =
+		new ConcurrentHashMap<String, Integer>();
+
+	/** The stems, indexed by id. */
+	protected ArrayList<String> stems = new ArrayList<String>();
+
+	/** The recently parsed identifiers, least recently used first. */
+	protected LinkedHashMap<String, ParsedIdentifier> parsedIdentifiers;
+
+	/** The stemmer keeps the word being stemmed in a buffer, so
+	 * each thread gets its own. */
+	protected ThreadLocal<Stemmer> stemmers = new ThreadLocal<Stemmer>() {
+		protected Stemmer initialValue() {
+			return new Stemmer();
+		}
+	};
+
+	public IdentifierTokenDictionary() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the number of parsed identifiers to remember
+	 */
+	public IdentifierTokenDictionary(final int capacity) {
+		parsedIdentifiers =
+			new LinkedHashMap<String, ParsedIdentifier>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(
+					Map.Entry<String, ParsedIdentifier> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public static synchronized IdentifierTokenDictionary getSingleton() {
+		if (singleton == null) {
+			singleton = new IdentifierTokenDictionary();
+		}
+		return singleton;
+	}
+
+	/**
+	 * @param identifier an identifier, e.g. "getURLFor"
+	 * @return the camel case components of the identifier,
+	 * e.g. ["get", "URL", "For"].  The array must not be modified.
+	 */
+	public String[] getTokens(String identifier) {
+		return getParsedIdentifier(identifier).tokens;
+	}
+
+	/**
+	 * @param identifier an identifier, e.g. "getURLFor"
+	 * @return the sorted ids of the distinct stems of the lower case
+	 * components of the identifier.  The array must not be modified.
+	 */
+	public int[] getStemIds(String identifier) {
+		return getParsedIdentifier(identifier).stemIds;
+	}
+
+	/**
+	 * @param id a stem id
+	 * @return the stem with that id
+	 */
+	public String getStem(int id) {
+		synchronized (stems) {
+			return stems.get(id);
+		}
+	}
+
+	/**
+	 * @param stem a stem
+	 * @return the id of the stem, which is assigned if necessary
+	 */
+	public int getStemId(String stem) {
+		Integer id = stemIds.get(stem);
+		if (id == null) {
+			synchronized (stems) {
+				id = stemIds.get(stem);
+				if (id == null) {
+					id = stems.size();
+					stems.add(stem);
+					stemIds.put(stem, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * @return the number of stems with ids
+	 */
+	public int size() {
+		return stemIds.size();
+	}
+
+	protected ParsedIdentifier getParsedIdentifier(String identifier) {
+		ParsedIdentifier parsed = null;
+		synchronized (parsedIdentifiers) {
+			parsed = parsedIdentifiers.get(identifier);
+		}
+		if (parsed == null) {
+			// Parsing is done outside the lock; two threads may
+			// occasionally parse the same identifier, with the same result
+			parsed = parse(identifier);
+			synchronized (parsedIdentifiers) {
+				parsedIdentifiers.put(identifier, parsed);
+			}
+		}
+		return parsed;
+	}
+
+	/**
+	 * Splits the identifier into tokens and stems the lower case
+	 * version of each token.
+	 */
+	protected ParsedIdentifier parse(String identifier) {
+		int[] spans = new int[2 * identifier.length()];
+		int numTokens = IdentifierParser.parseCamelCaseSpans(identifier, spans);
+		String[] tokens = null;
+		if (numTokens < 0) {
+			tokens = IdentifierParser.parseCamelCaseIdentifier(identifier)
+				.toArray(new String[0]);
+		} else {
+			tokens = new String[numTokens];
+			for (int i = 0; i < numTokens; i++) {
+				tokens[i] = identifier.substring(spans[2 * i], spans[2 * i + 1]);
+			}
+		}
+		int[] ids = NO_IDS;
+		if (tokens.length > 0) {
+			Stemmer stemmer = stemmers.get();
+			ids = new int[tokens.length];
+			for (int i = 0; i < tokens.length; i++) {
+				String lowerCase = tokens[i].toLowerCase();
+				stemmer.add(lowerCase.toCharArray(), lowerCase.length());
+				stemmer.stem();
+				ids[i] = getStemId(stemmer.toString());
+			}
+			ids = sortDistinct(ids);
+		}
+		return new ParsedIdentifier(tokens, ids);
+	}
+
+	private static int[] sortDistinct(int[] ids) {
+		Arrays.sort(ids);
+		int numDistinct = 1;
+		for (int i = 1; i < ids.length; i++) {
+			if (ids[i] != ids[numDistinct - 1]) {
+				ids[numDistinct++] = ids[i];
+			}
+		}
+		if (numDistinct < ids.length) {
+			int[] distinct = new int[numDistinct];
+			System.arraycopy(ids, 0, distinct, 0, numDistinct);
+			ids = distinct;
+		}
+		return ids;
+	}
+
+}
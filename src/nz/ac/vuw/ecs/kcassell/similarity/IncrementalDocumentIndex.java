@@ -0,0 +1,431 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.utils.ObjectPersistence;
+
+/**
+ * Maintains the term counts of each member document of a project so that,
+ * when the member documents file is regenerated, only the members whose
+ * documents changed need to be tokenized again.  A hash of each member's
+ * document text identifies the changed members.
+ * <p>
+ * The index is persisted as a serialized snapshot plus a log of the
+ * changes made since the snapshot.  Each log line is either
+ * "U&lt;tab&gt;hash&lt;tab&gt;handle&lt;tab&gt;text" (a new or changed
+ * member) or "D&lt;tab&gt;handle" (a removed member).  Loading replays the
+ * log over the snapshot; when the log grows larger than the index, a new
+ * snapshot is written and the log is discarded.
+ * <p>
+ * Documents are read by a MemberDocumentIngester, which tokenizes them
+ * the same way the S-Space VectorSpaceModel does.  As that model is used without a weighting transform,
+ * a document's vector is just its term counts, so a change to one member
+ * only changes that member's vector.  Document frequencies are kept so
+ * that terms no longer used by any member drop out of the dictionary.
+ * @author Keith
+ */
+public class IncrementalDocumentIndex implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected static final String UPDATE_RECORD = "U";
+	protected static final String DELETE_RECORD = "D";
+
+	/** The terms and counts of a member's document. */
+	protected static class MemberDocument implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/** The hash of the document text. */
+		protected long hash = 0L;
+
+		/** The ids of the document's terms, ascending. */
+		protected int[] termIds = null;
+
+		/** The number of occurrences of each term. */
+		protected int[] counts = null;
+	}
+
+	/** Maps each member handle to its document, in the order the
+	 * members were first indexed. */
+	protected LinkedHashMap<String, MemberDocument> documents =
+		new LinkedHashMap<String, MemberDocument>();
+
+	/** Maps each term to its id.  Ids are never reused. */
+	protected HashMap<String, Integer> termIds =
+		new HashMap<String, Integer>();
+
+	/** The term for each id. */
+	protected ArrayList<String> terms = new ArrayList<String>();
+
+	/** The number of documents containing each term, indexed by id. */
+	protected int[] documentFrequencies = new int[16];
+
+	/** Where the snapshot is saved. */
+	protected transient String snapshotFile = null;
+
+	/** Where changes since the snapshot are logged. */
+	protected transient String logFile = null;
+
+	/** The number of records in the log. */
+	protected transient int logRecords = 0;
+
+	/**
+	 * Creates an empty index.
+	 * @param snapshotFile where the index is to be saved
+	 * @param logFile where changes since the last save are logged
+	 */
+	public IncrementalDocumentIndex(String snapshotFile, String logFile) {
+		this.snapshotFile = snapshotFile;
+		this.logFile = logFile;
+	}
+
+	/**
+	 * Restores an index from its snapshot and log.  If there is no
+	 * snapshot, the index is created from the log alone.
+	 * @param snapshotFile where the index was saved
+	 * @param logFile where changes since the last save were logged
+	 * @return the index
+	 * @throws IOException if the files exist but cannot be read
+	 */
+	public static IncrementalDocumentIndex load(String snapshotFile,
+			String logFile) throws IOException {
+		IncrementalDocumentIndex index = null;
+		try {
+			index = (IncrementalDocumentIndex)
+				ObjectPersistence.readFromFile(snapshotFile);
+			index.snapshotFile = snapshotFile;
+			index.logFile = logFile;
+		} catch (FileNotFoundException e) {
+			index = new IncrementalDocumentIndex(snapshotFile, logFile);
+		} catch (Exception e) {
+			throw new IOException("Unable to read " + snapshotFile + ": " + e);
+		}
+		index.replayLog();
+		return index;
+	}
+
+	private void replayLog() throws IOException {
+		File file = new File(logFile);
+		if (file.exists()) {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				String line = null;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t", 4);
+					if (UPDATE_RECORD.equals(fields[0]) && fields.length == 4) {
+						applyUpdate(fields[2], Long.parseLong(fields[1]),
+								fields[3]);
+						logRecords++;
+					} else if (DELETE_RECORD.equals(fields[0])
+							&& fields.length == 2) {
+						applyRemoval(fields[1]);
+						logRecords++;
+					} else {
+						System.err.println("Ignoring bad record in " + logFile
+								+ ": " + line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Brings the index up to date with a member documents file, logging
+	 * the changes.
+	 * @param documentsFile a file with one member per line.  The first
+	 *  token is the member handle, and the remaining tokens are the
+	 *  words found in identifiers and comments.
+	 * @return the number of members added, changed or removed
+	 * @throws IOException
+	 */
+	public int update(String documentsFile) throws IOException {
+		return update(documentsFile, new MemberDocumentIngester(true));
+	}
+
+	/**
+	 * Brings the index up to date with a member documents file, logging
+	 * the changes.
+	 * @param documentsFile a file with one member per line
+	 * @param ingester reads the file; it must count terms
+	 * @return the number of members added, changed or removed
+	 * @throws IOException
+	 */
+	public int update(String documentsFile, MemberDocumentIngester ingester)
+	throws IOException {
+		final Set<String> unseen = new HashSet<String>(documents.keySet());
+		final BufferedWriter log =
+			new BufferedWriter(new FileWriter(logFile, true));
+		final int[] changes = {0};
+		try {
+			ingester.ingest(documentsFile,
+					new MemberDocumentIngester.DocumentHandler() {
+				public void handleDocument(
+						MemberDocumentIngester.IngestedDocument document)
+				throws IOException {
+					String text = (document.text == null) ? "" : document.text;
+					unseen.remove(document.handle);
+					long hash = hash(text);
+					MemberDocument indexed = documents.get(document.handle);
+					if (indexed == null || indexed.hash != hash) {
+						if (document.terms == null) {
+							applyUpdate(document.handle, hash, text);
+						} else {
+							applyCounts(document.handle, hash,
+									document.terms, document.counts);
+						}
+						log.write(UPDATE_RECORD + "\t" + hash + "\t"
+								+ document.handle + "\t" + text);
+						log.newLine();
+						changes[0]++;
+					}
+				}
+			});
+			for (String handle : unseen) {
+				applyRemoval(handle);
+				log.write(DELETE_RECORD + "\t" + handle);
+				log.newLine();
+				changes[0]++;
+			}
+		} finally {
+			log.close();
+		}
+		logRecords += changes[0];
+		if (logRecords > documents.size()) {
+			save();
+		}
+		return changes[0];
+	}
+
+	/**
+	 * Writes a snapshot of the index and discards the log.
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		try {
+			ObjectPersistence.saveToFile(this, snapshotFile);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Unable to write " + snapshotFile + ": " + e);
+		}
+		new File(logFile).delete();
+		logRecords = 0;
+	}
+
+	/**
+	 * Replaces the document for a member.  A document with no terms is
+	 * kept, so that its hash is remembered, but it is left out of the
+	 * compact model, just as the S-Space model ignores empty documents.
+	 */
+	protected void applyUpdate(String handle, long hash, String text) {
+		MemberDocumentIngester.IngestedDocument document =
+			new MemberDocumentIngester.IngestedDocument();
+		document.text = text;
+		MemberDocumentIngester.countTerms(document,
+				new LinkedHashMap<String, int[]>());
+		applyCounts(handle, hash, document.terms, document.counts);
+	}
+
+	/**
+	 * Replaces the document for a member with one having the given
+	 * term counts.
+	 * @param terms the distinct terms of the document
+	 * @param counts the number of occurrences of each term
+	 */
+	protected void applyCounts(String handle, long hash, String[] terms,
+			int[] counts) {
+		applyRemoval(handle);
+		MemberDocument document = new MemberDocument();
+		document.hash = hash;
+		HashMap<Integer, Integer> termCounts =
+			new HashMap<Integer, Integer>();
+		for (int i = 0; i < terms.length; i++) {
+			termCounts.put(getTermId(terms[i]), counts[i]);
+		}
+		document.termIds = new int[terms.length];
+		int i = 0;
+		for (Integer id : termCounts.keySet()) {
+			document.termIds[i++] = id;
+		}
+		Arrays.sort(document.termIds);
+		document.counts = new int[document.termIds.length];
+		for (i = 0; i < document.termIds.length; i++) {
+			int id = document.termIds[i];
+			document.counts[i] = termCounts.get(id);
+			documentFrequencies[id]++;
+		}
+		documents.put(handle, document);
+	}
+
+	/**
+	 * Removes a member's document, if there is one.
+	 */
+	protected void applyRemoval(String handle) {
+		MemberDocument document = documents.remove(handle);
+		if (document != null) {
+			for (int id : document.termIds) {
+				documentFrequencies[id]--;
+			}
+		}
+	}
+
+	private int getTermId(String term) {
+		Integer id = termIds.get(term);
+		if (id == null) {
+			id = terms.size();
+			termIds.put(term, id);
+			terms.add(term);
+			if (id >= documentFrequencies.length) {
+				int[] frequencies = new int[2 * id];
+				System.arraycopy(documentFrequencies, 0, frequencies, 0,
+						documentFrequencies.length);
+				documentFrequencies = frequencies;
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * @return a 64 bit hash (the start of the MD5 digest) of the text
+	 */
+	protected static long hash(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] bytes = digest.digest(text.getBytes("UTF-8"));
+			long hash = 0L;
+			for (int i = 0; i < 8; i++) {
+				hash = (hash << 8) | (bytes[i] & 0xFF);
+			}
+			return hash;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.toString());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * Writes the document vectors (term counts) to a compact model file.
+	 * Members with no terms are left out.  The terms still in use are
+	 * numbered in id order, and those numbers are the dimensions of the
+	 * vectors and of the model's term dictionary.
+	 * @param modelFile the name of the file to write
+	 * @param sourceHash the hash of the member documents file
+	 * @throws IOException
+	 */
+	public void writeCompactModel(String modelFile, long sourceHash)
+	throws IOException {
+		int[] dimensions = new int[terms.size()];
+		List<String> usedTerms = new ArrayList<String>();
+		for (int id = 0; id < terms.size(); id++) {
+			if (documentFrequencies[id] > 0) {
+				dimensions[id] = usedTerms.size();
+				usedTerms.add(terms.get(id));
+			}
+		}
+		int numDocs = getDocumentCount();
+		List<String> handles = new ArrayList<String>(numDocs);
+		int[][] docIndices = new int[numDocs][];
+		double[][] docValues = new double[numDocs][];
+		double[] magnitudes = new double[numDocs];
+		int doc = 0;
+		for (Map.Entry<String, MemberDocument> entry : documents.entrySet()) {
+			MemberDocument document = entry.getValue();
+			if (document.termIds.length > 0) {
+				handles.add(entry.getKey());
+				docIndices[doc] = new int[document.termIds.length];
+				docValues[doc] = new double[document.counts.length];
+				double sumOfSquares = 0.0;
+				for (int i = 0; i < document.counts.length; i++) {
+					docIndices[doc][i] = dimensions[document.termIds[i]];
+					docValues[doc][i] = document.counts[i];
+					sumOfSquares += document.counts[i] * document.counts[i];
+				}
+				magnitudes[doc] = Math.sqrt(sumOfSquares);
+				doc++;
+			}
+		}
+		CompactSemanticModel.write(modelFile, handles, docIndices, docValues,
+				magnitudes, usedTerms.toArray(new String[usedTerms.size()]),
+				sourceHash);
+	}
+
+	/**
+	 * @return the number of members whose documents have terms
+	 */
+	public int getDocumentCount() {
+		int count = 0;
+		for (MemberDocument document : documents.values()) {
+			if (document.termIds.length > 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param term a term
+	 * @return the number of member documents containing the term
+	 */
+	public int getDocumentFrequency(String term) {
+		Integer id = termIds.get(term);
+		return (id == null) ? 0 : documentFrequencies[id];
+	}
+
+	public boolean contains(String handle) {
+		return documents.containsKey(handle);
+	}
+
+}
@@ -33,22 +33,28 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.CompactGraph;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.callgraph.NodeNameComparator;
 import nz.ac.vuw.ecs.kcassell.callgraph.ScoreType;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
 import edu.uci.ics.jung.algorithms.shortestpath.Distance;
-import edu.uci.ics.jung.algorithms.shortestpath.UnweightedShortestPath;
-import edu.uci.ics.jung.graph.Graph;
 
 /**
  * This class is used to calculate the distance between nodes, where the
@@ -61,64 +67,204 @@ import edu.uci.ics.jung.graph.Graph;
  * Calling distances as above
  * "Semantic distances" based on identifiers
  * 
+ * The path lengths are found by a breadth first search from each node
+ * over a CompactGraph snapshot of the graph, and are kept in a flat
+ * array indexed by node number.
  * @author kcassell
  * 
  */
 public class IntraClassDistanceCalculator
 implements Distance<CallGraphNode>, DistanceCalculatorIfc<String> {
-	
-	protected UnweightedShortestPath<CallGraphNode, CallGraphLink>
-	shortestPathCalculator = null;
-	
-	/**
-	 * Provides distances between nodes. The key is the source node; the value
-	 * is a hash map of distances. For the distance hash map, the key is the
-	 * destination node, and the value is the distance from the source to the
-	 * destination.	 */
-	protected Map<CallGraphNode, Map<CallGraphNode, Number>> distanceMap =
-		new HashMap<CallGraphNode, Map<CallGraphNode,Number>>();
-
-	//	protected Map<CallGraphNode, Map<CallGraphNode, CallGraphLink>>
-//	incomingEdgeMap = null;
-	
+
+	/** The path length stored for nodes that aren't connected. */
+	protected static final int NO_PATH = -1;
+
+	/** Fewer nodes than this are searched on a single thread. */
+	protected static final int MIN_NODES_FOR_THREADS = 256;
+
+	/** The number of sources each thread claims at a time. */
+	protected static final int SOURCES_PER_BLOCK = 32;
+
+	/** The snapshot of the undirected graph that is searched. */
+	protected CompactGraph<CallGraphNode, CallGraphLink> compactGraph = null;
+
+	/** The number of edges incident on each node, by node number. */
+	protected int[] degrees = null;
+
+	/** The length of the shortest path from node i to node j is at
+	 * [i * numNodes + j], or NO_PATH.  Only one of the arrays is used;
+	 * the short one unless the path lengths might not fit in a short. */
+	protected short[] shortPathLengths = null;
+	protected int[] intPathLengths = null;
+
+	protected int numNodes = 0;
+
 	JavaCallGraph undirectedGraph = null;
 
 
 	/**
 	 * Constructs the calculator of node distances.  It calculates all distances
-	 *  between nodes and stores them.
+	 *  between nodes and stores them.  The number of threads used is
+	 *  determined by a user preference/parameter.
 	 * @param callGraph
 	 */
 	public IntraClassDistanceCalculator(JavaCallGraph callGraph) {
+		this(callGraph, ApplicationParameters.getSingleton().getIntParameter(
+				ParameterConstants.PARALLELISM_KEY, 1));
+	}
+
+	/**
+	 * Constructs the calculator of node distances.  It calculates all distances
+	 *  between nodes and stores them.
+	 * @param callGraph
+	 * @param parallelism the maximum number of threads to use;
+	 * zero or less means one per available processor
+	 */
+	public IntraClassDistanceCalculator(JavaCallGraph callGraph,
+			int parallelism) {
 		JavaCallGraph undirectedGraph =
 			JavaCallGraph.toUndirectedGraph(callGraph);
 		this.undirectedGraph = undirectedGraph;
-		Graph<CallGraphNode,CallGraphLink> jungGraph =
-			undirectedGraph.getJungGraph();
-		shortestPathCalculator =
-			new UnweightedShortestPath<CallGraphNode, CallGraphLink>(jungGraph);
-		
-		List<CallGraphNode> nodes = undirectedGraph.getNodes();
-		
-		for (CallGraphNode node1 : nodes) {
-			HashMap<CallGraphNode, Number> distances =
-				new HashMap<CallGraphNode, Number>();
-			Collection<CallGraphLink> edges1 =
-				jungGraph.getIncidentEdges(node1);
-			double edgeCount1 = edges1.size();
-
-			for (CallGraphNode node2 : nodes) {
-				Number distance =
-					calculateDistance(jungGraph, node1, node2, edgeCount1);
-				distances.put(node2, distance);
-				CallGraphLink link = jungGraph.findEdge(node1, node2);
-				if (link != null) {
-					link.setWeight(ScoreType.BASIC, distance);
+		// One arc per neighbor, following the edge findEdge would find
+		compactGraph = new CompactGraph<CallGraphNode, CallGraphLink>(
+				undirectedGraph.getJungGraph(), true,
+				Collections.<CallGraphLink>emptySet());
+		numNodes = compactGraph.getVertexCount();
+
+		int[] incidentOffsets = compactGraph.getIncidentOffsets();
+		degrees = new int[numNodes];
+		for (int v = 0; v < numNodes; v++) {
+			degrees[v] = incidentOffsets[v + 1] - incidentOffsets[v];
+		}
+
+		// The table is indexed by an int, so it can hold at most
+		// Integer.MAX_VALUE path lengths (about 46,000 nodes)
+		long tableSize = (long) numNodes * numNodes;
+		if (tableSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many nodes (" + numNodes
+					+ ") to keep the path lengths between all of them");
+		}
+		if (numNodes <= Short.MAX_VALUE) {
+			shortPathLengths = new short[(int) tableSize];
+		} else {
+			intPathLengths = new int[(int) tableSize];
+		}
+		findPathLengths(parallelism);
+		setLinkWeights();
+	}
+
+	/**
+	 * Fills in the path lengths with a breadth first search from each
+	 * node.  The sources are shared out among the threads in blocks;
+	 * each search writes only its own source's row.
+	 */
+	protected void findPathLengths(int parallelism) {
+		int numThreads = (parallelism > 0)
+			? parallelism : Runtime.getRuntime().availableProcessors();
+		if (numNodes < MIN_NODES_FOR_THREADS) {
+			numThreads = 1;
+		}
+
+		if (numThreads <= 1) {
+			searchFrom(0, numNodes, new int[numNodes]);
+		} else {
+			final AtomicInteger nextSource = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+			try {
+				for (int i = 0; i < numThreads; i++) {
+					futures.add(executor.submit(new Callable<Object>() {
+						public Object call() {
+							int[] queue = new int[numNodes];
+							int source =
+								nextSource.getAndAdd(SOURCES_PER_BLOCK);
+							while (source < numNodes) {
+								searchFrom(source, Math.min(numNodes,
+										source + SOURCES_PER_BLOCK), queue);
+								source = nextSource.getAndAdd(SOURCES_PER_BLOCK);
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Object> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted finding distances", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Finds the path lengths from some of the nodes.
+	 * @param startSource the first source node
+	 * @param endSource one past the last source node
+	 * @param queue working space with room for every node
+	 */
+	protected void searchFrom(int startSource, int endSource, int[] queue) {
+		int[] arcOffsets = compactGraph.getArcOffsets();
+		int[] arcTargets = compactGraph.getArcTargets();
+
+		for (int source = startSource; source < endSource; source++) {
+			int rowStart = source * numNodes;
+			if (shortPathLengths != null) {
+				Arrays.fill(shortPathLengths, rowStart,
+						rowStart + numNodes, (short)NO_PATH);
+				shortPathLengths[rowStart + source] = 0;
+			} else {
+				Arrays.fill(intPathLengths, rowStart,
+						rowStart + numNodes, NO_PATH);
+				intPathLengths[rowStart + source] = 0;
+			}
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = source;
+
+			while (head < tail) {
+				int v = queue[head++];
+				int nextLength = getPathLength(rowStart + v) + 1;
+				for (int arc = arcOffsets[v]; arc < arcOffsets[v + 1]; arc++) {
+					int w = arcTargets[arc];
+					if (getPathLength(rowStart + w) == NO_PATH) {
+						if (shortPathLengths != null) {
+							shortPathLengths[rowStart + w] = (short)nextLength;
+						} else {
+							intPathLengths[rowStart + w] = nextLength;
+						}
+						queue[tail++] = w;
+					}
 				}
 			}
-			distanceMap.put(node1, distances);
 		}
+	}
 
+	private int getPathLength(int index) {
+		return (shortPathLengths != null)
+			? shortPathLengths[index] : intPathLengths[index];
+	}
+
+	/**
+	 * Records the distance between each pair of neighbors as the BASIC
+	 * weight of the link between them.
+	 */
+	protected void setLinkWeights() {
+		int[] arcOffsets = compactGraph.getArcOffsets();
+		int[] arcTargets = compactGraph.getArcTargets();
+		int[] arcEdges = compactGraph.getArcEdges();
+
+		for (int v = 0; v < numNodes; v++) {
+			for (int arc = arcOffsets[v]; arc < arcOffsets[v + 1]; arc++) {
+				CallGraphLink link = compactGraph.getEdge(arcEdges[arc]);
+				link.setWeight(ScoreType.BASIC, getDistance(v, arcTargets[arc]));
+			}
+		}
 	}
 
 	/**
@@ -127,61 +273,43 @@ implements Distance<CallGraphNode>, DistanceCalculatorIfc<String> {
 	 * based on the number of incident edges on the two nodes
 	 */
 	public Number getDistance(CallGraphNode node1, CallGraphNode node2) {
-		Double distance = Double.MAX_VALUE;
-		Map<CallGraphNode, Number> node1Distances = distanceMap.get(node1);
-		
-		if (node1Distances == null) {
-			node1Distances = new HashMap<CallGraphNode, Number>();
-			distanceMap.put(node1, node1Distances);
-		}
-		
-		Number distanceN = node1Distances.get(node2);
-		if (distanceN != null) {
-			distance = distanceN.doubleValue();
-		} else {
-			Graph<CallGraphNode,CallGraphLink> jungGraph =
-				undirectedGraph.getJungGraph();
-			Collection<CallGraphLink> incidentEdges = jungGraph.getIncidentEdges(node1);
-			int edgeCount1 = incidentEdges.size();
-			distanceN = calculateDistance(jungGraph, node1, node2, edgeCount1);
-			distance = distanceN.doubleValue();
-			node1Distances.put(node2, distance);
-			CallGraphLink link = jungGraph.findEdge(node1, node2);
-			if (link != null) {
-				link.setWeight(ScoreType.BASIC, distance);
-			}
+		double distance = Double.MAX_VALUE;
+		int index1 = compactGraph.getVertexIndex(node1);
+		int index2 = compactGraph.getVertexIndex(node2);
+
+		if (index1 >= 0 && index2 >= 0) {
+			distance = getDistance(index1, index2);
+		} else if (node1.equals(node2)) {
+			distance = 0.0;
 		}
 		return distance;
 	}
 
 	/**
-	 * Returns the distance between the provided nodes. The distance equals the
-	 * shortest undirected path between the two nodes with an added fractional distance
-	 * based on the number of incident edges on the two nodes
+	 * Returns the distance between the nodes with the given numbers.
+	 * @see #getDistance(CallGraphNode, CallGraphNode)
 	 */
-	protected Number calculateDistance(Graph<CallGraphNode,CallGraphLink> jungGraph,
-			CallGraphNode node1, CallGraphNode node2, double edgeCount1) {
-		Double distance = Double.MAX_VALUE;
-		
-		if (node1.equals(node2)) {
+	protected double getDistance(int index1, int index2) {
+		double distance = Double.MAX_VALUE;
+
+		if (index1 == index2) {
 			distance = 0.0;
 		}
 		else {
-			Number pathDistance = shortestPathCalculator.getDistance(node1,	node2);
+			int pathLength = getPathLength(index1 * numNodes + index2);
 
-			if (pathDistance != null) {
-				// TODO optimize - only collect edges once
-				Collection<CallGraphLink> edges2 = jungGraph.getIncidentEdges(node2);
-				double edgeCount2 = edges2.size();
+			if (pathLength != NO_PATH) {
+				double edgeCount1 = degrees[index1];
+				double edgeCount2 = degrees[index2];
 
 				// Commonality will be (0, 1].  Nodes with few edges to other nodes will
 				// be judged more tightly associated ("Common") and have a higher score.
-				Double commonality = 0.0;
+				double commonality = 0.0;
 				
 				if (edgeCount1 != 0 || edgeCount2 != 0) {
 					commonality = 2.0 / (edgeCount1 + edgeCount2);
 				}
-				distance = pathDistance.doubleValue() + (1 - commonality);
+				distance = pathLength + (1 - commonality);
 			}
 		}
 		return distance;
@@ -195,7 +323,16 @@ implements Distance<CallGraphNode>, DistanceCalculatorIfc<String> {
 	 * @see edu.uci.ics.jung.algorithms.shortestpath.Distance#getDistanceMap(java.lang.Object)
 	 */
 	public Map<CallGraphNode, Number> getDistanceMap(CallGraphNode node1) {
-		Map<CallGraphNode, Number> distances = distanceMap.get(node1);
+		Map<CallGraphNode, Number> distances = null;
+		int index1 = compactGraph.getVertexIndex(node1);
+
+		if (index1 >= 0) {
+			distances = new HashMap<CallGraphNode, Number>();
+			for (int index2 = 0; index2 < numNodes; index2++) {
+				distances.put(compactGraph.getVertex(index2),
+						getDistance(index1, index2));
+			}
+		}
 		return distances;
 	}
 
@@ -206,10 +343,9 @@ implements Distance<CallGraphNode>, DistanceCalculatorIfc<String> {
 	public String toString() {
 		StringBuffer buf = new StringBuffer(getClass().getSimpleName() + "@"
 				+ hashCode() + "\n");
-		Set<CallGraphNode> nodes = distanceMap.keySet();
-		List<CallGraphNode> nodeList = new ArrayList<CallGraphNode>(nodes);
+		List<CallGraphNode> nodeList =
+			new ArrayList<CallGraphNode>(compactGraph.getVertices());
 		Collections.sort(nodeList, new NodeNameComparator());
-		int numNodes = nodeList.size();
 		
 		//Print column headers
 		buf.append("           ");
@@ -263,4 +399,15 @@ implements Distance<CallGraphNode>, DistanceCalculatorIfc<String> {
 		return DistanceCalculatorEnum.IntraClass;
 	}
 
+	/**
+	 * The distances are all calculated by the constructor.
+	 */
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public DistanceCalculatorIfc<String> copyForThread() {
+		return this;
+	}
+
 }
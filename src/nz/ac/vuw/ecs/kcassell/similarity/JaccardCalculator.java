@@ -32,7 +32,6 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.similarity;
 
-import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -86,13 +85,70 @@ public class JaccardCalculator {
 	 */
 	public static double calculateSimilarity(Set<String> properties1,
 			Set<String> properties2) {
-		Set<String> intersection = new HashSet<String>(properties1);
-		intersection.retainAll(properties2);
-		Set<String> union = new HashSet<String>(properties1);
-		union.addAll(properties2);
+		Set<String> smaller = properties1;
+		Set<String> larger = properties2;
+		if (smaller.size() > larger.size()) {
+			smaller = properties2;
+			larger = properties1;
+		}
+		int intersectionSize = 0;
+		for (String property : smaller) {
+			if (larger.contains(property)) {
+				intersectionSize++;
+			}
+		}
+		int unionSize =
+			properties1.size() + properties2.size() - intersectionSize;
+		return similarity(intersectionSize, unionSize);
+	}
 
-		int intersectionSize = intersection.size();
-		int unionSize = union.size();
+	/**
+	 * This method computes Jaccard distance for property sets represented
+	 * as bit sets.
+	 * @param bits1 the properties of the first object
+	 * @param bits2 the properties of the second object
+	 * @return Jaccard distance between 0 (identical properties) and 1 (no
+	 *         shared properties)
+	 * @see FeatureDictionary
+	 */
+	public static double calculateDistance(long[] bits1, long[] bits2) {
+		return 1.0 - calculateSimilarity(bits1, bits2);
+	}
+
+	/**
+	 * This method computes Jaccard similarity for property sets represented
+	 * as bit sets, which may be of different lengths.
+	 * @param bits1 the properties of the first object
+	 * @param bits2 the properties of the second object
+	 * @return Jaccard similarity between 0 (no shared properties) and 1
+	 *         (identical properties)
+	 * @see FeatureDictionary
+	 */
+	public static double calculateSimilarity(long[] bits1, long[] bits2) {
+		if (bits1.length > bits2.length) {
+			long[] temp = bits1;
+			bits1 = bits2;
+			bits2 = temp;
+		}
+		int intersectionSize = 0;
+		int unionSize = 0;
+		int i = 0;
+
+		for (; i < bits1.length; i++) {
+			intersectionSize += Long.bitCount(bits1[i] & bits2[i]);
+			unionSize += Long.bitCount(bits1[i] | bits2[i]);
+		}
+		for (; i < bits2.length; i++) {
+			unionSize += Long.bitCount(bits2[i]);
+		}
+		return similarity(intersectionSize, unionSize);
+	}
+
+	/**
+	 * @return the intersection size over the union size, or 0 when
+	 * the union is empty
+	 */
+	private static double similarity(int intersectionSize, int unionSize) {
 		double similarity = 0.0;
 
 		if (unionSize != 0) {
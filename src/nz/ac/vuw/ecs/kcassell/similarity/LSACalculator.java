@@ -1,12 +1,11 @@
 package nz.ac.vuw.ecs.kcassell.similarity;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -61,6 +60,16 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	protected Map<String, Integer> memberHandleToDocumentNumber =
 		new HashMap<String, Integer>();
 
+	/** The hash of the member documents file the space was built from. */
+	protected long sourceHash = 0L;
+
+	/** The memory-mapped document vectors.  When present, this is used
+	 * in preference to the semantic space for document distances. */
+	protected transient CompactSemanticModel compactModel = null;
+
+	/** The normalized document vectors used for distance calculations. */
+	protected transient SparseVectorStore vectorStore = null;
+
 	/**
 	 * Construct the calculator, building the semantic space
 	 * based on the contents of the file provided
@@ -79,8 +88,11 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 * Get a LSACalculator appropriate for the Eclipse handle.
 	 * (This should be the calculator for the corpus/project.)
  	 * If there is already a calculator in memory, use it.
+	 * Else, if there is a compact model on disk, map it.
 	 * Else, if there is calculator on disk, restore it.
-	 * Otherwise, create a new calculator and save it to disk
+	 * A model or calculator that was not built from the member documents
+	 * file as it is now is not used.
+	 * Otherwise, create a new calculator and save its compact model to disk.
 	 * @param handle the Eclipse handle of the element whose
 	 *   calculator we desire.
 	 * @return the calculator
@@ -90,6 +102,11 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		// If there is already a calculator in memory, use it.
 		LSACalculator calculator = calculatorMap.get(aProjectName);
 		
+		// Else, if there is a compact model on disk, map it.
+		if (calculator == null) {
+			calculator = restoreCompactModel(handle);
+		}
+		
 		// Else, if there is calculator on disk, restore it.
 		if (calculator == null) {
 			calculator = restore(aProjectName);
@@ -108,6 +125,10 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 				}
 			}
 			
+			if (calculator != null) {
+				calculator.saveCompactModel();
+			}
+			
 			if (calculator != null) {
 				calculatorMap.put(aProjectName, calculator);
 			}
@@ -155,6 +176,11 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		try {
 			Object object = ObjectPersistence.readFromFile(serializationFile);
 			calc = (LSACalculator)object;
+			if (!CompactSemanticModel.matchesFile(calc.sourceHash,
+					getDocumentsFileName(name))) {
+				System.out.println(serializationFile + " is out of date");
+				calc = null;
+			}
 		} catch (FileNotFoundException e) {
 		} catch (Exception e) {
 			ObjectPersistence.handleSerializationException(
@@ -163,6 +189,65 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		return calc;
 	}
 
+	/**
+	 * @param name the name of a project
+	 * @return the name of the file holding the project's compact model
+	 */
+	protected static String getCompactModelFileName(String name) {
+		return MEMBER_DOCUMENTS_DIR + name + "/" + name + "LSA.model";
+	}
+
+	/**
+	 * @param name the name of a project
+	 * @return the name of the project's member documents file
+	 */
+	protected static String getDocumentsFileName(String name) {
+		return MEMBER_DOCUMENTS_DIR + name + "/" + name + "Members.txt";
+	}
+
+	/**
+	 * Writes the document vectors to a compact model file, and uses
+	 * that model from now on.  Unlike the S-Space objects, the
+	 * model can be reloaded without redoing the analysis.
+	 */
+	protected void saveCompactModel() {
+		if (semanticSpace != null) {
+			String modelFile = getCompactModelFileName(projectName);
+			try {
+				// The dimensions of an LSA space are not terms
+				CompactSemanticModel.write(modelFile, semanticSpace,
+						memberHandleToDocumentNumber, null, sourceHash);
+				compactModel = CompactSemanticModel.open(modelFile);
+			} catch (IOException e) {
+				System.err.println("Unable to write to " + modelFile + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Creates a calculator backed by the project's compact model file.
+	 * @param handle the Eclipse handle of an element of the project
+	 * @return the calculator, or null if there is no usable model file
+	 */
+	protected static LSACalculator restoreCompactModel(String handle) {
+		LSACalculator calc = null;
+		String name = EclipseUtils.getProjectNameFromHandle(handle);
+		String modelFile = getCompactModelFileName(name);
+		try {
+			CompactSemanticModel model = CompactSemanticModel.open(modelFile);
+			if (model.isBuiltFrom(getDocumentsFileName(name))) {
+				calc = new LSACalculator(handle);
+				calc.compactModel = model;
+			} else {
+				System.out.println(modelFile + " is out of date");
+			}
+		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
+			System.err.println("Unable to read " + modelFile + ": " + e);
+		}
+		return calc;
+	}
+
 	/**
 	 * Process a file that contains all of the members in a class.
 	 * @param fileName the name of the file that contains
@@ -173,22 +258,26 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	public KACSemanticSpace initializeSemanticSpace(String fileName)
 	throws IOException {
 		semanticSpace = new LatentSemanticAnalysis();
-		BufferedReader documentFileReader = new BufferedReader(new FileReader(
-				fileName));
-		int lineNum = 0;
-		String line = null;
-		String memberName = null;
-		while ((line = documentFileReader.readLine()) != null) {
-			memberName = VectorSpaceModelCalculator
-				.processMemberDocument(semanticSpace, line);
-			
-			if (semanticSpace.getProcessedDocument()) {
-				memberHandleToDocumentNumber.put(memberName, lineNum++);
-			} else {
-				System.out.println("processMemberDocument failed for " + line);
+		sourceHash = CompactSemanticModel.hashFile(fileName);
+		final KACSemanticSpace space = semanticSpace;
+		// The documents are processed in file order, so the document
+		// numbers are the same however many threads read the file
+		final int[] documentCount = {0};
+		MemberDocumentIngester ingester = new MemberDocumentIngester(false);
+		ingester.ingest(fileName, new MemberDocumentIngester.DocumentHandler() {
+			public void handleDocument(
+					MemberDocumentIngester.IngestedDocument document)
+			throws IOException {
+				if (VectorSpaceModelCalculator
+						.processMemberDocument(space, document)) {
+					memberHandleToDocumentNumber.put(document.handle,
+							documentCount[0]++);
+				} else {
+					System.out.println("processMemberDocument failed for "
+							+ document.handle);
+				}
 			}
-		}
-		documentFileReader.close();
+		});
 		
 		Properties props = System.getProperties();
 		props.setProperty(
@@ -263,23 +352,14 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 */
 	public Number calculateDistance(String handle1, String handle2) {
 		double distance = UNKNOWN_DISTANCE.doubleValue();
-		Integer documentInt1 = memberHandleToDocumentNumber.get(handle1);
-		Integer documentInt2 = memberHandleToDocumentNumber.get(handle2);
+		SparseVectorStore store = getVectorStore();
 		
-		if (documentInt1 != null && documentInt2 != null) {
-			try {
-				DoubleVector vector1 =
-					semanticSpace.getDocumentVector(documentInt1);
-				try {
-					DoubleVector vector2 =
-						semanticSpace.getDocumentVector(documentInt2);
-					distance = VectorSpaceModelCalculator
-					    .calculateCosineDistance(vector1, vector2);
-				} catch (IllegalArgumentException e) {
-					System.err.println("No document vector found for " + handle2);
-				}
-			} catch (Exception e) {
-				System.err.println("No document vector found for " + handle1);
+		if (store != null) {
+			int document1 = store.getDocumentNumber(handle1);
+			int document2 = store.getDocumentNumber(handle2);
+			if (document1 >= 0 && document2 >= 0) {
+				distance = VectorSpaceModelCalculator.toCosineDistance(
+						store.cosineSimilarity(document1, document2));
 			}
 		}
 		if (distance < 0.0) {
@@ -288,6 +368,39 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		return distance;
 	}
 
+	/**
+	 * Finds the members that are conceptually closest to a member.
+	 * @param handle the Eclipse handle of a class member
+	 * @param k the maximum number of members to return
+	 * @return the handles of the members (other than the given one) that
+	 * share terms with the member, mapped to their distances from it,
+	 * nearest first
+	 */
+	public Map<String, Double> nearestMembers(String handle, int k) {
+		Map<String, Double> nearest = new LinkedHashMap<String, Double>();
+		SparseVectorStore store = getVectorStore();
+		if (store != null) {
+			nearest = store.nearestMembers(handle, k);
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return the normalized document vectors, which are built from the
+	 * compact model or the semantic space the first time they are needed
+	 */
+	protected synchronized SparseVectorStore getVectorStore() {
+		if (vectorStore == null) {
+			if (compactModel != null) {
+				vectorStore = new SparseVectorStore(compactModel);
+			} else if (semanticSpace != null) {
+				vectorStore = new SparseVectorStore(semanticSpace,
+						memberHandleToDocumentNumber);
+			}
+		}
+		return vectorStore;
+	}
+
 	/**
 	 * Calculates the distance between two terms, e.g. two class members, based
 	 * on the similarity of the documents (e.g. classes) that contain them
@@ -296,17 +409,31 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 * @return the distance between the documents corresponding to the handles
 	 */
 	public Number calculateDistanceBetweenTerms(String handle1, String handle2) {
-		double distance = UNKNOWN_DISTANCE.doubleValue();
-		Vector<?> vector1 = semanticSpace.getVector(handle1);
-		Vector<?> vector2 = semanticSpace.getVector(handle2);
-		distance = VectorSpaceModelCalculator
-			.calculateCosineDistance(vector1, vector2);
+		double distance = MAX_CONCEPTUAL_DISTANCE;
+		// Term vectors are not kept in the compact model
+		if (semanticSpace != null) {
+			Vector<?> vector1 = semanticSpace.getVector(handle1);
+			Vector<?> vector2 = semanticSpace.getVector(handle2);
+			distance = VectorSpaceModelCalculator
+				.calculateCosineDistance(vector1, vector2);
+		}
 		return distance;
 	}
 
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.LSA;
 	}
+
+	/**
+	 * Once built, the semantic space is only read.
+	 */
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public DistanceCalculatorIfc<String> copyForThread() {
+		return this;
+	}
 	
 	/**
 	 * A simple test
@@ -19,11 +19,14 @@
  * /pub/mirrors/apache/xmlbeans/xmlbeans-current-src.tgz|ySGohib3tmI/xmlbeans-2.3.0
  * /src/common/org/apache/xmlbeans/impl/common/Levenshtein.java&q=Levenshtein%20lang:java
  * 
- * THE ONLY CHANGE MADE HERE WAS TO THE PACKAGE.
+ * THE PACKAGE HAS BEEN CHANGED, AND THE FULL MATRIX CALCULATION HAS BEEN
+ * REPLACED BY BIT-PARALLEL AND TWO-ROW CALCULATIONS WITH AN OPTIONAL BOUND.
  */
 //package org.apache.xmlbeans.impl.common;
 package nz.ac.vuw.ecs.kcassell.similarity;
 
+import java.util.Arrays;
+
 public class Levenshtein
 {
    //****************************
@@ -40,58 +43,212 @@ public class Levenshtein
        return mi;
    }
 
+   /** The longest string that can be the pattern for the bit-parallel
+    * algorithm, i.e. the number of bits in a long. */
+   public static final int MAX_PATTERN_LENGTH = 64;
+
    //*****************************
    // Compute Levenshtein distance
    //*****************************
    public static int distance(String s, String t)
    {
-       int d[][]; // matrix
-       int n; // length of s
-       int m; // length of t
-       int i; // iterates through s
-       int j; // iterates through t
-       char s_i; // ith character of s
-       char t_j; // jth character of t
-       int cost; // cost
-
-       // Step 1
-       n = s.length();
-       m = t.length();
-       if (n == 0)
-           return m;
-       if (m == 0)
-           return n;
-       d = new int[n+1][m+1];
-
-       // Step 2
-       for (i = 0; i <= n; i++)
-           d[i][0] = i;
-       for (j = 0; j <= m; j++)
-           d[0][j] = j;
+       return distance(s, t, Integer.MAX_VALUE);
+   }
 
-       // Step 3
-       for (i = 1; i <= n; i++)
+   /**
+    * Computes the Levenshtein distance, giving up as soon as the
+    * distance is certain to be greater than maxDistance.
+    * When the shorter string has at most 64 characters, Myers'
+    * bit-parallel algorithm (as formulated by Hyyro for edit distance)
+    * is used; otherwise the usual dynamic programming algorithm is
+    * used, keeping only two rows of the matrix.
+    * @param s a string
+    * @param t a string
+    * @param maxDistance the largest distance of interest
+    * @return the distance, or maxDistance + 1 if the distance is
+    * greater than maxDistance
+    */
+   public static int distance(String s, String t, int maxDistance)
+   {
+       // Let s be the shorter string
+       if (s.length() > t.length())
        {
-           s_i = s.charAt (i - 1);
+           String temp = s;
+           s = t;
+           t = temp;
+       }
+       int distance;
+       if (t.length() - s.length() > maxDistance)
+           distance = maxDistance + 1;
+       else if (s.length() <= MAX_PATTERN_LENGTH)
+           distance = distance(new Pattern(s), t, maxDistance);
+       else
+           distance = twoRowDistance(s, t, maxDistance);
+       return distance;
+   }
 
-           // Step 4
-           for (j = 1; j <= m; j++)
-           {
-               t_j = t.charAt(j - 1);
+   /**
+    * The positions at which each character occurs in a string of
+    * at most 64 characters, as bit masks.  A pattern can be reused to
+    * compare the same string with many others.
+    */
+   public static final class Pattern
+   {
+       private final int length;
+
+       /** The masks for characters below 128, indexed by character. */
+       private final long[] asciiMasks = new long[128];
+
+       /** The other characters in the string, sorted. */
+       private final char[] otherChars;
 
-               // Step 5
-               if (s_i == t_j)
-                   cost = 0;
+       /** The masks for the other characters. */
+       private final long[] otherMasks;
+
+       /**
+        * @param s a string of at most 64 characters
+        */
+       public Pattern(String s)
+       {
+           length = s.length();
+           if (length > MAX_PATTERN_LENGTH)
+               throw new IllegalArgumentException(
+                   "Pattern longer than " + MAX_PATTERN_LENGTH + ": " + s);
+           char[] others = new char[length];
+           int numOthers = 0;
+           for (int i = 0; i < length; i++)
+           {
+               char c = s.charAt(i);
+               if (c < 128)
+                   asciiMasks[c] |= 1L << i;
                else
-                   cost = 1;
+                   others[numOthers++] = c;
+           }
+           Arrays.sort(others, 0, numOthers);
+           int numDistinct = 0;
+           for (int i = 0; i < numOthers; i++)
+               if (numDistinct == 0 || others[i] != others[numDistinct - 1])
+                   others[numDistinct++] = others[i];
+           otherChars = new char[numDistinct];
+           System.arraycopy(others, 0, otherChars, 0, numDistinct);
+           otherMasks = new long[numDistinct];
+           for (int i = 0; i < length; i++)
+           {
+               char c = s.charAt(i);
+               if (c >= 128)
+                   otherMasks[Arrays.binarySearch(otherChars, c)]
+                       |= 1L << i;
+           }
+       }
 
-               // Step 6
-               d[i][j] = minimum(d[i-1][j]+1, d[i][j-1]+1, d[i-1][j-1] + cost);
+       public int length()
+       {
+           return length;
+       }
+
+       /** @return the positions of c in the pattern, as a bit mask */
+       long mask(char c)
+       {
+           long mask = 0L;
+           if (c < 128)
+               mask = asciiMasks[c];
+           else
+           {
+               int index = Arrays.binarySearch(otherChars, c);
+               if (index >= 0)
+                   mask = otherMasks[index];
            }
+           return mask;
+       }
+   }
+
+   /**
+    * Computes the Levenshtein distance between a pattern and a string
+    * with the bit-parallel algorithm.  Bit i of pv (mv) is set when the
+    * vertical difference D[i+1][j] - D[i][j] is +1 (-1); the score tracks
+    * D[m][j], the last row of the matrix.  As each column can lower the
+    * score by at most one, the calculation stops once the score less the
+    * number of remaining columns exceeds maxDistance.
+    * @param pattern the pattern (usually the shorter string)
+    * @param t a string of any length
+    * @param maxDistance the largest distance of interest
+    * @return the distance, or maxDistance + 1 if the distance is
+    * greater than maxDistance
+    */
+   public static int distance(Pattern pattern, String t, int maxDistance)
+   {
+       int m = pattern.length();
+       int n = t.length();
+       if (Math.abs(n - m) > maxDistance)
+           return maxDistance + 1;
+       if (m == 0)
+           return n;
+       long pv = -1L;
+       long mv = 0L;
+       long last = 1L << (m - 1);
+       int score = m;
+
+       for (int j = 0; j < n; j++)
+       {
+           long eq = pattern.mask(t.charAt(j));
+           long xv = eq | mv;
+           long xh = (((eq & pv) + pv) ^ pv) | eq;
+           long ph = mv | ~(xh | pv);
+           long mh = pv & xh;
+           if ((ph & last) != 0)
+               score++;
+           else if ((mh & last) != 0)
+               score--;
+           if (score - (n - j - 1) > maxDistance)
+               return maxDistance + 1;
+           // The top row of the matrix increases by one in each column
+           ph = (ph << 1) | 1L;
+           mh = mh << 1;
+           pv = mh | ~(xv | ph);
+           mv = ph & xv;
        }
+       return (score > maxDistance) ? maxDistance + 1 : score;
+   }
+
+   /**
+    * Computes the Levenshtein distance keeping only two rows of the
+    * matrix.  The smallest value in a row never decreases in later rows,
+    * so the calculation stops once it exceeds maxDistance.
+    * @param s the shorter string
+    * @param t the longer string
+    * @param maxDistance the largest distance of interest
+    * @return the distance, or maxDistance + 1 if the distance is
+    * greater than maxDistance
+    */
+   protected static int twoRowDistance(String s, String t, int maxDistance)
+   {
+       int n = s.length();
+       int m = t.length();
+       int[] previous = new int[n + 1];
+       int[] current = new int[n + 1];
+       for (int i = 0; i <= n; i++)
+           previous[i] = i;
 
-       // Step 7
-       return d[n][m];
+       for (int j = 1; j <= m; j++)
+       {
+           char t_j = t.charAt(j - 1);
+           current[0] = j;
+           int rowMinimum = j;
+           for (int i = 1; i <= n; i++)
+           {
+               int cost = (s.charAt(i - 1) == t_j) ? 0 : 1;
+               current[i] = minimum(previous[i] + 1, current[i - 1] + 1,
+                       previous[i - 1] + cost);
+               if (current[i] < rowMinimum)
+                   rowMinimum = current[i];
+           }
+           if (rowMinimum > maxDistance)
+               return maxDistance + 1;
+           int[] temp = previous;
+           previous = current;
+           current = temp;
+       }
+       return (previous[n] > maxDistance) ? maxDistance + 1 : previous[n];
    }
 
 }
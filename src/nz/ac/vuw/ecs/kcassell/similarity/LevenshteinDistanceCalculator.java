@@ -32,6 +32,8 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.similarity;
 
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class calculates a normalized Levenshtein distance
@@ -45,7 +47,12 @@ package nz.ac.vuw.ecs.kcassell.similarity;
  *
  */
 public class LevenshteinDistanceCalculator
-implements DistanceCalculatorIfc<String> {
+implements BoundedDistanceCalculatorIfc<String> {
+
+	/** The lower case form of each string compared, so that each string
+	 * is only converted once. */
+	protected ConcurrentHashMap<String, String> lowerCaseForms =
+		new ConcurrentHashMap<String, String>();
 
 	/**
 	 * Calculates the distance between the identifiers.
@@ -70,16 +77,129 @@ implements DistanceCalculatorIfc<String> {
 		Double lDistance = 0.0;
 		int max = Math.max(s1.length(), s2.length());
 		if (max > 0) {
-			s1 = s1.toLowerCase();
-			s2 = s2.toLowerCase();
+			s1 = toLowerCase(s1);
+			s2 = toLowerCase(s2);
 			int distance = Levenshtein.distance(s1, s2);
 			lDistance = distance * 1.0 / max;
 		}
 		return lDistance;
 	}
 
+	/**
+	 * Calculates the normalized Levenshtein distance, unless it is
+	 * greater than a bound.  The calculation stops as soon as the
+	 * distance is certain to exceed the bound.
+	 * We ignore the case of the letters in the comparison.
+	 * @param bound the largest distance of interest
+	 * @return the distance if it is no greater than the bound;
+	 * otherwise 1.0
+	 */
+	public Double calculateDistance(String s1, String s2, double bound) {
+		double result = 1.0;
+
+		if (s1 != null && s2 != null) {
+			int max = Math.max(s1.length(), s2.length());
+			if (max == 0) {
+				result = 0.0;
+			} else {
+				int maxDistance = getMaxDistance(bound, max);
+				int distance = Levenshtein.distance(toLowerCase(s1),
+						toLowerCase(s2), maxDistance);
+				if (distance <= maxDistance) {
+					result = distance * 1.0 / max;
+				}
+			}
+			if (result > bound) {
+				result = 1.0;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Calculates the distances from one identifier to many others.
+	 * @see nz.ac.vuw.ecs.kcassell.similarity.BatchDistanceCalculatorIfc#calculateRow(java.lang.Object, java.util.List, double[])
+	 */
+	public void calculateRow(String s1, List<String> others,
+			double[] distances) {
+		calculateRow(s1, others, distances, 1.0);
+	}
+
+	/**
+	 * Calculates the distances from one identifier to many others,
+	 * storing 1.0 for those greater than the bound.  The first identifier
+	 * is converted to lower case, and its bit masks for the bit-parallel
+	 * algorithm are built, only once for the whole row.
+	 * @see nz.ac.vuw.ecs.kcassell.similarity.BoundedDistanceCalculatorIfc#calculateRow(java.lang.Object, java.util.List, double[], double)
+	 */
+	public void calculateRow(String s1, List<String> others,
+			double[] distances, double bound) {
+		int numOthers = others.size();
+		String lower1 = (s1 == null) ? null : toLowerCase(s1);
+		Levenshtein.Pattern pattern = null;
+		if (lower1 != null
+				&& lower1.length() <= Levenshtein.MAX_PATTERN_LENGTH) {
+			pattern = new Levenshtein.Pattern(lower1);
+		}
+
+		for (int i = 0; i < numOthers; i++) {
+			String s2 = others.get(i);
+			double distance = 1.0;
+			if (s1 != null && s2 != null) {
+				int max = Math.max(s1.length(), s2.length());
+				distance = 0.0;
+				if (max > 0) {
+					int maxDistance = getMaxDistance(bound, max);
+					String lower2 = toLowerCase(s2);
+					int rawDistance = (pattern == null)
+						? Levenshtein.distance(lower1, lower2, maxDistance)
+						: Levenshtein.distance(pattern, lower2, maxDistance);
+					distance = (rawDistance <= maxDistance)
+						? rawDistance * 1.0 / max : 1.0;
+				}
+				if (distance > bound) {
+					distance = 1.0;
+				}
+			}
+			distances[i] = distance;
+		}
+	}
+
+	/**
+	 * @return the largest raw distance between strings, the longer of
+	 * which has max letters, that is no greater than the bound once
+	 * normalized, or -1 if there is none
+	 */
+	protected static int getMaxDistance(double bound, int max) {
+		// A tolerance guards against bound * max being just under
+		// an integer that it should equal
+		double maxRaw = Math.floor(bound * max + 1.0E-9);
+		return (maxRaw >= max) ? max : Math.max(-1, (int)maxRaw);
+	}
+
+	/**
+	 * @return the lower case form of the string, which is only
+	 * calculated the first time it is requested
+	 */
+	protected String toLowerCase(String s) {
+		String lowerCase = lowerCaseForms.get(s);
+		if (lowerCase == null) {
+			lowerCase = s.toLowerCase();
+			lowerCaseForms.putIfAbsent(s, lowerCase);
+		}
+		return lowerCase;
+	}
+
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.Levenshtein;
 	}
 
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public DistanceCalculatorIfc<String> copyForThread() {
+		return this;
+	}
+
 }
@@ -34,6 +34,7 @@ package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Set;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
@@ -46,20 +47,14 @@ import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
  *
  */
 public class LocalNeighborhoodDistanceCalculator
-extends JaccardCalculator
-implements DistanceCalculatorIfc<String>
+extends CallGraphJaccardCalculator
 {
-    /** The graph showing the static interrelationships of methods and
-     * attributes.  */
-    protected JavaCallGraph javaCallGraph = null;
-
     /**
      * @param javaCallGraph
      */
     public LocalNeighborhoodDistanceCalculator(JavaCallGraph javaCallGraph)
     {
-        super();
-        this.javaCallGraph = javaCallGraph;
+        super(javaCallGraph);
     }
 
     /**
@@ -89,36 +84,9 @@ implements DistanceCalculatorIfc<String>
     }
     
 
-    /* (non-Javadoc)
-     * @see nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc#calculateDistance(java.lang.String, java.lang.String)
-     */
-    public Double calculateDistance(String id1, String id2)
-    {
-        Double distance = null;
-        CallGraphNode node1 = javaCallGraph.getNode(id1);
-        CallGraphNode node2 = javaCallGraph.getNode(id2);
-
-        if (node1 == null) {
-        	System.err.println("SimonDistanceCalculator.calculateDistance: node "
-        			+ id1 + " not found.");
-        } else if (node2 == null) {
-        	System.err.println("SimonDistanceCalculator.calculateDistance: node "
-        			+ id2 + " not found.");
-        } else {
-        	distance = calculateDistance(node1, node2);
-        }
-        return distance;
-    }
-
-    public Double calculateDistance(
-            CallGraphNode node1,
-            CallGraphNode node2)
+    protected Set<String> computeProperties(CallGraphNode node)
     {
-        Double distance = null;
-        HashSet<String> properties1 = getProperties(node1, javaCallGraph);
-        HashSet<String> properties2 = getProperties(node2, javaCallGraph);
-        distance = calculateDistance(properties1, properties2);
-        return distance;
+        return getProperties(node, javaCallGraph);
     }
 
 	public DistanceCalculatorEnum getType() {
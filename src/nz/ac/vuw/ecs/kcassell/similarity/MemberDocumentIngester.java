@@ -0,0 +1,399 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import edu.ucla.sspace.text.IteratorFactory;
+import edu.ucla.sspace.vsm.VectorSpaceModel;
+
+/**
+ * Reads a member documents file (one member per line - the member handle
+ * followed by the words of its document) as a three stage pipeline:
+ * <ol>
+ * <li>The file is read through NIO, memory-mapped if it is large, and
+ * split into batches of lines.</li>
+ * <li>A pool of worker threads decodes the lines, separates the handles
+ * from the documents and, if requested, tokenizes the documents and
+ * counts their terms.  Each worker reuses its own term-count map.</li>
+ * <li>The calling thread hands the documents to a handler in the order
+ * they appear in the file, so document numbers assigned by the handler
+ * are the same however many threads are used.</li>
+ * </ol>
+ * Only a bounded number of batches are in progress at once, so memory use
+ * does not grow with the size of the file.
+ * @author Keith
+ */
+public class MemberDocumentIngester {
+
+	/** Files at least this large are memory-mapped rather than read. */
+	public static final long MAP_THRESHOLD = 1L << 20;
+
+	/** The number of lines given to a worker at a time. */
+	protected static final int BATCH_SIZE = 256;
+
+	/** Member documents files are read in the platform's default
+	 * charset, as FileReader reads them. */
+	protected static final Charset CHARSET = Charset.defaultCharset();
+
+	/** A member's document, as produced by the workers. */
+	public static class IngestedDocument {
+		/** The member handle. */
+		public String handle = null;
+
+		/** The words of the document, or null if the line held
+		 * nothing but a handle. */
+		public String text = null;
+
+		/** The distinct terms of the document in order of their first
+		 * occurrence, if terms were counted. */
+		public String[] terms = null;
+
+		/** The number of occurrences of each term. */
+		public int[] counts = null;
+	}
+
+	/** Receives the documents in file order, on the calling thread. */
+	public interface DocumentHandler {
+		void handleDocument(IngestedDocument document) throws IOException;
+	}
+
+	/** The maximum number of worker threads; zero or less means
+	 * one per available processor. */
+	protected int parallelism = 1;
+
+	/** Whether the workers tokenize the documents and count terms. */
+	protected boolean countTerms = true;
+
+	/** Each worker's reusable map from a term to its count. */
+	private ThreadLocal<LinkedHashMap<String, int[]>> termCountMaps =
+		new ThreadLocal<LinkedHashMap<String, int[]>>() {
+			protected LinkedHashMap<String, int[]> initialValue() {
+				return new LinkedHashMap<String, int[]>();
+			}
+		};
+
+	/**
+	 * Creates an ingester using the number of threads determined by a
+	 * user preference/parameter.
+	 * @param countTerms whether documents should be tokenized and their
+	 *  terms counted
+	 */
+	public MemberDocumentIngester(boolean countTerms) {
+		ApplicationParameters params = ApplicationParameters.getSingleton();
+		this.parallelism =
+			params.getIntParameter(ParameterConstants.PARALLELISM_KEY, 1);
+		this.countTerms = countTerms;
+	}
+
+	/**
+	 * @param parallelism the maximum number of worker threads;
+	 *  zero or less means one per available processor
+	 * @param countTerms whether documents should be tokenized and their
+	 *  terms counted
+	 */
+	public MemberDocumentIngester(int parallelism, boolean countTerms) {
+		this.parallelism = parallelism;
+		this.countTerms = countTerms;
+	}
+
+	/**
+	 * Reads the member documents file, passing each document to the
+	 * handler in file order.
+	 * @param fileName the name of the member documents file
+	 * @param handler receives the documents
+	 * @return the number of lines read
+	 * @throws IOException if the file can't be read, or the handler
+	 *  throws an IOException
+	 */
+	public int ingest(String fileName, DocumentHandler handler)
+	throws IOException {
+		ByteBuffer data = readFile(fileName);
+		int numThreads = (parallelism > 0)
+			? parallelism : Runtime.getRuntime().availableProcessors();
+		int numLines = 0;
+
+		if (numThreads == 1 || data.limit() < MAP_THRESHOLD / 16) {
+			int start = 0;
+			while (start < data.limit()) {
+				int end = endOfLine(data, start);
+				handler.handleDocument(processLine(data, start, end));
+				numLines++;
+				start = end + 1;
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			LinkedList<Future<IngestedDocument[]>> inProgress =
+				new LinkedList<Future<IngestedDocument[]>>();
+			try {
+				int start = 0;
+				while (start < data.limit()) {
+					final int[] lineStarts = new int[BATCH_SIZE + 1];
+					int count = 0;
+					while (count < BATCH_SIZE && start < data.limit()) {
+						lineStarts[count++] = start;
+						start = endOfLine(data, start) + 1;
+					}
+					lineStarts[count] = start;
+					final int batchSize = count;
+					final ByteBuffer batchData = data.duplicate();
+					inProgress.add(executor.submit(
+							new Callable<IngestedDocument[]>() {
+						public IngestedDocument[] call() {
+							return processLines(batchData, lineStarts, batchSize);
+						}
+					}));
+					numLines += batchSize;
+					if (inProgress.size() >= 2 * numThreads) {
+						handleBatch(inProgress.removeFirst(), handler);
+					}
+				}
+				while (!inProgress.isEmpty()) {
+					handleBatch(inProgress.removeFirst(), handler);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted reading " + fileName);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return numLines;
+	}
+
+	private static void handleBatch(Future<IngestedDocument[]> batch,
+			DocumentHandler handler)
+	throws InterruptedException, ExecutionException, IOException {
+		for (IngestedDocument document : batch.get()) {
+			handler.handleDocument(document);
+		}
+	}
+
+	/**
+	 * Reads the whole file into a buffer, mapping it into memory
+	 * if it is large.
+	 */
+	protected static ByteBuffer readFile(String fileName) throws IOException {
+		ByteBuffer data = null;
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size >= MAP_THRESHOLD) {
+				data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				data = ByteBuffer.allocate((int)size);
+				while (data.hasRemaining() && channel.read(data) >= 0) {
+				}
+				data.flip();
+			}
+		} finally {
+			file.close();
+		}
+		return data;
+	}
+
+	/**
+	 * @return the position of the newline ending the line starting at
+	 * start, or the end of the data
+	 */
+	private static int endOfLine(ByteBuffer data, int start) {
+		int end = start;
+		int limit = data.limit();
+		while (end < limit && data.get(end) != '\n') {
+			end++;
+		}
+		return end;
+	}
+
+	private IngestedDocument[] processLines(ByteBuffer data, int[] lineStarts,
+			int count) {
+		IngestedDocument[] documents = new IngestedDocument[count];
+		for (int i = 0; i < count; i++) {
+			// The next line starts just past this line's newline
+			documents[i] = processLine(data, lineStarts[i], lineStarts[i + 1] - 1);
+		}
+		return documents;
+	}
+
+	/**
+	 * Decodes a line, which is made up of the bytes from start
+	 * (inclusive) to end (exclusive), and splits it into the handle and
+	 * document.  ('\n' never occurs within a multi-byte character in
+	 * the usual charsets, e.g. UTF-8, so lines can be found before
+	 * decoding.)
+	 */
+	protected IngestedDocument processLine(ByteBuffer data, int start,
+			int end) {
+		if (end > start && data.get(end - 1) == '\r') {
+			end--;
+		}
+		ByteBuffer lineBytes = data.duplicate();
+		lineBytes.limit(end);
+		lineBytes.position(start);
+		String line = CHARSET.decode(lineBytes).toString();
+		String[] memberDocument =
+			VectorSpaceModelCalculator.splitMemberDocument(line);
+		IngestedDocument document = new IngestedDocument();
+		document.handle = memberDocument[0];
+		document.text = memberDocument[1];
+		if (countTerms && document.text != null) {
+			countTerms(document, termCountMaps.get());
+		}
+		return document;
+	}
+
+	/**
+	 * Tokenizes the document the way the S-Space models do, and
+	 * records its distinct terms, in order of first occurrence, and
+	 * their counts.
+	 * @param document the document whose text is to be tokenized
+	 * @param termCounts a scratch map, which is cleared before use
+	 */
+	protected static void countTerms(IngestedDocument document,
+			LinkedHashMap<String, int[]> termCounts) {
+		termCounts.clear();
+		Iterator<String> tokens = IteratorFactory.tokenize(document.text);
+		while (tokens.hasNext()) {
+			String token = tokens.next();
+			if (!IteratorFactory.EMPTY_TOKEN.equals(token)) {
+				int[] count = termCounts.get(token);
+				if (count == null) {
+					termCounts.put(token, new int[] {1});
+				} else {
+					count[0]++;
+				}
+			}
+		}
+		document.terms = new String[termCounts.size()];
+		document.counts = new int[termCounts.size()];
+		int i = 0;
+		for (Map.Entry<String, int[]> entry : termCounts.entrySet()) {
+			document.terms[i] = entry.getKey();
+			document.counts[i++] = entry.getValue()[0];
+		}
+	}
+
+	/**
+	 * Compares the time taken to build a vector space model and an
+	 * incremental index from a member documents file, reading it line by
+	 * line and through the pipeline.
+	 * @param args the name of a member documents file (optional) and
+	 *  the number of threads (optional)
+	 */
+	public static void main(String[] args) throws Exception {
+		String fileName = (args.length > 0) ? args[0]
+			: RefactoringConstants.MEMBER_DOCUMENTS_DIR
+				+ "HeritrixRBetw/HeritrixRBetwMembers.txt";
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+		File directory = File.createTempFile("ingest", "");
+		directory.delete();
+		directory.mkdir();
+		String snapshot = new File(directory, "VSM.index").getPath();
+		String log = new File(directory, "VSM.delta").getPath();
+
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			BufferedReader reader =
+				new BufferedReader(new FileReader(fileName));
+			VectorSpaceModel space = new VectorSpaceModel();
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				VectorSpaceModelCalculator.processMemberDocument(space, line);
+			}
+			reader.close();
+			long lineByLine = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			final VectorSpaceModel pipelineSpace = new VectorSpaceModel();
+			new MemberDocumentIngester(threads, false).ingest(fileName,
+					new DocumentHandler() {
+				public void handleDocument(IngestedDocument document)
+				throws IOException {
+					if (document.text != null) {
+						pipelineSpace.processDocument(new BufferedReader(
+								new StringReader(document.text)));
+					}
+				}
+			});
+			long pipelined = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			IncrementalDocumentIndex index =
+				new IncrementalDocumentIndex(snapshot, log);
+			index.update(fileName, new MemberDocumentIngester(1, true));
+			long indexed1 = System.nanoTime() - start;
+			new File(log).delete();
+
+			start = System.nanoTime();
+			index = new IncrementalDocumentIndex(snapshot, log);
+			index.update(fileName, new MemberDocumentIngester(threads, true));
+			long indexedN = System.nanoTime() - start;
+			new File(log).delete();
+
+			System.out.println(fileName + ": S-Space line by line "
+					+ lineByLine / 1000000 + " ms, S-Space pipelined "
+					+ pipelined / 1000000 + " ms, term counts (1 thread) "
+					+ indexed1 / 1000000 + " ms, term counts (" + threads
+					+ " threads) " + indexedN / 1000000 + " ms");
+		}
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+}
@@ -0,0 +1,337 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import edu.ucla.sspace.common.KACSemanticSpace;
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseVector;
+
+/**
+ * Holds the document vectors of a project's semantic space, normalized to
+ * unit length, as sorted arrays of the indices and values of their non-zero
+ * entries.  The cosine similarity of two documents is then just the dot
+ * product of their vectors, which is found by merging the index arrays.
+ * An inverted index from each term (vector index) to the documents
+ * containing it supports finding the members nearest to a given member
+ * without comparing it to every other member.
+ * The store is built once and only read afterwards, so it may be
+ * shared between threads.
+ * @author Keith
+ */
+public class SparseVectorStore {
+
+	/** The member handle for each document. */
+	protected String[] handles = null;
+
+	/** Maps a member handle to its document number in this store. */
+	protected HashMap<String, Integer> handleToDocument =
+		new HashMap<String, Integer>();
+
+	/** For each document, the indices of its non-zero entries, ascending. */
+	protected int[][] documentIndices = null;
+
+	/** For each document, the normalized values of its non-zero entries. */
+	protected float[][] documentValues = null;
+
+	/** The postings of term t are at positions
+	 * postingOffsets[t] to postingOffsets[t + 1] - 1. */
+	protected int[] postingOffsets = null;
+
+	/** The documents containing each term. */
+	protected int[] postingDocuments = null;
+
+	/** The (normalized) value of the term in each posting's document. */
+	protected float[] postingValues = null;
+
+	/**
+	 * Builds the store from the document vectors of a semantic space.
+	 * @param space a semantic space whose space has been processed
+	 * @param handleToSpaceDocument maps member handles to the space's
+	 *  document numbers
+	 */
+	public SparseVectorStore(KACSemanticSpace space,
+			Map<String, Integer> handleToSpaceDocument) {
+		int numDocs = handleToSpaceDocument.size();
+		allocate(numDocs);
+		int doc = 0;
+		for (Map.Entry<String, Integer> entry
+				: handleToSpaceDocument.entrySet()) {
+			String handle = entry.getKey();
+			int[] indices = new int[0];
+			double[] values = new double[0];
+			try {
+				DoubleVector vector = space.getDocumentVector(entry.getValue());
+				if (vector instanceof SparseVector<?>) {
+					indices = ((SparseVector<?>)vector)
+						.getNonZeroIndices().clone();
+					Arrays.sort(indices);
+				} else {
+					indices = nonZeroIndices(vector);
+				}
+				values = new double[indices.length];
+				for (int i = 0; i < indices.length; i++) {
+					values[i] = vector.get(indices[i]);
+				}
+			} catch (IllegalArgumentException e) {
+				System.err.println("No document vector found for " + handle);
+			}
+			addDocument(doc++, handle, indices, values);
+		}
+		buildInvertedIndex();
+	}
+
+	/**
+	 * Builds the store from the document vectors of a compact model.
+	 * @param model a memory-mapped model
+	 */
+	public SparseVectorStore(CompactSemanticModel model) {
+		int numDocs = model.getDocumentCount();
+		allocate(numDocs);
+		for (int doc = 0; doc < numDocs; doc++) {
+			addDocument(doc, model.getHandle(doc),
+					model.getDocumentIndices(doc),
+					model.getDocumentValues(doc));
+		}
+		buildInvertedIndex();
+	}
+
+	private void allocate(int numDocs) {
+		handles = new String[numDocs];
+		documentIndices = new int[numDocs][];
+		documentValues = new float[numDocs][];
+	}
+
+	private static int[] nonZeroIndices(DoubleVector vector) {
+		int length = vector.length();
+		int[] candidates = new int[length];
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			if (vector.get(i) != 0.0) {
+				candidates[count++] = i;
+			}
+		}
+		int[] indices = new int[count];
+		System.arraycopy(candidates, 0, indices, 0, count);
+		return indices;
+	}
+
+	/**
+	 * Stores the normalized form of a document vector.
+	 * @param indices the ascending indices of the non-zero entries
+	 * @param values the values of the non-zero entries
+	 */
+	private void addDocument(int doc, String handle, int[] indices,
+			double[] values) {
+		double sumOfSquares = 0.0;
+		for (double value : values) {
+			sumOfSquares += value * value;
+		}
+		double magnitude = Math.sqrt(sumOfSquares);
+		if (magnitude == 0.0) {
+			// A vector with no magnitude is not similar to anything
+			indices = new int[0];
+			values = new double[0];
+		}
+		float[] normalized = new float[values.length];
+		for (int i = 0; i < values.length; i++) {
+			normalized[i] = (float)(values[i] / magnitude);
+		}
+		handles[doc] = handle;
+		handleToDocument.put(handle, doc);
+		documentIndices[doc] = indices;
+		documentValues[doc] = normalized;
+	}
+
+	/**
+	 * Builds the postings for each term from the document vectors.
+	 */
+	private void buildInvertedIndex() {
+		int numTerms = 0;
+		int numPostings = 0;
+		for (int[] indices : documentIndices) {
+			if (indices.length > 0) {
+				numTerms = Math.max(numTerms, indices[indices.length - 1] + 1);
+			}
+			numPostings += indices.length;
+		}
+		postingOffsets = new int[numTerms + 1];
+		for (int[] indices : documentIndices) {
+			for (int term : indices) {
+				postingOffsets[term + 1]++;
+			}
+		}
+		for (int term = 0; term < numTerms; term++) {
+			postingOffsets[term + 1] += postingOffsets[term];
+		}
+		postingDocuments = new int[numPostings];
+		postingValues = new float[numPostings];
+		int[] next = postingOffsets.clone();
+
+		// Documents are visited in order, so each posting list is sorted
+		for (int doc = 0; doc < documentIndices.length; doc++) {
+			int[] indices = documentIndices[doc];
+			float[] values = documentValues[doc];
+			for (int i = 0; i < indices.length; i++) {
+				int position = next[indices[i]]++;
+				postingDocuments[position] = doc;
+				postingValues[position] = values[i];
+			}
+		}
+	}
+
+	/**
+	 * @param handle the handle of a class member
+	 * @return the member's document number in this store, or -1 if the
+	 * member is not in the store
+	 */
+	public int getDocumentNumber(String handle) {
+		Integer doc = handleToDocument.get(handle);
+		return (doc == null) ? -1 : doc;
+	}
+
+	/**
+	 * @param doc a document number
+	 * @return the handle of the member whose document it is
+	 */
+	public String getHandle(int doc) {
+		return handles[doc];
+	}
+
+	public int getDocumentCount() {
+		return handles.length;
+	}
+
+	/**
+	 * @param doc1 a document number
+	 * @param doc2 a document number
+	 * @return the cosine similarity of the documents' vectors, which is 0
+	 * when either has no magnitude
+	 */
+	public double cosineSimilarity(int doc1, int doc2) {
+		int[] indices1 = documentIndices[doc1];
+		int[] indices2 = documentIndices[doc2];
+		float[] values1 = documentValues[doc1];
+		float[] values2 = documentValues[doc2];
+		double dotProduct = 0.0;
+		int i = 0;
+		int j = 0;
+		while (i < indices1.length && j < indices2.length) {
+			if (indices1[i] < indices2[j]) {
+				i++;
+			} else if (indices1[i] > indices2[j]) {
+				j++;
+			} else {
+				dotProduct += (double)values1[i++] * values2[j++];
+			}
+		}
+		return dotProduct;
+	}
+
+	/**
+	 * Finds the members whose documents are most similar to the given
+	 * member's document.  Only members that share at least one term with
+	 * the member are candidates, so fewer than k members may be returned.
+	 * @param handle the handle of a class member
+	 * @param k the maximum number of members to return
+	 * @return the handles of the nearest members (not including the member
+	 * itself) mapped to their cosine distances, nearest first.  Members
+	 * that are equally near are ordered by document number.
+	 */
+	public LinkedHashMap<String, Double> nearestMembers(String handle, int k) {
+		LinkedHashMap<String, Double> nearest =
+			new LinkedHashMap<String, Double>();
+		int queryDoc = getDocumentNumber(handle);
+		if (queryDoc >= 0 && k > 0) {
+			final double[] scores = new double[handles.length];
+			boolean[] isCandidate = new boolean[handles.length];
+			List<Integer> candidates = new ArrayList<Integer>();
+			int[] indices = documentIndices[queryDoc];
+			float[] values = documentValues[queryDoc];
+
+			// Accumulate the dot products one query term at a time
+			for (int i = 0; i < indices.length; i++) {
+				int term = indices[i];
+				double queryValue = values[i];
+				for (int p = postingOffsets[term];
+						p < postingOffsets[term + 1]; p++) {
+					int doc = postingDocuments[p];
+					if (!isCandidate[doc]) {
+						isCandidate[doc] = true;
+						candidates.add(doc);
+					}
+					scores[doc] += queryValue * postingValues[p];
+				}
+			}
+
+			// Keep the k best candidates, with the worst at the head
+			Comparator<Integer> worstFirst = new Comparator<Integer>() {
+				public int compare(Integer doc1, Integer doc2) {
+					int comparison = Double.compare(scores[doc1], scores[doc2]);
+					if (comparison == 0) {
+						comparison = doc2.compareTo(doc1);
+					}
+					return comparison;
+				}
+			};
+			PriorityQueue<Integer> best =
+				new PriorityQueue<Integer>(k + 1, worstFirst);
+			for (Integer doc : candidates) {
+				if (doc != queryDoc) {
+					best.add(doc);
+					if (best.size() > k) {
+						best.poll();
+					}
+				}
+			}
+			Integer[] ordered = new Integer[best.size()];
+			for (int i = ordered.length - 1; i >= 0; i--) {
+				ordered[i] = best.poll();
+			}
+			for (Integer doc : ordered) {
+				nearest.put(handles[doc],
+						VectorSpaceModelCalculator.toCosineDistance(scores[doc]));
+			}
+		}
+		return nearest;
+	}
+
+}
@@ -1,13 +1,16 @@
 package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -64,6 +67,20 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	protected Map<String, Integer> memberHandleToDocumentNumber =
 		new HashMap<String, Integer>();
 
+	/** The hash of the member documents file the space was built from. */
+	protected long sourceHash = 0L;
+
+	/** The term of each dimension of the document vectors, in the order
+	 * the vector space model first saw them. */
+	protected ArrayList<String> dimensionTerms = null;
+
+	/** The memory-mapped document vectors.  When present, this is used
+	 * in preference to the semantic space for document distances. */
+	protected transient CompactSemanticModel compactModel = null;
+
+	/** The normalized document vectors used for distance calculations. */
+	protected transient SparseVectorStore vectorStore = null;
+
 	/**
 	 * Construct the calculator, building the vector space model
 	 * based on the contents of the file provided
@@ -82,8 +99,14 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 * Get a VectorSpaceModelCalculator appropriate for the Eclipse handle.
 	 * (This should be the calculator for the corpus/project.)
  	 * If there is already a calculator in memory, use it.
+	 * Else, if there is a member documents file, bring the compact model
+	 * up to date with it (see {@link #reindex(String)}) and map it.
+	 * Else, if there is a compact model on disk, map it.
 	 * Else, if there is calculator on disk, restore it.
-	 * Otherwise, create a new calculator and save it to disk
+	 * A model or calculator that was not built from the member documents
+	 * file as it is now is not used.
+	 * Otherwise, create a new calculator and save it to disk.
+	 * A restored or new calculator also writes the compact model.
 	 * @param handle the Eclipse handle of the element whose
 	 *   calculator we desire.
 	 * @return the calculator
@@ -93,6 +116,17 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		// If there is already a calculator in memory, use it.
 		VectorSpaceModelCalculator calculator = calculatorMap.get(aProjectName);
 		
+		// Else, if there is a member documents file, reindex the members
+		// that changed since the model was written, and map the model.
+		if (calculator == null) {
+			calculator = reindex(handle);
+		}
+		
+		// Else, if there is a compact model on disk, map it.
+		if (calculator == null) {
+			calculator = restoreCompactModel(handle);
+		}
+		
 		// Else, if there is calculator on disk, restore it.
 		if (calculator == null) {
 			calculator = restore(aProjectName);
@@ -110,6 +144,10 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 				}
 			}
 			
+			if (calculator != null) {
+				calculator.saveCompactModel();
+			}
+			
 			if (calculator != null) {
 				calculatorMap.put(aProjectName, calculator);
 			}
@@ -117,6 +155,54 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		return calculator;
 	}
 	
+	/**
+	 * Brings the project's compact model up to date with its member
+	 * documents file.  Only the members whose documents have changed since
+	 * the last reindexing are tokenized again; the index of term counts is
+	 * kept in a snapshot and a log of changes beside the model.
+	 * @param handle the Eclipse handle of an element of the project
+	 * @return a calculator using the updated model, or null if there is
+	 *   no member documents file or the model could not be updated
+	 */
+	public static VectorSpaceModelCalculator reindex(String handle) {
+		VectorSpaceModelCalculator calculator = null;
+		try {
+			calculator = new VectorSpaceModelCalculator(handle);
+			String fileName = calculator.getDataFileNameFromHandle(handle);
+			if (!new File(fileName).exists()) {
+				throw new FileNotFoundException(fileName);
+			}
+			String name = calculator.projectName;
+			String prefix = MEMBER_DOCUMENTS_DIR + name + "/" + name;
+			IncrementalDocumentIndex index = IncrementalDocumentIndex.load(
+					prefix + "VSM.index", prefix + "VSM.delta");
+			int changes = index.update(fileName);
+			long sourceHash = CompactSemanticModel.hashFile(fileName);
+			String modelFile = getCompactModelFileName(name);
+			CompactSemanticModel model = null;
+			if (changes == 0 && new File(modelFile).exists()) {
+				try {
+					model = CompactSemanticModel.open(modelFile);
+				} catch (IOException e) {
+					System.err.println("Rewriting " + modelFile + ": " + e);
+				}
+			}
+			if (model == null || model.getSourceHash() != sourceHash) {
+				index.writeCompactModel(modelFile, sourceHash);
+				model = CompactSemanticModel.open(modelFile);
+			}
+			calculator.compactModel = model;
+		} catch (FileNotFoundException e) {
+			calculatorMap.remove(EclipseUtils.getProjectNameFromHandle(handle));
+			calculator = null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			calculatorMap.remove(EclipseUtils.getProjectNameFromHandle(handle));
+			calculator = null;
+		}
+		return calculator;
+	}
+
 	/**
 	 * Based on an Eclipse handle, retrieve the file name for the
 	 * text file containing the corpus of documents.
@@ -159,6 +245,11 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		try {
 			Object object = ObjectPersistence.readFromFile(serializationFile);
 			calc = (VectorSpaceModelCalculator)object;
+			if (!CompactSemanticModel.matchesFile(calc.sourceHash,
+					getDocumentsFileName(name))) {
+				System.out.println(serializationFile + " is out of date");
+				calc = null;
+			}
 		} catch (FileNotFoundException e) {
 		} catch (Exception e) {
 			ObjectPersistence.handleSerializationException(
@@ -167,6 +258,71 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		return calc;
 	}
 
+	/**
+	 * @param name the name of a project
+	 * @return the name of the file holding the project's compact model
+	 */
+	protected static String getCompactModelFileName(String name) {
+		return MEMBER_DOCUMENTS_DIR + name + "/" + name + "VSM.model";
+	}
+
+	/**
+	 * @param name the name of a project
+	 * @return the name of the project's member documents file
+	 */
+	protected static String getDocumentsFileName(String name) {
+		return MEMBER_DOCUMENTS_DIR + name + "/" + name + "Members.txt";
+	}
+
+	/**
+	 * Writes the document vectors to a compact model file, and uses
+	 * that model from now on.
+	 */
+	protected void saveCompactModel() {
+		if (semanticSpace != null) {
+			String modelFile = getCompactModelFileName(projectName);
+			try {
+				// A calculator restored from an older file has no terms
+				String[] terms = null;
+				if (dimensionTerms != null && dimensionTerms.size()
+						== semanticSpace.getWords().size()) {
+					terms = dimensionTerms.toArray(
+							new String[dimensionTerms.size()]);
+				}
+				CompactSemanticModel.write(modelFile, semanticSpace,
+						memberHandleToDocumentNumber, terms, sourceHash);
+				compactModel = CompactSemanticModel.open(modelFile);
+			} catch (IOException e) {
+				System.err.println("Unable to write to " + modelFile + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Creates a calculator backed by the project's compact model file.
+	 * @param handle the Eclipse handle of an element of the project
+	 * @return the calculator, or null if there is no usable model file
+	 */
+	protected static VectorSpaceModelCalculator restoreCompactModel(
+			String handle) {
+		VectorSpaceModelCalculator calc = null;
+		String name = EclipseUtils.getProjectNameFromHandle(handle);
+		String modelFile = getCompactModelFileName(name);
+		try {
+			CompactSemanticModel model = CompactSemanticModel.open(modelFile);
+			if (model.isBuiltFrom(getDocumentsFileName(name))) {
+				calc = new VectorSpaceModelCalculator(handle);
+				calc.compactModel = model;
+			} else {
+				System.out.println(modelFile + " is out of date");
+			}
+		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
+			System.err.println("Unable to read " + modelFile + ": " + e);
+		}
+		return calc;
+	}
+
 	/**
 	 * Process a file that contains all of the members in a class.
 	 * @param fileName the name of the file that contains
@@ -177,21 +333,34 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	public KACSemanticSpace initializeSemanticSpace(String fileName)
 	throws IOException {
 		semanticSpace = new VectorSpaceModel();
-		BufferedReader documentFileReader = new BufferedReader(new FileReader(
-				fileName));
-		int lineNum = 0;
-		String line = null;
-		String memberName = null;
-		while ((line = documentFileReader.readLine()) != null) {
-			memberName = processMemberDocument(semanticSpace, line);
-			
-			if (semanticSpace.getProcessedDocument()) {
-				memberHandleToDocumentNumber.put(memberName, lineNum++);
-			} else {
-				System.out.println("processMemberDocument failed for " + line);
+		sourceHash = CompactSemanticModel.hashFile(fileName);
+		dimensionTerms = new ArrayList<String>();
+		final KACSemanticSpace space = semanticSpace;
+		final HashSet<String> termsSeen = new HashSet<String>();
+		// The documents are processed in file order, so the document
+		// numbers are the same however many threads read the file
+		final int[] documentCount = {0};
+		MemberDocumentIngester ingester = new MemberDocumentIngester(true);
+		ingester.ingest(fileName, new MemberDocumentIngester.DocumentHandler() {
+			public void handleDocument(
+					MemberDocumentIngester.IngestedDocument document)
+			throws IOException {
+				if (processMemberDocument(space, document)) {
+					memberHandleToDocumentNumber.put(document.handle,
+							documentCount[0]++);
+					// The model numbers terms as it first sees them, and
+					// the ingester lists them in order of first occurrence
+					for (String term : document.terms) {
+						if (termsSeen.add(term)) {
+							dimensionTerms.add(term);
+						}
+					}
+				} else {
+					System.out.println("processMemberDocument failed for "
+							+ document.handle);
+				}
 			}
-		}
-		documentFileReader.close();
+		});
 		
 		semanticSpace.processSpace(System.getProperties());
 //		int vsmColumns = vectorSpaceModel.getVectorLength();
@@ -208,8 +377,48 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 */
 	protected static String processMemberDocument(KACSemanticSpace vsm,
 			String line) throws IOException {
+		String[] memberDocument = splitMemberDocument(line);
+		String memberName = memberDocument[0];
+		String restOfMember = memberDocument[1];
+		if (restOfMember != null) {
+			StringReader stringReader = new StringReader(restOfMember);
+			BufferedReader memberTokensReader =
+				new BufferedReader(stringReader);
+			vsm.processDocument(memberTokensReader);
+		}
+		return memberName;
+	}
+
+	/**
+	 * Adds a member's document to a semantic space.
+	 * @param vsm the semantic space
+	 * @param document the member's document
+	 * @return true if the space accepted the document
+	 * @throws IOException
+	 */
+	protected static boolean processMemberDocument(KACSemanticSpace vsm,
+			MemberDocumentIngester.IngestedDocument document)
+	throws IOException {
+		boolean processed = false;
+		if (document.text != null) {
+			StringReader stringReader = new StringReader(document.text);
+			vsm.processDocument(new BufferedReader(stringReader));
+			processed = vsm.getProcessedDocument();
+		}
+		return processed;
+	}
+
+	/**
+	 * Separates a line from a member document file into the member
+	 * handle and the document text.
+	 * @param line the first token is the member handle, and the 
+	 * remaining tokens are the words found in identifiers and comments.
+	 * @return the member handle and the text, which is null when the
+	 * line holds no more than a handle
+	 */
+	protected static String[] splitMemberDocument(String line) {
 		String memberName;
-		String restOfMember;
+		String restOfMember = null;
 		int spaceIndex = line.indexOf(' ');
 		if (spaceIndex > -1) {
 			memberName = line.substring(0, spaceIndex);
@@ -218,14 +427,10 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 			} else {
 				restOfMember = "";
 			}
-			StringReader stringReader = new StringReader(restOfMember);
-			BufferedReader memberTokensReader =
-				new BufferedReader(stringReader);
-			vsm.processDocument(memberTokensReader);
 		} else {
 			memberName = line;
 		}
-		return memberName;
+		return new String[] {memberName, restOfMember};
 	}
 
 //	/**
@@ -294,20 +499,14 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 */
 	public Number calculateDistance(String handle1, String handle2) {
 		double distance = UNKNOWN_DISTANCE.doubleValue();
-		Integer documentInt1 = memberHandleToDocumentNumber.get(handle1);
-		Integer documentInt2 = memberHandleToDocumentNumber.get(handle2);
+		SparseVectorStore store = getVectorStore();
 		
-		if (documentInt1 != null && documentInt2 != null) {
-			try {
-				DoubleVector vector1 = semanticSpace.getDocumentVector(documentInt1);
-				try {
-					DoubleVector vector2 = semanticSpace.getDocumentVector(documentInt2);
-					distance = calculateCosineDistance(vector1, vector2);
-				} catch (IllegalArgumentException e) {
-					System.err.println("No document vector found for " + handle2);
-				}
-			} catch (IllegalArgumentException e) {
-				System.err.println("No document vector found for " + handle1);
+		if (store != null) {
+			int document1 = store.getDocumentNumber(handle1);
+			int document2 = store.getDocumentNumber(handle2);
+			if (document1 >= 0 && document2 >= 0) {
+				distance = toCosineDistance(
+						store.cosineSimilarity(document1, document2));
 			}
 		}
 		if (distance < 0.0) {
@@ -327,6 +526,14 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	protected static double calculateCosineDistance(Vector<?> vector1,
 			Vector<?> vector2) {
 		double similarity = Similarity.cosineSimilarity(vector1, vector2);
+		return toCosineDistance(similarity);
+	}
+
+	/**
+	 * @param similarity a cosine similarity
+	 * @return the corresponding distance, between 0 and 1
+	 */
+	protected static double toCosineDistance(double similarity) {
 		double distance = 1.0 - similarity;
 		if (distance < 0.0 || distance == UNKNOWN_DISTANCE.doubleValue()) {
 			distance = 0.0;
@@ -334,6 +541,39 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		return distance;
 	}
 
+	/**
+	 * Finds the members that are conceptually closest to a member.
+	 * @param handle the Eclipse handle of a class member
+	 * @param k the maximum number of members to return
+	 * @return the handles of the members (other than the given one) that
+	 * share terms with the member, mapped to their distances from it,
+	 * nearest first
+	 */
+	public Map<String, Double> nearestMembers(String handle, int k) {
+		Map<String, Double> nearest = new LinkedHashMap<String, Double>();
+		SparseVectorStore store = getVectorStore();
+		if (store != null) {
+			nearest = store.nearestMembers(handle, k);
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return the normalized document vectors, which are built from the
+	 * compact model or the semantic space the first time they are needed
+	 */
+	protected synchronized SparseVectorStore getVectorStore() {
+		if (vectorStore == null) {
+			if (compactModel != null) {
+				vectorStore = new SparseVectorStore(compactModel);
+			} else if (semanticSpace != null) {
+				vectorStore = new SparseVectorStore(semanticSpace,
+						memberHandleToDocumentNumber);
+			}
+		}
+		return vectorStore;
+	}
+
 	/**
 	 * Calculates the distance between two terms, e.g. two class members, based
 	 * on the similarity of the documents (e.g. classes) that contain them
@@ -342,16 +582,30 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 * @return the distance between the documents corresponding to the handles
 	 */
 	public Number calculateDistanceBetweenTerms(String handle1, String handle2) {
-		double distance = UNKNOWN_DISTANCE.doubleValue();
-		Vector<?> vector1 = semanticSpace.getVector(handle1);
-		Vector<?> vector2 = semanticSpace.getVector(handle2);
-		distance = calculateCosineDistance(vector1, vector2);
+		double distance = MAX_CONCEPTUAL_DISTANCE;
+		// Term vectors are not kept in the compact model
+		if (semanticSpace != null) {
+			Vector<?> vector1 = semanticSpace.getVector(handle1);
+			Vector<?> vector2 = semanticSpace.getVector(handle2);
+			distance = calculateCosineDistance(vector1, vector2);
+		}
 		return distance;
 	}
 
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.VectorSpaceModel;
 	}
+
+	/**
+	 * Once built, the semantic space is only read.
+	 */
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public DistanceCalculatorIfc<String> copyForThread() {
+		return this;
+	}
 	
 	/**
 	 * A simple test
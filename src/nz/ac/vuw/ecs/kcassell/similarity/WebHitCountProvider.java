@@ -0,0 +1,327 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Retrieves hit counts from a search engine's JSON web service, keeping
+ * them in a HitCountStore.  At most maxConnections requests are made at
+ * once, and a request for a term that is already being fetched waits for
+ * that fetch rather than starting another.
+ * @author Keith
+ */
+public class WebHitCountProvider implements HitCountProviderIfc {
+
+	/** A Google URL that will return the number of matches, among other things. */
+	public static final String GOOGLE_SEARCH_SITE_PREFIX =
+		"http://ajax.googleapis.com/ajax/services/search/web?v=1.0&";
+
+	/** A Yahoo URL that will return the number of matches, among other things. */
+	public static final String YAHOO_SEARCH_SITE_PREFIX =
+		"http://boss.yahooapis.com/ysearch/web/v1/";
+	// + theQueryTerm?appid=YOUR_API_KEY&format=json"
+	// see http://developer.yahoo.com/search/boss/
+
+	/** The default maximum number of simultaneous requests. */
+	public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+	/** How long to wait (in milliseconds) to connect or read. */
+	protected static final int TIMEOUT = 20000;
+
+	protected static final UtilLogger logger =
+		new UtilLogger("WebHitCountProvider");
+
+	/** The key to use for querying Yahoo.   This is read in via the system
+	 * property "yahooApiKey".  */
+	private static String yahooApiKey = System.getProperty("yahooApiKey");
+
+	/** Holds the counts retrieved so far. */
+	protected HitCountStore store;
+
+	/** The start of the query URL; the encoded term is appended to it. */
+	protected String sitePrefix;
+
+	/** Makes the requests. */
+	protected ExecutorService executor;
+
+	/** The fetches in progress, keyed by term. */
+	protected ConcurrentHashMap<String, Future<Double>> inFlight =
+		new ConcurrentHashMap<String, Future<Double>>();
+
+	/**
+	 * Creates a provider that queries Yahoo.
+	 * @param store holds the counts retrieved
+	 * @param maxConnections the maximum number of simultaneous requests
+	 */
+	public WebHitCountProvider(HitCountStore store, int maxConnections) {
+		this(store, YAHOO_SEARCH_SITE_PREFIX, maxConnections);
+	}
+
+	/**
+	 * @param store holds the counts retrieved
+	 * @param sitePrefix the start of the query URL for a Yahoo-style
+	 *  service; the encoded term and the query parameters are appended
+	 * @param maxConnections the maximum number of simultaneous requests
+	 */
+	public WebHitCountProvider(HitCountStore store, String sitePrefix,
+			int maxConnections) {
+		this.store = store;
+		this.sitePrefix = sitePrefix;
+		executor = Executors.newFixedThreadPool(Math.max(1, maxConnections),
+				new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "WebHitCountProvider");
+				// Idle fetchers shouldn't keep the application running
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public double getHitCount(String term) throws IOException {
+		Double count = store.get(term);
+		if (count == null) {
+			Future<Double> future = startFetch(term);
+			try {
+				count = future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted fetching " + term);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException)cause;
+				}
+				throw new IOException("Unable to fetch " + term + ": " + cause);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Fetches the counts of the terms, making up to maxConnections
+	 * requests at once, and waits for them to finish.
+	 */
+	public void prefetch(Collection<String> terms) {
+		List<Future<Double>> futures = new ArrayList<Future<Double>>();
+		for (String term : terms) {
+			if (store.get(term) == null) {
+				futures.add(startFetch(term));
+			}
+		}
+		for (Future<Double> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				logger.warning("Prefetch failed: " + e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * @return the fetch of the term that is in progress, starting it
+	 * if there isn't one
+	 */
+	protected Future<Double> startFetch(final String term) {
+		Future<Double> future = inFlight.get(term);
+		if (future == null) {
+			FutureTask<Double> task = new FutureTask<Double>(
+					new Callable<Double>() {
+				public Double call() throws Exception {
+					try {
+						// It may have arrived since the caller looked
+						Double count = store.get(term);
+						if (count == null) {
+							count = fetch(term);
+							store.put(term, count);
+						}
+						return count;
+					} finally {
+						inFlight.remove(term);
+					}
+				}
+			});
+			future = inFlight.putIfAbsent(term, task);
+			if (future == null) {
+				future = task;
+				executor.execute(task);
+			}
+		}
+		return future;
+	}
+
+	/**
+	 * Asks the search engine for the number of hits for the term.
+	 * @param term the search term
+	 * @return the number of hits
+	 */
+	protected double fetch(String term) throws IOException {
+		double result = 0;
+		InputStream stream = null;
+		try {
+			URL url = makeQueryURL(term);
+			URLConnection connection = url.openConnection();
+			connection.setConnectTimeout(TIMEOUT);
+			connection.setReadTimeout(TIMEOUT);
+			stream = connection.getInputStream();
+			InputStreamReader inputReader =
+				new InputStreamReader(stream, "UTF-8");
+			BufferedReader bufferedReader = new BufferedReader(inputReader);
+			result = getCountFromQuery(bufferedReader);
+		} catch (JSONException e) {
+			throw new IOException("Unexpected response for " + term
+					+ ": " + e.getMessage());
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					logger.warning(e.toString());
+				}
+			}
+		}
+		return result;
+	}
+
+	private double getCountFromQuery(BufferedReader reader)
+			throws JSONException, IOException {
+		double count = getCountFromYahooQuery(reader);
+//		double count = getCountFromGoogleQuery(bufferedReader);
+		return count;
+	}
+
+	private double getCountFromYahooQuery(BufferedReader reader)
+			throws IOException, JSONException {
+		JSONObject json = new JSONObject(new JSONTokener(reader));
+		JSONObject searchResponse = json.getJSONObject("ysearchresponse");
+		double count = searchResponse.getDouble("totalhits");
+		return count;
+	}
+
+	@SuppressWarnings("unused")
+	private double getCountFromGoogleQuery(BufferedReader bufferedReader) throws JSONException {
+		JSONObject json = new JSONObject(new JSONTokener(bufferedReader));
+		JSONObject responseData = json.getJSONObject("responseData");
+		JSONObject cursor = responseData.getJSONObject("cursor");
+		double count = 0;
+		
+		try {
+			count = cursor.getDouble("estimatedResultCount");
+		} catch (JSONException e) {
+			// exception will be thrown when no matches are found
+			count = 0;
+		}
+		return count;
+	}
+
+	protected URL makeQueryURL(String term) throws IOException {
+		String searchTerm = URLEncoder.encode(term, "UTF-8");
+		String urlString = makeYahooQueryString(searchTerm);
+//		String urlString = makeGoogleQueryString(searchTerm);
+		URL url = new URL(urlString);
+		return url;
+	}
+
+	/**
+	 * Builds a query string suitable for Google
+	 * @param searchTerm
+	 * @return
+	 */
+	@SuppressWarnings("unused")
+	private String makeGoogleQueryString(String searchTerm) {
+		String urlString = GOOGLE_SEARCH_SITE_PREFIX + "q=" + searchTerm + " ";
+		/*
+		 * Example queries:
+			cassell: q=cassell
+			keith cassell: q=keith+cassell
+			"keith cassell": q=%22keith+cassell%22
+			"keith cassell" betweenness: q=%22keith+cassell%22+betweenness
+		 */
+		return urlString;
+	}
+
+	/**
+	 * Builds a query string suitable for Yahoo
+	 * @param searchTerm
+	 * @return
+	 */
+	private String makeYahooQueryString(String searchTerm) {
+		String urlString = sitePrefix + searchTerm +
+			     "?appid=" + yahooApiKey + "&count=0&format=json";
+		return urlString;
+	}
+
+	public void clearCache() throws IOException {
+		store.clear();
+	}
+
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * Stops the fetching threads and closes the store.
+	 */
+	public void close() throws IOException {
+		executor.shutdownNow();
+		store.close();
+	}
+
+}
@@ -69,6 +69,107 @@ public class IdentifierParser {
 	 * @return the components of the ID
 	 */
 	public static ArrayList<String> parseCamelCaseIdentifier(String id) {
+		int[] spans = new int[2 * id.length()];
+		int numTokens = parseCamelCaseSpans(id, spans);
+		ArrayList<String> tokens = null;
+		if (numTokens < 0) {
+			tokens = parseCamelCaseIdentifierByCharacter(id);
+		} else {
+			tokens = new ArrayList<String>(numTokens);
+			for (int i = 0; i < numTokens; i++) {
+				tokens.add(id.substring(spans[2 * i], spans[2 * i + 1]));
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Finds the component parts of an identifier, as
+	 * parseCamelCaseIdentifier does, but without building any strings.
+	 * Token k is id.substring(spans[2 * k], spans[2 * k + 1]).
+	 * @param id the identifier to parse
+	 * @param spans receives the start (inclusive) and end (exclusive) of
+	 *  each token; it must have room for 2 * id.length() values
+	 * @return the number of tokens, or -1 if the identifier contains
+	 *  characters other than cased letters, digits and punctuation.
+	 *  (Such characters are dropped from the middle of tokens, so the
+	 *  tokens can't be described as spans.)
+	 */
+	public static int parseCamelCaseSpans(String id, int[] spans) {
+		int numTokens = 0;
+		// The start of the current token, or -1 if there is none
+		int tokenStart = -1;
+		char prevChar = '_';
+		// the count of consecutive upper case chars (for acronym determination)
+		int upperCount = 0;
+		int length = id.length();
+
+		for (int i = 0; i < length; i++) {
+			char curChar = id.charAt(i);
+
+			// Punctuation separates tokens
+			if (isPunctuation(curChar)) {
+				if (tokenStart >= 0) {
+					upperCount = 0;
+					numTokens = addSpan(spans, numTokens, tokenStart, i);
+					tokenStart = -1;
+				}
+			}
+			else if (Character.isUpperCase(curChar)) {
+				upperCount++;
+				// Transition from lower case to upper starts new token
+				if (Character.isLowerCase(prevChar)) {
+					numTokens = addSpan(spans, numTokens, tokenStart, i);
+					tokenStart = i;
+				} else if (tokenStart < 0) {
+					tokenStart = i;
+				}
+			}
+			else if (Character.isLowerCase(curChar)) {
+				// Done with acronym - the last upper case character starts
+				// a new token
+				if (upperCount > 1) {
+					numTokens = addSpan(spans, numTokens, tokenStart, i - 1);
+					tokenStart = i - 1;
+				} else if (tokenStart < 0) {
+					tokenStart = i;
+				}
+				upperCount = 0;
+			}
+			else if (Character.isDigit(curChar)) {
+				if (tokenStart < 0) {
+					tokenStart = i;
+				}
+			}
+			else {
+				return -1;
+			}
+			prevChar = curChar;
+		} // for
+		if (tokenStart >= 0) {
+			numTokens = addSpan(spans, numTokens, tokenStart, length);
+		}
+		return numTokens;
+	}
+
+	private static int addSpan(int[] spans, int numTokens, int start, int end) {
+		if (start < end) {
+			spans[2 * numTokens] = start;
+			spans[2 * numTokens + 1] = end;
+			numTokens++;
+		}
+		return numTokens;
+	}
+
+	/**
+	 * Breaks an identifier into its component parts based on case,
+	 * building the tokens a character at a time.  This handles
+	 * identifiers containing any characters.
+	 * @param id the identifier to parse
+	 * @return the components of the ID
+	 */
+	protected static ArrayList<String> parseCamelCaseIdentifierByCharacter(
+			String id) {
 		ArrayList<String> tokens = new ArrayList<String>();
 		String token = "";
 		Character prevChar = '_';
@@ -144,4 +245,8 @@ public class IdentifierParser {
 		return (c.equals('_') || c.equals('.') || c.equals('$'));
 	}
 
+	private static boolean isPunctuation(char c) {
+		return (c == '_' || c == '.' || c == '$');
+	}
+
 }
@@ -47,6 +47,10 @@ public interface ParameterConstants {
 	public static final String AGGLOMERATION_CLUSTERS_KEY =
 		"agglomerationClusters";
 
+	/** The key for determining whether call graphs built from Eclipse
+	 * searches are cached on disk. */
+	public static final String CALL_GRAPH_CACHE_KEY = "callGraphCache";
+
 	/** The key for determining the distance calculator to
 	    use in clustering. */
 	public static final String CALCULATOR_KEY = "distanceCalculator";
@@ -59,6 +63,14 @@ public interface ParameterConstants {
     use for displaying the results of agglomerative clustering. */
 	public static final String CLUSTER_TEXT_FORMAT_KEY = "clusterTextFormat";
 
+	/** The key for determining how many measurements are sent to the
+	 * database in one batch. */
+	public static final String DB_BATCH_SIZE_KEY = "dbBatchSize";
+
+	/** The key for determining how many measurements are saved to the
+	 * database between commits. */
+	public static final String DB_COMMIT_INTERVAL_KEY = "dbCommitInterval";
+
 	/** The key for determining the edge type - directed or undirected. */
 	public static final String EDGE_TYPE_KEY = "edgeType";
 	
@@ -89,6 +101,15 @@ public interface ParameterConstants {
 	 * nodes should be sized.
 	 * See nz.ac.vuw.ecs.kcassell.callgraph.ScoreType for acceptable values */
 	public static final String NODE_SIZING_KEY = "nodeSizing";
+
+	/** The key for determining how many threads may be used to calculate
+	 * distances and betweenness.  Zero or less means one per available
+	 * processor. */
+	public static final String PARALLELISM_KEY = "parallelism";
+
+	/** The key for determining how many requests may be made to a search
+	 * engine at once. */
+	public static final String WEB_CONNECTIONS_KEY = "webConnections";
 	
 	
 	////////// The keys for retrieving the parameters specifying which nodes
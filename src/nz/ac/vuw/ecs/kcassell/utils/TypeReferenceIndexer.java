@@ -0,0 +1,560 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.AnnotationTypeDeclaration;
+import org.eclipse.jdt.core.dom.AnnotationTypeMemberDeclaration;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.ClassInstanceCreation;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ConstructorInvocation;
+import org.eclipse.jdt.core.dom.EnumConstantDeclaration;
+import org.eclipse.jdt.core.dom.EnumDeclaration;
+import org.eclipse.jdt.core.dom.FieldDeclaration;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.IVariableBinding;
+import org.eclipse.jdt.core.dom.Initializer;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.MethodInvocation;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.core.dom.SuperConstructorInvocation;
+import org.eclipse.jdt.core.dom.SuperMethodInvocation;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.eclipse.jdt.core.search.IJavaSearchConstants;
+import org.eclipse.jdt.core.search.IJavaSearchScope;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.core.search.SearchMatch;
+import org.eclipse.jdt.core.search.SearchParticipant;
+import org.eclipse.jdt.core.search.SearchPattern;
+import org.eclipse.jdt.core.search.SearchRequestor;
+
+/**
+ * Finds the members that refer to (call or access) a set of target members,
+ * typically the methods and fields of one class.  Rather than issuing one
+ * workspace search per target, as
+ * {@link EclipseSearchUtils#calculateCallingMethods(IJavaElement, IJavaSearchScope)}
+ * does, the indexer walks the ASTs of the class's compilation unit once,
+ * resolving method invocations, constructor calls and field accesses in a
+ * single pass.  When callers outside that compilation unit are of interest,
+ * a single search is issued with an "or" pattern covering every target; it
+ * only identifies the compilation units to walk, and each of those is
+ * parsed once.<p>
+ * References from compiled code (class files without source) can not be
+ * walked and so are not reported.
+ * @author Keith Cassell
+ */
+public class TypeReferenceIndexer implements IJavaSearchConstants {
+
+	/** The level to parse at.  JLS3 is the newest level offered by
+	 * jdt.core 3.5, the oldest version this plug-in accepts; later
+	 * versions deprecate it but still parse Java 5 sources with it. */
+	@SuppressWarnings("deprecation")
+	private static final int AST_LEVEL = AST.JLS3;
+
+	/** The members whose referrers are being indexed. */
+	protected Set<IMember> targets = new LinkedHashSet<IMember>();
+
+	/**
+	 * The members that refer to a target. The key is a target member; the
+	 * value is the set of members (usually methods) whose code refers to it.
+	 */
+	protected Map<IMember, Set<IMember>> referrersMap =
+		new HashMap<IMember, Set<IMember>>();
+
+	/** The compilation units that have already been walked. */
+	protected Set<ICompilationUnit> walkedUnits =
+		new HashSet<ICompilationUnit>();
+
+	/** The number of workspace searches issued (for diagnostics). */
+	protected int searchCount = 0;
+
+	/** The number of search matches in code with no source to walk. */
+	protected int skippedMatchCount = 0;
+
+	protected static UtilLogger logger = new UtilLogger("TypeReferenceIndexer");
+
+	/**
+	 * @param targets the members whose referrers are sought
+	 */
+	public TypeReferenceIndexer(Collection<? extends IMember> targets) {
+		this.targets.addAll(targets);
+	}
+
+	/**
+	 * Finds the referrers of the targets.  The compilation unit containing
+	 * the type is always walked; other compilation units are walked only when
+	 * searchOutsideType is true, in which case they are located with a
+	 * single search of the scope.
+	 * @param type the class whose compilation unit is walked
+	 * @param scope only referrers enclosed by this scope are recorded
+	 * @param searchOutsideType whether to look for referrers outside
+	 *  the type's compilation unit
+	 * @throws CoreException
+	 */
+	public void indexReferences(IType type, IJavaSearchScope scope,
+			boolean searchOutsideType) throws CoreException {
+		ICompilationUnit unit = (type == null) ? null : type.getCompilationUnit();
+		if (unit != null) {
+			List<ICompilationUnit> units = new ArrayList<ICompilationUnit>();
+			units.add(unit);
+			walkUnits(units, scope);
+		}
+		if (searchOutsideType && !targets.isEmpty()) {
+			List<ICompilationUnit> units = findReferringUnits(scope);
+			walkUnits(units, scope);
+		}
+	}
+
+	/**
+	 * Issues one search for references to any of the targets and returns the
+	 * compilation units containing matches that have not been walked yet.
+	 * @param scope the scope of the search
+	 * @return the compilation units to walk, in the order first matched
+	 * @throws CoreException
+	 */
+	protected List<ICompilationUnit> findReferringUnits(IJavaSearchScope scope)
+	throws CoreException {
+		SearchPattern pattern = null;
+		for (IMember target : targets) {
+			SearchPattern targetPattern =
+				SearchPattern.createPattern(target, REFERENCES);
+			if (targetPattern != null) {
+				pattern = (pattern == null) ? targetPattern
+						: SearchPattern.createOrPattern(pattern, targetPattern);
+			}
+		}
+		final Set<ICompilationUnit> units =
+			new LinkedHashSet<ICompilationUnit>();
+		if (pattern != null) {
+			SearchRequestor requestor = new SearchRequestor() {
+				@Override
+				public void acceptSearchMatch(SearchMatch match) {
+					Object element = match.getElement();
+					if (element instanceof IJavaElement) {
+						ICompilationUnit unit = (ICompilationUnit)
+							((IJavaElement) element).getAncestor(
+									IJavaElement.COMPILATION_UNIT);
+						if (unit == null) {
+							skippedMatchCount++;
+						} else if (!walkedUnits.contains(unit)) {
+							units.add(unit);
+						}
+					}
+				}
+			};
+			SearchParticipant[] participants = new SearchParticipant[] {
+					SearchEngine.getDefaultSearchParticipant() };
+			new SearchEngine().search(pattern, participants, scope,
+					requestor, null);
+			searchCount++;
+		}
+		if (skippedMatchCount > 0) {
+			logger.fine(skippedMatchCount
+					+ " references found in code without source were skipped");
+		}
+		return new ArrayList<ICompilationUnit>(units);
+	}
+
+	/**
+	 * Parses the compilation units (a batch per project) with bindings and
+	 * records the references to the targets that they contain.
+	 * @param units the compilation units to walk
+	 * @param scope only referrers enclosed by this scope are recorded
+	 */
+	protected void walkUnits(List<ICompilationUnit> units,
+			final IJavaSearchScope scope) {
+		Map<IJavaProject, List<ICompilationUnit>> unitsByProject =
+			new LinkedHashMap<IJavaProject, List<ICompilationUnit>>();
+		for (ICompilationUnit unit : units) {
+			if (walkedUnits.add(unit)) {
+				IJavaProject project = unit.getJavaProject();
+				List<ICompilationUnit> projectUnits = unitsByProject.get(project);
+				if (projectUnits == null) {
+					projectUnits = new ArrayList<ICompilationUnit>();
+					unitsByProject.put(project, projectUnits);
+				}
+				projectUnits.add(unit);
+			}
+		}
+		for (Map.Entry<IJavaProject, List<ICompilationUnit>> entry :
+				unitsByProject.entrySet()) {
+			List<ICompilationUnit> projectUnits = entry.getValue();
+			ASTParser parser = ASTParser.newParser(AST_LEVEL);
+			parser.setProject(entry.getKey());
+			parser.setResolveBindings(true);
+			parser.setBindingsRecovery(true);
+			ASTRequestor requestor = new ASTRequestor() {
+				@Override
+				public void acceptAST(ICompilationUnit source,
+						CompilationUnit ast) {
+					ast.accept(new ReferenceVisitor(source, scope));
+				}
+			};
+			parser.createASTs(projectUnits.toArray(
+					new ICompilationUnit[projectUnits.size()]),
+					new String[0], requestor, null);
+		}
+	}
+
+	/**
+	 * Records that the referrer refers to the element, if the element is one
+	 * of the targets.
+	 */
+	protected void recordReference(IMember referrer, IJavaElement element) {
+		if (element != null && targets.contains(element)) {
+			IMember target = (IMember) element;
+			Set<IMember> referrers = referrersMap.get(target);
+			if (referrers == null) {
+				referrers = new HashSet<IMember>();
+				referrersMap.put(target, referrers);
+			}
+			referrers.add(referrer);
+		}
+	}
+
+	/**
+	 * @param target one of the targets
+	 * @return the members that refer to the target (possibly empty)
+	 */
+	public Set<IMember> getReferrers(IMember target) {
+		Set<IMember> referrers = referrersMap.get(target);
+		if (referrers == null) {
+			referrers = Collections.emptySet();
+		}
+		return referrers;
+	}
+
+	/**
+	 * @param target one of the targets
+	 * @return the methods that refer to the target (possibly empty). This
+	 * matches the results of EclipseSearchUtils.calculateCallingMethods.
+	 */
+	public Set<IMethod> getCallingMethods(IMember target) {
+		Set<IMethod> callers = new HashSet<IMethod>();
+		for (IMember referrer : getReferrers(target)) {
+			if (referrer instanceof IMethod) {
+				callers.add((IMethod) referrer);
+			}
+		}
+		return callers;
+	}
+
+	/**
+	 * @param target one of the targets
+	 * @return the handles of the classes that refer to the target, excluding
+	 * the target's class and its subclasses.  This matches the results of
+	 * EclipseSearchUtils.calculateCallingClasses.
+	 * @throws JavaModelException
+	 */
+	public Set<String> getCallingClasses(IMember target)
+	throws JavaModelException {
+		Set<String> clients = new HashSet<String>();
+		IType serverType = (IType) target.getAncestor(IJavaElement.TYPE);
+		for (IMember referrer : getReferrers(target)) {
+			IType typeElement = (IType) referrer.getAncestor(IJavaElement.TYPE);
+			if ((typeElement != null)
+					&& !typeElement.equals(serverType)
+					&& !EclipseSearchUtils.hasSupertype(typeElement, serverType)) {
+				clients.add(typeElement.getHandleIdentifier());
+			}
+		}
+		return clients;
+	}
+
+	/** @return the number of workspace searches issued so far. */
+	public int getSearchCount() {
+		return searchCount;
+	}
+
+	/** @return the number of compilation units walked so far. */
+	public int getWalkedUnitCount() {
+		return walkedUnits.size();
+	}
+
+	/**
+	 * Walks one compilation unit, keeping track of the innermost member
+	 * enclosing the current node, and records the references to targets.
+	 */
+	protected class ReferenceVisitor extends ASTVisitor {
+
+		/** The compilation unit being walked. */
+		protected ICompilationUnit unit;
+
+		/** Only referrers enclosed by this scope are recorded. */
+		protected IJavaSearchScope scope;
+
+		/**
+		 * The enclosing members, innermost first.  A null entry marks a
+		 * member that could not be resolved or that lies outside the scope.
+		 */
+		protected LinkedList<IMember> enclosingMembers =
+			new LinkedList<IMember>();
+
+		public ReferenceVisitor(ICompilationUnit unit, IJavaSearchScope scope) {
+			this.unit = unit;
+			this.scope = scope;
+		}
+
+		/**
+		 * Makes the member (or, if it is unknown, the member of the source
+		 * at the node's position) the innermost enclosing member.
+		 */
+		protected void enter(IJavaElement element, ASTNode node) {
+			if (!(element instanceof IMember)) {
+				try {
+					element = unit.getElementAt(node.getStartPosition());
+				} catch (JavaModelException e) {
+					element = null;
+				}
+			}
+			IMember member = null;
+			if (element instanceof IMember && scope.encloses(element)) {
+				member = (IMember) element;
+			}
+			enclosingMembers.addFirst(member);
+		}
+
+		protected void exit() {
+			enclosingMembers.removeFirst();
+		}
+
+		protected void reference(IBinding binding) {
+			IMember referrer = enclosingMembers.peek();
+			if (referrer != null && binding != null) {
+				IJavaElement element = null;
+				if (binding instanceof IMethodBinding) {
+					element = ((IMethodBinding) binding).getMethodDeclaration()
+						.getJavaElement();
+				} else if (binding instanceof IVariableBinding) {
+					element = ((IVariableBinding) binding)
+						.getVariableDeclaration().getJavaElement();
+				}
+				recordReference(referrer, element);
+			}
+		}
+
+		private IJavaElement typeElement(ITypeBinding binding) {
+			return (binding == null) ? null : binding.getJavaElement();
+		}
+
+		private IJavaElement methodElement(IMethodBinding binding) {
+			return (binding == null) ? null : binding.getJavaElement();
+		}
+
+		private IJavaElement typeElement(AbstractTypeDeclaration node) {
+			return typeElement(node.resolveBinding());
+		}
+
+		@Override
+		public boolean visit(TypeDeclaration node) {
+			enter(typeElement(node), node);
+			return true;
+		}
+
+		@Override
+		public void endVisit(TypeDeclaration node) {
+			exit();
+		}
+
+		@Override
+		public boolean visit(EnumDeclaration node) {
+			enter(typeElement(node), node);
+			return true;
+		}
+
+		@Override
+		public void endVisit(EnumDeclaration node) {
+			exit();
+		}
+
+		@Override
+		public boolean visit(AnnotationTypeDeclaration node) {
+			enter(typeElement(node), node);
+			return true;
+		}
+
+		@Override
+		public void endVisit(AnnotationTypeDeclaration node) {
+			exit();
+		}
+
+		@Override
+		public boolean visit(AnonymousClassDeclaration node) {
+			enter(typeElement(node.resolveBinding()), node);
+			return true;
+		}
+
+		@Override
+		public void endVisit(AnonymousClassDeclaration node) {
+			exit();
+		}
+
+		@Override
+		public boolean visit(MethodDeclaration node) {
+			enter(methodElement(node.resolveBinding()), node);
+			return true;
+		}
+
+		@Override
+		public void endVisit(MethodDeclaration node) {
+			exit();
+		}
+
+		@Override
+		public boolean visit(AnnotationTypeMemberDeclaration node) {
+			enter(methodElement(node.resolveBinding()), node);
+			return true;
+		}
+
+		@Override
+		public void endVisit(AnnotationTypeMemberDeclaration node) {
+			exit();
+		}
+
+		@Override
+		public boolean visit(Initializer node) {
+			enter(null, node);
+			return true;
+		}
+
+		@Override
+		public void endVisit(Initializer node) {
+			exit();
+		}
+
+		/** Each field in a declaration is the referrer for its initializer. */
+		@Override
+		public boolean visit(VariableDeclarationFragment node) {
+			if (node.getParent() instanceof FieldDeclaration) {
+				IVariableBinding binding = node.resolveBinding();
+				enter((binding == null) ? null : binding.getJavaElement(), node);
+			}
+			return true;
+		}
+
+		@Override
+		public void endVisit(VariableDeclarationFragment node) {
+			if (node.getParent() instanceof FieldDeclaration) {
+				exit();
+			}
+		}
+
+		@Override
+		public boolean visit(EnumConstantDeclaration node) {
+			IVariableBinding binding = node.resolveVariable();
+			enter((binding == null) ? null : binding.getJavaElement(), node);
+			reference(node.resolveConstructorBinding());
+			return true;
+		}
+
+		@Override
+		public void endVisit(EnumConstantDeclaration node) {
+			exit();
+		}
+
+		@Override
+		public boolean visit(MethodInvocation node) {
+			reference(node.resolveMethodBinding());
+			return true;
+		}
+
+		@Override
+		public boolean visit(SuperMethodInvocation node) {
+			reference(node.resolveMethodBinding());
+			return true;
+		}
+
+		@Override
+		public boolean visit(ClassInstanceCreation node) {
+			reference(node.resolveConstructorBinding());
+			return true;
+		}
+
+		@Override
+		public boolean visit(ConstructorInvocation node) {
+			reference(node.resolveConstructorBinding());
+			return true;
+		}
+
+		@Override
+		public boolean visit(SuperConstructorInvocation node) {
+			reference(node.resolveConstructorBinding());
+			return true;
+		}
+
+		/** Field reads and writes, qualified or not. */
+		@Override
+		public boolean visit(SimpleName node) {
+			if (!node.isDeclaration()) {
+				IBinding binding = node.resolveBinding();
+				if (binding instanceof IVariableBinding
+						&& ((IVariableBinding) binding).isField()) {
+					reference(binding);
+				}
+			}
+			return true;
+		}
+	}	// class ReferenceVisitor
+
+}
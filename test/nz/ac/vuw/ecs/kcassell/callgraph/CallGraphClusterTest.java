@@ -104,4 +104,43 @@ public class CallGraphClusterTest extends TestCase {
         assertTrue(indexNode2 > indexNode3);
     }
 
+    @Test
+    public void testElementsShared()
+    {
+        CallGraphNode node1 = new CallGraphNode();
+        node1.setScore(ScoreType.BASIC, 1.0);
+        CallGraphNode node2 = new CallGraphNode();
+        node2.setScore(ScoreType.BASIC, 2.0);
+        CallGraphNode node3 = new CallGraphNode();
+        node3.setScore(ScoreType.BASIC, 3.0);
+        Vector<CallGraphNode> nodeVec = new Vector<CallGraphNode>();
+        nodeVec.add(node1);
+        nodeVec.add(node2);
+        CallGraphCluster inner = new CallGraphCluster(nodeVec);
+        nodeVec = new Vector<CallGraphNode>();
+        nodeVec.add(inner);
+        nodeVec.add(node3);
+        CallGraphCluster outer = new CallGraphCluster(nodeVec);
+
+        SortedSet<CallGraphNode> nodes = outer.getElements();
+        assertEquals(3, outer.getElementCount());
+        assertEquals(3, nodes.size());
+        assertSame(nodes, outer.getElements());
+        assertEquals(node3, nodes.first());
+        try {
+            nodes.remove(node3);
+            fail("The shared elements should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // A new ordering rebuilds the elements
+    	ScoreComparator comparator = new ScoreComparator(); // lowest first
+    	comparator.setScoreBeingCompared(ScoreType.BASIC);
+		CallGraphCluster.setComparator(comparator);
+        nodes = outer.getElements();
+        assertEquals(node1, nodes.first());
+        assertEquals(node3, nodes.last());
+    }
+
 }
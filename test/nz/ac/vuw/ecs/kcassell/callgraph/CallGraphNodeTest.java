@@ -48,6 +48,29 @@ public class CallGraphNodeTest extends TestCase {
 		assertNull(score);
 	}
 
+	@Test
+	public void testScoreValue() {
+		CallGraphNode node = new CallGraphNode();
+		assertFalse(node.hasScore(ScoreType.HUB));
+		assertTrue(Double.isNaN(node.getScoreValue(ScoreType.HUB)));
+		assertNull(node.getScore(ScoreType.HUB));
+		node.setScore(ScoreType.HUB, 0.5);
+		assertTrue(node.hasScore(ScoreType.HUB));
+		assertEquals(0.5, node.getScoreValue(ScoreType.HUB));
+		assertEquals(0.5, node.getScore(ScoreType.HUB));
+		// A NaN score is still a score
+		node.setScore(ScoreType.CENTRALITY, CallGraphNode.UNKNOWN_SCORE);
+		assertTrue(node.hasScore(ScoreType.CENTRALITY));
+		node.setScore(ScoreType.CENTRALITY, (Number) null);
+		assertFalse(node.hasScore(ScoreType.CENTRALITY));
+		// Ad hoc score types go beside the slotted ones
+		node.setScore("A", 2);
+		assertEquals(2.0, node.getScoreValue("A"));
+		assertEquals(2, node.getScoreTypes().size());
+		assertTrue(node.getScoreTypes().contains("A"));
+		assertTrue(node.getScoreTypes().contains(ScoreType.HUB));
+	}
+
 	@Test
 	public void testUserData() {
 		CallGraphNode node = new CallGraphNode();
@@ -0,0 +1,179 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.callgraph.algorithm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.CompactGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.ScoreType;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.algorithms.importance.BetweennessCentrality;
+import edu.uci.ics.jung.graph.DirectedSparseMultigraph;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.UndirectedSparseMultigraph;
+
+public class BrandesBetweennessTest extends TestCase {
+
+	@Test
+	public void testCompactGraph() {
+		Graph<Integer, Integer> graph =
+			new DirectedSparseMultigraph<Integer, Integer>();
+		graph.addEdge(0, 0, 1);
+		graph.addEdge(1, 0, 1);	// parallel
+		graph.addEdge(2, 1, 2);
+		graph.addEdge(3, 2, 2);	// self loop
+		CompactGraph<Integer, Integer> arcs =
+			new CompactGraph<Integer, Integer>(graph);
+		int v0 = arcs.getVertexIndex(0);
+		int[] offsets = arcs.getArcOffsets();
+		assertEquals(2, offsets[v0 + 1] - offsets[v0]);
+		assertEquals(4, arcs.getArcTargets().length);
+
+		CompactGraph<Integer, Integer> successors =
+			new CompactGraph<Integer, Integer>(graph, true,
+					Collections.singleton(2));
+		assertEquals(3, successors.getEdgeCount());
+		assertEquals(-1, successors.getEdgeIndex(2));
+		offsets = successors.getArcOffsets();
+		v0 = successors.getVertexIndex(0);
+		assertEquals(1, offsets[v0 + 1] - offsets[v0]);
+		int v2 = successors.getVertexIndex(2);
+		assertEquals(1, offsets[v2 + 1] - offsets[v2]);
+		assertEquals(v2, successors.getArcTargets()[offsets[v2]]);
+	}
+
+	@Test
+	public void testDirectedAgainstJung() {
+		Random random = new Random(17);
+		for (int trial = 0; trial < 10; trial++) {
+			Graph<Integer, Integer> graph =
+				new DirectedSparseMultigraph<Integer, Integer>();
+			fillRandomly(graph, random, 5 + random.nextInt(200));
+			checkAgainstJung(graph);
+		}
+	}
+
+	@Test
+	public void testUndirectedAgainstJung() {
+		Random random = new Random(19);
+		for (int trial = 0; trial < 10; trial++) {
+			Graph<Integer, Integer> graph =
+				new UndirectedSparseMultigraph<Integer, Integer>();
+			fillRandomly(graph, random, 5 + random.nextInt(200));
+			checkAgainstJung(graph);
+		}
+	}
+
+	@Test
+	public void testCopyScores() {
+		JavaCallGraph callGraph = new JavaCallGraph();
+		List<CallGraphNode> nodes = new ArrayList<CallGraphNode>();
+		for (int i = 0; i < 4; i++) {
+			nodes.add(callGraph.createNode("N" + i));
+		}
+		CallGraphLink link01 = callGraph.createLink(nodes.get(0), nodes.get(1));
+		CallGraphLink link12 = callGraph.createLink(nodes.get(1), nodes.get(2));
+		CallGraphLink link23 = callGraph.createLink(nodes.get(2), nodes.get(3));
+		CompactGraph<CallGraphNode, CallGraphLink> snapshot =
+			new CompactGraph<CallGraphNode, CallGraphLink>(
+					callGraph.getJungGraph(), true,
+					Collections.<CallGraphLink>emptySet());
+		BrandesBetweenness ranker = new BrandesBetweenness(snapshot);
+		ranker.calculate(1);
+		ranker.copyScoresTo(snapshot);
+		BetweennessCentrality<CallGraphNode, CallGraphLink> jung =
+			new BetweennessCentrality<CallGraphNode, CallGraphLink>(
+					callGraph.getJungGraph(), true, true);
+		jung.setRemoveRankScoresOnFinalize(false);
+		jung.evaluate();
+		for (CallGraphLink link : new CallGraphLink[] {link01, link12, link23}) {
+			assertEquals(jung.getEdgeRankScore(link),
+					link.getWeight().doubleValue(), 1e-9);
+		}
+		for (CallGraphNode node : nodes) {
+			assertEquals(jung.getVertexRankScore(node),
+					node.getScore(ScoreType.CENTRALITY).doubleValue(), 1e-9);
+		}
+	}
+
+	private void fillRandomly(Graph<Integer, Integer> graph, Random random,
+			int numVertices) {
+		for (int v = 0; v < numVertices; v++) {
+			graph.addVertex(v);
+		}
+		int numEdges = random.nextInt(3 * numVertices);
+		for (int e = 0; e < numEdges; e++) {
+			graph.addEdge(e, random.nextInt(numVertices),
+					random.nextInt(numVertices));
+		}
+	}
+
+	/**
+	 * Successor arcs should give the values of JUNG's importance
+	 * BetweennessCentrality, on one thread or several.
+	 */
+	private void checkAgainstJung(Graph<Integer, Integer> graph) {
+		BetweennessCentrality<Integer, Integer> jung =
+			new BetweennessCentrality<Integer, Integer>(graph, true, true);
+		jung.setRemoveRankScoresOnFinalize(false);
+		jung.evaluate();
+		CompactGraph<Integer, Integer> snapshot =
+			new CompactGraph<Integer, Integer>(graph, true,
+					Collections.<Integer>emptySet());
+
+		for (int parallelism = 1; parallelism <= 4; parallelism += 3) {
+			BrandesBetweenness ranker = new BrandesBetweenness(snapshot);
+			ranker.calculate(parallelism);
+			for (Integer edge : graph.getEdges()) {
+				assertEquals(jung.getEdgeRankScore(edge),
+						ranker.getEdgeScores()[snapshot.getEdgeIndex(edge)],
+						1e-9);
+			}
+			for (Integer vertex : graph.getVertices()) {
+				assertEquals(jung.getVertexRankScore(vertex),
+						ranker.getVertexScores()[snapshot.getVertexIndex(vertex)],
+						1e-9);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.callgraph.algorithm;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.GraphCondenser;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+public class CycleCalculatorTest extends TestCase {
+
+	/**
+	 * a -> b -> c -> a, c -> d, d -> d, e
+	 */
+	private JavaCallGraph createGraph() {
+		JavaCallGraph graph = new JavaCallGraph();
+		graph.setDefaultEdgeType(EdgeType.DIRECTED);
+		CallGraphNode a = graph.createNode("a");
+		CallGraphNode b = graph.createNode("b");
+		CallGraphNode c = graph.createNode("c");
+		CallGraphNode d = graph.createNode("d");
+		graph.createNode("e");
+		graph.createLink(a, b);
+		graph.createLink(b, c);
+		graph.createLink(c, a);
+		graph.createLink(c, d);
+		graph.createLink(d, d);
+		return graph;
+	}
+
+	@Test
+	public void testGetStronglyConnectedComponents() {
+		JavaCallGraph graph = createGraph();
+		CycleCalculator calc = new CycleCalculator();
+		Set<CallGraphCluster> clusters =
+			calc.getStronglyConnectedComponents(graph.getJungGraph());
+		assertEquals(3, clusters.size());
+		for (CallGraphCluster cluster : clusters) {
+			Set<CallGraphNode> elements = cluster.getElements();
+			if (elements.contains(graph.getNode("a"))) {
+				assertEquals(3, elements.size());
+				assertTrue(elements.contains(graph.getNode("c")));
+			} else {
+				assertEquals(1, elements.size());
+			}
+		}
+		assertTrue(calc.containsCycles(graph.getJungGraph()));
+		assertTrue(calc.containsMultinodeCycles(graph.getJungGraph()));
+
+		JavaCallGraph dag = GraphCondenser.toDAG(graph);
+		assertEquals(3, dag.getNodes().size());
+		assertFalse(calc.containsCycles(dag.getJungGraph()));
+	}
+
+	@Test
+	public void testSelfLoop() {
+		JavaCallGraph graph = new JavaCallGraph();
+		graph.setDefaultEdgeType(EdgeType.DIRECTED);
+		CallGraphNode a = graph.createNode("a");
+		CallGraphNode b = graph.createNode("b");
+		graph.createLink(a, b);
+		CycleCalculator calc = new CycleCalculator();
+		assertFalse(calc.containsCycles(graph.getJungGraph()));
+		graph.createLink(b, b);
+		assertTrue(calc.containsCycles(graph.getJungGraph()));
+		assertFalse(calc.containsMultinodeCycles(graph.getJungGraph()));
+	}
+
+	/**
+	 * A long call chain would overflow the stack of a recursive search.
+	 */
+	@Test
+	public void testLongChain() {
+		int numNodes = 200000;
+		int[] arcOffsets = new int[numNodes + 1];
+		int[] arcTargets = new int[numNodes];
+		for (int v = 0; v < numNodes; v++) {
+			arcOffsets[v] = v;
+			arcTargets[v] = (v + 1) % numNodes;
+		}
+		arcOffsets[numNodes] = numNodes;
+		int[] components = new int[numNodes];
+		assertEquals(1, CycleCalculator.findComponents(arcOffsets, arcTargets,
+				components));
+
+		// Without the arc back to the start, every node is on its own
+		arcOffsets[numNodes] = numNodes - 1;
+		arcOffsets[numNodes - 1] = numNodes - 1;
+		assertEquals(numNodes, CycleCalculator.findComponents(arcOffsets,
+				arcTargets, components));
+		// Components are completed in reverse topological order
+		assertEquals(0, components[numNodes - 1]);
+		assertEquals(numNodes - 1, components[0]);
+	}
+
+	/**
+	 * Checks that nodes share a component exactly when each can
+	 * reach the other.
+	 */
+	@Test
+	public void testAgainstReachability() {
+		Random random = new Random(7);
+		int numNodes = 40;
+		for (int trial = 0; trial < 20; trial++) {
+			boolean[][] reaches = new boolean[numNodes][numNodes];
+			int numArcs = random.nextInt(2 * numNodes);
+			int[] arcOffsets = new int[numNodes + 1];
+			int[] arcTargets = new int[numArcs];
+			int[] sources = new int[numArcs];
+			for (int arc = 0; arc < numArcs; arc++) {
+				sources[arc] = random.nextInt(numNodes);
+			}
+			Arrays.sort(sources);
+			for (int arc = 0; arc < numArcs; arc++) {
+				arcTargets[arc] = random.nextInt(numNodes);
+				arcOffsets[sources[arc] + 1]++;
+				reaches[sources[arc]][arcTargets[arc]] = true;
+			}
+			for (int v = 0; v < numNodes; v++) {
+				arcOffsets[v + 1] += arcOffsets[v];
+				reaches[v][v] = true;
+			}
+			// Floyd-Warshall transitive closure
+			for (int k = 0; k < numNodes; k++) {
+				for (int i = 0; i < numNodes; i++) {
+					for (int j = 0; j < numNodes; j++) {
+						reaches[i][j] |= reaches[i][k] && reaches[k][j];
+					}
+				}
+			}
+			int[] components = new int[numNodes];
+			CycleCalculator.findComponents(arcOffsets, arcTargets, components);
+			for (int i = 0; i < numNodes; i++) {
+				for (int j = 0; j < numNodes; j++) {
+					assertEquals(reaches[i][j] && reaches[j][i],
+							components[i] == components[j]);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.callgraph.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.NodeType;
+import nz.ac.vuw.ecs.kcassell.callgraph.ScoreType;
+
+import org.eclipse.jdt.core.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+public class CallGraphCacheTest extends TestCase {
+
+	private static final String HANDLE = "=Proj/src<pkg{Server.java[Server";
+	private static final String SOURCE_PATH = "/Proj/src/pkg/Server.java";
+
+	/**
+	 * A cache whose "resources" are strings held in a map, so that it can
+	 * be exercised without a workspace.
+	 */
+	private static class MapCache extends CallGraphCache {
+		HashMap<String, String> contents = new HashMap<String, String>();
+		boolean tracking = false;
+
+		MapCache(String cacheDir) {
+			super(cacheDir);
+			contents.put(SOURCE_PATH, "class Server {}");
+		}
+
+		@Override
+		protected List<String> getDependencies(JavaCallGraph graph) {
+			List<String> paths = new ArrayList<String>();
+			paths.add(SOURCE_PATH);
+			return paths;
+		}
+
+		@Override
+		protected byte[] hashResource(String path) throws IOException {
+			String content = contents.get(path);
+			return (content == null) ? new byte[0] : digest(toBytes(content));
+		}
+
+		@Override
+		protected boolean isTrackingChanges() {
+			return tracking;
+		}
+	}
+
+	protected File cacheDir = null;
+	protected MapCache cache = null;
+
+	@Before
+	public void setUp() throws Exception {
+		cacheDir = File.createTempFile("CallGraphCacheTest", "");
+		cacheDir.delete();
+		cache = new MapCache(cacheDir.getPath());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cache.clear();
+		cacheDir.delete();
+	}
+
+	private JavaCallGraph createGraph() {
+		JavaCallGraph graph = new JavaCallGraph();
+		graph.setHandle(HANDLE);
+		graph.setDefaultEdgeType(EdgeType.DIRECTED);
+		CallGraphNode method = graph.createNode(HANDLE + "~run");
+		method.setSimpleName("run");
+		method.setNodeType(NodeType.METHOD);
+		method.setMemberFlags(Flags.AccPublic);
+		method.setScore(ScoreType.BASIC, 2.5);
+		method.setScore(ScoreType.INDEGREE, 3);
+		method.setScore(ScoreType.MCCABE, Integer.valueOf(4));
+		CallGraphNode field = graph.createNode(HANDLE + "^count");
+		field.setSimpleName("count");
+		field.setNodeType(NodeType.FIELD);
+		field.setMemberFlags(Flags.AccPrivate | Flags.AccStatic);
+		field.setInherited(true);
+		CallGraphNode inner = graph.createNode(HANDLE + "[Inner~go");
+		inner.setInner(true);
+		graph.createLink(method, field);
+		CallGraphLink link = graph.createLink(inner, method);
+		link.setWeight(ScoreType.BASIC, 0.25);
+		return graph;
+	}
+
+	private JavaCallGraph emptyGraph(EdgeType edgeType) {
+		JavaCallGraph graph = new JavaCallGraph();
+		graph.setHandle(HANDLE);
+		graph.setDefaultEdgeType(edgeType);
+		return graph;
+	}
+
+	private void assertSameGraph(JavaCallGraph expected, JavaCallGraph actual) {
+		assertEquals(expected.getNodes().size(), actual.getNodes().size());
+		for (CallGraphNode node : expected.getNodes()) {
+			CallGraphNode copy = actual.getNode(node.getLabel());
+			assertNotNull(node.getLabel(), copy);
+			assertEquals(node.getSimpleName(), copy.getSimpleName());
+			assertEquals(node.getNodeType(), copy.getNodeType());
+			assertEquals(node.getMemberFlags(), copy.getMemberFlags());
+			assertEquals(node.isInherited(), copy.isInherited());
+			assertEquals(node.isInner(), copy.isInner());
+			assertEquals(node.getScoreTypes(), copy.getScoreTypes());
+			for (String scoreType : node.getScoreTypes()) {
+				assertEquals(node.getScore(scoreType), copy.getScore(scoreType));
+			}
+		}
+		assertEquals(expected.getEdges().size(), actual.getEdges().size());
+		for (CallGraphLink link : expected.getEdges()) {
+			CallGraphNode source = actual.getNode(
+					expected.getEndpoints(link).getFirst().getLabel());
+			CallGraphNode dest = actual.getNode(
+					expected.getEndpoints(link).getSecond().getLabel());
+			CallGraphLink copy = actual.findLink(source, dest);
+			assertNotNull(link.getLabel(), copy);
+			assertEquals(EdgeType.DIRECTED,
+					actual.getJungGraph().getEdgeType(copy));
+			assertEquals(link.getWeight(ScoreType.BASIC),
+					copy.getWeight(ScoreType.BASIC));
+		}
+	}
+
+	@Test
+	public void testEncodeDecode() throws IOException {
+		JavaCallGraph graph = createGraph();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CallGraphCache.encode(graph, new DataOutputStream(bytes));
+		JavaCallGraph copy = emptyGraph(EdgeType.DIRECTED);
+		CallGraphCache.decode(new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())), copy);
+		assertSameGraph(graph, copy);
+		CallGraphNode node = copy.getNode(HANDLE + "~run");
+		// Slotted scores are held as doubles; others keep their type
+		assertEquals(Double.valueOf(3.0), node.getScore(ScoreType.INDEGREE));
+		assertEquals(Integer.valueOf(4), node.getScore(ScoreType.MCCABE));
+		// Directed edges go one way only
+		assertNull(copy.findLink(copy.getNode(HANDLE + "^count"), node));
+	}
+
+	@Test
+	public void testStoreAndLoad() {
+		JavaCallGraph graph = createGraph();
+		assertFalse(cache.load(emptyGraph(EdgeType.DIRECTED)));
+		cache.store(graph);
+
+		JavaCallGraph copy = emptyGraph(EdgeType.DIRECTED);
+		assertTrue(cache.load(copy));
+		assertSameGraph(graph, copy);
+
+		// A fresh cache (e.g. after a restart) reads the file
+		MapCache restarted = new MapCache(cacheDir.getPath());
+		copy = emptyGraph(EdgeType.DIRECTED);
+		assertTrue(restarted.load(copy));
+		assertSameGraph(graph, copy);
+
+		// The edge type is part of the key
+		assertFalse(cache.load(emptyGraph(EdgeType.UNDIRECTED)));
+	}
+
+	@Test
+	public void testChangedSource() {
+		cache.store(createGraph());
+		cache.contents.put(SOURCE_PATH, "class Server { int count; }");
+		assertFalse(cache.load(emptyGraph(EdgeType.DIRECTED)));
+
+		// Changing the source back doesn't help; the stale file was removed
+		cache.contents.put(SOURCE_PATH, "class Server {}");
+		assertFalse(cache.load(emptyGraph(EdgeType.DIRECTED)));
+	}
+
+	@Test
+	public void testInvalidate() {
+		cache.tracking = true;
+		cache.store(createGraph());
+		// While tracking changes, loads come from memory without hashing
+		cache.contents.remove(SOURCE_PATH);
+		assertTrue(cache.load(emptyGraph(EdgeType.DIRECTED)));
+
+		cache.invalidate("/Proj/src/pkg/Other.java");
+		assertTrue(cache.load(emptyGraph(EdgeType.DIRECTED)));
+
+		// The file is kept, so a change that made no difference is only
+		// hashed again
+		cache.contents.put(SOURCE_PATH, "class Server {}");
+		cache.invalidate(SOURCE_PATH);
+		assertTrue(cache.load(emptyGraph(EdgeType.DIRECTED)));
+
+		cache.contents.remove(SOURCE_PATH);
+		cache.invalidate(SOURCE_PATH);
+		assertFalse(cache.load(emptyGraph(EdgeType.DIRECTED)));
+	}
+}
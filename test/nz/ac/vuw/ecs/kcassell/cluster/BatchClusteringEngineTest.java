@@ -0,0 +1,269 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.cluster.BatchClusteringEngine.BatchClusteringListener;
+import nz.ac.vuw.ecs.kcassell.cluster.BatchClusteringEngine.Configuration;
+import nz.ac.vuw.ecs.kcassell.cluster.LanceWilliamsClustererTest.TableCalculator;
+import nz.ac.vuw.ecs.kcassell.similarity.ClustererEnum;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
+
+import org.junit.Test;
+
+public class BatchClusteringEngineTest extends TestCase {
+
+	private static final int NUM_CLASSES = 7;
+
+	private static final String FAILING_CLASS = "Class3";
+
+	private static final String[] LINKAGES = {
+		ClusterCombinationEnum.SINGLE_LINK.toString(),
+		ClusterCombinationEnum.AVERAGE_LINK.toString(),
+		ClusterCombinationEnum.COMPLETE_LINK.toString()
+	};
+
+	/**
+	 * Clusters tables of random distances instead of the members of
+	 * real classes.  The table used for a class depends on its number.
+	 */
+	private static class TableEngine extends BatchClusteringEngine {
+		AtomicInteger calculatorsCreated = new AtomicInteger();
+		AtomicInteger matricesBuilt = new AtomicInteger();
+
+		TableEngine(List<Configuration> configurations, String outputDir,
+				int parallelism) {
+			super(configurations, outputDir, parallelism);
+		}
+
+		protected JavaCallGraph buildCallGraph(String classHandle) {
+			return null;
+		}
+
+		protected DistanceCalculatorIfc<String> createCalculator(
+				DistanceCalculatorEnum calcEnum, String handle,
+				JavaCallGraph callGraph) {
+			if (FAILING_CLASS.equals(handle)) {
+				throw new IllegalStateException("No calculator for " + handle);
+			}
+			calculatorsCreated.incrementAndGet();
+			return createTable(handle);
+		}
+
+		protected List<String> getMemberIdentifiers(String handle,
+				DistanceCalculatorIfc<String> calc) {
+			matricesBuilt.incrementAndGet();
+			return LanceWilliamsClustererTest.createNames();
+		}
+
+		protected String getClassName(String handle) {
+			return handle;
+		}
+	}
+
+	/** Records what the engine reports. */
+	private static class RecordingListener implements BatchClusteringListener {
+		List<Integer> indices = new ArrayList<Integer>();
+		List<String> failures = new ArrayList<String>();
+
+		public void classClustered(int classIndex, String handle,
+				String report) {
+			indices.add(classIndex);
+		}
+
+		public void clusteringFailed(String handle,
+				Configuration configuration, Exception e) {
+			failures.add(handle + configuration.getName());
+		}
+	}
+
+	private File directory = null;
+
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("extc", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	protected void tearDown() {
+		File dendrograms = new File(directory, "Dendrograms");
+		if (dendrograms.exists()) {
+			for (File file : dendrograms.listFiles()) {
+				file.delete();
+			}
+		}
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static TableCalculator createTable(String handle) {
+		long seed = Long.parseLong(handle.substring("Class".length()));
+		return new TableCalculator(LanceWilliamsClustererTest.createNames(),
+				seed, 0);
+	}
+
+	private static List<String> createHandles() {
+		List<String> handles = new ArrayList<String>();
+		for (int i = 0; i < NUM_CLASSES; i++) {
+			handles.add("Class" + i);
+		}
+		return handles;
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	private TableEngine runEngine(RecordingListener listener)
+	throws IOException {
+		String[] clusterers = { ClustererEnum.AGGLOMERATIVE.toString(),
+				ClustererEnum.NEAREST_NEIGHBOR_CHAIN.toString() };
+		String[] calculators = { DistanceCalculatorEnum.Simon.toString() };
+		List<Configuration> configurations =
+			BatchClusteringEngine.createConfigurations(clusterers,
+					calculators, LINKAGES);
+		TableEngine engine = new TableEngine(configurations,
+				directory.getPath() + File.separator, 3);
+		engine.run(createHandles(), listener);
+		return engine;
+	}
+
+	/**
+	 * The rows and dendrograms should be those of the clusterers run
+	 * directly, in the order of the classes.
+	 */
+	@Test
+	public void testResultsMatchClusterer() throws IOException {
+		runEngine(new RecordingListener());
+		List<String> names = LanceWilliamsClustererTest.createNames();
+
+		for (String linkage : LINKAGES) {
+			String name = ClustererEnum.AGGLOMERATIVE.toString()
+				+ DistanceCalculatorEnum.Simon + linkage;
+			List<String> counts =
+				readLines(new File(directory, name + "Counts.csv"));
+			List<String> sizes =
+				readLines(new File(directory, name + "Sizes.csv"));
+			assertEquals(NUM_CLASSES, counts.size());
+			assertEquals(NUM_CLASSES, sizes.size());
+			assertEquals(BatchClusteringEngine.getCsvHeader().trim(),
+					counts.get(0));
+			int row = 1;
+
+			for (String handle : createHandles()) {
+				if (!FAILING_CLASS.equals(handle)) {
+					MatrixBasedAgglomerativeClusterer clusterer =
+						new MatrixBasedAgglomerativeClusterer(names,
+								createTable(handle), linkage);
+					MemberCluster cluster = clusterer.getSingleCluster();
+					StringBuffer countRow = new StringBuffer(handle);
+					StringBuffer sizeRow = new StringBuffer(handle);
+					for (double distance : BatchClusteringEngine.CUT_DISTANCES) {
+						ArrayList<Object> clusters =
+							cluster.getClustersAtDistance(distance);
+						countRow.append(BatchClusteringEngine.CSV_SEP)
+							.append(clusters.size());
+						sizeRow.append(BatchClusteringEngine.CSV_SEP).append(
+								MemberCluster.clusterSizesToString(clusters));
+					}
+					assertEquals(countRow.toString(), counts.get(row));
+					assertEquals(sizeRow.toString(), sizes.get(row));
+					row++;
+
+					File tree = new File(directory,
+							"Dendrograms/" + handle + name + ".tree");
+					StringBuffer newick = new StringBuffer();
+					for (String line : readLines(tree)) {
+						newick.append(line).append("\n");
+					}
+					assertEquals(cluster.toNewickString().trim(),
+							newick.toString().trim());
+				}
+			}
+		}
+	}
+
+	/**
+	 * A class that can't be clustered should be reported without
+	 * stopping the others, and every class reported in order.
+	 */
+	@Test
+	public void testOrderAndFailures() throws IOException {
+		RecordingListener listener = new RecordingListener();
+		runEngine(listener);
+		assertEquals(NUM_CLASSES, listener.indices.size());
+		for (int i = 0; i < NUM_CLASSES; i++) {
+			assertEquals(i, listener.indices.get(i).intValue());
+		}
+		assertEquals(2 * LINKAGES.length, listener.failures.size());
+		for (String failure : listener.failures) {
+			assertTrue(failure.startsWith(FAILING_CLASS));
+		}
+	}
+
+	/**
+	 * Each class should get one calculator, and one matrix for each
+	 * treatment of unknown distances (single link differs from the
+	 * others), however many clusterers and linkages use them.
+	 */
+	@Test
+	public void testMatricesShared() throws IOException {
+		TableEngine engine = runEngine(new RecordingListener());
+		int numClustered = NUM_CLASSES - 1;
+		assertEquals(numClustered, engine.calculatorsCreated.get());
+		assertEquals(2 * numClustered, engine.matricesBuilt.get());
+	}
+
+}
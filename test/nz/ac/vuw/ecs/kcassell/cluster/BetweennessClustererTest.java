@@ -0,0 +1,103 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+public class BetweennessClustererTest extends TestCase {
+
+	/**
+	 * On a multigraph, the edge weights written after the clusterer's own
+	 * latest removal must match those recalculated for the same removals.
+	 */
+	@Test
+	public void testParallelEdgeWeights() {
+		JavaCallGraph callGraph = new JavaCallGraph();
+		callGraph.setHandle("=Test/src<p{Multi.java[Multi");
+		callGraph.setDefaultEdgeType(EdgeType.DIRECTED);
+		CallGraphNode a = callGraph.createNode("a");
+		CallGraphNode b = callGraph.createNode("b");
+		CallGraphNode c = callGraph.createNode("c");
+		CallGraphNode d = callGraph.createNode("d");
+		CallGraphNode e = callGraph.createNode("e");
+		callGraph.createLink(a, b);
+		callGraph.createLink(a, b);
+		callGraph.createLink(b, c);
+		callGraph.createLink(c, a);
+		callGraph.createLink(c, d);
+		callGraph.createLink(c, d);
+		callGraph.createLink(d, e);
+		callGraph.createLink(e, c);
+		BetweennessClusterer clusterer = new BetweennessClusterer(callGraph);
+
+		clusterer.cluster(1);
+		List<CallGraphLink> removed = clusterer.getEdgesRemoved();
+		Map<CallGraphLink, Double> copied = getWeights(callGraph, removed);
+
+		// Going back to fewer removals takes the recalculation path
+		clusterer.cluster(2);
+		clusterer.cluster(1);
+		assertEquals(removed, clusterer.getEdgesRemoved());
+		Map<CallGraphLink, Double> recalculated =
+			getWeights(callGraph, removed);
+		assertEquals(copied.size(), recalculated.size());
+		for (CallGraphLink link : copied.keySet()) {
+			assertEquals(link.getLabel(), copied.get(link),
+					recalculated.get(link), 1e-9);
+		}
+	}
+
+	private Map<CallGraphLink, Double> getWeights(JavaCallGraph callGraph,
+			List<CallGraphLink> removed) {
+		Map<CallGraphLink, Double> weights =
+			new HashMap<CallGraphLink, Double>();
+		for (CallGraphLink link : callGraph.getJungGraph().getEdges()) {
+			if (!removed.contains(link)) {
+				weights.put(link, link.getWeightValue());
+			}
+		}
+		return weights;
+	}
+
+}
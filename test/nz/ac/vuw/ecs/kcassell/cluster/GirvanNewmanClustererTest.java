@@ -0,0 +1,189 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.algorithms.cluster.WeakComponentClusterer;
+import edu.uci.ics.jung.algorithms.scoring.BetweennessCentrality;
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.UndirectedSparseGraph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+
+public class GirvanNewmanClustererTest extends TestCase {
+
+	/**
+	 * Two triangles joined by a bridge, which has the highest betweenness.
+	 */
+	@Test
+	public void testBridge() {
+		Graph<Integer, Integer> graph = new UndirectedSparseGraph<Integer, Integer>();
+		int edge = 0;
+		graph.addEdge(edge++, 0, 1);
+		graph.addEdge(edge++, 1, 2);
+		graph.addEdge(edge++, 2, 0);
+		graph.addEdge(edge++, 3, 4);
+		graph.addEdge(edge++, 4, 5);
+		graph.addEdge(edge++, 5, 3);
+		int bridge = edge;
+		graph.addEdge(bridge, 2, 3);
+		GirvanNewmanClusterer<Integer, Integer> clusterer =
+			new GirvanNewmanClusterer<Integer, Integer>(graph);
+		assertEquals(9.0, clusterer.getEdgeScore(bridge), 0.0);
+		assertEquals(1, clusterer.getNumClusters(0));
+
+		clusterer.removeEdges(1);
+		assertEquals(Integer.valueOf(bridge), clusterer.getEdgesRemoved(1).get(0));
+		assertEquals(2, clusterer.getNumClusters(1));
+		Set<Set<Integer>> clusters = clusterer.getClusters(1);
+		assertEquals(2, clusters.size());
+		for (Set<Integer> cluster : clusters) {
+			assertEquals(3, cluster.size());
+		}
+		assertEquals(1, clusterer.getClusters(0).size());
+		// The graph itself is untouched
+		assertEquals(7, graph.getEdgeCount());
+	}
+
+	@Test
+	public void testUndirectedAgainstJung() {
+		Random random = new Random(11);
+		for (int trial = 0; trial < 20; trial++) {
+			Graph<Integer, Integer> graph =
+				new UndirectedSparseGraph<Integer, Integer>();
+			fillRandomly(graph, random);
+			checkAgainstJung(graph);
+		}
+	}
+
+	@Test
+	public void testDirectedAgainstJung() {
+		Random random = new Random(13);
+		for (int trial = 0; trial < 20; trial++) {
+			Graph<Integer, Integer> graph =
+				new DirectedSparseGraph<Integer, Integer>();
+			fillRandomly(graph, random);
+			checkAgainstJung(graph);
+		}
+	}
+
+	@Test
+	public void testRemoveTooMany() {
+		Graph<Integer, Integer> graph = new UndirectedSparseGraph<Integer, Integer>();
+		graph.addEdge(0, 0, 1);
+		GirvanNewmanClusterer<Integer, Integer> clusterer =
+			new GirvanNewmanClusterer<Integer, Integer>(graph);
+		clusterer.removeEdges(1);
+		assertNull(clusterer.removeNextEdge());
+		try {
+			clusterer.removeEdges(2);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private void fillRandomly(Graph<Integer, Integer> graph, Random random) {
+		int numVertices = 2 + random.nextInt(15);
+		for (int v = 0; v < numVertices; v++) {
+			graph.addVertex(v);
+		}
+		int numEdges = random.nextInt(3 * numVertices);
+		for (int e = 0; e < numEdges; e++) {
+			int v1 = random.nextInt(numVertices);
+			int v2 = random.nextInt(numVertices);
+			if (v1 != v2 && graph.findEdge(v1, v2) == null) {
+				graph.addEdge(e, v1, v2);
+			}
+		}
+	}
+
+	/**
+	 * After each removal, the betweenness values and clusters should be
+	 * those JUNG calculates for the graph without the removed edges.
+	 */
+	private void checkAgainstJung(Graph<Integer, Integer> graph) {
+		GirvanNewmanClusterer<Integer, Integer> clusterer =
+			new GirvanNewmanClusterer<Integer, Integer>(graph);
+		int numEdges = graph.getEdgeCount();
+
+		for (int k = 0; k <= numEdges; k++) {
+			clusterer.removeEdges(k);
+			List<Integer> removed = clusterer.getEdgesRemoved(k);
+			Graph<Integer, Integer> reduced = copyWithout(graph, removed);
+			BetweennessCentrality<Integer, Integer> jung =
+				new BetweennessCentrality<Integer, Integer>(reduced);
+			for (Integer edge : reduced.getEdges()) {
+				assertEquals(jung.getEdgeScore(edge),
+						clusterer.getEdgeScore(edge), 1e-9);
+			}
+			for (Integer vertex : reduced.getVertices()) {
+				assertEquals(jung.getVertexScore(vertex),
+						clusterer.getVertexScore(vertex), 1e-9);
+			}
+			Set<Set<Integer>> expected =
+				new WeakComponentClusterer<Integer, Integer>().transform(reduced);
+			assertEquals(expected, clusterer.getClusters(k));
+			assertEquals(expected.size(), clusterer.getNumClusters(k));
+		}
+	}
+
+	private Graph<Integer, Integer> copyWithout(Graph<Integer, Integer> graph,
+			List<Integer> removed) {
+		Graph<Integer, Integer> copy = null;
+		if (graph.getDefaultEdgeType() == EdgeType.DIRECTED) {
+			copy = new DirectedSparseGraph<Integer, Integer>();
+		} else {
+			copy = new UndirectedSparseGraph<Integer, Integer>();
+		}
+		for (Integer vertex : graph.getVertices()) {
+			copy.addVertex(vertex);
+		}
+		for (Integer edge : graph.getEdges()) {
+			if (!removed.contains(edge)) {
+				Pair<Integer> ends = graph.getEndpoints(edge);
+				copy.addEdge(edge, ends.getFirst(), ends.getSecond());
+			}
+		}
+		return copy;
+	}
+
+}
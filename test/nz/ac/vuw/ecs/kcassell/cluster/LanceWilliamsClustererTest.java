@@ -0,0 +1,206 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
+
+import org.junit.Test;
+
+public class LanceWilliamsClustererTest extends TestCase {
+
+	private static final int NUM_MEMBERS = 40;
+
+	/**
+	 * Looks up distances in a fixed, randomly generated symmetric table.
+	 */
+	static class TableCalculator
+	implements DistanceCalculatorIfc<String> {
+		private Map<String, Integer> indices = new HashMap<String, Integer>();
+		private double[][] table = null;
+
+		TableCalculator(List<String> names, long seed, int levels) {
+			Random random = new Random(seed);
+			int size = names.size();
+			table = new double[size][size];
+			for (int i = 0; i < size; i++) {
+				indices.put(names.get(i), i);
+				for (int j = 0; j < i; j++) {
+					// A small number of levels produces lots of ties
+					double distance = (levels > 0)
+						? random.nextInt(levels) / (double)levels
+						: random.nextDouble();
+					table[i][j] = distance;
+					table[j][i] = distance;
+				}
+			}
+		}
+
+		public Number calculateDistance(String name1, String name2) {
+			return table[indices.get(name1)][indices.get(name2)];
+		}
+
+		public DistanceCalculatorEnum getType() {
+			return DistanceCalculatorEnum.Simon;
+		}
+
+		public boolean isThreadSafe() {
+			return true;
+		}
+
+		public DistanceCalculatorIfc<String> copyForThread() {
+			return this;
+		}
+	}
+
+	static List<String> createNames() {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < NUM_MEMBERS; i++) {
+			names.add("member" + i);
+		}
+		return names;
+	}
+
+	/**
+	 * Checks that both clusterers created identically named clusters
+	 * with the same elements at the same distances.
+	 */
+	private void assertSameHistory(MatrixBasedAgglomerativeClusterer expected,
+			MatrixBasedAgglomerativeClusterer actual) {
+		HashMap<String, MemberCluster> expectedHistory =
+			expected.getClusterHistory();
+		HashMap<String, MemberCluster> actualHistory =
+			actual.getClusterHistory();
+		assertEquals(expectedHistory.keySet(), actualHistory.keySet());
+
+		for (String name : expectedHistory.keySet()) {
+			MemberCluster expectedCluster = expectedHistory.get(name);
+			MemberCluster actualCluster = actualHistory.get(name);
+			if (expectedCluster == null) {
+				assertNull(actualCluster);
+			} else {
+				assertEquals(expectedCluster.getElements(),
+						actualCluster.getElements());
+				assertEquals(expectedCluster.getDistance(),
+						actualCluster.getDistance(), 1e-9);
+			}
+		}
+	}
+
+	private void compareWithMatrixBased(String linkage, int levels) {
+		List<String> names = createNames();
+		for (long seed = 0; seed < 5; seed++) {
+			TableCalculator calc = new TableCalculator(names, seed, levels);
+			MatrixBasedAgglomerativeClusterer expected =
+				new MatrixBasedAgglomerativeClusterer(names, calc, linkage);
+			LanceWilliamsClusterer actual =
+				new LanceWilliamsClusterer(names, calc, linkage);
+			MemberCluster expectedCluster = expected.getSingleCluster();
+			MemberCluster actualCluster = actual.getSingleCluster();
+			assertEquals(expectedCluster.getClusterName(),
+					actualCluster.getClusterName());
+			assertEquals(NUM_MEMBERS, actualCluster.getElementCount());
+			assertSameHistory(expected, actual);
+		}
+	}
+
+	@Test
+	public void testSingleLink() {
+		compareWithMatrixBased(ClusterCombinationEnum.SINGLE_LINK.toString(), 8);
+	}
+
+	@Test
+	public void testCompleteLink() {
+		compareWithMatrixBased(ClusterCombinationEnum.COMPLETE_LINK.toString(), 8);
+	}
+
+	@Test
+	public void testAverageLink() {
+		compareWithMatrixBased(ClusterCombinationEnum.AVERAGE_LINK.toString(), 0);
+	}
+
+	@Test
+	public void testBaseMatrix() {
+		List<String> names = createNames();
+		TableCalculator calc = new TableCalculator(names, 7, 8);
+		String linkage = ClusterCombinationEnum.COMPLETE_LINK.toString();
+		DistanceMatrix<String> baseMatrix =
+			MatrixBasedAgglomerativeClusterer.buildBaseMatrix(names, calc,
+					linkage, 1);
+		MatrixBasedAgglomerativeClusterer expected =
+			new MatrixBasedAgglomerativeClusterer(names, calc, linkage);
+		LanceWilliamsClusterer actual =
+			new LanceWilliamsClusterer(baseMatrix, calc, linkage);
+		expected.getSingleCluster();
+		actual.getSingleCluster();
+		assertSameHistory(expected, actual);
+	}
+
+	@Test
+	public void testCluster() {
+		List<String> names = createNames();
+		TableCalculator calc = new TableCalculator(names, 42, 0);
+		String linkage = ClusterCombinationEnum.AVERAGE_LINK.toString();
+		MatrixBasedAgglomerativeClusterer expected =
+			new MatrixBasedAgglomerativeClusterer(names, calc, linkage);
+		LanceWilliamsClusterer actual =
+			new LanceWilliamsClusterer(names, calc, linkage);
+		expected.cluster(NUM_MEMBERS - 5);
+		Collection<String> clusters = actual.cluster(NUM_MEMBERS - 5);
+		assertEquals(5, clusters.size());
+		assertEquals(new ArrayList<String>(expected.getClusters()),
+				new ArrayList<String>(clusters));
+		assertEquals(5, actual.getMemberClusters().size());
+
+		for (String name1 : clusters) {
+			for (String name2 : clusters) {
+				if (!name1.equals(name2)) {
+					assertEquals(
+						expected.getDistanceMatrix().getDistance(name1, name2).doubleValue(),
+						actual.getDistanceMatrix().getDistance(name1, name2).doubleValue(),
+						1e-9);
+				}
+			}
+		}
+	}
+
+}
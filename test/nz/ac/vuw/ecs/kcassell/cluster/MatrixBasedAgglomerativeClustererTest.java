@@ -39,6 +39,7 @@ import java.util.List;
 import java.util.Set;
 
 import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.similarity.BatchDistanceCalculatorIfc;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
@@ -86,6 +87,14 @@ public class MatrixBasedAgglomerativeClustererTest extends TestCase {
 			public DistanceCalculatorEnum getType() {
 				return null;
 			}
+
+			public boolean isThreadSafe() {
+				return true;
+			}
+
+			public DistanceCalculatorIfc<String> copyForThread() {
+				return this;
+			}
 	};
 	
 	@Before
@@ -276,6 +285,68 @@ public class MatrixBasedAgglomerativeClustererTest extends TestCase {
 		assertEquals(0.25, clusterer.calculateDistance("123a567", "cluster1"));
 	}
 
+	/**
+	 * Counts the rows and pairs it is asked for, so tests can tell
+	 * which path the matrix was filled by.
+	 */
+	private static class CountingBatchCalculator
+	implements BatchDistanceCalculatorIfc<String> {
+		int rows = 0;
+		int pairs = 0;
+
+		public void calculateRow(String obj1, List<String> others,
+				double[] distances) {
+			rows++;
+			for (int i = 0; i < others.size(); i++) {
+				distances[i] =
+					calc.calculateDistance(obj1, others.get(i)).doubleValue();
+			}
+		}
+
+		public Number calculateDistance(String obj1, String obj2) {
+			pairs++;
+			return calc.calculateDistance(obj1, obj2);
+		}
+
+		public DistanceCalculatorEnum getType() {
+			return null;
+		}
+
+		public boolean isThreadSafe() {
+			return true;
+		}
+
+		public DistanceCalculatorIfc<String> copyForThread() {
+			return this;
+		}
+	}
+
+	@Test
+	public void testBatchRows() {
+		List<String> headers = new ArrayList<String>();
+		headers.add(A0);
+		headers.add(A4);
+		headers.add(B1);
+		CountingBatchCalculator batchCalc = new CountingBatchCalculator();
+		clusterer = new MatrixBasedAgglomerativeClusterer(headers, batchCalc,
+				ClusterCombinationEnum.SINGLE_LINK.toString());
+		assertEquals(headers.size(), batchCalc.rows);
+		assertEquals(0, batchCalc.pairs);
+		assertEquals(3.0, clusterer.getDistanceMatrix().getDistance(A4, B1));
+
+		// Once a cluster is involved, the distances are calculated a
+		// pair at a time
+		clusterer.clusterOnce();
+		batchCalc.rows = 0;
+		MatrixBasedAgglomerativeClusterer.BoundedDistanceCalculator bounded =
+			clusterer.new BoundedDistanceCalculator(batchCalc);
+		double[] distances = new double[2];
+		bounded.calculateRow(B1, clusterer.getDistanceMatrix().getHeaders(),
+				distances);
+		assertEquals(0, batchCalc.rows);
+		assertTrue(batchCalc.pairs > 0);
+	}
+
 	@Test
 	public void testClusterOnce() {
 		clusterer.clusterOnce();
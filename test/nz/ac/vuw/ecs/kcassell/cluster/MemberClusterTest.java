@@ -33,6 +33,9 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.cluster;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 
@@ -380,6 +383,54 @@ public class MemberClusterTest extends TestCase {
         assertEquals("5,3(2),2", sizesToString);
     }
 
+    @Test
+    public void testElementArray()
+    {
+        Vector<String> fieldVec = new Vector<String>();
+        fieldVec.add("field1");
+        fieldVec.add("field2");
+        fieldVec.add("field3");
+        MemberCluster clusterFields = new MemberCluster();
+        clusterFields.setClusterName("3fields");
+        clusterFields.addElements(fieldVec);
+        Vector<String> methodVec = new Vector<String>();
+        methodVec.add("method1");
+        methodVec.add("method2");
+        MemberCluster clusterMethods = new MemberCluster();
+        clusterMethods.setClusterName("2methods");
+        clusterMethods.addElements(methodVec);
+        MemberCluster topCluster = new MemberCluster();
+        topCluster.addCluster(clusterFields);
+        topCluster.addCluster(clusterMethods);
 
+        // Each subcluster's elements are contiguous in dendrogram order
+        String[] elements = topCluster.getElementArray();
+        assertEquals(5, elements.length);
+        List<String> elementList = Arrays.asList(elements);
+        assertTrue(Collections.indexOfSubList(elementList,
+        		Arrays.asList(clusterFields.getElementArray())) >= 0);
+        assertTrue(Collections.indexOfSubList(elementList,
+        		Arrays.asList(clusterMethods.getElementArray())) >= 0);
+
+        // The membership is computed once and shared
+        assertSame(elements, topCluster.getElementArray());
+        Set<String> elementSet = topCluster.getElements();
+        assertSame(elementSet, topCluster.getElements());
+        int[] indices = topCluster.getElementIndices(null);
+        assertSame(indices, topCluster.getElementIndices(null));
+        assertEquals(-1, indices[0]);
+        try {
+            elementSet.add("method3");
+            fail("The shared elements should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // Changing the cluster recomputes the membership
+        topCluster.addElement("method3");
+        assertEquals(6, topCluster.getElementArray().length);
+        assertTrue(topCluster.getElements().contains("method3"));
+        assertEquals(6, topCluster.getElementIndices(null).length);
+    }
 
 }
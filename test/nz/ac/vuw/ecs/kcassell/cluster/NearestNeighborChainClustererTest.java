@@ -0,0 +1,162 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.cluster.LanceWilliamsClustererTest.TableCalculator;
+
+import org.junit.Test;
+
+public class NearestNeighborChainClustererTest extends TestCase {
+
+	private static final int NUM_MEMBERS = 40;
+
+	/**
+	 * With distinct distances, both clusterers should create identically
+	 * named clusters with the same elements at the same distances.
+	 */
+	private void compareWithMatrixBased(String linkage) {
+		List<String> names = LanceWilliamsClustererTest.createNames();
+		for (long seed = 0; seed < 5; seed++) {
+			TableCalculator calc = new TableCalculator(names, seed, 0);
+			MatrixBasedAgglomerativeClusterer expected =
+				new MatrixBasedAgglomerativeClusterer(names, calc, linkage);
+			NearestNeighborChainClusterer actual =
+				new NearestNeighborChainClusterer(names, calc, linkage);
+			MemberCluster expectedCluster = expected.getSingleCluster();
+			MemberCluster actualCluster = actual.getSingleCluster();
+			assertEquals(expectedCluster.getClusterName(),
+					actualCluster.getClusterName());
+			assertEquals(NUM_MEMBERS, actualCluster.getElementCount());
+
+			HashMap<String, MemberCluster> expectedHistory =
+				expected.getClusterHistory();
+			HashMap<String, MemberCluster> actualHistory =
+				actual.getClusterHistory();
+			assertEquals(expectedHistory.keySet(), actualHistory.keySet());
+			for (String name : expectedHistory.keySet()) {
+				MemberCluster expectedChild = expectedHistory.get(name);
+				MemberCluster actualChild = actualHistory.get(name);
+				if (expectedChild == null) {
+					assertNull(actualChild);
+				} else {
+					assertEquals(expectedChild.getElements(),
+							actualChild.getElements());
+					assertEquals(expectedChild.getDistance(),
+							actualChild.getDistance(), 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSingleLink() {
+		compareWithMatrixBased(ClusterCombinationEnum.SINGLE_LINK.toString());
+	}
+
+	@Test
+	public void testCompleteLink() {
+		compareWithMatrixBased(ClusterCombinationEnum.COMPLETE_LINK.toString());
+	}
+
+	@Test
+	public void testAverageLink() {
+		compareWithMatrixBased(ClusterCombinationEnum.AVERAGE_LINK.toString());
+	}
+
+	/**
+	 * With lots of ties the tree may differ from the greedy one, but it
+	 * must still contain everything, and no cluster may be closer than
+	 * the clusters it contains.
+	 */
+	@Test
+	public void testTies() {
+		List<String> names = LanceWilliamsClustererTest.createNames();
+		for (ClusterCombinationEnum linkage : ClusterCombinationEnum.values()) {
+			TableCalculator calc = new TableCalculator(names, 7, 4);
+			NearestNeighborChainClusterer clusterer =
+				new NearestNeighborChainClusterer(names, calc,
+						linkage.toString());
+			MemberCluster cluster = clusterer.getSingleCluster();
+			assertEquals(NUM_MEMBERS, cluster.getElementCount());
+			assertEquals(NUM_MEMBERS - 1,
+					clusterer.getClusterHistory().size() - NUM_MEMBERS);
+			for (MemberCluster parent
+					: clusterer.getClusterHistory().values()) {
+				if (parent != null) {
+					for (Object child : parent.getChildren()) {
+						if (child instanceof MemberCluster) {
+							assertTrue(((MemberCluster)child).getDistance()
+									<= parent.getDistance());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCluster() {
+		List<String> names = LanceWilliamsClustererTest.createNames();
+		TableCalculator calc = new TableCalculator(names, 42, 0);
+		String linkage = ClusterCombinationEnum.COMPLETE_LINK.toString();
+		MatrixBasedAgglomerativeClusterer expected =
+			new MatrixBasedAgglomerativeClusterer(names, calc, linkage);
+		NearestNeighborChainClusterer actual =
+			new NearestNeighborChainClusterer(names, calc, linkage);
+		expected.cluster(NUM_MEMBERS - 5);
+		assertEquals(new ArrayList<String>(names),
+				new ArrayList<String>(actual.getClusters()));
+		assertEquals(new ArrayList<String>(expected.getClusters()),
+				new ArrayList<String>(actual.cluster(NUM_MEMBERS - 5)));
+		assertEquals(5, actual.getMemberClusters().size());
+		assertEquals(1, actual.cluster(NUM_MEMBERS).size());
+	}
+
+	@Test
+	public void testTrivial() {
+		List<String> names = new ArrayList<String>();
+		names.add("only");
+		NearestNeighborChainClusterer clusterer =
+			new NearestNeighborChainClusterer(names,
+					new TableCalculator(names, 0, 0),
+					ClusterCombinationEnum.SINGLE_LINK.toString());
+		assertNull(clusterer.getSingleCluster());
+		assertEquals(1, clusterer.getClusters().size());
+	}
+
+}
@@ -0,0 +1,178 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.fpgrowth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.ItemSupportList;
+
+import org.junit.Test;
+
+public class CompactFPGrowthMinerTest extends TestCase {
+
+	/**
+	 * @return the transactions used in Han's paper.
+	 */
+	private static Collection<ItemSupportList> getTransactionsHan() {
+		Collection<ItemSupportList> transactions =
+			new ArrayList<ItemSupportList>();
+		transactions.add(transaction("t100", "f", "a", "c", "d", "g", "i",
+				"m", "p"));
+		transactions.add(transaction("t200", "a", "b", "c", "f", "l", "m",
+				"o"));
+		transactions.add(transaction("t300", "b", "f", "h", "j", "o"));
+		transactions.add(transaction("t400", "b", "c", "k", "s", "p"));
+		transactions.add(transaction("t500", "a", "f", "c", "e", "l", "p",
+				"m", "n"));
+		return transactions;
+	}
+
+	private static ItemSupportList transaction(String name, String... items) {
+		return new ItemSupportList(name, Arrays.asList(items), null);
+	}
+
+	@Test
+	public void testMine() {
+		CompactFPGrowthMiner miner = new CompactFPGrowthMiner();
+		Collection<ItemSupportList> combos =
+			miner.mine(getTransactionsHan(), 3, 1);
+		String resultString = ItemSupportList.patternsToString(combos);
+		assertEquals(18, combos.size());
+		assertTrue(resultString.contains("[p]: 3.0"));
+		assertTrue(resultString.contains("[c, p]: 3.0"));
+		assertTrue(resultString.contains("[m]: 3.0"));
+		assertTrue(resultString.contains("[a, m]: 3.0"));
+		assertTrue(resultString.contains("[c, a, m]: 3.0"));
+		assertTrue(resultString.contains("[c, f, a, m]: 3.0"));
+		assertTrue(resultString.contains("[f, a, m]: 3.0"));
+		assertTrue(resultString.contains("[c, m]: 3.0"));
+		assertTrue(resultString.contains("[c, f, m]: 3.0"));
+		assertTrue(resultString.contains("[f, m]: 3.0"));
+		assertTrue(resultString.contains("[b]: 3.0"));
+		assertTrue(resultString.contains("[a]: 3.0"));
+		assertTrue(resultString.contains("[c, a]: 3.0"));
+		assertTrue(resultString.contains("[c, f, a]: 3.0"));
+		assertTrue(resultString.contains("[f, a]: 3.0"));
+		assertTrue(resultString.contains("[f]: 4.0"));
+		assertTrue(resultString.contains("[c, f]: 3.0"));
+		assertTrue(resultString.contains("[c]: 4.0"));
+
+		combos = miner.mine(getTransactionsHan(), 4, 1);
+		resultString = ItemSupportList.patternsToString(combos);
+		assertEquals(2, combos.size());
+		assertTrue(resultString.contains("[f]: 4.0"));
+		assertTrue(resultString.contains("[c]: 4.0"));
+		assertEquals(Arrays.asList("c", "f"), miner.getFrequentItems());
+	}
+
+	@Test
+	public void testMineNothingFrequent() {
+		CompactFPGrowthMiner miner = new CompactFPGrowthMiner();
+		Collection<ItemSupportList> combos =
+			miner.mine(getTransactionsHan(), 6, 1);
+		assertEquals(0, combos.size());
+		combos = miner.mine(new ArrayList<ItemSupportList>(), 1, 1);
+		assertEquals(0, combos.size());
+	}
+
+	/**
+	 * Compares the mined patterns with a count of every subset of the
+	 * transactions' items, using one and several threads.
+	 */
+	@Test
+	public void testMineMatchesExhaustiveCount() {
+		String[] names = { "m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7",
+				"m8", "m9" };
+		Random random = new Random(25);
+		Collection<ItemSupportList> transactions =
+			new ArrayList<ItemSupportList>();
+		List<Set<String>> itemSets = new ArrayList<Set<String>>();
+		for (int t = 0; t < 40; t++) {
+			Set<String> items = new HashSet<String>();
+			for (int i = 0; i < names.length; i++) {
+				// Make the lower numbered items the more frequent
+				if (random.nextInt(names.length + 2) > i) {
+					items.add(names[i]);
+				}
+			}
+			itemSets.add(items);
+			transactions.add(new ItemSupportList("t" + t, items, null));
+		}
+		int minSupport = 8;
+		Map<Set<String>, Double> expected = new HashMap<Set<String>, Double>();
+		for (int mask = 1; mask < (1 << names.length); mask++) {
+			Set<String> subset = new HashSet<String>();
+			for (int i = 0; i < names.length; i++) {
+				if ((mask & (1 << i)) != 0) {
+					subset.add(names[i]);
+				}
+			}
+			int support = 0;
+			for (Set<String> items : itemSets) {
+				if (items.containsAll(subset)) {
+					support++;
+				}
+			}
+			if (support >= minSupport) {
+				expected.put(subset, support * 1.0);
+			}
+		}
+		assertTrue(expected.size() > 50);
+
+		CompactFPGrowthMiner miner = new CompactFPGrowthMiner();
+		assertEquals(expected, toMap(miner.mine(transactions, minSupport, 1)));
+		assertEquals(expected, toMap(miner.mine(transactions, minSupport, 3)));
+	}
+
+	private static Map<Set<String>, Double> toMap(
+			Collection<ItemSupportList> patterns) {
+		Map<Set<String>, Double> map = new HashMap<Set<String>, Double>();
+		for (ItemSupportList pattern : patterns) {
+			List<String> items = pattern.getItems();
+			Double previous = map.put(new HashSet<String>(items),
+					pattern.getSupport(items.get(0)));
+			assertNull("duplicate pattern " + items, previous);
+		}
+		return map;
+	}
+
+}
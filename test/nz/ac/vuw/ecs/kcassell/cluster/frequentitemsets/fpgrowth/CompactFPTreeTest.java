@@ -0,0 +1,104 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.fpgrowth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class CompactFPTreeTest extends TestCase {
+
+	/** @return the number of nodes on the item's node-link chain */
+	private static int countNodes(CompactFPTree tree, int itemId) {
+		int nodes = 0;
+		for (int node = tree.getFirstNode(itemId);
+				node != CompactFPTree.NONE; node = tree.getNextLink(node)) {
+			assertEquals(itemId, tree.getItem(node));
+			nodes++;
+		}
+		return nodes;
+	}
+
+	@Test
+	public void testInsert() {
+		CompactFPTree tree = new CompactFPTree(3, 2);
+		assertFalse(tree.hasFrequentItems());
+		tree.insert(new int[] { 0, 1, 2 }, 3, 1);
+		assertTrue(tree.hasOneBranch());
+		tree.insert(new int[] { 0, 1, 9 }, 2, 2);
+		assertTrue(tree.hasOneBranch());
+		assertEquals(4, tree.size());
+		assertEquals(3, tree.getItemSupport(0));
+		assertEquals(1, tree.getItemSupport(2));
+
+		tree.insert(new int[] { 0, 2 }, 2, 1);
+		assertFalse(tree.hasOneBranch());
+		assertEquals(5, tree.size());
+		assertEquals(1, countNodes(tree, 0));
+		assertEquals(2, countNodes(tree, 2));
+		int node0 = tree.getFirstNode(0);
+		assertEquals(CompactFPTree.ROOT, tree.getParent(node0));
+		assertEquals(4, tree.getCount(node0));
+	}
+
+	/**
+	 * Uses the tree from Han's paper, with the items c, f, a, b, m, p
+	 * numbered 0 to 5.
+	 */
+	@Test
+	public void testBuildConditionalTree() {
+		CompactFPTree tree = new CompactFPTree(6, 4);
+		tree.insert(new int[] { 0, 1, 2, 4, 5 }, 5, 1);
+		tree.insert(new int[] { 0, 1, 2, 3, 4 }, 5, 1);
+		tree.insert(new int[] { 1, 3 }, 2, 1);
+		tree.insert(new int[] { 0, 3, 5 }, 3, 1);
+		tree.insert(new int[] { 0, 1, 2, 4, 5 }, 5, 1);
+		assertEquals(3, countNodes(tree, 3));
+
+		// m's conditional pattern base is fca:2, fcab:1 - b is dropped
+		int[] pathBuffer = new int[6];
+		CompactFPTree mTree = tree.buildConditionalTree(4, 3, pathBuffer);
+		assertTrue(mTree.hasOneBranch());
+		assertEquals(4, mTree.size());
+		assertEquals(3, mTree.getItemSupport(0));
+		assertEquals(3, mTree.getItemSupport(1));
+		assertEquals(3, mTree.getItemSupport(2));
+		assertEquals(0, mTree.getItemSupport(3));
+
+		// p's conditional pattern base is fcam:2, cb:1 - only c stays
+		CompactFPTree pTree = tree.buildConditionalTree(5, 3, pathBuffer);
+		assertEquals(2, pTree.size());
+		assertEquals(3, pTree.getItemSupport(0));
+	}
+
+}
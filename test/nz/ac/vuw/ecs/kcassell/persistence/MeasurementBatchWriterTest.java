@@ -0,0 +1,217 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.persistence;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.persistence.IDatabaseConstants;
+
+import org.junit.Test;
+
+/**
+ * Runs against an in-memory embedded Derby database.
+ */
+public class MeasurementBatchWriterTest extends TestCase
+implements IDatabaseConstants {
+
+	private static final String DB_URL = "jdbc:derby:memory:extcMeasurements";
+
+	private static final int NUM_TYPES = 1234;
+
+	private Connection connection = null;
+
+	protected void setUp() throws Exception {
+		System.setProperty("derby.stream.error.field", "java.lang.System.err");
+		Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+		connection = DriverManager.getConnection(DB_URL + ";create=true");
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE " + METRIC_VALUES_TABLE.trim() + " ("
+				+ HANDLE_FIELD.trim() + " VARCHAR(1000), "
+				+ ACRONYM_FIELD.trim() + " VARCHAR(20), "
+				+ VALUE_FIELD.trim() + " DOUBLE, "
+				+ USER_PREFERENCES_FOREIGN_KEY.trim() + " INT)");
+		statement.execute("CREATE INDEX metricValuesHandle ON "
+				+ METRIC_VALUES_TABLE.trim() + " (" + HANDLE_FIELD.trim() + ")");
+		statement.close();
+	}
+
+	protected void tearDown() throws Exception {
+		connection.close();
+		try {
+			DriverManager.getConnection(DB_URL + ";drop=true");
+		} catch (SQLException e) {
+			// Derby reports a successful drop with an exception
+		}
+	}
+
+	private static List<SoftwareMeasurement> createMeasurements(
+			double offset) {
+		List<SoftwareMeasurement> measurements =
+			new ArrayList<SoftwareMeasurement>();
+		for (int i = 0; i < NUM_TYPES; i++) {
+			measurements.add(new SoftwareMeasurement("=P/src<p{T" + i
+					+ ".java[T" + i, SoftwareMeasurement.C3V, i + offset, 5));
+		}
+		return measurements;
+	}
+
+	/**
+	 * @return the values in the table, keyed by handle, checking that
+	 * no handle appears twice
+	 */
+	private Map<String, Double> readValues() throws SQLException {
+		Map<String, Double> values = new HashMap<String, Double>();
+		Statement statement = connection.createStatement();
+		ResultSet resultSet = statement.executeQuery("SELECT "
+				+ HANDLE_FIELD.trim() + ", " + VALUE_FIELD.trim()
+				+ " FROM " + METRIC_VALUES_TABLE.trim());
+		while (resultSet.next()) {
+			Double old = values.put(resultSet.getString(1),
+					resultSet.getDouble(2));
+			assertNull(old);
+		}
+		resultSet.close();
+		statement.close();
+		return values;
+	}
+
+	private void checkReplaces(boolean mergeAllowed) throws SQLException {
+		MeasurementBatchWriter writer =
+			new MeasurementBatchWriter(connection, 100, 250);
+		writer.setMergeAllowed(mergeAllowed);
+		assertEquals(NUM_TYPES, writer.write(createMeasurements(0.0)));
+		assertEquals(mergeAllowed, writer.usedMerge());
+		assertEquals(NUM_TYPES, writer.write(createMeasurements(0.5)));
+		assertTrue(writer.getRowsPerSecond() > 0.0);
+
+		Map<String, Double> values = readValues();
+		assertEquals(NUM_TYPES, values.size());
+		for (SoftwareMeasurement measurement : createMeasurements(0.5)) {
+			assertEquals(measurement.getMeasurement(),
+					values.get(measurement.getHandle()));
+		}
+	}
+
+	@Test
+	public void testMergeReplaces() throws SQLException {
+		checkReplaces(true);
+	}
+
+	@Test
+	public void testDeleteInsertReplaces() throws SQLException {
+		checkReplaces(false);
+	}
+
+	/**
+	 * Only the last of several measurements of the same thing is kept.
+	 */
+	@Test
+	public void testDuplicates() throws SQLException {
+		List<SoftwareMeasurement> measurements = createMeasurements(0.0);
+		measurements.addAll(createMeasurements(0.25));
+		MeasurementBatchWriter writer =
+			new MeasurementBatchWriter(connection, 64, 64);
+		writer.setMergeAllowed(false);
+		assertEquals(NUM_TYPES, writer.write(measurements));
+		Map<String, Double> values = readValues();
+		assertEquals(NUM_TYPES, values.size());
+		assertEquals(0.25, values.get(measurements.get(0).getHandle()));
+	}
+
+	/**
+	 * A failure rolls back the chunk in progress, keeping the chunks
+	 * already committed, and is reported.
+	 */
+	@Test
+	public void testFailureKeepsCommittedChunks() throws SQLException {
+		List<SoftwareMeasurement> measurements = createInvalidMeasurements();
+		MeasurementBatchWriter writer =
+			new MeasurementBatchWriter(connection, 100, 200);
+		try {
+			writer.write(measurements);
+			fail("The long handle should have been rejected");
+		} catch (SQLException e) {
+			assertEquals(400, writer.getRowsWritten());
+		}
+		assertEquals(400, readValues().size());
+		assertTrue(connection.getAutoCommit());
+	}
+
+	/**
+	 * The commit interval is rounded up to a whole number of batches.
+	 */
+	@Test
+	public void testCommitIntervalRoundedUp() throws SQLException {
+		assertEquals(300,
+				new MeasurementBatchWriter(connection, 100, 250).commitInterval);
+		assertEquals(100,
+				new MeasurementBatchWriter(connection, 100, 0).commitInterval);
+		assertEquals(5, new MeasurementBatchWriter(connection, 0, 5).commitInterval);
+
+		List<SoftwareMeasurement> measurements = createInvalidMeasurements();
+		MeasurementBatchWriter writer =
+			new MeasurementBatchWriter(connection, 100, 250);
+		try {
+			writer.write(measurements);
+			fail("The long handle should have been rejected");
+		} catch (SQLException e) {
+			assertEquals(300, writer.getRowsWritten());
+		}
+		assertEquals(300, readValues().size());
+	}
+
+	/**
+	 * @return measurements of which the 451st cannot be saved
+	 */
+	private static List<SoftwareMeasurement> createInvalidMeasurements() {
+		List<SoftwareMeasurement> measurements = createMeasurements(0.0);
+		// Too long for the handle column
+		StringBuffer longHandle = new StringBuffer();
+		for (int i = 0; i < 1001; i++) {
+			longHandle.append('x');
+		}
+		measurements.add(450, new SoftwareMeasurement(longHandle.toString(),
+				SoftwareMeasurement.C3V, 1.0, 5));
+		return measurements;
+	}
+
+}
@@ -0,0 +1,221 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import edu.ucla.sspace.common.KACSemanticSpace;
+import edu.ucla.sspace.common.Similarity;
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vsm.VectorSpaceModel;
+
+public class CompactSemanticModelTest extends TestCase {
+
+	private static final String[] DOCUMENTS = {
+		"Shape~getBounds get bound rectangl",
+		"Shape~setBounds~I set bound rectangl width height",
+		"Shape~draw draw graphic",
+		"Shape~getWidth get width",
+		"Shape~\u00e9l\u00e9ment \u00e9l\u00e9ment graphic",
+	};
+
+	private static final long SOURCE_HASH = 0x123456789ABCDEFL;
+
+	private KACSemanticSpace space = null;
+	private Map<String, Integer> handleToDocument = null;
+	private File modelFile = null;
+
+	protected void setUp() throws Exception {
+		space = new VectorSpaceModel();
+		handleToDocument = new HashMap<String, Integer>();
+		for (int i = 0; i < DOCUMENTS.length; i++) {
+			String handle =
+				VectorSpaceModelCalculator.processMemberDocument(
+						space, DOCUMENTS[i]);
+			handleToDocument.put(handle, i);
+		}
+		space.processSpace(System.getProperties());
+		modelFile = File.createTempFile("extc", ".model");
+		modelFile.deleteOnExit();
+		CompactSemanticModel.write(modelFile.getPath(), space,
+				handleToDocument, getDimensionTerms(DOCUMENTS), SOURCE_HASH);
+	}
+
+	/**
+	 * @return the terms of the documents, in the order the vector
+	 * space model numbers them
+	 */
+	private static String[] getDimensionTerms(String[] lines) {
+		LinkedHashSet<String> terms = new LinkedHashSet<String>();
+		for (String line : lines) {
+			MemberDocumentIngester.IngestedDocument document =
+				getDocument(line);
+			for (String term : document.terms) {
+				terms.add(term);
+			}
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	private static MemberDocumentIngester.IngestedDocument getDocument(
+			String line) {
+		MemberDocumentIngester.IngestedDocument document =
+			new MemberDocumentIngester.IngestedDocument();
+		document.text = VectorSpaceModelCalculator.splitMemberDocument(line)[1];
+		MemberDocumentIngester.countTerms(document,
+				new LinkedHashMap<String, int[]>());
+		return document;
+	}
+
+	protected void tearDown() {
+		modelFile.delete();
+	}
+
+	@Test
+	public void testDocumentLookup() throws IOException {
+		CompactSemanticModel model =
+			CompactSemanticModel.open(modelFile.getPath());
+		assertEquals(DOCUMENTS.length, model.getDocumentCount());
+		for (String handle : handleToDocument.keySet()) {
+			int doc = model.getDocumentNumber(handle);
+			assertTrue(doc >= 0);
+			assertEquals(handle, model.getHandle(doc));
+		}
+		assertEquals(-1, model.getDocumentNumber("Shape~missing"));
+		assertEquals(-1, model.getDocumentNumber(null));
+	}
+
+	@Test
+	public void testTermDictionary() throws IOException {
+		CompactSemanticModel model =
+			CompactSemanticModel.open(modelFile.getPath());
+		assertEquals(space.getWords().size(), model.getTermCount());
+		for (String word : space.getWords()) {
+			int index = model.getTermIndex(word);
+			assertTrue(word, index >= 0);
+			assertEquals(word, model.getTerm(index));
+		}
+		assertEquals(-1, model.getTermIndex("nosuchterm"));
+
+		// Each term's dimension holds the term's count in each document
+		for (int i = 0; i < DOCUMENTS.length; i++) {
+			MemberDocumentIngester.IngestedDocument document =
+				getDocument(DOCUMENTS[i]);
+			DoubleVector vector = space.getDocumentVector(i);
+			for (int j = 0; j < document.terms.length; j++) {
+				int index = model.getTermIndex(document.terms[j]);
+				assertEquals(document.terms[j], (double)document.counts[j],
+						vector.get(index));
+			}
+		}
+	}
+
+	@Test
+	public void testSourceHash() throws IOException {
+		CompactSemanticModel model =
+			CompactSemanticModel.open(modelFile.getPath());
+		assertEquals(SOURCE_HASH, model.getSourceHash());
+		File documentsFile = File.createTempFile("extc", ".txt");
+		documentsFile.deleteOnExit();
+		try {
+			long hash = CompactSemanticModel.hashFile(documentsFile.getPath());
+			assertFalse(model.isBuiltFrom(documentsFile.getPath()));
+			assertTrue(CompactSemanticModel.matchesFile(hash,
+					documentsFile.getPath()));
+		} finally {
+			documentsFile.delete();
+		}
+		// Without a documents file, there is nothing to rebuild from
+		assertTrue(model.isBuiltFrom(documentsFile.getPath()));
+	}
+
+	@Test
+	public void testNoTerms() throws IOException {
+		CompactSemanticModel.write(modelFile.getPath(), space,
+				handleToDocument, null, SOURCE_HASH);
+		CompactSemanticModel model =
+			CompactSemanticModel.open(modelFile.getPath());
+		assertEquals(0, model.getTermCount());
+		assertEquals(-1, model.getTermIndex("draw"));
+		assertEquals(DOCUMENTS.length, model.getDocumentCount());
+	}
+
+	@Test
+	public void testCosineSimilarity() throws IOException {
+		CompactSemanticModel model =
+			CompactSemanticModel.open(modelFile.getPath());
+		for (String handle1 : handleToDocument.keySet()) {
+			DoubleVector vector1 =
+				space.getDocumentVector(handleToDocument.get(handle1));
+			int doc1 = model.getDocumentNumber(handle1);
+			for (String handle2 : handleToDocument.keySet()) {
+				DoubleVector vector2 =
+					space.getDocumentVector(handleToDocument.get(handle2));
+				int doc2 = model.getDocumentNumber(handle2);
+				double expected = Similarity.cosineSimilarity(vector1, vector2);
+				assertEquals(handle1 + ", " + handle2, expected,
+						model.cosineSimilarity(doc1, doc2), 1.0E-12);
+			}
+			int[] indices = model.getDocumentIndices(doc1);
+			double[] values = model.getDocumentValues(doc1);
+			assertEquals(indices.length, values.length);
+			for (int i = 0; i < indices.length; i++) {
+				assertEquals(vector1.get(indices[i]), values[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testNotAModel() throws IOException {
+		File file = File.createTempFile("extc", ".model");
+		file.deleteOnExit();
+		try {
+			CompactSemanticModel.open(file.getPath());
+			fail("An empty file is not a model");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			file.delete();
+		}
+	}
+
+}
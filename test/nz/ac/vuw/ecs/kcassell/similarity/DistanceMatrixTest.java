@@ -34,6 +34,7 @@ package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.TestCase;
 import nz.ac.vuw.ecs.kcassell.cluster.Distance;
@@ -92,6 +93,209 @@ public class DistanceMatrixTest extends TestCase {
 				|| (second.equals(A0) || first.equals(B1)));
 	}
 
+	@Test
+	public void testFindNearestIndexed() {
+		matrix.setDistance(A0, A4, 4);
+		matrix.setDistance(A0, B1, 1);
+		matrix.setDistance(A4, B1, 3);
+		matrix.setIndexed(true);
+		Distance<String> nearest = matrix.findNearest();
+		assertEquals(B1, nearest.getFirst());
+		assertEquals(A0, nearest.getSecond());
+		assertEquals(1.0, nearest.getDistance());
+
+		// Pinning the nearest pair, as DisjointClusterer.separateSeeds does
+		matrix.setDistance(A0, B1, RefactoringConstants.MAX_DISTANCE);
+		nearest = matrix.findNearest();
+		assertEquals(B1, nearest.getFirst());
+		assertEquals(A4, nearest.getSecond());
+		assertEquals(3.0, nearest.getDistance());
+	}
+
+	/**
+	 * Randomly updates an indexed and an unindexed matrix and checks that
+	 * they always agree on the nearest pair.
+	 */
+	private void compareIndexedWithUnindexed(boolean isSymmetric) {
+		Random random = new Random(17);
+		List<String> headers = new ArrayList<String>();
+		for (int i = 0; i < 30; i++) {
+			headers.add("m" + i);
+		}
+		DistanceMatrix<String> plain =
+			new DistanceMatrix<String>(headers, false, false, isSymmetric);
+		DistanceMatrix<String> indexed =
+			new DistanceMatrix<String>(headers, true, false, isSymmetric);
+		indexed.setIndexed(true);
+
+		for (int i = 0; i < 3000; i++) {
+			String obj1 = headers.get(random.nextInt(headers.size()));
+			String obj2 = headers.get(random.nextInt(headers.size()));
+			int choice = random.nextInt(10);
+			Number distance = null;
+			if (choice == 0) {
+				distance = RefactoringConstants.MAX_DISTANCE;
+			} else if (choice == 1) {
+				distance = RefactoringConstants.UNKNOWN_DISTANCE;
+			} else {
+				// Few levels, so that there are lots of ties
+				distance = random.nextInt(6) / 5.0;
+			}
+			plain.setDistance(obj1, obj2, distance);
+			indexed.setDistance(obj1, obj2, distance);
+			Distance<String> expected = plain.findNearest();
+			Distance<String> actual = indexed.findNearest();
+			assertEquals(expected.getFirst(), actual.getFirst());
+			assertEquals(expected.getSecond(), actual.getSecond());
+			assertEquals(expected.getDistance(), actual.getDistance());
+		}
+	}
+
+	@Test
+	public void testIndexedSymmetric() {
+		compareIndexedWithUnindexed(true);
+	}
+
+	@Test
+	public void testIndexedAsymmetric() {
+		compareIndexedWithUnindexed(false);
+	}
+
+	@Test
+	public void testPrimitiveAccessors() {
+		matrix.setDistance(0, 1, 0.4);
+		matrix.setDistance(2, 0, 0.1);
+		assertEquals(0.4, matrix.getDistance(1, 0));
+		assertEquals(0.1, matrix.getDistance(0, 2));
+		assertEquals(0.4, matrix.getDistance(A4, A0));
+		assertEquals(0.1, matrix.getDistance(A0, B1));
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE.doubleValue(),
+				matrix.getDistance(1, 2));
+		matrix.setDistance(A4, B1, 0.3);
+		assertEquals(0.3, matrix.getDistance(2, 1));
+	}
+
+	@Test
+	public void testSinglePrecision() {
+		List<String> headers = matrix.getHeaders();
+		DistanceMatrix<String> floats =
+			new DistanceMatrix<String>(headers, true, true);
+		floats.setDistance(A0, A4, 0.25);
+		floats.setDistance(A0, B1, RefactoringConstants.MAX_DISTANCE);
+		assertEquals(0.25, floats.getDistance(A4, A0));
+		assertEquals(RefactoringConstants.MAX_DISTANCE,
+				floats.getDistance(A0, B1));
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE,
+				floats.getDistance(A4, B1));
+		floats.setDistance(A4, B1, 0.1);
+		Distance<String> nearest = floats.findNearest();
+		assertEquals(B1, nearest.getFirst());
+		assertEquals(A4, nearest.getSecond());
+		assertEquals((double)0.1f, nearest.getDistance());
+	}
+
+	@Test
+	public void testPartitionRows() {
+		int[] blockStarts = DistanceMatrix.partitionRows(100, 4);
+		assertEquals(5, blockStarts.length);
+		assertEquals(0, blockStarts[0]);
+		assertEquals(100, blockStarts[4]);
+		// Later rows are longer, so later blocks have fewer of them
+		assertEquals(50, blockStarts[1]);
+		assertEquals(71, blockStarts[2]);
+		assertEquals(87, blockStarts[3]);
+		blockStarts = DistanceMatrix.partitionRows(3, 8);
+		assertEquals(4, blockStarts.length);
+		assertEquals(3, blockStarts[3]);
+	}
+
+	/**
+	 * Fills a matrix serially and in parallel, and checks that all
+	 * the values agree.
+	 */
+	private void compareParallelWithSerial(List<String> headers,
+			DistanceCalculatorIfc<String> calc) {
+		DistanceMatrix<String> serial = new DistanceMatrix<String>(headers);
+		serial.fillMatrix(calc, 1);
+		DistanceMatrix<String> parallel =
+			new DistanceMatrix<String>(headers, true);
+		parallel.fillMatrix(calc, 4);
+		for (int row = 0; row < headers.size(); row++) {
+			for (int col = 0; col <= row; col++) {
+				assertEquals(serial.getDistance(row, col),
+						parallel.getDistance(row, col));
+			}
+		}
+		Distance<String> expected = serial.findNearest();
+		Distance<String> actual = parallel.findNearest();
+		assertEquals(expected.getFirst(), actual.getFirst());
+		assertEquals(expected.getSecond(), actual.getSecond());
+	}
+
+	@Test
+	public void testParallelFillLevenshtein() {
+		Random random = new Random(3);
+		List<String> headers = new ArrayList<String>();
+		for (int i = 0; i < 150; i++) {
+			headers.add("member" + random.nextInt(100000));
+		}
+		compareParallelWithSerial(headers, new LevenshteinDistanceCalculator());
+	}
+
+	/**
+	 * IdentifierDistanceCalculator isn't thread safe, so each thread
+	 * needs its own copy.
+	 */
+	@Test
+	public void testParallelFillIdentifier() {
+		String[] words = { "get", "set", "calculate", "distance", "matrix",
+				"members", "clustering", "running", "stems", "parallel" };
+		Random random = new Random(5);
+		List<String> headers = new ArrayList<String>();
+		for (int i = 0; i < 150; i++) {
+			String word1 = words[random.nextInt(words.length)];
+			String word2 = words[random.nextInt(words.length)];
+			headers.add(word1 + Character.toUpperCase(word2.charAt(0))
+					+ word2.substring(1) + i);
+		}
+		IdentifierDistanceCalculator calc = new IdentifierDistanceCalculator();
+		assertTrue(calc.isThreadSafe());
+		compareParallelWithSerial(headers, calc);
+	}
+
+	/**
+	 * A calculator that can't be copied must only be used on one thread.
+	 */
+	@Test
+	public void testFillUncopyable() {
+		List<String> headers = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			headers.add("m" + i);
+		}
+		final Thread caller = Thread.currentThread();
+		DistanceCalculatorIfc<String> calc = new DistanceCalculatorIfc<String>() {
+			public Number calculateDistance(String obj1, String obj2) {
+				assertSame(caller, Thread.currentThread());
+				return obj1.equals(obj2) ? 0.0 : 1.0;
+			}
+
+			public DistanceCalculatorEnum getType() {
+				return DistanceCalculatorEnum.Levenshtein;
+			}
+
+			public boolean isThreadSafe() {
+				return false;
+			}
+
+			public DistanceCalculatorIfc<String> copyForThread() {
+				return null;
+			}
+		};
+		DistanceMatrix<String> filled = new DistanceMatrix<String>(headers);
+		filled.fillMatrix(calc, 4);
+		assertEquals(1.0, filled.getDistance("m7", "m3"));
+	}
+
 	@Test
 	public void testGetHeaders() {
 		List<String> headers = matrix.getHeaders();
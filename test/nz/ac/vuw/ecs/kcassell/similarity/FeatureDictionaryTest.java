@@ -0,0 +1,86 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+
+import org.junit.Test;
+
+public class FeatureDictionaryTest extends TestCase {
+
+	@Test
+	public void testGetId() {
+		FeatureDictionary dictionary = new FeatureDictionary();
+		assertEquals(0, dictionary.size());
+		assertEquals(0, dictionary.getId("a"));
+		assertEquals(1, dictionary.getId("b"));
+		assertEquals(0, dictionary.getId("a"));
+		assertEquals(2, dictionary.size());
+	}
+
+	@Test
+	public void testGraphDictionary() {
+		JavaCallGraph graph = new JavaCallGraph();
+		graph.createNode("M1");
+		graph.createNode("M2");
+		FeatureDictionary dictionary = new FeatureDictionary(graph);
+		assertEquals(2, dictionary.size());
+		int id1 = dictionary.getId("M1");
+		int id2 = dictionary.getId("M2");
+		assertTrue(id1 != id2);
+		assertTrue(id1 < 2 && id2 < 2);
+		assertEquals(2, dictionary.getId("DefiningClass"));
+	}
+
+	@Test
+	public void testToBitSet() {
+		FeatureDictionary dictionary = new FeatureDictionary();
+		for (int i = 0; i < 70; i++) {
+			dictionary.getId("f" + i);
+		}
+		long[] bits = dictionary.toBitSet(Arrays.asList("f0", "f63", "f64"));
+		assertEquals(2, bits.length);
+		assertEquals(1L | (1L << 63), bits[0]);
+		assertEquals(1L, bits[1]);
+
+		bits = dictionary.toBitSet(Arrays.asList("f1", "new"));
+		assertEquals(71, dictionary.size());
+		assertEquals(2, bits.length);
+		assertEquals(2L, bits[0]);
+		assertEquals(1L << 6, bits[1]);
+	}
+
+}
@@ -0,0 +1,137 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class HitCountStoreTest extends TestCase {
+
+	private File file = null;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("extc", ".hits");
+		file.delete();
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+
+	@Test
+	public void testPersistence() throws Exception {
+		HitCountStore store = new HitCountStore(file.getPath());
+		assertNull(store.get("cluster"));
+		store.put("cluster", 42.0);
+		store.put("betweenness cluster", 7.0);
+		store.put("caf\u00e9", 3.0);
+		store.close();
+
+		store = new HitCountStore(file.getPath());
+		assertEquals(3, store.size());
+		assertEquals(42.0, store.get("cluster").doubleValue());
+		assertEquals(7.0, store.get("betweenness cluster").doubleValue());
+		assertEquals(3.0, store.get("caf\u00e9").doubleValue());
+
+		store.clear();
+		assertEquals(0, store.size());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		HitCountStore store = new HitCountStore(file.getPath());
+		int numUpdates = HitCountStore.MIN_RECORDS_TO_COMPACT;
+		for (int i = 1; i <= numUpdates; i++) {
+			store.put("term" + (i % 10), i);
+		}
+		// The log was rewritten, so it can't hold every update
+		assertTrue(store.recordCount < numUpdates);
+		store.close();
+		assertTrue(file.length() < numUpdates * 10);
+
+		store = new HitCountStore(file.getPath());
+		assertEquals(10, store.size());
+		assertEquals((double)numUpdates, store.get("term0").doubleValue());
+		assertEquals((double)numUpdates - 1, store.get("term9").doubleValue());
+	}
+
+	@Test
+	public void testPartialRecord() throws Exception {
+		HitCountStore store = new HitCountStore(file.getPath());
+		store.put("cluster", 42.0);
+		store.put("betweenness", 12.0);
+		store.close();
+		// Lose the end of the last record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(file.length() - 3);
+		raf.close();
+
+		store = new HitCountStore(file.getPath());
+		assertEquals(1, store.size());
+		assertEquals(42.0, store.get("cluster").doubleValue());
+		store.put("betweenness", 12.0);
+		store.close();
+
+		store = new HitCountStore(file.getPath());
+		assertEquals(2, store.size());
+		assertEquals(12.0, store.get("betweenness").doubleValue());
+	}
+
+	@Test
+	public void testImportText() throws Exception {
+		File textFile = File.createTempFile("extc", ".cache");
+		BufferedWriter writer = new BufferedWriter(new FileWriter(textFile));
+		writer.write("betweenness cluster 7.0\n");
+		writer.write("cluster 42.0\n");
+		writer.write("garbage\n");
+		writer.close();
+
+		HitCountStore store = new HitCountStore(file.getPath());
+		store.put("cluster", 40.0);
+		store.importText(textFile.getPath());
+		textFile.delete();
+		assertEquals(2, store.size());
+		assertEquals(7.0, store.get("betweenness cluster").doubleValue());
+		assertEquals(40.0, store.get("cluster").doubleValue());
+		store.close();
+	}
+
+}
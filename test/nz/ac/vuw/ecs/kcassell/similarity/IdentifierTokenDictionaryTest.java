@@ -0,0 +1,83 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class IdentifierTokenDictionaryTest extends TestCase {
+
+	@Test
+	public void testGetTokens() {
+		IdentifierTokenDictionary dictionary = new IdentifierTokenDictionary();
+		String[] tokens = dictionary.getTokens("getURLFor_names");
+		assertEquals(4, tokens.length);
+		assertEquals("get", tokens[0]);
+		assertEquals("URL", tokens[1]);
+		assertEquals("For", tokens[2]);
+		assertEquals("names", tokens[3]);
+		assertSame(tokens, dictionary.getTokens("getURLFor_names"));
+		assertEquals(0, dictionary.getTokens("__").length);
+	}
+
+	@Test
+	public void testGetStemIds() {
+		IdentifierTokenDictionary dictionary = new IdentifierTokenDictionary();
+		int[] ids = dictionary.getStemIds("methodMethods");
+		assertEquals(1, ids.length);
+		assertEquals("method", dictionary.getStem(ids[0]));
+		ids = dictionary.getStemIds("myMethod");
+		assertEquals(2, ids.length);
+		assertTrue(ids[0] < ids[1]);
+		assertEquals(dictionary.getStemId("method"), ids[0]);
+		assertEquals(dictionary.getStemId("my"), ids[1]);
+		assertEquals(2, dictionary.size());
+		assertEquals(0, dictionary.getStemIds("").length);
+	}
+
+	@Test
+	public void testCapacity() {
+		IdentifierTokenDictionary dictionary = new IdentifierTokenDictionary(2);
+		String[] tokens = dictionary.getTokens("oneTwo");
+		String[] tokens2 = dictionary.getTokens("threeFour");
+		assertSame(tokens, dictionary.getTokens("oneTwo"));
+		dictionary.getTokens("fiveSix");
+		// "threeFour" was the least recently used, so it was dropped
+		assertSame(tokens, dictionary.getTokens("oneTwo"));
+		assertNotSame(tokens2, dictionary.getTokens("threeFour"));
+		// The stem ids survive
+		assertEquals(6, dictionary.size());
+	}
+
+}
@@ -0,0 +1,249 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import edu.ucla.sspace.common.KACSemanticSpace;
+import edu.ucla.sspace.common.Similarity;
+import edu.ucla.sspace.vsm.VectorSpaceModel;
+
+public class IncrementalDocumentIndexTest extends TestCase {
+
+	private static final String[] DOCUMENTS = {
+		"Shape~getBounds get bound rectangl",
+		"Shape~setBounds~I set bound rectangl width height",
+		"Shape~draw draw graphic draw",
+		"Shape~getWidth get width",
+		"Shape~toString string",
+	};
+
+	private static final String[] CHANGED_DOCUMENTS = {
+		"Shape~getBounds get bound rectangl",
+		"Shape~setBounds~I set bound rectangl width height",
+		"Shape~draw draw graphic paint",
+		"Shape~getWidth get width",
+		"Shape~getHeight get height",
+	};
+
+	private static final long SOURCE_HASH = 42L;
+
+	private File directory = null;
+	private File documentsFile = null;
+	private File snapshotFile = null;
+	private File logFile = null;
+	private File modelFile = null;
+
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("extc", "");
+		directory.delete();
+		directory.mkdir();
+		documentsFile = new File(directory, "Members.txt");
+		snapshotFile = new File(directory, "VSM.index");
+		logFile = new File(directory, "VSM.delta");
+		modelFile = new File(directory, "VSM.model");
+	}
+
+	protected void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private void writeDocuments(String[] lines) throws IOException {
+		BufferedWriter writer =
+			new BufferedWriter(new FileWriter(documentsFile));
+		for (String line : lines) {
+			writer.write(line);
+			writer.newLine();
+		}
+		writer.close();
+	}
+
+	private IncrementalDocumentIndex loadIndex() throws IOException {
+		return IncrementalDocumentIndex.load(snapshotFile.getPath(),
+				logFile.getPath());
+	}
+
+	/**
+	 * Checks that the model written by the index gives the same
+	 * similarities as an S-Space model built from scratch.
+	 */
+	private void checkModel(IncrementalDocumentIndex index, String[] lines)
+	throws IOException {
+		KACSemanticSpace space = new VectorSpaceModel();
+		Map<String, Integer> handleToDocument = new HashMap<String, Integer>();
+		for (int i = 0; i < lines.length; i++) {
+			String handle = VectorSpaceModelCalculator.processMemberDocument(
+					space, lines[i]);
+			handleToDocument.put(handle, i);
+		}
+		space.processSpace(System.getProperties());
+
+		index.writeCompactModel(modelFile.getPath(), SOURCE_HASH);
+		CompactSemanticModel model =
+			CompactSemanticModel.open(modelFile.getPath());
+		assertEquals(lines.length, model.getDocumentCount());
+		assertEquals(space.getWords().size(), model.getTermCount());
+		assertEquals(SOURCE_HASH, model.getSourceHash());
+
+		// Each term's dimension holds the term's count in each document
+		for (String line : lines) {
+			String[] memberDocument =
+				VectorSpaceModelCalculator.splitMemberDocument(line);
+			MemberDocumentIngester.IngestedDocument document =
+				new MemberDocumentIngester.IngestedDocument();
+			document.text = memberDocument[1];
+			MemberDocumentIngester.countTerms(document,
+					new LinkedHashMap<String, int[]>());
+			int doc = model.getDocumentNumber(memberDocument[0]);
+			List<Integer> indices = new ArrayList<Integer>();
+			for (int entry : model.getDocumentIndices(doc)) {
+				indices.add(entry);
+			}
+			double[] values = model.getDocumentValues(doc);
+			assertEquals(document.terms.length, values.length);
+			for (int i = 0; i < document.terms.length; i++) {
+				int dimension = model.getTermIndex(document.terms[i]);
+				assertEquals(document.terms[i], model.getTerm(dimension));
+				assertEquals(document.terms[i], (double)document.counts[i],
+						values[indices.indexOf(dimension)]);
+			}
+		}
+		for (String handle1 : handleToDocument.keySet()) {
+			for (String handle2 : handleToDocument.keySet()) {
+				double expected = Similarity.cosineSimilarity(
+						space.getDocumentVector(handleToDocument.get(handle1)),
+						space.getDocumentVector(handleToDocument.get(handle2)));
+				double actual = model.cosineSimilarity(
+						model.getDocumentNumber(handle1),
+						model.getDocumentNumber(handle2));
+				assertEquals(handle1 + ", " + handle2, expected, actual,
+						1.0E-12);
+			}
+		}
+	}
+
+	@Test
+	public void testInitialIndex() throws IOException {
+		writeDocuments(DOCUMENTS);
+		IncrementalDocumentIndex index = loadIndex();
+		assertEquals(DOCUMENTS.length, index.update(documentsFile.getPath()));
+		assertEquals(DOCUMENTS.length, index.getDocumentCount());
+		assertEquals(2, index.getDocumentFrequency("bound"));
+		assertEquals(1, index.getDocumentFrequency("draw"));
+		checkModel(index, DOCUMENTS);
+		assertEquals(0, index.update(documentsFile.getPath()));
+	}
+
+	@Test
+	public void testIncrementalUpdate() throws IOException {
+		writeDocuments(DOCUMENTS);
+		loadIndex().update(documentsFile.getPath());
+
+		writeDocuments(CHANGED_DOCUMENTS);
+		IncrementalDocumentIndex index = loadIndex();
+		// draw changed, toString removed, getHeight added
+		assertEquals(3, index.update(documentsFile.getPath()));
+		assertFalse(index.contains("Shape~toString"));
+		assertTrue(index.contains("Shape~getHeight"));
+		assertEquals(0, index.getDocumentFrequency("string"));
+		assertEquals(3, index.getDocumentFrequency("get"));
+		assertEquals(2, index.getDocumentFrequency("height"));
+		checkModel(index, CHANGED_DOCUMENTS);
+
+		// The snapshot and log together reproduce the index
+		IncrementalDocumentIndex reloaded = loadIndex();
+		assertEquals(0, reloaded.update(documentsFile.getPath()));
+		assertEquals(CHANGED_DOCUMENTS.length, reloaded.getDocumentCount());
+		assertEquals(2, reloaded.getDocumentFrequency("height"));
+	}
+
+	@Test
+	public void testSave() throws IOException {
+		writeDocuments(DOCUMENTS);
+		IncrementalDocumentIndex index = loadIndex();
+		index.update(documentsFile.getPath());
+		index.save();
+		assertTrue(snapshotFile.exists());
+		assertFalse(logFile.exists());
+
+		writeDocuments(CHANGED_DOCUMENTS);
+		assertEquals(3, loadIndex().update(documentsFile.getPath()));
+		assertTrue(logFile.exists());
+		IncrementalDocumentIndex reloaded = loadIndex();
+		assertEquals(0, reloaded.update(documentsFile.getPath()));
+		checkModel(reloaded, CHANGED_DOCUMENTS);
+	}
+
+	/**
+	 * Members without terms are remembered, so an unchanged file gives
+	 * no changes and nothing more in the log.
+	 */
+	@Test
+	public void testEmptyDocuments() throws IOException {
+		String[] lines = new String[DOCUMENTS.length + 2];
+		System.arraycopy(DOCUMENTS, 0, lines, 0, DOCUMENTS.length);
+		lines[DOCUMENTS.length] = "Shape~count";
+		lines[DOCUMENTS.length + 1] = "Shape~size ";
+		writeDocuments(lines);
+		assertEquals(lines.length, loadIndex().update(documentsFile.getPath()));
+		long logLength = logFile.length();
+
+		IncrementalDocumentIndex index = loadIndex();
+		assertEquals(0, index.update(documentsFile.getPath()));
+		assertEquals(logLength, logFile.length());
+		assertTrue(index.contains("Shape~count"));
+		assertEquals(DOCUMENTS.length, index.getDocumentCount());
+
+		index.writeCompactModel(modelFile.getPath(), SOURCE_HASH);
+		CompactSemanticModel model =
+			CompactSemanticModel.open(modelFile.getPath());
+		assertEquals(DOCUMENTS.length, model.getDocumentCount());
+		assertEquals(-1, model.getDocumentNumber("Shape~count"));
+	}
+
+}
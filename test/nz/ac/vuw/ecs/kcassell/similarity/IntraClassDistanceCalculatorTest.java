@@ -0,0 +1,142 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.ScoreType;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.algorithms.shortestpath.UnweightedShortestPath;
+import edu.uci.ics.jung.graph.Graph;
+
+public class IntraClassDistanceCalculatorTest extends TestCase {
+
+	@Test
+	public void testCalculateDistance() {
+		// a - b - c   d
+		JavaCallGraph graph = new JavaCallGraph();
+		CallGraphNode a = graph.createNode("a");
+		CallGraphNode b = graph.createNode("b");
+		CallGraphNode c = graph.createNode("c");
+		graph.createNode("d");
+		graph.createLink(a, b);
+		graph.createLink(b, c);
+		IntraClassDistanceCalculator calc =
+			new IntraClassDistanceCalculator(graph, 1);
+
+		assertEquals(0.0, calc.calculateDistance("a", "a").doubleValue());
+		// path 1, degrees 1 and 2
+		assertEquals(1.0 + (1 - 2.0 / 3), calc.calculateDistance("a", "b")
+				.doubleValue(), 0.000001);
+		// path 2, degrees 1 and 1
+		assertEquals(2.0, calc.calculateDistance("c", "a").doubleValue(),
+				0.000001);
+		assertEquals(Double.MAX_VALUE, calc.calculateDistance("a", "d")
+				.doubleValue());
+		// The links of the undirected copy of the graph are weighted
+		CallGraphLink ab = calc.undirectedGraph.getJungGraph().findEdge(a, b);
+		assertEquals(calc.calculateDistance("a", "b").doubleValue(),
+				ab.getWeight(ScoreType.BASIC).doubleValue());
+		Map<CallGraphNode, Number> distances = calc.getDistanceMap(c);
+		assertEquals(4, distances.size());
+		assertEquals(2.0, distances.get(a).doubleValue(), 0.000001);
+	}
+
+	/**
+	 * Compares the distances with ones based on JUNG's shortest paths,
+	 * on a graph large enough to be searched by several threads.
+	 */
+	@Test
+	public void testAgainstJung() {
+		Random random = new Random(3);
+		JavaCallGraph graph = new JavaCallGraph();
+		int numNodes = IntraClassDistanceCalculator.MIN_NODES_FOR_THREADS + 44;
+		for (int i = 0; i < numNodes; i++) {
+			graph.createNode("m" + i);
+		}
+		List<CallGraphNode> nodes = graph.getNodes();
+		for (int i = 0; i < numNodes; i++) {
+			CallGraphNode node1 = nodes.get(random.nextInt(numNodes));
+			CallGraphNode node2 = nodes.get(random.nextInt(numNodes));
+			graph.createLink(node1, node2);
+		}
+		IntraClassDistanceCalculator calc =
+			new IntraClassDistanceCalculator(graph, 3);
+
+		JavaCallGraph undirectedGraph = JavaCallGraph.toUndirectedGraph(graph);
+		Graph<CallGraphNode, CallGraphLink> jungGraph =
+			undirectedGraph.getJungGraph();
+		UnweightedShortestPath<CallGraphNode, CallGraphLink> paths =
+			new UnweightedShortestPath<CallGraphNode, CallGraphLink>(jungGraph);
+		for (CallGraphNode node1 : undirectedGraph.getNodes()) {
+			double edgeCount1 = jungGraph.getIncidentEdges(node1).size();
+			for (CallGraphNode node2 : undirectedGraph.getNodes()) {
+				double expected = Double.MAX_VALUE;
+				Number pathLength = paths.getDistance(node1, node2);
+				if (node1.equals(node2)) {
+					expected = 0.0;
+				} else if (pathLength != null) {
+					double edgeCount2 = jungGraph.getIncidentEdges(node2).size();
+					expected = pathLength.doubleValue()
+						+ (1 - 2.0 / (edgeCount1 + edgeCount2));
+				}
+				assertEquals(expected,
+						calc.getDistance(node1, node2).doubleValue(), 0.000001);
+			}
+		}
+	}
+
+	/** A graph whose path table can't be indexed by an int is refused. */
+	@Test
+	public void testTooManyNodes() {
+		JavaCallGraph graph = new JavaCallGraph();
+		for (int i = 0; i <= 46340; i++) {
+			graph.createNode("m" + i);
+		}
+		try {
+			new IntraClassDistanceCalculator(graph, 1);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("46341"));
+		}
+	}
+
+}
@@ -33,6 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.util.HashSet;
+import java.util.Random;
 
 import junit.framework.TestCase;
 import nz.ac.vuw.ecs.kcassell.similarity.JaccardCalculator;
@@ -85,4 +86,35 @@ public class JaccardCalculatorTest extends TestCase
         assertEquals((Double)1.0, similarity);
     }
 
+    @Test
+    public void testCalculateSimilarityBits()
+    {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 200; trial++) {
+            FeatureDictionary dictionary = new FeatureDictionary();
+            HashSet<String> properties1 = new HashSet<String>();
+            HashSet<String> properties2 = new HashSet<String>();
+            int numFeatures = random.nextInt(200);
+            for (int i = 0; i < numFeatures; i++) {
+                if (random.nextInt(3) == 0) {
+                    properties1.add("p" + i);
+                }
+                if (random.nextInt(3) == 0) {
+                    properties2.add("p" + i);
+                }
+            }
+            // the second bit set is created after the dictionary has grown
+            long[] bits1 = dictionary.toBitSet(properties1);
+            long[] bits2 = dictionary.toBitSet(properties2);
+            double expected =
+                JaccardCalculator.calculateSimilarity(properties1, properties2);
+            assertEquals(expected,
+                    JaccardCalculator.calculateSimilarity(bits1, bits2));
+            assertEquals(expected,
+                    JaccardCalculator.calculateSimilarity(bits2, bits1));
+            assertEquals(1.0 - expected,
+                    JaccardCalculator.calculateDistance(bits1, bits2));
+        }
+    }
+
 }
@@ -32,8 +32,10 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.similarity;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 import junit.framework.TestCase;
 import nz.ac.vuw.ecs.kcassell.cluster.MemberCluster;
@@ -83,4 +85,58 @@ public class LevenshteinDistanceCalculatorTest extends TestCase {
 		assertEquals(0.25, calc.calculateNormalizedDistance("123ab456", "123456"));
 	}
 
+	@Test
+	public void testCalculateBoundedDistance() {
+		assertEquals(0.25, calc.calculateDistance("123ab456", "123456", 0.25));
+		assertEquals(1.0, calc.calculateDistance("123ab456", "123456", 0.2));
+		assertEquals(0.75, calc.calculateDistance("12345abc", "abc12345", 0.75));
+		assertEquals(1.0, calc.calculateDistance("12345abc", "abc12345", 0.7));
+		assertEquals(0.0, calc.calculateDistance("ABC", "abc", 0.0));
+		assertEquals(0.0, calc.calculateDistance("", "", 0.5));
+		assertEquals(1.0, calc.calculateDistance("a", "a", -0.5));
+		assertEquals(0.29, calc.calculateDistance(
+				"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+				"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+				0.29), 1.0E-12);
+	}
+
+	@Test
+	public void testCalculateRow() {
+		StringBuffer longName = new StringBuffer("getTheLongestPossibleName");
+		while (longName.length() <= Levenshtein.MAX_PATTERN_LENGTH) {
+			longName.append("AndMore");
+		}
+		List<String> names = Arrays.asList("getName", "setName", "GETNAME",
+				"", null, longName.toString(), "name");
+		double[] distances = new double[names.size()];
+		for (String name1 : names) {
+			calc.calculateRow(name1, names, distances);
+			for (int i = 0; i < names.size(); i++) {
+				assertEquals(calc.calculateDistance(name1, names.get(i))
+						.doubleValue(), distances[i], 1.0E-12);
+			}
+		}
+	}
+
+	@Test
+	public void testCalculateBoundedRow() {
+		StringBuffer longName = new StringBuffer("getTheLongestPossibleName");
+		while (longName.length() <= Levenshtein.MAX_PATTERN_LENGTH) {
+			longName.append("AndMore");
+		}
+		List<String> names = Arrays.asList("getName", "setName", "GETNAME",
+				"", null, longName.toString(), "name", "getNames");
+		double[] bounds = {0.0, 0.125, 0.3, 0.5, 1.0};
+		double[] distances = new double[names.size()];
+		for (double bound : bounds) {
+			for (String name1 : names) {
+				calc.calculateRow(name1, names, distances, bound);
+				for (int i = 0; i < names.size(); i++) {
+					assertEquals(calc.calculateDistance(name1, names.get(i),
+							bound), distances[i], 1.0E-12);
+				}
+			}
+		}
+	}
+
 }
@@ -32,6 +32,8 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.similarity;
 
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 import org.junit.Test;
@@ -53,4 +55,72 @@ public class LevenshteinTest extends TestCase {
 		assertEquals(2, Levenshtein.distance("123ab456", "123456"));
 	}
 
+	/** The full matrix calculation, for comparison. */
+	private static int matrixDistance(String s, String t) {
+		int[][] d = new int[s.length() + 1][t.length() + 1];
+		for (int i = 0; i <= s.length(); i++) {
+			d[i][0] = i;
+		}
+		for (int j = 0; j <= t.length(); j++) {
+			d[0][j] = j;
+		}
+		for (int i = 1; i <= s.length(); i++) {
+			for (int j = 1; j <= t.length(); j++) {
+				int cost = (s.charAt(i - 1) == t.charAt(j - 1)) ? 0 : 1;
+				d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+						d[i - 1][j - 1] + cost);
+			}
+		}
+		return d[s.length()][t.length()];
+	}
+
+	private static String randomString(Random random, int maxLength) {
+		// A small alphabet, including a non-ASCII character, so that
+		// strings have plenty in common
+		String alphabet = "abcdA\u00e9";
+		int length = random.nextInt(maxLength + 1);
+		StringBuffer buf = new StringBuffer();
+		for (int i = 0; i < length; i++) {
+			buf.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return buf.toString();
+	}
+
+	@Test
+	public void testAgainstMatrix() {
+		Random random = new Random(14);
+		// Lengths up to 100 cover the bit-parallel and two-row calculations
+		for (int trial = 0; trial < 2000; trial++) {
+			int maxLength = (trial % 2 == 0) ? 70 : 100;
+			String s = randomString(random, maxLength);
+			String t = randomString(random, maxLength);
+			int expected = matrixDistance(s, t);
+			assertEquals(s + ", " + t, expected, Levenshtein.distance(s, t));
+			int bound = random.nextInt(maxLength);
+			int bounded = Levenshtein.distance(s, t, bound);
+			if (expected <= bound) {
+				assertEquals(expected, bounded);
+			} else {
+				assertEquals(bound + 1, bounded);
+			}
+		}
+	}
+
+	@Test
+	public void testPattern() {
+		String pattern = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_$";
+		assertEquals(Levenshtein.MAX_PATTERN_LENGTH, pattern.length());
+		Levenshtein.Pattern bits = new Levenshtein.Pattern(pattern);
+		assertEquals(0, Levenshtein.distance(bits, pattern, 64));
+		assertEquals(1, Levenshtein.distance(bits, pattern.substring(1), 64));
+		assertEquals(64, Levenshtein.distance(bits, "", 64));
+		assertEquals(3, Levenshtein.distance(bits, "", 2));
+		try {
+			new Levenshtein.Pattern(pattern + "x");
+			fail("Patterns are limited to 64 characters");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 }
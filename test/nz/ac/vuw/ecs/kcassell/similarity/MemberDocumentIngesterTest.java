@@ -0,0 +1,158 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class MemberDocumentIngesterTest extends TestCase {
+
+	/** A word with non-ASCII characters, if the default charset has them. */
+	private static final String WORD =
+		Charset.defaultCharset().newEncoder().canEncode("\u00e9l\u00e9ment")
+		? "\u00e9l\u00e9ment" : "element";
+
+	private File documentsFile = null;
+
+	protected void setUp() throws Exception {
+		documentsFile = File.createTempFile("extc", "Members.txt");
+		documentsFile.deleteOnExit();
+	}
+
+	protected void tearDown() {
+		documentsFile.delete();
+	}
+
+	/**
+	 * Writes a documents file with the given number of members, including
+	 * some lines with CRLF endings, non-ASCII characters and no document.
+	 * Like other member documents files, it is in the default charset.
+	 * @return the lines written
+	 */
+	private List<String> writeDocuments(int numMembers) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		Writer writer = new FileWriter(documentsFile);
+		for (int i = 0; i < numMembers; i++) {
+			String line = null;
+			if (i % 97 == 0) {
+				line = "Shape~member" + i;
+			} else {
+				line = "Shape~member" + i + " get bound rectangl w" + (i % 13)
+					+ " " + WORD + " get";
+			}
+			lines.add(line);
+			writer.write(line);
+			writer.write((i % 5 == 0) ? "\r\n" : "\n");
+		}
+		writer.close();
+		return lines;
+	}
+
+	private List<MemberDocumentIngester.IngestedDocument> ingest(
+			int parallelism) throws IOException {
+		final List<MemberDocumentIngester.IngestedDocument> documents =
+			new ArrayList<MemberDocumentIngester.IngestedDocument>();
+		MemberDocumentIngester ingester =
+			new MemberDocumentIngester(parallelism, true);
+		int numLines = ingester.ingest(documentsFile.getPath(),
+				new MemberDocumentIngester.DocumentHandler() {
+			public void handleDocument(
+					MemberDocumentIngester.IngestedDocument document) {
+				documents.add(document);
+			}
+		});
+		assertEquals(documents.size(), numLines);
+		return documents;
+	}
+
+	private void checkDocuments(List<String> lines,
+			List<MemberDocumentIngester.IngestedDocument> documents) {
+		assertEquals(lines.size(), documents.size());
+		for (int i = 0; i < lines.size(); i++) {
+			String[] expected =
+				VectorSpaceModelCalculator.splitMemberDocument(lines.get(i));
+			MemberDocumentIngester.IngestedDocument document = documents.get(i);
+			assertEquals(expected[0], document.handle);
+			assertEquals(expected[1], document.text);
+			if (document.text == null) {
+				assertNull(document.terms);
+			} else {
+				Map<String, Integer> counts = new HashMap<String, Integer>();
+				for (int t = 0; t < document.terms.length; t++) {
+					counts.put(document.terms[t], document.counts[t]);
+				}
+				assertEquals(5, counts.size());
+				assertEquals(Integer.valueOf(2), counts.get("get"));
+				assertEquals(Integer.valueOf(1), counts.get(WORD));
+			}
+		}
+	}
+
+	@Test
+	public void testSmallFile() throws IOException {
+		List<String> lines = writeDocuments(300);
+		checkDocuments(lines, ingest(1));
+		checkDocuments(lines, ingest(4));
+	}
+
+	@Test
+	public void testLargeFile() throws IOException {
+		// Large enough to be memory-mapped and split among workers
+		List<String> lines = writeDocuments(25000);
+		assertTrue(documentsFile.length() >= MemberDocumentIngester.MAP_THRESHOLD);
+		checkDocuments(lines, ingest(4));
+	}
+
+	@Test
+	public void testNoFinalNewline() throws IOException {
+		Writer writer = new FileWriter(documentsFile);
+		writer.write("Shape~a get\nShape~b set");
+		writer.close();
+		List<MemberDocumentIngester.IngestedDocument> documents = ingest(1);
+		assertEquals(2, documents.size());
+		assertEquals("Shape~b", documents.get(1).handle);
+		assertEquals("set", documents.get(1).text);
+	}
+
+}
@@ -32,7 +32,9 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.similarity;
 
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 
 import junit.framework.TestCase;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
@@ -188,4 +190,45 @@ public class SimonDistanceCalculatorTest extends TestCase
         assertTrue(propM5.contains("M5"));
     }
 
+    @Test
+    public void testCalculateRow()
+    {
+        SimonDistanceCalculator calculator =
+            new SimonDistanceCalculator(graph);
+        List<String> others =
+            Arrays.asList("A1", "A2", "M1", "M4", "M5", "Missing");
+        double[] distances = new double[others.size()];
+        calculator.calculateRow("M4", others, distances);
+
+        for (int i = 0; i < others.size() - 1; i++) {
+            Double expected = calculator.calculateDistance("M4", others.get(i));
+            assertEquals(expected, distances[i]);
+        }
+        assertTrue(Double.isNaN(distances[others.size() - 1]));
+
+        calculator.calculateRow("Missing", others, distances);
+        for (int i = 0; i < others.size(); i++) {
+            assertTrue(Double.isNaN(distances[i]));
+        }
+    }
+
+    @Test
+    public void testFillMatrixBatch()
+    {
+        SimonDistanceCalculator calculator =
+            new SimonDistanceCalculator(graph);
+        List<String> names =
+            Arrays.asList("A1", "A2", "A3", "M1", "M2", "M3", "M4", "M5");
+        DistanceMatrix<String> matrix = new DistanceMatrix<String>(names);
+        matrix.fillMatrix(calculator, 1);
+
+        for (int row = 0; row < names.size(); row++) {
+            for (int col = 0; col < names.size(); col++) {
+                Double expected = calculator.calculateDistance(
+                        names.get(row), names.get(col));
+                assertEquals(expected, matrix.getDistance(row, col));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,167 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import edu.ucla.sspace.common.KACSemanticSpace;
+import edu.ucla.sspace.common.Similarity;
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vsm.VectorSpaceModel;
+
+public class SparseVectorStoreTest extends TestCase {
+
+	private static final String[] DOCUMENTS = {
+		"Shape~getBounds get bound rectangl",
+		"Shape~setBounds~I set bound rectangl width height",
+		"Shape~draw draw graphic",
+		"Shape~getWidth get width",
+		"Shape~getHeight get height",
+		"Shape~fill fill graphic draw",
+		"Shape~toString string",
+	};
+
+	private KACSemanticSpace space = null;
+	private Map<String, Integer> handleToDocument = null;
+
+	protected void setUp() throws Exception {
+		space = new VectorSpaceModel();
+		handleToDocument = new HashMap<String, Integer>();
+		for (int i = 0; i < DOCUMENTS.length; i++) {
+			String handle =
+				VectorSpaceModelCalculator.processMemberDocument(
+						space, DOCUMENTS[i]);
+			handleToDocument.put(handle, i);
+		}
+		space.processSpace(System.getProperties());
+	}
+
+	private double spaceSimilarity(String handle1, String handle2) {
+		DoubleVector vector1 =
+			space.getDocumentVector(handleToDocument.get(handle1));
+		DoubleVector vector2 =
+			space.getDocumentVector(handleToDocument.get(handle2));
+		return Similarity.cosineSimilarity(vector1, vector2);
+	}
+
+	@Test
+	public void testCosineSimilarity() {
+		SparseVectorStore store =
+			new SparseVectorStore(space, handleToDocument);
+		assertEquals(DOCUMENTS.length, store.getDocumentCount());
+		for (String handle1 : handleToDocument.keySet()) {
+			int doc1 = store.getDocumentNumber(handle1);
+			assertEquals(handle1, store.getHandle(doc1));
+			for (String handle2 : handleToDocument.keySet()) {
+				int doc2 = store.getDocumentNumber(handle2);
+				assertEquals(spaceSimilarity(handle1, handle2),
+						store.cosineSimilarity(doc1, doc2), 1.0E-6);
+			}
+		}
+		assertEquals(-1, store.getDocumentNumber("Shape~missing"));
+	}
+
+	@Test
+	public void testNearestMembers() {
+		SparseVectorStore store =
+			new SparseVectorStore(space, handleToDocument);
+		for (String handle : handleToDocument.keySet()) {
+			// Brute force: every other member with a positive similarity
+			List<String> related = new ArrayList<String>();
+			for (String other : handleToDocument.keySet()) {
+				if (!other.equals(handle)
+						&& spaceSimilarity(handle, other) > 0.0) {
+					related.add(other);
+				}
+			}
+			Map<String, Double> nearest =
+				store.nearestMembers(handle, DOCUMENTS.length);
+			assertEquals(handle, related.size(), nearest.size());
+			double previous = 0.0;
+			for (Map.Entry<String, Double> entry : nearest.entrySet()) {
+				assertTrue(related.contains(entry.getKey()));
+				double expected =
+					1.0 - spaceSimilarity(handle, entry.getKey());
+				assertEquals(expected, entry.getValue(), 1.0E-6);
+				assertTrue(entry.getValue() >= previous);
+				previous = entry.getValue();
+			}
+		}
+		Map<String, Double> nearest =
+			store.nearestMembers("Shape~getBounds", 1);
+		assertEquals(1, nearest.size());
+		assertTrue(nearest.containsKey("Shape~setBounds~I"));
+		assertTrue(store.nearestMembers("Shape~toString", 3).isEmpty());
+		assertTrue(store.nearestMembers("Shape~missing", 3).isEmpty());
+	}
+
+	@Test
+	public void testFromCompactModel() throws IOException {
+		File modelFile = File.createTempFile("extc", ".model");
+		modelFile.deleteOnExit();
+		try {
+			CompactSemanticModel.write(modelFile.getPath(), space,
+					handleToDocument, null, 0L);
+			CompactSemanticModel model =
+				CompactSemanticModel.open(modelFile.getPath());
+			SparseVectorStore store = new SparseVectorStore(model);
+			SparseVectorStore spaceStore =
+				new SparseVectorStore(space, handleToDocument);
+			for (String handle1 : handleToDocument.keySet()) {
+				for (String handle2 : handleToDocument.keySet()) {
+					assertEquals(spaceStore.cosineSimilarity(
+								spaceStore.getDocumentNumber(handle1),
+								spaceStore.getDocumentNumber(handle2)),
+							store.cosineSimilarity(
+								store.getDocumentNumber(handle1),
+								store.getDocumentNumber(handle2)),
+							1.0E-6);
+				}
+				assertEquals(spaceStore.nearestMembers(handle1, 3).keySet(),
+						store.nearestMembers(handle1, 3).keySet());
+			}
+		} finally {
+			modelFile.delete();
+		}
+	}
+
+}
@@ -0,0 +1,278 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class WebHitCountProviderTest extends TestCase {
+
+	/**
+	 * A stand-in for the search engine that answers with canned JSON,
+	 * counting the requests made for each term.
+	 */
+	static class CannedSearchServer extends Thread {
+		protected ServerSocket serverSocket;
+		protected Map<String, Double> hitCounts;
+		protected long delay;
+		protected ConcurrentHashMap<String, AtomicInteger> requestCounts =
+			new ConcurrentHashMap<String, AtomicInteger>();
+		protected AtomicInteger active = new AtomicInteger();
+		protected AtomicInteger maxActive = new AtomicInteger();
+
+		CannedSearchServer(Map<String, Double> hitCounts, long delay)
+		throws IOException {
+			this.hitCounts = hitCounts;
+			this.delay = delay;
+			serverSocket = new ServerSocket(0);
+			setDaemon(true);
+		}
+
+		String getSitePrefix() {
+			return "http://localhost:" + serverSocket.getLocalPort()
+				+ "/ysearch/web/v1/";
+		}
+
+		int getRequestCount(String term) {
+			AtomicInteger count = requestCounts.get(term);
+			return (count == null) ? 0 : count.get();
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					final Socket socket = serverSocket.accept();
+					Thread handler = new Thread() {
+						public void run() {
+							respond(socket);
+						}
+					};
+					handler.setDaemon(true);
+					handler.start();
+				}
+			} catch (IOException e) {
+				// the server was closed
+			}
+		}
+
+		protected void respond(Socket socket) {
+			int nowActive = active.incrementAndGet();
+			synchronized (maxActive) {
+				maxActive.set(Math.max(maxActive.get(), nowActive));
+			}
+			try {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(socket.getInputStream(), "UTF-8"));
+				// e.g. GET /ysearch/web/v1/betweenness+cluster?appid=... HTTP/1.1
+				String requestLine = reader.readLine();
+				String line = reader.readLine();
+				while (line != null && line.length() > 0) {
+					line = reader.readLine();
+				}
+				String path = requestLine.split(" ")[1];
+				String encodedTerm = path.substring(path.lastIndexOf('/') + 1,
+						path.indexOf('?'));
+				String term = URLDecoder.decode(encodedTerm, "UTF-8");
+				requestCounts.putIfAbsent(term, new AtomicInteger());
+				requestCounts.get(term).incrementAndGet();
+				Thread.sleep(delay);
+
+				Double count = hitCounts.get(term);
+				String status = "200 OK";
+				String body =
+					"{\"ysearchresponse\":{\"responsecode\":\"200\","
+					+ "\"totalhits\":\"" + count + "\",\"count\":\"0\"}}";
+				if (count == null) {
+					status = "404 Not Found";
+					body = "{}";
+				}
+				byte[] bytes = body.getBytes("UTF-8");
+				OutputStream out = socket.getOutputStream();
+				out.write(("HTTP/1.0 " + status + "\r\n"
+						+ "Content-Type: application/json\r\n"
+						+ "Content-Length: " + bytes.length + "\r\n"
+						+ "Connection: close\r\n\r\n").getBytes("UTF-8"));
+				out.write(bytes);
+				out.flush();
+			} catch (Exception e) {
+				e.printStackTrace();
+			} finally {
+				active.decrementAndGet();
+				try {
+					socket.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+
+	private File file = null;
+	private CannedSearchServer server = null;
+	private WebHitCountProvider provider = null;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("extc", ".hits");
+		file.delete();
+		Map<String, Double> hitCounts = new HashMap<String, Double>();
+		hitCounts.put("cluster", 4200.0);
+		hitCounts.put("betweenness", 120.0);
+		hitCounts.put("betweenness cluster", 70.0);
+		for (int i = 0; i < 8; i++) {
+			hitCounts.put("term" + i, (double)i);
+		}
+		server = new CannedSearchServer(hitCounts, 200);
+		server.start();
+		HitCountStore store = new HitCountStore(file.getPath());
+		provider = new WebHitCountProvider(store, server.getSitePrefix(), 3);
+	}
+
+	protected void tearDown() throws Exception {
+		provider.close();
+		server.close();
+		file.delete();
+	}
+
+	@Test
+	public void testGetHitCount() throws Exception {
+		assertEquals(4200.0, provider.getHitCount("cluster"));
+		assertEquals(70.0, provider.getHitCount("betweenness cluster"));
+		assertEquals(4200.0, provider.getHitCount("cluster"));
+		assertEquals(1, server.getRequestCount("cluster"));
+		assertEquals(1, server.getRequestCount("betweenness cluster"));
+
+		// The counts were saved
+		HitCountStore store = new HitCountStore(file.getPath());
+		assertEquals(4200.0, store.get("cluster").doubleValue());
+		store.close();
+	}
+
+	@Test
+	public void testFailureNotCached() throws Exception {
+		for (int attempt = 1; attempt <= 2; attempt++) {
+			try {
+				provider.getHitCount("unknown");
+				fail("expected an IOException");
+			} catch (IOException e) {
+				assertEquals(attempt, server.getRequestCount("unknown"));
+			}
+		}
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		final List<Double> results = new ArrayList<Double>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 6; i++) {
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						double count = provider.getHitCount("betweenness");
+						synchronized (results) {
+							results.add(count);
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(6, results.size());
+		for (Double result : results) {
+			assertEquals(120.0, result);
+		}
+		assertEquals(1, server.getRequestCount("betweenness"));
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+		List<String> terms = new ArrayList<String>();
+		for (int i = 0; i < 8; i++) {
+			terms.add("term" + i);
+		}
+		terms.add("unknown");
+		provider.prefetch(terms);
+		assertTrue(server.maxActive.get() <= 3);
+		for (int i = 0; i < 8; i++) {
+			assertEquals(1, server.getRequestCount("term" + i));
+			assertEquals((double)i, provider.getHitCount("term" + i));
+			assertEquals(1, server.getRequestCount("term" + i));
+		}
+	}
+
+	@Test
+	public void testGoogleDistance() throws Exception {
+		GoogleDistanceCalculator calculator =
+			new GoogleDistanceCalculator(provider);
+		List<String> terms = new ArrayList<String>();
+		terms.add("cluster");
+		terms.add("betweenness");
+		calculator.prefetch(terms);
+		assertEquals(1, server.getRequestCount("betweenness cluster"));
+
+		double distance =
+			calculator.calculateDistance("cluster", "betweenness");
+		double expected = (Math.log(4200.0) - Math.log(70.0))
+			/ (Math.log(1.0e12) - Math.log(120.0));
+		assertEquals(expected, distance, 0.000001);
+		assertEquals(distance,
+				calculator.calculateDistance("betweenness", "cluster"));
+		assertEquals(1, server.getRequestCount("betweenness cluster"));
+	}
+
+}
@@ -33,6 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.utils;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -88,6 +89,52 @@ public class IdentifierParserTest extends TestCase {
 		assertEquals(3, ids.size());
 		assertEquals("3D", ids.get(0));
 		assertEquals("Monster", ids.get(1));
+		ids = IdentifierParser.parseCamelCaseIdentifier("getUIConstants2");
+		assertEquals(3, ids.size());
+		assertEquals("get", ids.get(0));
+		assertEquals("UI", ids.get(1));
+		assertEquals("Constants2", ids.get(2));
+	}
+
+	@Test
+	public void testParseCamelCaseSpans() {
+		String id = "_getURLForNames2";
+		int[] spans = new int[2 * id.length()];
+		int numTokens = IdentifierParser.parseCamelCaseSpans(id, spans);
+		assertEquals(4, numTokens);
+		assertEquals(1, spans[0]);
+		assertEquals(4, spans[1]);
+		assertEquals("URL", id.substring(spans[2], spans[3]));
+		assertEquals("For", id.substring(spans[4], spans[5]));
+		assertEquals("Names2", id.substring(spans[6], spans[7]));
+		assertEquals(0, IdentifierParser.parseCamelCaseSpans("", spans));
+		assertEquals(0, IdentifierParser.parseCamelCaseSpans("_$.", spans));
+		// Uncased characters can't be represented as spans
+		assertEquals(-1, IdentifierParser.parseCamelCaseSpans("a-b", spans));
+		ArrayList<String> ids = IdentifierParser.parseCamelCaseIdentifier("ab-Cd");
+		assertEquals(1, ids.size());
+		assertEquals("abCd", ids.get(0));
+	}
+
+	/**
+	 * Checks that the span-based splitter agrees with the original
+	 * character-by-character splitter.
+	 */
+	@Test
+	public void testSpansMatchCharacterParse() {
+		String alphabet = "aBcDxYZ09_.$-\u00e9";
+		Random random = new Random(17);
+		for (int n = 0; n < 5000; n++) {
+			StringBuffer buffer = new StringBuffer();
+			int length = random.nextInt(12);
+			for (int i = 0; i < length; i++) {
+				buffer.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			String id = buffer.toString();
+			assertEquals(id,
+					IdentifierParser.parseCamelCaseIdentifierByCharacter(id),
+					IdentifierParser.parseCamelCaseIdentifier(id));
+		}
 	}
 
 }
@@ -0,0 +1,178 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.GroovyTestProject;
+
+import org.eclipse.jdt.core.IField;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.search.IJavaSearchScope;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the single pass indexer against the per-member searches it
+ * replaces.  This needs a workspace, so run it as a JUnit plug-in test.
+ */
+public class TypeReferenceIndexerTest extends TestCase {
+
+	private static final String[] NO_PARAMS = new String[0];
+
+	protected GroovyTestProject testProject = null;
+	protected IType server = null;
+	protected IType client = null;
+	protected IType other = null;
+
+	@Before
+	public void setUp() throws Exception {
+		testProject = new GroovyTestProject("TypeReferenceIndexerTest");
+		server = testProject.createJavaTypeAndPackage("indexed", "Server.java",
+				"public class Server {\n"
+				+ "	private int count;\n"
+				+ "	protected int total = 1;\n"
+				+ "	public Server() { this(0); }\n"
+				+ "	public Server(int count) { this.count = count; }\n"
+				+ "	public int getCount() { return count; }\n"
+				+ "	public void increment() { count++; log(); }\n"
+				+ "	void log() { total = total + getCount(); }\n"
+				+ "	class Inner { void touch() { increment(); } }\n"
+				+ "}\n");
+		client = testProject.createJavaTypeAndPackage("indexed", "Client.java",
+				"public class Client {\n"
+				+ "	private Server server = new Server();\n"
+				+ "	public int read() { return server.getCount(); }\n"
+				+ "	public void bump() { server.increment(); server.increment(); }\n"
+				+ "}\n");
+		other = testProject.createJavaTypeAndPackage("other", "Other.java",
+				"import indexed.Server;\n"
+				+ "public class Other {\n"
+				+ "	public int peek(Server s) { return s.getCount(); }\n"
+				+ "}\n");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		testProject.dispose();
+	}
+
+	private List<IMember> getTargets() throws Exception {
+		List<IMember> targets = new ArrayList<IMember>();
+		targets.addAll(EclipseSearchUtils.getMethods(server, false));
+		targets.addAll(EclipseSearchUtils.getFields(server, false));
+		return targets;
+	}
+
+	@Test
+	public void testTypeScope() throws Exception {
+		IJavaSearchScope scope =
+			SearchEngine.createJavaSearchScope(new IJavaElement[] { server });
+		TypeReferenceIndexer indexer = new TypeReferenceIndexer(getTargets());
+		indexer.indexReferences(server, scope, false);
+		assertEquals(0, indexer.getSearchCount());
+		assertEquals(1, indexer.getWalkedUnitCount());
+
+		IMethod getCount = server.getMethod("getCount", NO_PARAMS);
+		IMethod increment = server.getMethod("increment", NO_PARAMS);
+		IMethod log = server.getMethod("log", NO_PARAMS);
+		IMethod touch = server.getType("Inner").getMethod("touch", NO_PARAMS);
+		IField count = server.getField("count");
+
+		Set<IMethod> callers = indexer.getCallingMethods(getCount);
+		assertEquals(1, callers.size());
+		assertTrue(callers.contains(log));
+		callers = indexer.getCallingMethods(increment);
+		assertEquals(1, callers.size());
+		assertTrue(callers.contains(touch));
+		callers = indexer.getCallingMethods(count);
+		assertEquals(3, callers.size());
+		assertTrue(callers.contains(getCount));
+		assertTrue(callers.contains(increment));
+		assertTrue(callers.contains(
+				server.getMethod("Server", new String[] { "I" })));
+		assertTrue(indexer.getCallingMethods(
+				server.getMethod("Server", NO_PARAMS)).isEmpty());
+	}
+
+	@Test
+	public void testMatchesPerMemberSearch() throws Exception {
+		IJavaSearchScope scope = SearchEngine.createJavaSearchScope(
+				new IJavaElement[] { server.getPackageFragment() });
+		List<IMember> targets = getTargets();
+		TypeReferenceIndexer indexer = new TypeReferenceIndexer(targets);
+		indexer.indexReferences(server, scope, true);
+		assertEquals(1, indexer.getSearchCount());
+		assertEquals(2, indexer.getWalkedUnitCount());
+
+		for (IMember target : targets) {
+			Set<IMethod> expected =
+				EclipseSearchUtils.calculateCallingMethods(target, scope);
+			assertEquals(target.getElementName(), expected,
+					indexer.getCallingMethods(target));
+		}
+		IMethod read = client.getMethod("read", NO_PARAMS);
+		assertTrue(indexer.getCallingMethods(
+				server.getMethod("getCount", NO_PARAMS)).contains(read));
+	}
+
+	@Test
+	public void testCallingClasses() throws Exception {
+		IJavaSearchScope scope =
+			EclipseSearchUtils.createProjectSearchScope(server);
+		List<IMember> targets = getTargets();
+		TypeReferenceIndexer indexer = new TypeReferenceIndexer(targets);
+		indexer.indexReferences(server, scope, true);
+		assertEquals(1, indexer.getSearchCount());
+
+		for (IMember target : targets) {
+			Set<String> expected =
+				EclipseSearchUtils.calculateCallingClasses(target, scope);
+			assertEquals(target.getElementName(), expected,
+					indexer.getCallingClasses(target));
+		}
+		Set<String> clients = indexer.getCallingClasses(
+				server.getMethod("getCount", NO_PARAMS));
+		assertEquals(2, clients.size());
+		assertTrue(clients.contains(client.getHandleIdentifier()));
+		assertTrue(clients.contains(other.getHandleIdentifier()));
+	}
+}